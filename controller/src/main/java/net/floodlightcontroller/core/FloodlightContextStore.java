@@ -18,15 +18,37 @@
 package net.floodlightcontroller.core;
 
 public class FloodlightContextStore<V> {
+
+    /**
+     * A value that is only built when somebody gets it from the store
+     */
+    public interface Deferred<V> {
+        /**
+         * @return the value, built on the first call
+         */
+        public V resolve();
+    }
     
     @SuppressWarnings("unchecked")
     public V get(FloodlightContext bc, String key) {
-        return (V)bc.storage.get(key);
+        Object value = bc.storage.get(key);
+        if (value instanceof Deferred) {
+            return ((Deferred<V>)value).resolve();
+        }
+        return (V)value;
     }
     
     public void put(FloodlightContext bc, String key, V value) {
         bc.storage.put(key, value);
     }
+
+    /**
+     * Store a value that is resolved by the first get()
+     */
+    public void putDeferred(FloodlightContext bc, String key,
+                            Deferred<? extends V> value) {
+        bc.storage.put(key, value);
+    }
     
     public void remove(FloodlightContext bc, String key) {
         bc.storage.remove(key);
@@ -42,6 +42,13 @@ public interface IFloodlightProviderService extends IFloodlightService {
     public static final String CONTEXT_PI_PAYLOAD = 
             "net.floodlightcontroller.core.IFloodlightProvider.piPayload";
 
+    /**
+     * A value stored in the floodlight context containing the undecoded
+     * view of the payload of a packet-in message.
+     */
+    public static final String CONTEXT_PI_VIEW = 
+            "net.floodlightcontroller.core.IFloodlightProvider.piView";
+
     /**
      * The role of the controller as used by the OF 1.2 and OVS failover and
      * load-balancing mechanism.
@@ -55,6 +62,13 @@ public interface IFloodlightProviderService extends IFloodlightService {
     public static final FloodlightContextStore<Ethernet> bcStore = 
             new FloodlightContextStore<Ethernet>();
 
+    /**
+     * A FloodlightContextStore object that can be used to look at the
+     * packet-in payload header fields without decoding it
+     */
+    public static final FloodlightContextStore<PacketInView> pktinViewStore = 
+            new FloodlightContextStore<PacketInView>();
+
     /**
      * Adds an OpenFlow message listener
      * @param type The OFType the component wants to listen for
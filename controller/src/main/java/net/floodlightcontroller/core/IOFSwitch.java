@@ -304,9 +304,15 @@ public interface IOFSwitch {
                             IOFMessageListener caller) throws IOException;
 
     /**
-     * Flush all flows queued for this switch in the current thread.
-     * NOTE: The contract is limited to the current thread
+     * Flush all flows queued for this switch, by any thread.
      */
      public void flush();
 
+    /**
+     * Get the counters of the outbound message queue: batch sizes,
+     * queueing delays and messages still waiting
+     * @return
+     */
+    public Map<String, Object> getWriteQueueStatistics();
+
 }
@@ -0,0 +1,201 @@
+package net.floodlightcontroller.core;
+
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.UDP;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.openflow.protocol.OFPacketIn;
+
+/**
+ * Read-only view over the frame carried by a packet-in. The header
+ * fields are read straight from the packet data when asked for, and
+ * the Ethernet/IPv4/... objects are only built the first time a
+ * listener asks for them, either through getEthernet() or by getting
+ * the {@link #asPayload()} value back from
+ * {@link IFloodlightProviderService#bcStore}.
+ *
+ * Like the floodlight context it lives in, a view is only used by
+ * the thread handling the packet-in.
+ */
+public class PacketInView {
+    protected static final int ETH_HEADER_LENGTH = 14;
+    protected static final int VLAN_TAG_LENGTH = 4;
+    protected static final short TYPE_VLAN = (short) 0x8100;
+
+    protected final byte[] data;
+    protected final int offset;
+    protected final int length;
+
+    /** Offset of the L3 header, and its EtherType */
+    protected final int l3Offset;
+    protected final short etherType;
+
+    protected Ethernet eth;
+
+    protected final FloodlightContextStore.Deferred<Ethernet> payload =
+            new FloodlightContextStore.Deferred<Ethernet>() {
+        @Override
+        public Ethernet resolve() {
+            return getEthernet();
+        }
+    };
+
+    /**
+     * View the payload of a packet-in in place when it is backed by
+     * an array, as it is when read off the switch connection
+     */
+    public static PacketInView of(OFPacketIn pi) {
+        ChannelBuffer data = pi.getPacketDataBuffer();
+        if (data != null && data.hasArray()) {
+            return new PacketInView(data.array(),
+                    data.arrayOffset() + data.readerIndex(),
+                    data.readableBytes());
+        }
+        return new PacketInView(pi.getPacketData());
+    }
+
+    public PacketInView(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    public PacketInView(byte[] data, int offset, int length) {
+        this.data = data;
+        this.offset = offset;
+        this.length = length;
+
+        int l3 = offset + ETH_HEADER_LENGTH;
+        short type = (length >= ETH_HEADER_LENGTH) ? getShort(offset + 12) : 0;
+        if (type == TYPE_VLAN && length >= ETH_HEADER_LENGTH + VLAN_TAG_LENGTH) {
+            type = getShort(offset + 16);
+            l3 += VLAN_TAG_LENGTH;
+        }
+        this.l3Offset = l3;
+        this.etherType = type;
+    }
+
+    protected short getShort(int at) {
+        return (short) (((data[at] & 0xff) << 8) | (data[at + 1] & 0xff));
+    }
+
+    protected long getMAC(int at) {
+        long mac = 0;
+        for (int i = 0; i < 6; i++) {
+            mac = (mac << 8) | (data[at + i] & 0xff);
+        }
+        return mac;
+    }
+
+    protected boolean has(int at, int count) {
+        return at + count <= offset + length;
+    }
+
+    /**
+     * @return the EtherType, the inner one for VLAN tagged frames
+     */
+    public short getEtherType() {
+        return etherType;
+    }
+
+    /**
+     * @return the destination MAC address as a long, 0 for a runt frame
+     */
+    public long getDestinationMAC() {
+        return has(offset, 6) ? getMAC(offset) : 0;
+    }
+
+    /**
+     * @return the source MAC address as a long, 0 for a runt frame
+     */
+    public long getSourceMAC() {
+        return has(offset + 6, 6) ? getMAC(offset + 6) : 0;
+    }
+
+    /**
+     * @return True if the frame is broadcast, as Ethernet.isBroadcast()
+     */
+    public boolean isBroadcast() {
+        return getDestinationMAC() == 0xffffffffffffL;
+    }
+
+    /**
+     * @return True if the frame is multicast, as Ethernet.isMulticast()
+     */
+    public boolean isMulticast() {
+        return !isBroadcast() && has(offset, 1) && (data[offset] & 0x01) != 0;
+    }
+
+    /**
+     * @return the IPv4 protocol number, -1 if not IPv4
+     */
+    public int getIpProtocol() {
+        if (etherType != Ethernet.TYPE_IPv4 || !has(l3Offset, 20))
+            return -1;
+        return data[l3Offset + 9] & 0xff;
+    }
+
+    /**
+     * @return the offset of the L4 header of an IPv4 packet, -1 if none
+     */
+    protected int getL4Offset() {
+        if (getIpProtocol() < 0)
+            return -1;
+        int l4 = l3Offset + (data[l3Offset] & 0x0f) * 4;
+        return has(l4, 4) ? l4 : -1;
+    }
+
+    /**
+     * @return the TCP or UDP source port, -1 if there is none
+     */
+    public int getTransportSourcePort() {
+        int l4 = getL4Offset();
+        return (l4 < 0) ? -1 : getShort(l4) & 0xffff;
+    }
+
+    /**
+     * @return the TCP or UDP destination port, -1 if there is none
+     */
+    public int getTransportDestinationPort() {
+        int l4 = getL4Offset();
+        return (l4 < 0) ? -1 : getShort(l4 + 2) & 0xffff;
+    }
+
+    /**
+     * @return True if UDP.deserialize() would decode the payload as DHCP
+     */
+    public boolean isDhcp() {
+        if (getIpProtocol() != (IPv4.PROTOCOL_UDP & 0xff))
+            return false;
+        int src = getTransportSourcePort();
+        int dst = getTransportDestinationPort();
+        return src == UDP.DHCP_SERVER_PORT || src == UDP.DHCP_CLIENT_PORT
+                || dst == UDP.DHCP_SERVER_PORT || dst == UDP.DHCP_CLIENT_PORT;
+    }
+
+    /**
+     * @return True once the Ethernet object has been built
+     */
+    public boolean isResolved() {
+        return eth != null;
+    }
+
+    /**
+     * @return the payload to store under CONTEXT_PI_PAYLOAD, decoded
+     * by the first bcStore.get()
+     */
+    public FloodlightContextStore.Deferred<Ethernet> asPayload() {
+        return payload;
+    }
+
+    /**
+     * Deserialize the frame, once
+     */
+    public Ethernet getEthernet() {
+        if (eth == null) {
+            Ethernet e = new Ethernet();
+            e.deserialize(data, offset, length);
+            eth = e;
+        }
+        return eth;
+    }
+}
@@ -57,11 +57,11 @@ import net.floodlightcontroller.core.IListener.Command;
 import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.core.IOFSwitchFilter;
 import net.floodlightcontroller.core.IOFSwitchListener;
+import net.floodlightcontroller.core.PacketInView;
 import net.floodlightcontroller.core.internal.OFChannelState.HandshakeState;
 import net.floodlightcontroller.core.util.ListenerDispatcher;
 import net.floodlightcontroller.core.web.CoreWebRoutable;
 import net.floodlightcontroller.counter.ICounterStoreService;
-import net.floodlightcontroller.packet.Ethernet;
 import net.floodlightcontroller.perfmon.IPktInProcessingTimeService;
 import net.floodlightcontroller.restserver.IRestApiService;
 import net.floodlightcontroller.storage.IResultSet;
@@ -170,6 +170,8 @@ public class Controller implements IFloodlightProviderService,
     // Configuration options
     protected int openFlowPort = 6633;
     protected int workerThreads = 0;
+    protected int writeBatchSize = BATCH_MAX_SIZE;
+    protected long writeBatchDelay = BATCH_MAX_DELAY_US;
     // The id for this controller node. Should be unique for each controller
     // node in a controller cluster.
     protected String controllerId = "localhost";
@@ -227,6 +229,7 @@ public class Controller implements IFloodlightProviderService,
     // Perf. related configuration
     protected static final int SEND_BUFFER_SIZE = 4 * 1024 * 1024;
     protected static final int BATCH_MAX_SIZE = 100;
+    protected static final long BATCH_MAX_DELAY_US = 1000;
     protected static final boolean ALWAYS_DECODE_ETH = true;
 
     /**
@@ -420,6 +423,7 @@ public class Controller implements IFloodlightProviderService,
             sw.setChannel(e.getChannel());
             sw.setFloodlightProvider(Controller.this);
             sw.setThreadPoolService(threadPool);
+            sw.setWriteBatchLimits(writeBatchSize, writeBatchDelay);
             
             List<OFMessage> msglist = new ArrayList<OFMessage>(1);
             msglist.add(factory.getMessage(OFType.HELLO));
@@ -499,6 +503,7 @@ public class Controller implements IFloodlightProviderService,
                 @SuppressWarnings("unchecked")
                 List<OFMessage> msglist = (List<OFMessage>)e.getMessage();
 
+                OFSwitchImpl.startMessageTrain();
                 for (OFMessage ofm : msglist) {
                     try {
                         processOFMessage(ofm);
@@ -1088,23 +1093,23 @@ public class Controller implements IFloodlightProviderService,
     protected void handleMessage(IOFSwitch sw, OFMessage m,
                                  FloodlightContext bContext)
             throws IOException {
-        Ethernet eth = null;
+        PacketInView view = null;
 
         switch (m.getType()) {
             case PACKET_IN:
                 OFPacketIn pi = (OFPacketIn)m;
                 
-                if (pi.getPacketData().length <= 0) {
+                if (pi.getPacketDataLength() <= 0) {
                     log.error("Ignoring PacketIn (Xid = " + pi.getXid() + 
                               ") because the data field is empty.");
                     return;
                 }
                 
+                // The frame is only decoded when a listener gets it
+                // from bcStore, the counters just read the header fields
                 if (Controller.ALWAYS_DECODE_ETH) {
-                    eth = new Ethernet();
-                    eth.deserialize(pi.getPacketData(), 0,
-                            pi.getPacketData().length);
-                    counterStore.updatePacketInCounters(sw, m, eth);
+                    view = PacketInView.of(pi);
+                    counterStore.updatePacketInCounters(sw, m, view);
                 }
                 // fall through to default case...
 
@@ -1126,10 +1131,13 @@ public class Controller implements IFloodlightProviderService,
                     } else {
                         bc = bContext;
                     }
-                    if (eth != null) {
-                        IFloodlightProviderService.bcStore.put(bc, 
+                    if (view != null) {
+                        IFloodlightProviderService.bcStore.putDeferred(bc, 
                                 IFloodlightProviderService.CONTEXT_PI_PAYLOAD, 
-                                eth);
+                                view.asPayload());
+                        IFloodlightProviderService.pktinViewStore.put(bc, 
+                                IFloodlightProviderService.CONTEXT_PI_VIEW, 
+                                view);
                     }
                     
                     // Get the starting time (overall and per-component) of 
@@ -1794,6 +1802,16 @@ public class Controller implements IFloodlightProviderService,
             this.workerThreads = Integer.parseInt(threads);
         }
         log.info("Number of worker threads set to {}", this.workerThreads);
+        String batchSize = configParams.get("writebatchsize");
+        if (batchSize != null) {
+            this.writeBatchSize = Integer.parseInt(batchSize);
+        }
+        String batchDelay = configParams.get("writebatchdelayus");
+        if (batchDelay != null) {
+            this.writeBatchDelay = Long.parseLong(batchDelay);
+        }
+        log.info("Switch write batches set to {} messages, {} us",
+                 this.writeBatchSize, this.writeBatchDelay);
         String controllerId = configParams.get("controllerid");
         if (controllerId != null) {
             this.controllerId = controllerId;
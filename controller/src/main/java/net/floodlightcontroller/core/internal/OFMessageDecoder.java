@@ -22,6 +22,7 @@ import java.util.List;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.handler.codec.frame.FrameDecoder;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.factory.BasicFactory;
@@ -29,19 +30,67 @@ import org.openflow.protocol.factory.OFMessageFactory;
 
 /**
  * Decode an openflow message from a Channel, for use in a netty
- * pipeline
+ * pipeline.
+ *
+ * Packet-in/packet-out payloads are slices of the buffer they were
+ * read from. Each read gets a fresh buffer from netty, which nothing
+ * writes to afterwards, so messages are decoded from it in place.
+ * The cumulation buffer FrameDecoder keeps partial messages in is
+ * compacted and refilled by later reads, so complete messages are
+ * copied out of it once before being decoded.
+ * 
  * @author readams
  */
 public class OFMessageDecoder extends FrameDecoder {
 
     OFMessageFactory factory = new BasicFactory();
+
+    /** The buffer of the read being decoded */
+    protected ChannelBuffer input;
+
+    @Override
+    public void messageReceived(ChannelHandlerContext ctx, MessageEvent e)
+            throws Exception {
+        input = (e.getMessage() instanceof ChannelBuffer) ?
+                (ChannelBuffer)e.getMessage() : null;
+        try {
+            super.messageReceived(ctx, e);
+        } finally {
+            input = null;
+        }
+    }
     
     @Override
     protected Object decode(ChannelHandlerContext ctx, Channel channel,
                             ChannelBuffer buffer) throws Exception {
+        if (buffer != input) {
+            int complete = completeLength(buffer);
+            if (complete == 0)
+                return null;
+            buffer = buffer.readBytes(complete);
+        }
         List<OFMessage> message =
             factory.parseMessage(buffer);
         return message;
     }
 
+    /**
+     * @return the number of bytes taken by the complete messages at
+     * the start of the buffer
+     */
+    protected static int completeLength(ChannelBuffer buffer) {
+        int start = buffer.readerIndex();
+        int end = buffer.writerIndex();
+        int at = start;
+        while (end - at >= OFMessage.MINIMUM_LENGTH) {
+            int length = buffer.getUnsignedShort(at + 2);
+            if (length < OFMessage.MINIMUM_LENGTH)
+                return end - start; // let the factory reject it
+            if (length > end - at)
+                break;
+            at += length;
+        }
+        return at - start;
+    }
+
 }
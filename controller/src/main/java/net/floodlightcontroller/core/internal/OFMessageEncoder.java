@@ -17,22 +17,71 @@
 
 package net.floodlightcontroller.core.internal;
 
+import java.util.LinkedList;
 import java.util.List;
 
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
+import org.jboss.netty.channel.ChannelEvent;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.ChannelFutureListener;
 import org.jboss.netty.channel.ChannelHandlerContext;
+import org.jboss.netty.channel.Channels;
+import org.jboss.netty.channel.MessageEvent;
 import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
 import org.openflow.protocol.OFMessage;
 
 /**
  * Encode an openflow message for output into a ChannelBuffer, for use in a
- * netty pipeline
+ * netty pipeline.
+ *
+ * Message lists are encoded into slices of a few buffers the encoder
+ * reuses, rather than into a new buffer each. A slice is handed back
+ * once netty has written it out, and a buffer is reused once all of
+ * its slices have been.
  * @author readams
  */
 public class OFMessageEncoder extends OneToOneEncoder {
 
+    protected static final int CHUNK_SIZE = 64 * 1024;
+    protected static final int MAX_SLICE_SIZE = CHUNK_SIZE / 4;
+    protected static final int MAX_FREE_CHUNKS = 4;
+
+    /**
+     * A pooled buffer, counting its slices netty hasn't written yet
+     */
+    protected class Chunk implements ChannelFutureListener {
+        final ChannelBuffer buffer = ChannelBuffers.buffer(CHUNK_SIZE);
+        int outstanding;
+
+        @Override
+        public void operationComplete(ChannelFuture future) {
+            release(this);
+        }
+    }
+
+    /** The chunk new slices are taken from */
+    protected Chunk chunk;
+    protected final LinkedList<Chunk> free = new LinkedList<Chunk>();
+    protected int allocated;
+
+    @Override
+    public void handleDownstream(ChannelHandlerContext ctx, ChannelEvent evt)
+            throws Exception {
+        if (!(evt instanceof MessageEvent) ||
+            !(((MessageEvent)evt).getMessage() instanceof List)) {
+            super.handleDownstream(ctx, evt);
+            return;
+        }
+
+        MessageEvent e = (MessageEvent)evt;
+        @SuppressWarnings("unchecked")
+        List<OFMessage> msglist = (List<OFMessage>)e.getMessage();
+        ChannelBuffer buf = encode(msglist, e.getFuture());
+        Channels.write(ctx, e.getFuture(), buf, e.getRemoteAddress());
+    }
+
     @Override
     protected Object encode(ChannelHandlerContext ctx, Channel channel,
                             Object msg) throws Exception {
@@ -41,16 +90,86 @@ public class OFMessageEncoder extends OneToOneEncoder {
 
         @SuppressWarnings("unchecked")
         List<OFMessage> msglist = (List<OFMessage>)msg;
-        int size = 0;
+        ChannelBuffer buf = ChannelBuffers.buffer(size(msglist));
         for (OFMessage ofm :  msglist) {
-                size += ofm.getLengthU();
+            ofm.writeTo(buf);
         }
+        return buf;
+    }
 
-        ChannelBuffer buf = ChannelBuffers.buffer(size);;
-        for (OFMessage ofm :  msglist) {
-            ofm.writeTo(buf);
+    /**
+     * Encode the messages into a pooled slice, given back when the
+     * write future completes
+     */
+    protected ChannelBuffer encode(List<OFMessage> msglist, ChannelFuture future) {
+        int size = size(msglist);
+        if (size > MAX_SLICE_SIZE) {
+            ChannelBuffer buf = ChannelBuffers.buffer(size);
+            for (OFMessage ofm :  msglist) {
+                ofm.writeTo(buf);
+            }
+            return buf;
+        }
+
+        Chunk c;
+        ChannelBuffer buf;
+        // Writes may come from any thread, only the reservation
+        // is synchronized
+        synchronized (this) {
+            if (chunk == null || chunk.buffer.writableBytes() < size) {
+                Chunk full = chunk;
+                chunk = free.poll();
+                if (chunk == null) {
+                    chunk = new Chunk();
+                    allocated++;
+                }
+                chunk.buffer.clear();
+                if (full != null && full.outstanding == 0)
+                    recycle(full);
+            }
+            c = chunk;
+            int at = c.buffer.writerIndex();
+            c.buffer.writerIndex(at + size);
+            c.outstanding++;
+            buf = c.buffer.slice(at, size);
+        }
+
+        buf.clear();
+        try {
+            for (OFMessage ofm :  msglist) {
+                ofm.writeTo(buf);
+            }
+        } catch (RuntimeException ex) {
+            release(c);
+            throw ex;
         }
+        future.addListener(c);
         return buf;
     }
 
+    protected synchronized void release(Chunk c) {
+        if (--c.outstanding == 0 && c != chunk)
+            recycle(c);
+    }
+
+    private void recycle(Chunk c) {
+        if (free.size() < MAX_FREE_CHUNKS)
+            free.add(c);
+    }
+
+    /**
+     * @return the number of chunks allocated so far
+     */
+    synchronized int getAllocatedChunks() {
+        return allocated;
+    }
+
+    protected static int size(List<OFMessage> msglist) {
+        int size = 0;
+        for (OFMessage ofm :  msglist) {
+                size += ofm.getLengthU();
+        }
+        return size;
+    }
+
 }
@@ -22,9 +22,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
@@ -104,13 +106,19 @@ public class OFSwitchImpl implements IOFSwitch {
     protected LinkedList<PendingRoleRequestEntry> pendingRoleRequests;
     
     public static IOFSwitchFeatures switchFeatures;
-    protected static final ThreadLocal<Map<OFSwitchImpl,List<OFMessage>>> local_msg_buffer =
-            new ThreadLocal<Map<OFSwitchImpl,List<OFMessage>>>() {
-            @Override
-            protected Map<OFSwitchImpl,List<OFMessage>> initialValue() {
-                return new HashMap<OFSwitchImpl,List<OFMessage>>();
-            }
-    };
+    /**
+     * The switches the current I/O thread queued messages for since its
+     * last flush_all(). Null on the other threads, which never call
+     * flush_all() and rely on the write queue's timed flush instead.
+     */
+    protected static final ThreadLocal<Set<OFSwitchImpl>> local_msg_buffer =
+            new ThreadLocal<Set<OFSwitchImpl>>();
+
+    /**
+     * Outbound FLOW_MOD/PACKET_OUT messages, from whichever thread
+     * wrote them
+     */
+    protected OFWriteQueue writeQueue;
     
     // for managing our map sizes
     protected static final int MAX_MACS_PER_SWITCH  = 1000;
@@ -141,6 +149,13 @@ public class OFSwitchImpl implements IOFSwitch {
         this.listenerLock = new ReentrantReadWriteLock();
         this.portBroadcastCacheHitMap = new ConcurrentHashMap<Short, Long>();
         this.pendingRoleRequests = new LinkedList<OFSwitchImpl.PendingRoleRequestEntry>();
+        this.writeQueue = new OFWriteQueue(Controller.BATCH_MAX_SIZE,
+                                           Controller.BATCH_MAX_DELAY_US) {
+            @Override
+            protected void send(List<OFMessage> batch) {
+                channel.write(batch);
+            }
+        };
         
         // Defaults properties for an ideal switch
         this.setAttribute(PROP_FASTWILDCARDS, (Integer) OFMatch.OFPFW_ALL);
@@ -196,20 +211,22 @@ public class OFSwitchImpl implements IOFSwitch {
                          stringId, new Exception().getStackTrace());
     	    }
     	}
-        Map<OFSwitchImpl,List<OFMessage>> msg_buffer_map = local_msg_buffer.get();
-        List<OFMessage> msg_buffer = msg_buffer_map.get(this);
-        if (msg_buffer == null) {
-            msg_buffer = new ArrayList<OFMessage>();
-            msg_buffer_map.put(this, msg_buffer);
-        }
-
         this.floodlightProvider.handleOutgoingMessage(this, m, bc);
-        msg_buffer.add(m);
+        boolean full = writeQueue.add(m);
 
-        if ((msg_buffer.size() >= Controller.BATCH_MAX_SIZE) ||
+        if (full ||
             ((m.getType() != OFType.PACKET_OUT) && (m.getType() != OFType.FLOW_MOD))) {
-            this.write(msg_buffer);
-            msg_buffer.clear();
+            writeQueue.flush();
+        } else {
+            // Flushed at the end of the message train when written from
+            // an I/O thread, after at most the batch delay otherwise
+            Set<OFSwitchImpl> train = local_msg_buffer.get();
+            if (train != null)
+                train.add(this);
+            if (threadPool != null)
+                writeQueue.scheduleFlush(threadPool.getScheduledExecutor());
+            else if (train == null)
+                writeQueue.flush();
         }
     }
 
@@ -234,7 +251,23 @@ public class OFSwitchImpl implements IOFSwitch {
     }
 
     public void write(List<OFMessage> msglist) throws IOException {
-        this.channel.write(msglist);
+        // Behind whatever is queued, and in the same channel write
+        writeQueue.addAll(msglist);
+        writeQueue.flush();
+    }
+
+    /**
+     * Set the largest number of messages sent in one channel write, and
+     * how long a queued message may wait for the batch to fill up
+     */
+    public void setWriteBatchLimits(int maxBatch, long maxDelayUs) {
+        writeQueue.setLimits(maxBatch, maxDelayUs);
+    }
+
+    @Override
+    @JsonIgnore
+    public Map<String, Object> getWriteQueueStatistics() {
+        return writeQueue.getStatistics();
     }
     
     public void disconnectOutputStream() {
@@ -475,24 +508,26 @@ public class OFSwitchImpl implements IOFSwitch {
     
 
     public void flush() {
-        Map<OFSwitchImpl,List<OFMessage>> msg_buffer_map = local_msg_buffer.get();
-        List<OFMessage> msglist = msg_buffer_map.get(this);
-        if ((msglist != null) && (msglist.size() > 0)) {
-            try {
-                this.write(msglist);
-            } catch (IOException e) {
-                // TODO: log exception
-                e.printStackTrace();
-            }
-            msglist.clear();
-        }
+        writeQueue.flush();
+    }
+
+    /**
+     * Mark the current thread as an I/O thread: the messages it
+     * queues wait for its next flush_all()
+     */
+    public static void startMessageTrain() {
+        if (local_msg_buffer.get() == null)
+            local_msg_buffer.set(new HashSet<OFSwitchImpl>());
     }
 
     public static void flush_all() {
-        Map<OFSwitchImpl,List<OFMessage>> msg_buffer_map = local_msg_buffer.get();
-        for (OFSwitchImpl sw : msg_buffer_map.keySet()) {
+        Set<OFSwitchImpl> switches = local_msg_buffer.get();
+        if (switches == null)
+            return;
+        for (OFSwitchImpl sw : switches) {
             sw.flush();
         }
+        switches.clear();
     }
 
     /**
@@ -0,0 +1,177 @@
+package net.floodlightcontroller.core.internal;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.floodlightcontroller.util.LatencyHistogram;
+
+import org.openflow.protocol.OFMessage;
+
+/**
+ * Outbound message queue of a switch. Any thread can add messages
+ * without locking; a flush takes everything queued so far, from all
+ * threads, and hands it to send() in batches of at most maxBatch
+ * messages, each encoded into a single ChannelBuffer by the
+ * OFMessageEncoder.
+ *
+ * Flushes are serialized so the messages leave in the order they
+ * were queued. A message waits at most maxDelay microseconds when a
+ * scheduler is given to scheduleFlush().
+ */
+abstract class OFWriteQueue {
+    private static class Entry {
+        final OFMessage m;
+        final long queuedNs;
+
+        Entry(OFMessage m, long queuedNs) {
+            this.m = m;
+            this.queuedNs = queuedNs;
+        }
+    }
+
+    private final ConcurrentLinkedQueue<Entry> queue =
+            new ConcurrentLinkedQueue<Entry>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private volatile int maxBatch;
+    private volatile long maxDelayUs;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong messages = new AtomicLong();
+    private final AtomicLong timedFlushes = new AtomicLong();
+    private final LatencyHistogram batchSize = new LatencyHistogram();
+    private final LatencyHistogram queueDelay = new LatencyHistogram();
+
+    private final Runnable timedFlush = new Runnable() {
+        @Override
+        public void run() {
+            flushScheduled.set(false);
+            if (pending.get() > 0) {
+                timedFlushes.incrementAndGet();
+                flush();
+            }
+        }
+    };
+
+    OFWriteQueue(int maxBatch, long maxDelayUs) {
+        setLimits(maxBatch, maxDelayUs);
+    }
+
+    /**
+     * Write one batch to the switch
+     */
+    protected abstract void send(List<OFMessage> batch);
+
+    void setLimits(int maxBatch, long maxDelayUs) {
+        this.maxBatch = Math.max(1, maxBatch);
+        this.maxDelayUs = Math.max(0, maxDelayUs);
+    }
+
+    int getMaxBatch() {
+        return maxBatch;
+    }
+
+    long getMaxDelayUs() {
+        return maxDelayUs;
+    }
+
+    /**
+     * @return the number of messages queued and not flushed yet
+     */
+    int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Queue a message
+     * @return True if a full batch is waiting
+     */
+    boolean add(OFMessage m) {
+        queue.add(new Entry(m, System.nanoTime()));
+        return pending.incrementAndGet() >= maxBatch;
+    }
+
+    void addAll(List<OFMessage> msglist) {
+        long now = System.nanoTime();
+        for (OFMessage m : msglist) {
+            queue.add(new Entry(m, now));
+        }
+        pending.addAndGet(msglist.size());
+    }
+
+    /**
+     * Make sure a flush runs within maxDelay, unless one is due already
+     */
+    void scheduleFlush(ScheduledExecutorService ses) {
+        if (!flushScheduled.compareAndSet(false, true))
+            return;
+        try {
+            ses.schedule(timedFlush, maxDelayUs, TimeUnit.MICROSECONDS);
+        } catch (RejectedExecutionException e) {
+            flushScheduled.set(false);
+            flush();
+        }
+    }
+
+    /**
+     * Send everything queued so far
+     */
+    void flush() {
+        if (pending.get() == 0)
+            return;
+
+        flushLock.lock();
+        try {
+            List<OFMessage> batch = null;
+            Entry e;
+            while ((e = queue.poll()) != null) {
+                pending.decrementAndGet();
+                if (batch == null)
+                    batch = new ArrayList<OFMessage>(Math.min(maxBatch, pending.get() + 1));
+                batch.add(e.m);
+                queueDelay.record((System.nanoTime() - e.queuedNs) / 1000);
+
+                if (batch.size() >= maxBatch) {
+                    sendBatch(batch);
+                    batch = null;
+                }
+            }
+            if (batch != null)
+                sendBatch(batch);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void sendBatch(List<OFMessage> batch) {
+        batches.incrementAndGet();
+        messages.addAndGet(batch.size());
+        batchSize.record(batch.size());
+        send(batch);
+    }
+
+    Map<String, Object> getStatistics() {
+        Map<String, Object> stats = new HashMap<String, Object>();
+        stats.put("maxBatch", maxBatch);
+        stats.put("maxDelayUs", maxDelayUs);
+        stats.put("pending", pending.get());
+        stats.put("batches", batches.get());
+        stats.put("messages", messages.get());
+        stats.put("timedFlushes", timedFlushes.get());
+        stats.put("batchSize", batchSize.getSnapshot());
+        stats.put("queueDelayUs", queueDelay.getSnapshot());
+        return stats;
+    }
+}
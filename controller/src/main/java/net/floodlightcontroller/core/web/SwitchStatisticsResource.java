@@ -71,6 +71,12 @@ public class SwitchStatisticsResource extends SwitchResourceBase {
                 result.put(sw.getStringId(), fr);
             }
             return result;
+        } else if (statType.equals("writequeue")) {
+            IOFSwitch sw = floodlightProvider.getSwitches().get(HexString.toLong(switchId));
+            if (sw != null) {
+                result.put(sw.getStringId(), sw.getWriteQueueStatistics());
+            }
+            return result;
         }
         
         result.put(switchId, values);
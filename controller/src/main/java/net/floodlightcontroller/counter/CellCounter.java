@@ -0,0 +1,61 @@
+package net.floodlightcontroller.counter;
+
+import java.util.Date;
+
+/**
+ * The ICounter view of one of the CounterCells, so that counters updated
+ * through their index are listed and read by name like any other.
+ * Increments are not timestamped; the counter date is the time the
+ * value was read.
+ */
+public class CellCounter implements ICounter {
+    protected final CounterCells cells;
+    protected final int index;
+
+    public CellCounter(CounterCells cells, int index) {
+        this.cells = cells;
+        this.index = index;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    @Override
+    public void increment() {
+        cells.increment(index);
+    }
+
+    @Override
+    public void increment(Date d, long delta) {
+        cells.add(index, delta);
+    }
+
+    @Override
+    public void setCounter(Date d, CounterValue value) {
+        cells.set(index, value.getLong());
+    }
+
+    @Override
+    public Date getCounterDate() {
+        return new Date();
+    }
+
+    @Override
+    public CounterValue getCounterValue() {
+        CounterValue value = new CounterValue(CounterValue.CounterType.LONG);
+        value.setLongValue(cells.get(index));
+        return value;
+    }
+
+    @Override
+    public void reset(Date d) {
+        cells.set(index, 0);
+    }
+
+    @Override
+    public CountSeries snapshot(DateSpan dateSpan) {
+        long[] values = new long[] { cells.get(index) };
+        return new CountSeries(new Date(), DateSpan.DAYS, values);
+    }
+}
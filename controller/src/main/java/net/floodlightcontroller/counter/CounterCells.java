@@ -0,0 +1,90 @@
+package net.floodlightcontroller.counter;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A growing set of long counters, each known by a dense index.
+ * 
+ * Every counter has one cell per stripe, and a thread always adds to the
+ * cells of its own stripe, so threads counting the same events do not
+ * contend on one cache line. The cells of a stripe are laid out together,
+ * in chunks of CHUNK_SIZE counters, and the value of a counter is the sum
+ * of its cells.
+ */
+public class CounterCells {
+    protected static final int CHUNK_SIZE = 1024;
+    protected static final int MAX_CHUNKS = 1024;
+    protected static final int STRIPES;
+    static {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() &&
+               stripes < 16) {
+            stripes <<= 1;
+        }
+        STRIPES = stripes;
+    }
+
+    protected final AtomicReferenceArray<AtomicLongArray> chunks =
+            new AtomicReferenceArray<AtomicLongArray>(MAX_CHUNKS);
+    protected final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * @return the index of a new counter, starting at 0
+     * @throws IllegalStateException if there is no room left
+     */
+    public int allocate() {
+        int index = size.getAndIncrement();
+        int chunk = index / CHUNK_SIZE;
+        if (chunk >= MAX_CHUNKS) {
+            size.decrementAndGet();
+            throw new IllegalStateException("No room left for counter " + index);
+        }
+        if (chunks.get(chunk) == null) {
+            chunks.compareAndSet(chunk, null,
+                                 new AtomicLongArray(CHUNK_SIZE * STRIPES));
+        }
+        return index;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    private static int stripe() {
+        return (int) Thread.currentThread().getId() & (STRIPES - 1);
+    }
+
+    private static int cell(int index, int stripe) {
+        return stripe * CHUNK_SIZE + index % CHUNK_SIZE;
+    }
+
+    public void increment(int index) {
+        chunks.get(index / CHUNK_SIZE).incrementAndGet(cell(index, stripe()));
+    }
+
+    public void add(int index, long delta) {
+        chunks.get(index / CHUNK_SIZE).addAndGet(cell(index, stripe()), delta);
+    }
+
+    public long get(int index) {
+        AtomicLongArray chunk = chunks.get(index / CHUNK_SIZE);
+        long sum = 0;
+        for (int s = 0; s < STRIPES; s++) {
+            sum += chunk.get(cell(index, s));
+        }
+        return sum;
+    }
+
+    /**
+     * Set a counter. Not atomic with respect to concurrent increments.
+     */
+    public void set(int index, long value) {
+        AtomicLongArray chunk = chunks.get(index / CHUNK_SIZE);
+        for (int s = 1; s < STRIPES; s++) {
+            chunk.set(cell(index, s), 0);
+        }
+        chunk.set(cell(index, 0), value);
+    }
+}
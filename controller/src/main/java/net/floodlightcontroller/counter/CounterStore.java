@@ -21,18 +21,21 @@
 package net.floodlightcontroller.counter;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
 
 import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.PacketInView;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
@@ -43,6 +46,7 @@ import net.floodlightcontroller.packet.IPv4;
 
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPacketIn;
+import org.openflow.protocol.OFType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -72,6 +76,133 @@ public class CounterStore implements IFloodlightModule, ICounterStoreService {
     protected ICounter heartbeatCounter;
     protected ICounter randomCounter;
 
+    protected static final String PACKET_IN_NAME;
+    static {
+        String packetName = OFType.PACKET_IN.toClass().getName();
+        PACKET_IN_NAME = packetName.substring(packetName.lastIndexOf('.')+1);
+    }
+    
+    protected static final int L2_BROADCAST = 0;
+    protected static final int L2_MULTICAST = 1;
+    protected static final int L2_UNICAST = 2;
+    
+    /**
+     * Map of short keys, for the few ports, EtherTypes and protocols a
+     * switch sees. Copied on write, so that reading neither locks nor
+     * allocates.
+     */
+    protected static class ShortKeyMap<V> {
+        private static class Table {
+            final short[] keys;
+            final Object[] values;
+            
+            Table(short[] keys, Object[] values) {
+                this.keys = keys;
+                this.values = values;
+            }
+        }
+        
+        private volatile Table table = new Table(new short[0], new Object[0]);
+        
+        @SuppressWarnings("unchecked")
+        public V get(short key) {
+            Table t = table;
+            for (int i = 0; i < t.keys.length; i++) {
+                if (t.keys[i] == key) return (V)t.values[i];
+            }
+            return null;
+        }
+        
+        public synchronized V putIfAbsent(short key, V value) {
+            V old = get(key);
+            if (old != null) return old;
+            
+            Table t = table;
+            short[] keys = Arrays.copyOf(t.keys, t.keys.length + 1);
+            Object[] values = Arrays.copyOf(t.values, t.values.length + 1);
+            keys[t.keys.length] = key;
+            values[t.values.length] = value;
+            table = new Table(keys, values);
+            return value;
+        }
+    }
+    
+    /**
+     * The packet_in counters of the controller, a switch or a port,
+     * resolved into handles the first time they are counted. The
+     * counters are named as createCounterName() does, so they are
+     * listed and read like any other.
+     */
+    protected class PacketInCounters {
+        protected final String switchId;
+        protected final int portId;
+        protected final int total;
+        protected final int[] l2;
+        protected final ShortKeyMap<Integer> l3 = new ShortKeyMap<Integer>();
+        protected final ShortKeyMap<Integer> l4 = new ShortKeyMap<Integer>();
+        protected final ShortKeyMap<PacketInCounters> ports =
+                new ShortKeyMap<PacketInCounters>();
+        
+        protected PacketInCounters(String switchId, int portId) {
+            this.switchId = switchId;
+            this.portId = portId;
+            this.total = intern(createCounterName(switchId, portId,
+                                                  PACKET_IN_NAME));
+            this.l2 = new int[3];
+            l2[L2_BROADCAST] = intern(createCounterName(switchId, portId,
+                    PACKET_IN_NAME, BROADCAST, NetworkLayer.L2));
+            l2[L2_MULTICAST] = intern(createCounterName(switchId, portId,
+                    PACKET_IN_NAME, MULTICAST, NetworkLayer.L2));
+            l2[L2_UNICAST] = intern(createCounterName(switchId, portId,
+                    PACKET_IN_NAME, UNICAST, NetworkLayer.L2));
+        }
+        
+        public int getL3(short ethType) {
+            Integer handle = l3.get(ethType);
+            if (handle == null) {
+                handle = l3.putIfAbsent(ethType,
+                        intern(createCounterName(switchId, portId,
+                                PACKET_IN_NAME, getL3Category(ethType),
+                                NetworkLayer.L3)));
+            }
+            return handle;
+        }
+        
+        public int getL4(int ipProtocol) {
+            Integer handle = l4.get((short)ipProtocol);
+            if (handle == null) {
+                handle = l4.putIfAbsent((short)ipProtocol,
+                        intern(createCounterName(switchId, portId,
+                                PACKET_IN_NAME, getL4Category(ipProtocol),
+                                NetworkLayer.L4)));
+            }
+            return handle;
+        }
+        
+        /**
+         * @return the counters of a port of this switch
+         */
+        public PacketInCounters getPort(short port) {
+            PacketInCounters counters = ports.get(port);
+            if (counters == null) {
+                counters = ports.putIfAbsent(port,
+                        new PacketInCounters(switchId, port));
+            }
+            return counters;
+        }
+    }
+    
+    /**
+     * The cells of the counters updated for every packet_in
+     */
+    protected CounterCells cells = new CounterCells();
+    
+    /**
+     * A map of switch string id, or CONTROLLER_NAME --> packet_in counters
+     */
+    protected ConcurrentMap<String, PacketInCounters> packetInCounters =
+            new ConcurrentHashMap<String, PacketInCounters>();
+
     /**
      * Counter Categories grouped by network layers
      * NetworkLayer -> CounterToCategories
@@ -80,20 +211,92 @@ public class CounterStore implements IFloodlightModule, ICounterStoreService {
             new ConcurrentHashMap<NetworkLayer, Map<String, List<String>>> ();
 
     public void updatePacketInCounters(IOFSwitch sw, OFMessage m, Ethernet eth) {
+        int ipProtocol = (eth.getPayload() instanceof IPv4) ?
+                ((IPv4)eth.getPayload()).getProtocol() & 0xff : -1;
+        updatePacketInCounters(sw, m, eth.getEtherType(),
+                               eth.isBroadcast(), eth.isMulticast(), ipProtocol);
+    }
+
+    public void updatePacketInCounters(IOFSwitch sw, OFMessage m, PacketInView view) {
+        updatePacketInCounters(sw, m, view.getEtherType(),
+                               view.isBroadcast(), view.isMulticast(),
+                               view.getIpProtocol());
+    }
+
+    /**
+     * Update the packetIn counters from the header fields of the frame
+     * @param ipProtocol the IPv4 protocol, -1 if not IPv4
+     */
+    protected void updatePacketInCounters(IOFSwitch sw, OFMessage m,
+                                          short ethType, boolean broadcast,
+                                          boolean multicast, int ipProtocol) {
         OFPacketIn packet = (OFPacketIn)m;
         
         // Make sure there is data
-        if (packet.getPacketData().length <= 0) return;
+        if (packet.getPacketDataLength() <= 0) return;
+        
+        int l2Type;
+        if (broadcast) {
+            l2Type = L2_BROADCAST;
+        } else if (multicast) {
+            l2Type = L2_MULTICAST;
+        } else {
+            l2Type = L2_UNICAST;
+        }
         
+        // Controller, switch and port counters for the packet_in
+        PacketInCounters switchCounters = getPacketInCounters(sw.getStringId());
+        countPacketIn(getPacketInCounters(CONTROLLER_NAME),
+                      l2Type, ethType, ipProtocol);
+        countPacketIn(switchCounters, l2Type, ethType, ipProtocol);
+        countPacketIn(switchCounters.getPort(packet.getInPort()),
+                      l2Type, ethType, ipProtocol);
+    }
+    
+    private void countPacketIn(PacketInCounters counters, int l2Type,
+                               short ethType, int ipProtocol) {
+        increment(counters.total);
+        increment(counters.l2[l2Type]);
+        increment(counters.getL3(ethType));
+        // L4 counters
+        if (ethType == Ethernet.TYPE_IPv4 && ipProtocol >= 0) {
+            increment(counters.getL4(ipProtocol));
+        }
+    }
+    
+    private void increment(int handle) {
+        if (handle >= 0) {
+            cells.increment(handle);
+        }
+    }
+    
+    /**
+     * @param switchId the switch string id, or CONTROLLER_NAME
+     * @return the packet_in counters of the switch
+     */
+    protected PacketInCounters getPacketInCounters(String switchId) {
+        PacketInCounters counters = packetInCounters.get(switchId);
+        if (counters == null) {
+            counters = new PacketInCounters(switchId, -1);
+            PacketInCounters old = packetInCounters.putIfAbsent(switchId, counters);
+            if (old != null) counters = old;
+        }
+        return counters;
+    }
+    
+    /**
+     * The L3 category of the packet_in counters for an EtherType
+     */
+    protected static String getL3Category(short ethType) {
         /* Extract the etherType and protocol field for IPv4 packet.
          */
-        String etherType = String.format("%04x", eth.getEtherType());
+        String etherType = String.format("%04x", ethType);
         
         /*
          * Valid EtherType must be greater than or equal to 0x0600
          * It is V1 Ethernet Frame if EtherType < 0x0600
          */
-        if (eth.getEtherType() < 0x0600) {
+        if (ethType < 0x0600) {
             etherType = "0599";
         }
 
@@ -103,186 +306,50 @@ public class CounterStore implements IFloodlightModule, ICounterStoreService {
         } else {
             etherType = "L3_" + etherType;
         }
-        String switchIdHex = sw.getStringId();
-   
-        String packetName = m.getType().toClass().getName();
-        packetName = packetName.substring(packetName.lastIndexOf('.')+1); 
-        
-        // Construct controller counter for the packet_in
-        String controllerCounterName =
-            CounterStore.createCounterName(CONTROLLER_NAME, 
-                                           -1,
-                                           packetName);
+        return etherType;
+    }
     
-        String controllerL3CategoryCounterName = 
-            CounterStore.createCounterName(CONTROLLER_NAME, 
-                                           -1,
-                                           packetName, 
-                                           etherType, 
-                                           NetworkLayer.L3);
-
-        String l2Type = null;
-        if (eth.isBroadcast()) {
-        	l2Type = BROADCAST;
-        } else if (eth.isMulticast()) {
-        	l2Type = MULTICAST;
+    /**
+     * The L4 category of the packet_in counters for an IPv4 protocol
+     */
+    protected static String getL4Category(int ipProtocol) {
+        String l4Type = String.format("%02x", ipProtocol);
+        if (TypeAliases.l4TypeAliasMap != null && 
+            TypeAliases.l4TypeAliasMap.containsKey(l4Type)) {
+            l4Type = TypeAliases.l4TypeAliasMap.get(l4Type);
         } else {
-        	l2Type = UNICAST;
+            l4Type = "L4_" + l4Type;
         }
-        
-        // Construct both port and switch L3 counter for the packet_in
-    	String controllerL2CategoryCounterName = CounterStore.createCounterName(CONTROLLER_NAME, 
-                -1,
-                packetName, 
-                l2Type, 
-                NetworkLayer.L2);
-    	String switchL2CategoryCounterName = CounterStore.createCounterName(switchIdHex, 
-                -1, 
-                packetName, 
-                l2Type, 
-                NetworkLayer.L2);
-    	String portL2CategoryCounterName = CounterStore.createCounterName(switchIdHex, 
-                packet.getInPort(),
-                packetName, 
-                l2Type, 
-                NetworkLayer.L2);
-        
-        // Construct both port and switch L3 counter for the packet_in
-        String portCounterName =
-                CounterStore.createCounterName(switchIdHex, 
-                                               packet.getInPort(),
-                                               packetName);
-        String switchCounterName =
-                CounterStore.createCounterName(switchIdHex, 
-                                               -1,
-                                               packetName);
-        
-        String portL3CategoryCounterName = 
-                CounterStore.createCounterName(switchIdHex, 
-                                               packet.getInPort(),
-                                               packetName, 
-                                               etherType, 
-                                               NetworkLayer.L3);
-        String switchL3CategoryCounterName =
-                CounterStore.createCounterName(switchIdHex, 
-                                               -1, 
-                                               packetName, 
-                                               etherType, 
-                                               NetworkLayer.L3);
-        
-        try {        	
-        	// Controller counters
-        	ICounter controllerCounter = getCounter(controllerCounterName);
-            if (controllerCounter == null) {
-            	controllerCounter = createCounter(controllerCounterName, 
-                                               CounterType.LONG);
-            }
-            controllerCounter.increment();
-            ICounter portCounter = getCounter(portCounterName);
-            if (portCounter == null) {
-                portCounter = createCounter(portCounterName, 
-                                                   CounterType.LONG);
-            }
-            portCounter.increment();
-            ICounter switchCounter = getCounter(switchCounterName);
-            if (switchCounter == null) {
-                switchCounter = createCounter(switchCounterName, 
-                                                   CounterType.LONG);
-            }
-            switchCounter.increment();
-
-            // L2 counters
-            ICounter controllerL2Counter = getCounter(controllerL2CategoryCounterName);
-            if (controllerL2Counter == null) {
-            	controllerL2Counter = createCounter(controllerL2CategoryCounterName,
-                                               CounterType.LONG);
-            }
-            controllerL2Counter.increment();
-            ICounter switchL2Counter = getCounter(switchL2CategoryCounterName);
-            if (switchL2Counter == null) {
-            	switchL2Counter = createCounter(switchL2CategoryCounterName,
-                                                   CounterType.LONG);
-            }
-            switchL2Counter.increment();
-            ICounter portL2Counter = getCounter(portL2CategoryCounterName);
-            if (portL2Counter == null) {
-            	portL2Counter = createCounter(portL2CategoryCounterName,
-                                                   CounterType.LONG);
-            }
-            portL2Counter.increment();
-            
-            // L3 counters
-            ICounter controllerL3Counter = getCounter(controllerL3CategoryCounterName);
-            if (controllerL3Counter == null) {
-            	controllerL3Counter = createCounter(controllerL3CategoryCounterName,
-                                               CounterType.LONG);
-            }
-            controllerL3Counter.increment();
-            ICounter portL3Counter = getCounter(portL3CategoryCounterName);
-            if (portL3Counter == null) {
-                portL3Counter = createCounter(portL3CategoryCounterName,
-                                                   CounterType.LONG);
-            }
-            portL3Counter.increment();
-            ICounter switchL3Counter = getCounter(switchL3CategoryCounterName);
-            if (switchL3Counter == null) {
-                switchL3Counter = createCounter(switchL3CategoryCounterName,
-                                                   CounterType.LONG);
-            }
-            switchL3Counter.increment();
-            
-            // L4 counters
-            if (etherType.compareTo(CounterStore.L3ET_IPV4) == 0) {
-                IPv4 ipV4 = (IPv4)eth.getPayload();
-                String l4Type = String.format("%02x", ipV4.getProtocol());
-                if (TypeAliases.l4TypeAliasMap != null && 
-                    TypeAliases.l4TypeAliasMap.containsKey(l4Type)) {
-                    l4Type = TypeAliases.l4TypeAliasMap.get(l4Type);
-                } else {
-                    l4Type = "L4_" + l4Type;
-                }
-                String controllerL4CategoryCounterName = 
-                    CounterStore.createCounterName(CONTROLLER_NAME, 
-                                                   -1, 
-                                                   packetName, 
-                                                   l4Type, 
-                                                   NetworkLayer.L4);
-                String portL4CategoryCounterName =
-                        CounterStore.createCounterName(switchIdHex, 
-                                                       packet.getInPort(), 
-                                                       packetName, 
-                                                       l4Type, 
-                                                       NetworkLayer.L4);
-                String switchL4CategoryCounterName = 
-                        CounterStore.createCounterName(switchIdHex, 
-                                                       -1, 
-                                                       packetName, 
-                                                       l4Type, 
-                                                       NetworkLayer.L4);
-                ICounter controllerL4Counter = getCounter(controllerL4CategoryCounterName);
-                if (controllerL4Counter == null) {
-                	controllerL4Counter = createCounter(controllerL4CategoryCounterName, 
-                                                   CounterType.LONG);
-                }
-                controllerL4Counter.increment();
-                ICounter portL4Counter = getCounter(portL4CategoryCounterName);
-                if (portL4Counter == null) {
-                    portL4Counter = createCounter(portL4CategoryCounterName, 
-                                                       CounterType.LONG);
-                }
-                portL4Counter.increment();
-                ICounter switchL4Counter = getCounter(switchL4CategoryCounterName);
-                if (switchL4Counter == null) {
-                    switchL4Counter = createCounter(switchL4CategoryCounterName, 
-                                                       CounterType.LONG);
-                }
-                switchL4Counter.increment();
+        return l4Type;
+    }
+    
+    /**
+     * @return the handle of the counter: the index of its cells. The
+     * counter is created if need be. Returns -1, which counts nothing, if
+     * there is another kind of counter by that name or no room is left.
+     */
+    protected synchronized int intern(String name) {
+        CounterEntry ce = nameToCEIndex.get(name);
+        if (ce == null) {
+            CellCounter c;
+            try {
+                c = new CellCounter(cells, cells.allocate());
+            } catch (IllegalStateException e) {
+                log.error("Invalid Counter, " + name + ": " + e.getMessage());
+                return -1;
             }
+            ce = new CounterEntry();
+            ce.counter = c;
+            ce.title = name;
+            nameToCEIndex.put(name, ce);
+            return c.getIndex();
         }
-        catch (IllegalArgumentException e) {
-            log.error("Invalid Counter, " + portCounterName + 
-                      " or " + switchCounterName);
+        if (ce.counter instanceof CellCounter &&
+                ((CellCounter)ce.counter).cells == cells) {
+            return ((CellCounter)ce.counter).getIndex();
         }
+        log.error("Invalid Counter, " + name + " is not a packet_in counter");
+        return -1;
     }
     
     /**
@@ -385,7 +452,7 @@ public class CounterStore implements IFloodlightModule, ICounterStoreService {
     }
     
     @Override
-    public ICounter createCounter(String key, CounterValue.CounterType type) {
+    public synchronized ICounter createCounter(String key, CounterValue.CounterType type) {
         CounterEntry ce;
         ICounter c;
 
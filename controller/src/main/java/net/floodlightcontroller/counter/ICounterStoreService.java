@@ -6,6 +6,7 @@ import java.util.Map;
 import org.openflow.protocol.OFMessage;
 
 import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.PacketInView;
 import net.floodlightcontroller.core.module.IFloodlightService;
 import net.floodlightcontroller.counter.CounterStore.NetworkLayer;
 import net.floodlightcontroller.packet.Ethernet;
@@ -31,6 +32,16 @@ public interface ICounterStoreService extends IFloodlightService {
      * @param eth
      */
     public void updatePacketInCounters(IOFSwitch sw, OFMessage m, Ethernet eth);
+
+    /**
+     * Update packetIn counters from the header fields of the
+     * undecoded packet-in payload
+     * 
+     * @param sw
+     * @param m
+     * @param view
+     */
+    public void updatePacketInCounters(IOFSwitch sw, OFMessage m, PacketInView view);
     
     /**
      * This method can only be used to update packetOut and flowmod counters
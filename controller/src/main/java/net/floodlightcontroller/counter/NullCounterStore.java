@@ -10,6 +10,7 @@ import java.util.Map;
 import org.openflow.protocol.OFMessage;
 
 import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.PacketInView;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
@@ -37,6 +38,11 @@ public class NullCounterStore implements IFloodlightModule,
         // no-op
     }
 
+    @Override
+    public void updatePacketInCounters(IOFSwitch sw, OFMessage m, PacketInView view) {
+        // no-op
+    }
+
     @Override
     public void updatePktOutFMCounterStore(IOFSwitch sw, OFMessage ofMsg) {
         // no-op
@@ -44,6 +44,7 @@ import net.floodlightcontroller.routing.IRoutingService;
 import net.floodlightcontroller.routing.Route;
 import net.floodlightcontroller.topology.ITopologyService;
 
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.openflow.protocol.OFFlowMod;
 import org.openflow.protocol.OFMatch;
 import org.openflow.protocol.OFPacketIn;
@@ -232,9 +233,9 @@ public class Forwarding extends ForwardingBase implements IFloodlightModule {
         po.setBufferId(pi.getBufferId());
         po.setInPort(pi.getInPort());
         if (pi.getBufferId() == OFPacketOut.BUFFER_ID_NONE) {
-            byte[] packetData = pi.getPacketData();
-            poLength += packetData.length;
-            po.setPacketData(packetData);
+            ChannelBuffer packetData = pi.getPacketDataBuffer();
+            poLength += packetData.readableBytes();
+            po.setPacketDataBuffer(packetData);
         }
         po.setLength(poLength);
         
@@ -32,6 +32,7 @@ import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
 
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.openflow.protocol.OFMessage;
 import org.openflow.protocol.OFPacketIn;
 import org.openflow.protocol.OFPacketOut;
@@ -79,10 +80,10 @@ public class Hub implements IFloodlightModule, IOFMessageListener {
 
         // set data if is is included in the packetin
         if (pi.getBufferId() == 0xffffffff) {
-            byte[] packetData = pi.getPacketData();
+            ChannelBuffer packetData = pi.getPacketDataBuffer();
             po.setLength(U16.t(OFPacketOut.MINIMUM_LENGTH
-                    + po.getActionsLength() + packetData.length));
-            po.setPacketData(packetData);
+                    + po.getActionsLength() + packetData.readableBytes()));
+            po.setPacketDataBuffer(packetData);
         } else {
             po.setLength(U16.t(OFPacketOut.MINIMUM_LENGTH
                     + po.getActionsLength()));
@@ -25,8 +25,6 @@ import net.floodlightcontroller.odin.master.OdinMaster.ChannelAssignmentParams;
 
 import org.apache.commons.io.output.TeeOutputStream;
 
-import com.mathworks.toolbox.javabuilder.*;
-import wi5.*;
 import java.lang.*;
 
 public class ChannelAssignment extends OdinApplication {
@@ -46,18 +44,21 @@ public class ChannelAssignment extends OdinApplication {
   Map<InetAddress, Integer> scanningAgents = new HashMap<InetAddress, Integer> ();
   int result; // Result for scanning
 
-  // Matrix
-  private String matrix = "";
+  // Pathloss has to change this much to assign channels again
+  private final double PATHLOSS_CHANGE = 3.0; // dB
+  
   private String avg_dB = "";
   
   // Algorithm results
   
-  private int[][] channels = null;
+  private int[] channels = null;
   
   private long time = 0L; // Compare timestamps in ms
   
   private int number_scans = 0;
   
+  private int refreshAgent = -1; // Agent sending beacons even if its pathloss is settled
+  
   private int[] txpowerAPs = null;
   
   private int[] channelAPs = null;
@@ -70,26 +71,41 @@ public class ChannelAssignment extends OdinApplication {
   
   HashSet<OdinClient> clients;
 
+  // The order of the APs in the matrices
+  private InetAddress[] agents;
+  private String[] agentNames;
+  private int numAPs;
+  private InterferenceGraph graph;
+  private String operationMode;
+
   @Override
-  public void run() {
+  protected void start() {
 	
 	this.CHANNEL_PARAMS = getChannelAssignmentParams();
-	String operationMode = CHANNEL_PARAMS.mode;
-    try {
-			Thread.sleep(CHANNEL_PARAMS.time_to_start);
-		} catch (InterruptedException e) {
-	    e.printStackTrace();
+	operationMode = CHANNEL_PARAMS.mode;
+	scheduleTimer(new Runnable() {
+		@Override
+		public void run() {
+			init();
+		}
+	}, CHANNEL_PARAMS.time_to_start);
+  }
+
+  private void init() {
+    
+    // The order of the APs in the matrices
+    agents = getAgents().toArray(new InetAddress[0]);
+    numAPs = agents.length;
+    agentNames = new String[numAPs];
+    for (int k = 0; k < numAPs; k++) {
+        agentNames[k] = agents[k].getHostAddress();
     }
+    graph = new InterferenceGraph(numAPs, Math.max(1, CHANNEL_PARAMS.number_scans), coefII, PATHLOSS_CHANGE);
     
-    int numAPs = getAgents().size();
-    double[][] pathLosses = new double[numAPs][numAPs];
-    double[][] matrixII = new double[numAPs][numAPs];
 	
     txpowerAPs = new int[numAPs];
     channelAPs = new int[numAPs];
     
-    int j=0;
-    
     // Write on file integration
     PrintStream stdout = System.out; // To enable return to console
     FileOutputStream fos = null;
@@ -109,20 +125,54 @@ public class ChannelAssignment extends OdinApplication {
       }
     }
 	
-	while (true) {
-	
-      try {
-        
-        matrix = "";
-        boolean isValidforChAssign = true;
-		int row = 0, column = 0;
-		if(operationMode.equals("manual")){
-          promptEnterKey();
-          System.out.println("[ChannelAssignment] ======== Agents information ========");
-        }
-		
-        // Get TxPower and channels from Agents and change channel if needed
-        for (InetAddress AgentAddr: getAgents()) {
+	round();
+  }
+
+  /**
+   * Schedule the next round
+   */
+  private void nextRound(long delayMs) {
+	scheduleTimer(new Runnable() {
+		@Override
+		public void run() {
+			round();
+		}
+	}, delayMs);
+  }
+
+  private void round() {
+	if(operationMode.equals("manual")){
+      runDedicated(); // Waits for the user on the console
+      return;
+    }
+	readAgents();
+	measure();
+  }
+
+  /**
+   * Manual mode, ask the user for the channels of the APs and the
+   * APs of the STAs
+   */
+  @Override
+  public void run() {
+	promptEnterKey();
+	System.out.println("[ChannelAssignment] ======== Agents information ========");
+	readAgents();
+
+	scheduleTimer(new Runnable() {
+		@Override
+		public void run() {
+			measure();
+		}
+	}, 0);
+  }
+
+  /**
+   * Get TxPower and channels from Agents and change channel if needed
+   */
+  private void readAgents() {
+        for (int j = 0; j < numAPs; j++) {
+            InetAddress AgentAddr = agents[j];
             channelAPs[j] = getChannelFromAgent(AgentAddr);
             txpowerAPs[j] = getTxPowerFromAgent(AgentAddr);
             if(operationMode.equals("manual")){
@@ -136,7 +186,8 @@ public class ChannelAssignment extends OdinApplication {
 			  setChannelToAgent(AgentAddr,userInt);
 			  channelAPs[j] = userInt;
 			}
-            j++;
+            graph.setChannel(j, channelAPs[j]);
+            graph.setTxPower(j, txpowerAPs[j]);
         }
         
         // Associate STAs to specific Agent
@@ -149,18 +200,20 @@ public class ChannelAssignment extends OdinApplication {
               InetAddress clientAddr = oc.getIpAddress();
               InetAddress agentAddr = oc.getLvap().getAgent().getIpAddress();
               System.out.println("[ChannelAssignment] Client " + clientAddr + " in agent " + agentAddr);
-              System.out.print("[ChannelAssignment] Select Agent for Client " + clientAddr + "[0-"+(j-1)+"]:");
+              System.out.print("[ChannelAssignment] Select Agent for Client " + clientAddr + "[0-"+(numAPs-1)+"]:");
               userInt = in.nextInt();// FIXME assume user will use 0-j-1
               System.out.println("[ChannelAssignment] ===================================");
-              InetAddress[] agentsArray = getAgents().toArray(new InetAddress[0]);
-              handoffClientToAp(eth, agentsArray[userInt]);
+              handoffClientToAp(eth, agents[userInt]);
             }
             promptEnterKey();
           }
         }
-        j = 0;
-        
-        
+  }
+
+  /**
+   * Measure the path losses, with the APs sending beacons one after another
+   */
+  private void measure() {
         
 		time = System.currentTimeMillis();
         		
@@ -172,13 +225,28 @@ public class ChannelAssignment extends OdinApplication {
 		System.out.println("[ChannelAssignment] Scanning channel " + CHANNEL_PARAMS.channel);
 		System.out.println("[ChannelAssignment]");
 
-		for (InetAddress beaconAgentAddr: getAgents()) {
+		// Only the APs whose path losses are still moving send beacons,
+		// plus one of the others in turn to find out if they start to
+		refreshAgent = (refreshAgent + 1) % Math.max(1, numAPs);
+
+		beacon(0);
+  }
+
+  /**
+   * Have the first AP from row on whose path losses are still moving
+   * send the measurement beacon, while the others scan
+   */
+  private void beacon(int first) {
+		for (int row = first; row < numAPs; row++) {
+			if (graph.isSettled(row) && row != refreshAgent)
+				continue;
+			InetAddress beaconAgentAddr = agents[row];
 			scanningAgents.clear();
 			System.out.println("[ChannelAssignment] Agent to send measurement beacon: " + beaconAgentAddr);	
 			
 			// For each Agent
 			System.out.println("[ChannelAssignment] Request for scanning during the interval of  " + CHANNEL_PARAMS.scanning_interval + " ms in SSID " + SCANNED_SSID);	
-			for (InetAddress agentAddr: getAgents()) {
+			for (InetAddress agentAddr: agents) {
 			
 	  			if (agentAddr != beaconAgentAddr) {
 					System.out.println("[ChannelAssignment] Agent listening: " + agentAddr);	
@@ -191,226 +259,147 @@ public class ChannelAssignment extends OdinApplication {
 			// Request to send measurement beacon
 			if (requestSendMesurementBeaconFromAgent(beaconAgentAddr, CHANNEL_PARAMS.channel, SCANNED_SSID) == 0) {
 					System.out.println("[ChannelAssignment] Agent BUSY during measurement beacon operation");
-					isValidforChAssign = false;
 					continue;				
 			}
 
-			try {
-				Thread.sleep(CHANNEL_PARAMS.scanning_interval + CHANNEL_PARAMS.added_time);
-				} 
-			catch (InterruptedException e) {
-							e.printStackTrace();
+			final int beaconRow = row;
+			scheduleTimer(new Runnable() {
+				@Override
+				public void run() {
+					collect(beaconRow);
 				}
+			}, CHANNEL_PARAMS.scanning_interval + CHANNEL_PARAMS.added_time);
+			return;
+		}
+		evaluate();
+  }
+
+  /**
+   * Read what the other APs heard of the beacon of the AP in row
+   */
+  private void collect(int row) {
+			InetAddress beaconAgentAddr = agents[row];
 			
 			// Stop sending meesurement beacon
 			stopSendMesurementBeaconFromAgent(beaconAgentAddr);
 			
-			matrix = matrix + beaconAgentAddr.toString().substring(1);
-
-			for (InetAddress agentAddr: getAgents()) {			
-				if (agentAddr != beaconAgentAddr) {
-
-					System.out.println("[ChannelAssignment]");
-					System.out.println("[ChannelAssignment] Agent: " + agentAddr + " in channel " + CHANNEL_PARAMS.channel);
-
-					// Reception distances
-					if (scanningAgents.get(agentAddr) == 0) {
-						System.out.println("[ChannelAssignment] Agent BUSY during scanning operation");
-						isValidforChAssign = false;
-						continue;				
-					}		
-					Map<MACAddress, Map<String, String>> vals_rx = getScannedStationsStatsFromAgent(agentAddr,SCANNED_SSID);
-					System.out.println("[ChannelAssignment] Timestamp - Scan: " + System.currentTimeMillis() + " ms since epoch");
-					
-					boolean isMultiple = false; // In case there are multiple replies from agent
-					
-					for (Entry<MACAddress, Map<String, String>> vals_entry_rx: vals_rx.entrySet()) {
-						// NOTE: the clients currently scanned MAY NOT be the same as the clients who have been associated		
-						MACAddress APHwAddr = vals_entry_rx.getKey();
-						avg_dB = vals_entry_rx.getValue().get("avg_signal");
-						double losses_dB = txpowerAPs[row] - Double.parseDouble(avg_dB);
-						System.out.println("\tAP MAC: " + APHwAddr);
-						System.out.println("\tAP TxPower: " + txpowerAPs[row] + " dBm");
-						System.out.println("\tavg signal: " + avg_dB + " dBm");
-						System.out.println("\tpathloss: " + losses_dB + " dB");
-						System.out.println("\tfrom channel: " + channelAPs[row] + " to channel: "+channelAPs[column]);
-						int channelDistance = Math.abs(channelAPs[row]-channelAPs[column]);
-						System.out.println("\tII coef: " + coefII[channelDistance]);
-						
-						if(!isMultiple) {
-                            double losses = Math.pow(10.0, losses_dB / 10.0); // Linear power
-                            double average = 0;
-                            if(number_scans!=0){
-                                average = Math.pow(10.0, (pathLosses[row][column]) / 10.0); // Linear power average;
-                            }
-                            average = average  + ((losses - average)/(number_scans +1)); // Cumulative moving average
-                            pathLosses[row][column] = 10.0*Math.log10(average); //Average power in dBm
-							double avg_signal_dB_II = txpowerAPs[row] - pathLosses[row][column];
-							//System.out.println("\tavg_signal_II: " + avg_signal_dB_II);
-							double avg_signal_II = Math.pow(10.0, avg_signal_dB_II / 10.0);
-							if(coefII[channelDistance]==0){
-                                matrixII[row][column] = 0;
-							}else{
-                                matrixII[row][column] = 10.0*Math.log10(coefII[channelDistance]*avg_signal_II);//II in dB
-							}
-							avg_dB = String.valueOf(pathLosses[row][column]); // Average string
-                            if(avg_dB.length()>6){
-                                matrix = matrix + "\t" + avg_dB.substring(0,6) + " dB";
-                            }else{
-                                matrix = matrix + "\t" + avg_dB + " dB   ";
-                            }
-
-                            if(++column >= numAPs) {
-                                column = 0;
-                                row ++;		
-                            }
-                            isMultiple = true;
-						}
-						else
-						{	// If there are multiple replies, pathLosses is not valid
-							isValidforChAssign = false;
-							System.out.println("[ChannelAssignment] ===================================");
-							System.out.println("[ChannelAssignment] ERROR - Multiple replies from agent " + agentAddr);
-							System.out.println("[ChannelAssignment] ===================================");											
-						}
-					}
+			for (int column = 0; column < numAPs; column++) {
+				InetAddress agentAddr = agents[column];
+				if (column == row)
+					continue;
 
-				}else{
-                    matrix = matrix + "\t----------";
-                    pathLosses[row][column] = 0;
-                    matrixII[row][column] = 0;
-                    if(++column >= numAPs) {
-                            column = 0;
-                            row ++;		
-                    }
-				}   
+				System.out.println("[ChannelAssignment]");
+				System.out.println("[ChannelAssignment] Agent: " + agentAddr + " in channel " + CHANNEL_PARAMS.channel);
+
+				// Reception distances
+				if (scanningAgents.get(agentAddr) == 0) {
+					System.out.println("[ChannelAssignment] Agent BUSY during scanning operation");
+					continue;				
+				}		
+				Map<MACAddress, Map<String, String>> vals_rx = getScannedStationsStatsFromAgent(agentAddr,SCANNED_SSID);
+				System.out.println("[ChannelAssignment] Timestamp - Scan: " + System.currentTimeMillis() + " ms since epoch");
+				
+				if (vals_rx.size() > 1) { // If there are multiple replies, the path loss is not valid
+					System.out.println("[ChannelAssignment] ===================================");
+					System.out.println("[ChannelAssignment] ERROR - Multiple replies from agent " + agentAddr);
+					System.out.println("[ChannelAssignment] ===================================");
+					continue;
+				}
+
+				for (Entry<MACAddress, Map<String, String>> vals_entry_rx: vals_rx.entrySet()) {
+					// NOTE: the clients currently scanned MAY NOT be the same as the clients who have been associated		
+					MACAddress APHwAddr = vals_entry_rx.getKey();
+					avg_dB = vals_entry_rx.getValue().get("avg_signal");
+					double losses_dB = txpowerAPs[row] - Double.parseDouble(avg_dB);
+					System.out.println("\tAP MAC: " + APHwAddr);
+					System.out.println("\tAP TxPower: " + txpowerAPs[row] + " dBm");
+					System.out.println("\tavg signal: " + avg_dB + " dBm");
+					System.out.println("\tpathloss: " + losses_dB + " dB");
+					System.out.println("\tfrom channel: " + channelAPs[row] + " to channel: "+channelAPs[column]);
+					int channelDistance = Math.abs(channelAPs[row]-channelAPs[column]);
+					System.out.println("\tII coef: " + coefII[channelDistance]);
+
+					graph.update(row, column, losses_dB); // Moving average of this pair only
+				}
 			}
-			matrix = matrix + "\n";
-		}
+
+		beacon(row + 1);
+  }
+
+  /**
+   * All the beacons sent, assign the channels if needed
+   */
+  private void evaluate() {
 		//Print matrix
 		System.out.println("[ChannelAssignment] === MATRIX OF PATHLOSS (dB) ===");
 		System.out.println("[ChannelAssignment]     " + (number_scans+1) + " scans\n");
-        System.out.println(matrix);            
+        System.out.println(graph.formatPathLosses(agentNames));            
 		System.out.println("[ChannelAssignment] =================================");	
 		System.out.println("[ChannelAssignment] Scanning done in: " + (System.currentTimeMillis()-time) + " ms\n");
+		double sumII = graph.getImpactDb(); // Kept up to date pair by pair
 		System.out.println("[ChannelAssignment] =================================");
-		System.out.println("[ChannelAssignment] = MATRIX OF INTERFERENCE IMPACT =\n");
-		double sumII = 0;
-		for (double[] arrayCoefII: matrixII) {
-
-            System.out.print("[ ");
-            for (double coef_II: arrayCoefII) {
-                System.out.print(String.format("%.2f",coef_II)+" ");
-            }
-            System.out.println("]");
-        }
-        double sumIIlineal = 0;
-        for (double[] arrayCoefII: matrixII) {
-
-            for (double coef_II: arrayCoefII) {
-                if(coef_II!=0.0){
-                    double coef_II_lineal = Math.pow(10.0, coef_II / 10.0);
-                    sumIIlineal += coef_II_lineal;
-                }
-            }
-        }
-		if(sumIIlineal!=0){ // The algorithm is triggered only if sumII not 0
-			sumII = 10.0*Math.log10(sumIIlineal);//II in dB;
-        }
+		System.out.println("[ChannelAssignment] = INTERFERENCE IMPACT =\n");
+		System.out.println("[ " + String.format("%.2f",sumII) + " ]");
 		System.out.println("[ChannelAssignment] =================================\n");
         if(number_scans < (CHANNEL_PARAMS.number_scans-1)){
             number_scans++;
-            Thread.sleep(CHANNEL_PARAMS.pause);
-            continue;
+            nextRound(CHANNEL_PARAMS.pause);
+            return;
         }
 		
 		// End of loop for iteration, as result, a moving mean of the matrix
         time = System.currentTimeMillis();
-        if((Double.compare(sumII,CHANNEL_PARAMS.threshold.doubleValue())<0)||(sumII==0)){   
+        if((Double.compare(sumII,CHANNEL_PARAMS.threshold.doubleValue())<0)||(sumII==Double.NEGATIVE_INFINITY)){   
             System.out.println("[ChannelAssignment] Interference Impact: " + String.format("%.2f",sumII));
 			System.out.println("[ChannelAssignment] Threshold: " + CHANNEL_PARAMS.threshold); // Print Threshold
             System.out.println("[ChannelAssignment] ChannelAssignment not necessary");
             System.out.println("[ChannelAssignment] =================================");
             System.out.println("[ChannelAssignment] Idle for " + CHANNEL_PARAMS.idle_time + " seconds\n");
-            number_scans = 0;
-            pathLosses = new double[numAPs][numAPs];
-            matrixII = new double[numAPs][numAPs];
-            Thread.sleep(CHANNEL_PARAMS.idle_time*1000);
-            continue;
+            nextRound(CHANNEL_PARAMS.idle_time*1000);
+            return;
         }else{
-			if(isValidforChAssign) {
-				System.out.println("[ChannelAssignment] Interference Impact: " + String.format("%.2f",sumII));
-				System.out.println("[ChannelAssignment] Threshold: " + CHANNEL_PARAMS.threshold); // Print Threshold
-				channels = this.getChannelAssignments(pathLosses, CHANNEL_PARAMS.method); // Method: 1 for WI5, 2 for RANDOM, 3 for LCC
+			System.out.println("[ChannelAssignment] Interference Impact: " + String.format("%.2f",sumII));
+			System.out.println("[ChannelAssignment] Threshold: " + CHANNEL_PARAMS.threshold); // Print Threshold
+			if(!graph.isComplete()) {
+				System.out.println("[ChannelAssignment] Matrix not valid for channel assignment");
+			}else if(!graph.hasChangedSinceAssignment()) { // Same result as the last time
+				System.out.println("[ChannelAssignment] Pathloss has not changed since the last channel assignment");
+			}else{
+				channels = this.getChannelAssignments(graph.getPathLosses(), CHANNEL_PARAMS.method); // Method: 1 for WI5, 2 for RANDOM, 3 for LCC
 				System.out.println("[ChannelAssignment] Timestamp - Algorithm: " + System.currentTimeMillis() + " ms since epoch");
-				int i=0;
-				for (InetAddress agentAddr: getAgents()) {
-					System.out.println("[ChannelAssignment] Setting AP " + agentAddr + " to channel: " + channels[0][i]);
-					setChannelToAgent(agentAddr,channels[0][i]);
-					i++;
+				if (channels != null) {
+					for (int i = 0; i < numAPs; i++) {
+						System.out.println("[ChannelAssignment] Setting AP " + agents[i] + " to channel: " + channels[i]);
+						setChannelToAgent(agents[i],channels[i]);
+						graph.setChannel(i, channels[i]);
+					}
+					graph.markAssigned();
 				}
-			}else{
-				System.out.println("[ChannelAssignment] Matrix not valid for channel assignment");
 			}
 		}
 		System.out.println("[ChannelAssignment] Processing done in: " + (System.currentTimeMillis()-time) + " ms");
 		System.out.println("[ChannelAssignment] =================================");
 		System.out.println("[ChannelAssignment] Idle for " + CHANNEL_PARAMS.idle_time + " seconds\n");
-		number_scans = 0;
-		pathLosses = new double[numAPs][numAPs];
-		matrixII = new double[numAPs][numAPs];
-		Thread.sleep(CHANNEL_PARAMS.idle_time*1000);
-	  } catch (InterruptedException e) {
-	      e.printStackTrace();
-      }
-	}
+		nextRound(CHANNEL_PARAMS.idle_time*1000);
   }
   
-    private int[][] getChannelAssignments(double[][] pathLosses, int methodType) {
+    private int[] getChannelAssignments(double[][] pathLosses, int methodType) {
 
-		//System.out.println(System.getProperty("java.library.path"));
+		int[] channels = null;
 
-		MWNumericArray n = null;   /* Stores method_number */
-		Object[] result = null;    /* Stores the result */
-		Wi5 channelFinder= null;     /* Stores magic class instance */
-
-		MWNumericArray pathLossMatrix = null;
-		
-		MWNumericArray channelsArray = null;
-		int[][] channels = null;
-		
 		try
-		{	/* Convert and print inputs */
-			pathLossMatrix = new MWNumericArray(pathLosses, MWClassID.DOUBLE);
-			n = new MWNumericArray(methodType, MWClassID.DOUBLE);
-			/* Create new ChannelAssignment object */
-
-			channelFinder = new Wi5();
-			result = channelFinder.getChannelAssignments(1, pathLossMatrix, n);
+		{
+			channels = ChannelAssignmentSolvers.forMethod(methodType).assign(pathLosses, null);
 
-			/* Compute magic square and print result */
 			System.out.println("[ChannelAssignment] =======CHANNEL ASSIGNMENTS=======");
-			System.out.println(result[0]); // result is type Object
+			System.out.println(Arrays.toString(channels));
 			System.out.println("[ChannelAssignment] =================================");
-			
-			channelsArray = (MWNumericArray) result[0]; // Object to 2D MWNumericArray
-			channels = (int[][]) channelsArray.toIntArray(); // 2D MWNumericArray to int[][]
 		}
 		catch (Exception e)
 		{
 			System.out.println("Exception: " + e.toString());
 		}
-
-		finally
-		{
-			/* Free native resources */
-			MWArray.disposeArray(pathLossMatrix);
-			MWArray.disposeArray(result);
-			MWArray.disposeArray(channelsArray);
-			if (channelFinder != null)
-				channelFinder.dispose();
-            return channels;
-		}
+		return channels;
 	}
 	public void promptEnterKey(){ // Function to ask for a key
       System.out.println("Press \"ENTER\" to continue...");
@@ -0,0 +1,23 @@
+package net.floodlightcontroller.odin.applications;
+
+/**
+ * Chooses a channel for every AP of a pool, from what the APs
+ * measured of each other and of the networks around them.
+ *
+ * APs are identified by their index in the matrices, which is
+ * the order getAgents() returned them in.
+ *
+ * @see ChannelAssignmentSolvers
+ */
+public interface ChannelAssignmentSolver {
+
+	/**
+	 * @param pathLosses [i][j] is the path loss from AP i to AP j,
+	 *   in dB, or 0 if it wasn't measured
+	 * @param externalII [channel - 1][i] is the interference impact of
+	 *   the networks outside the pool on AP i, in dB. May be null
+	 * @return the channel of every AP, from 1 to
+	 *   ChannelAssignmentSolvers.NUM_CHANNELS
+	 */
+	int[] assign (double[][] pathLosses, double[][] externalII);
+}
@@ -0,0 +1,35 @@
+package net.floodlightcontroller.odin.applications;
+
+/**
+ * The channel assignment methods that can be selected with
+ * the "method" channel assignment parameter
+ */
+public final class ChannelAssignmentSolvers {
+	public static final int WI5 = 1;
+	public static final int RANDOM = 2;
+	public static final int LCC = 3;
+
+	// Channels of the 2.4 GHz band
+	public static final int NUM_CHANNELS = 11;
+
+	private ChannelAssignmentSolvers () {
+	}
+
+	/**
+	 * @param method WI5, RANDOM or LCC
+	 * @return a solver for the method
+	 * @throws IllegalArgumentException if there's no such method
+	 */
+	public static ChannelAssignmentSolver forMethod (int method) {
+		switch (method) {
+			case WI5:
+				return new Wi5ChannelSolver(System.nanoTime());
+			case RANDOM:
+				return new RandomChannelSolver(System.nanoTime());
+			case LCC:
+				return new LccChannelSolver();
+			default:
+				throw new IllegalArgumentException("Unknown channel assignment method " + method);
+		}
+	}
+}
@@ -19,8 +19,6 @@ import net.floodlightcontroller.odin.master.OdinMaster.ChannelAssignmentParams;
 
 import org.apache.commons.io.output.TeeOutputStream;
 
-import com.mathworks.toolbox.javabuilder.*;
-import getChannelAssignments.*;
 import java.lang.*;
 
 public class ChannelAssignment_II extends OdinApplication {
@@ -40,19 +38,22 @@ public class ChannelAssignment_II extends OdinApplication {
   Map<InetAddress, Integer> scanningAgents = new HashMap<InetAddress, Integer> ();
   int result; // Result for scanning
 
-  // Matrix
-  private String matrix = "";
+  // Pathloss has to change this much to assign channels again
+  private final double PATHLOSS_CHANGE = 3.0; // dB
+  
   private String avg_dB = "";
   
   // Algorithm results
   
-  private int[][] channels = null;
+  private int[] channels = null;
   
   private long time = 0L; // Compare timestamps in ms
   private long timeIdle = 0L; // Compare timestamps in ms
   
   private int number_scans = 0;
   
+  private int refreshAgent = -1; // Agent sending beacons even if its pathloss is settled
+  
   private int[] txpowerAPs = null;
   
   private int[] channelAPs = null;
@@ -65,28 +66,44 @@ public class ChannelAssignment_II extends OdinApplication {
   
   HashSet<OdinClient> clients;
 
+  // The order of the APs in the matrices
+  private InetAddress[] agents;
+  private String[] agentNames;
+  private int numAPs;
+  private InterferenceGraph graph;
+  private String operationMode;
+
+  // What run() does, on a thread of its own, when the user is asked something
+  private Runnable consoleTask;
+
   @Override
-  public void run() {
+  protected void start() {
 	
 	this.CHANNEL_PARAMS = getChannelAssignmentParams();
-	String operationMode = CHANNEL_PARAMS.mode;
-    try {
-			Thread.sleep(CHANNEL_PARAMS.time_to_start);
-		} catch (InterruptedException e) {
-	    e.printStackTrace();
-    }
+	operationMode = CHANNEL_PARAMS.mode;
+	scheduleTimer(new Runnable() {
+		@Override
+		public void run() {
+			init();
+		}
+	}, CHANNEL_PARAMS.time_to_start);
+  }
+
+  private void init() {
     
-    int numAPs = getAgents().size();
-    double[][] pathLosses = new double[numAPs][numAPs];
-    double[][] matrixII = new double[numAPs][numAPs];
-    double[][] externalII = new double[11][numAPs];
+    // The order of the APs in the matrices
+    agents = getAgents().toArray(new InetAddress[0]);
+    numAPs = agents.length;
+    agentNames = new String[numAPs];
+    for (int k = 0; k < numAPs; k++) {
+        agentNames[k] = agents[k].getHostAddress();
+    }
+    graph = new InterferenceGraph(numAPs, Math.max(1, CHANNEL_PARAMS.number_scans), coefII, PATHLOSS_CHANGE);
     
 	
     txpowerAPs = new int[numAPs];
     channelAPs = new int[numAPs];
     
-    int j=0;
-    
     // Write on file integration
     PrintStream stdout = System.out; // To enable return to console
     FileOutputStream fos = null;
@@ -106,20 +123,70 @@ public class ChannelAssignment_II extends OdinApplication {
       }
     }
 	
-	while (true) {
-	
-      try {
-        
-        matrix = "";
-        boolean isValidforChAssign = true;
-		int row = 0, column = 0;
-		if(operationMode.equals("manual")){
+	round();
+  }
+
+  /**
+   * Ask the user on the console, then carry on with next
+   */
+  private void onConsole(final Runnable ask, final Runnable next) {
+	consoleTask = new Runnable() {
+		@Override
+		public void run() {
+			ask.run();
+			scheduleTimer(next, 0);
+		}
+	};
+	runDedicated();
+  }
+
+  @Override
+  public void run() {
+	consoleTask.run();
+  }
+
+  /**
+   * Schedule the next round
+   */
+  private void nextRound(long delayMs) {
+	scheduleTimer(new Runnable() {
+		@Override
+		public void run() {
+			round();
+		}
+	}, delayMs);
+  }
+
+  private void round() {
+	Runnable measure = new Runnable() {
+		@Override
+		public void run() {
+			measure();
+		}
+	};
+
+	if(operationMode.equals("manual")){
+	  onConsole(new Runnable() {
+		@Override
+		public void run() {
           promptEnterKey();
           System.out.println("[ChannelAssignment] ======== Agents information ========");
-        }
-		
+          readAgents();
+		}
+	  }, measure);
+	  return;
+	}
+	readAgents();
+	measure.run();
+  }
+
+  /**
+   * Get TxPower and channels from Agents and change channel if needed
+   */
+  private void readAgents() {
         // Get TxPower and channels from Agents and change channel if needed
-        for (InetAddress AgentAddr: getAgents()) {
+        for (int j = 0; j < numAPs; j++) {
+            InetAddress AgentAddr = agents[j];
             channelAPs[j] = getChannelFromAgent(AgentAddr);
             txpowerAPs[j] = getTxPowerFromAgent(AgentAddr);
             if(operationMode.equals("manual")){
@@ -133,7 +200,8 @@ public class ChannelAssignment_II extends OdinApplication {
 			  setChannelToAgent(AgentAddr,userInt);
 			  channelAPs[j] = userInt;
 			}
-            j++;
+            graph.setChannel(j, channelAPs[j]);
+            graph.setTxPower(j, txpowerAPs[j]);
         }
         
         // Associate STAs to specific Agent
@@ -146,18 +214,20 @@ public class ChannelAssignment_II extends OdinApplication {
               InetAddress clientAddr = oc.getIpAddress();
               InetAddress agentAddr = oc.getLvap().getAgent().getIpAddress();
               System.out.println("[ChannelAssignment] Client " + clientAddr + " in agent " + agentAddr);
-              System.out.print("[ChannelAssignment] Select Agent for Client " + clientAddr + "[0-"+(j-1)+"]:");
+              System.out.print("[ChannelAssignment] Select Agent for Client " + clientAddr + "[0-"+(numAPs-1)+"]:");
               userInt = in.nextInt();// FIXME assume user will use 0-j-1
               System.out.println("[ChannelAssignment] ===================================");
-              InetAddress[] agentsArray = getAgents().toArray(new InetAddress[0]);
-              handoffClientToAp(eth, agentsArray[userInt]);
+              handoffClientToAp(eth, agents[userInt]);
             }
             promptEnterKey();
           }
         }
-        j = 0;
-        
-        
+  }
+
+  /**
+   * Measure the path losses, with the APs sending beacons one after another
+   */
+  private void measure() {
         
 		time = System.currentTimeMillis();
         		
@@ -169,13 +239,28 @@ public class ChannelAssignment_II extends OdinApplication {
 		System.out.println("[ChannelAssignment] Scanning channel " + CHANNEL_PARAMS.channel);
 		System.out.println("[ChannelAssignment]");
 
-		for (InetAddress beaconAgentAddr: getAgents()) {
+		// Only the APs whose path losses are still moving send beacons,
+		// plus one of the others in turn to find out if they start to
+		refreshAgent = (refreshAgent + 1) % Math.max(1, numAPs);
+
+		beacon(0);
+  }
+
+  /**
+   * Have the first AP from row on whose path losses are still moving
+   * send the measurement beacon, while the others scan
+   */
+  private void beacon(int first) {
+		for (int row = first; row < numAPs; row++) {
+			if (graph.isSettled(row) && row != refreshAgent)
+				continue;
+			InetAddress beaconAgentAddr = agents[row];
 			scanningAgents.clear();
 			System.out.println("[ChannelAssignment] Agent to send measurement beacon: " + beaconAgentAddr);	
 			
 			// For each Agent
 			System.out.println("[ChannelAssignment] Request for scanning during the interval of  " + CHANNEL_PARAMS.scanning_interval + " ms in SSID " + SCANNED_SSID);	
-			for (InetAddress agentAddr: getAgents()) {
+			for (InetAddress agentAddr: agents) {
 			
 	  			if (agentAddr != beaconAgentAddr) {
 					System.out.println("[ChannelAssignment] Agent listening: " + agentAddr);	
@@ -188,131 +273,107 @@ public class ChannelAssignment_II extends OdinApplication {
 			// Request to send measurement beacon
 			if (requestSendMesurementBeaconFromAgent(beaconAgentAddr, CHANNEL_PARAMS.channel, SCANNED_SSID) == 0) {
 					System.out.println("[ChannelAssignment] Agent BUSY during measurement beacon operation");
-					isValidforChAssign = false;
 					continue;				
 			}
 
-			try {
-				Thread.sleep(CHANNEL_PARAMS.scanning_interval + CHANNEL_PARAMS.added_time);
-				} 
-			catch (InterruptedException e) {
-							e.printStackTrace();
+			final int beaconRow = row;
+			scheduleTimer(new Runnable() {
+				@Override
+				public void run() {
+					collect(beaconRow);
 				}
+			}, CHANNEL_PARAMS.scanning_interval + CHANNEL_PARAMS.added_time);
+			return;
+		}
+		evaluate();
+  }
+
+  /**
+   * Read what the other APs heard of the beacon of the AP in row
+   */
+  private void collect(int row) {
+			InetAddress beaconAgentAddr = agents[row];
 			
 			// Stop sending meesurement beacon
 			stopSendMesurementBeaconFromAgent(beaconAgentAddr);
 			
-			matrix = matrix + beaconAgentAddr.toString().substring(1);
-
-			for (InetAddress agentAddr: getAgents()) {			
-				if (agentAddr != beaconAgentAddr) {
-
-					System.out.println("[ChannelAssignment]");
-					System.out.println("[ChannelAssignment] Agent: " + agentAddr + " in channel " + CHANNEL_PARAMS.channel);
-
-					// Reception distances
-					if (scanningAgents.get(agentAddr) == 0) {
-						System.out.println("[ChannelAssignment] Agent BUSY during scanning operation");
-						isValidforChAssign = false;
-						continue;				
-					}		
-					Map<MACAddress, Map<String, String>> vals_rx = getScannedStationsStatsFromAgent(agentAddr,SCANNED_SSID);
-					System.out.println("[ChannelAssignment] Timestamp - Scan: " + System.currentTimeMillis() + " ms since epoch");
-					
-					boolean isMultiple = false; // In case there are multiple replies from agent
-					
-					for (Entry<MACAddress, Map<String, String>> vals_entry_rx: vals_rx.entrySet()) {
-						// NOTE: the clients currently scanned MAY NOT be the same as the clients who have been associated		
-						MACAddress APHwAddr = vals_entry_rx.getKey();
-						avg_dB = vals_entry_rx.getValue().get("avg_signal");
-						double losses_dB = txpowerAPs[row] - Double.parseDouble(avg_dB);
-						System.out.println("\tAP MAC: " + APHwAddr);
-						System.out.println("\tAP TxPower: " + txpowerAPs[row] + " dBm");
-						System.out.println("\tavg signal: " + avg_dB + " dBm");
-						System.out.println("\tpathloss: " + losses_dB + " dB");
-						System.out.println("\tfrom channel: " + channelAPs[row] + " to channel: "+channelAPs[column]);
-						int channelDistance = Math.abs(channelAPs[row]-channelAPs[column]);
-						System.out.println("\tII coef: " + coefII[channelDistance]);
-						
-						if(!isMultiple) {
-                            double losses = Math.pow(10.0, losses_dB / 10.0); // Linear power
-                            double average = 0;
-                            if(number_scans!=0){
-                                average = Math.pow(10.0, (pathLosses[row][column]) / 10.0); // Linear power average;
-                            }
-                            average = average  + ((losses - average)/(number_scans +1)); // Cumulative moving average
-                            pathLosses[row][column] = 10.0*Math.log10(average); //Average power in dBm
-							double avg_signal_dB_II = txpowerAPs[row] - pathLosses[row][column];
-							//System.out.println("\tavg_signal_II: " + avg_signal_dB_II);
-							double avg_signal_II = Math.pow(10.0, avg_signal_dB_II / 10.0);
-							if(coefII[channelDistance]==0){
-                                matrixII[row][column] = 0;
-							}else{
-                                matrixII[row][column] = 10.0*Math.log10(coefII[channelDistance]*avg_signal_II);//II in dB
-							}
-							avg_dB = String.valueOf(pathLosses[row][column]); // Average string
-                            if(avg_dB.length()>6){
-                                matrix = matrix + "\t" + avg_dB.substring(0,6) + " dB";
-                            }else{
-                                matrix = matrix + "\t" + avg_dB + " dB   ";
-                            }
-
-                            if(++column >= numAPs) {
-                                column = 0;
-                                row ++;		
-                            }
-                            isMultiple = true;
-						}
-						else
-						{	// If there are multiple replies, pathLosses is not valid
-							isValidforChAssign = false;
-							System.out.println("[ChannelAssignment] ===================================");
-							System.out.println("[ChannelAssignment] ERROR - Multiple replies from agent " + agentAddr);
-							System.out.println("[ChannelAssignment] ===================================");											
-						}
-					}
+			for (int column = 0; column < numAPs; column++) {
+				InetAddress agentAddr = agents[column];
+				if (column == row)
+					continue;
 
-				}else{
-                    matrix = matrix + "\t----------";
-                    pathLosses[row][column] = 0;
-                    matrixII[row][column] = 0;
-                    if(++column >= numAPs) {
-                            column = 0;
-                            row ++;		
-                    }
-				}   
+				System.out.println("[ChannelAssignment]");
+				System.out.println("[ChannelAssignment] Agent: " + agentAddr + " in channel " + CHANNEL_PARAMS.channel);
+
+				// Reception distances
+				if (scanningAgents.get(agentAddr) == 0) {
+					System.out.println("[ChannelAssignment] Agent BUSY during scanning operation");
+					continue;				
+				}		
+				Map<MACAddress, Map<String, String>> vals_rx = getScannedStationsStatsFromAgent(agentAddr,SCANNED_SSID);
+				System.out.println("[ChannelAssignment] Timestamp - Scan: " + System.currentTimeMillis() + " ms since epoch");
+				
+				if (vals_rx.size() > 1) { // If there are multiple replies, the path loss is not valid
+					System.out.println("[ChannelAssignment] ===================================");
+					System.out.println("[ChannelAssignment] ERROR - Multiple replies from agent " + agentAddr);
+					System.out.println("[ChannelAssignment] ===================================");
+					continue;
+				}
+
+				for (Entry<MACAddress, Map<String, String>> vals_entry_rx: vals_rx.entrySet()) {
+					// NOTE: the clients currently scanned MAY NOT be the same as the clients who have been associated		
+					MACAddress APHwAddr = vals_entry_rx.getKey();
+					avg_dB = vals_entry_rx.getValue().get("avg_signal");
+					double losses_dB = txpowerAPs[row] - Double.parseDouble(avg_dB);
+					System.out.println("\tAP MAC: " + APHwAddr);
+					System.out.println("\tAP TxPower: " + txpowerAPs[row] + " dBm");
+					System.out.println("\tavg signal: " + avg_dB + " dBm");
+					System.out.println("\tpathloss: " + losses_dB + " dB");
+					System.out.println("\tfrom channel: " + channelAPs[row] + " to channel: "+channelAPs[column]);
+					int channelDistance = Math.abs(channelAPs[row]-channelAPs[column]);
+					System.out.println("\tII coef: " + coefII[channelDistance]);
+
+					graph.update(row, column, losses_dB); // Moving average of this pair only
+				}
 			}
-			matrix = matrix + "\n";
-		}
+
+		beacon(row + 1);
+  }
+
+  /**
+   * All the beacons sent, check the interference until it is time
+   * to scan again
+   */
+  private void evaluate() {
 		//Print matrix
 		System.out.println("[ChannelAssignment] ==== MATRIX OF PATHLOSS (dB) ====");
 		System.out.println("[ChannelAssignment]     " + (number_scans+1) + " scans\n");
-        System.out.println(matrix);            
+        System.out.println(graph.formatPathLosses(agentNames));            
 		System.out.println("[ChannelAssignment] =================================");	
 		System.out.println("[ChannelAssignment] Scanning done in: " + (System.currentTimeMillis()-time) + " ms\n");
 		// Check Number of Scans
         if(number_scans < (CHANNEL_PARAMS.number_scans-1)){
             number_scans++;
-            Thread.sleep(CHANNEL_PARAMS.pause);
-            continue;
+            nextRound(CHANNEL_PARAMS.pause);
+            return;
         }
 		
 		timeIdle = System.currentTimeMillis();
 		
-		boolean notScan = true;
-		
 		//
 		//
 		// 
 		// Scan completed, now Internal II
-		
-		while(notScan){
+		checkInterference();
+  }
+
+  private void checkInterference() {
 		
             // Update Internal II
 		
             double sumII = 0;
             
-            sumII = updateAndPrintInternalII(pathLosses, channelAPs, txpowerAPs, coefII);
+            sumII = updateAndPrintInternalII(graph, agents);
             
             // End of loop for iteration, as result, a moving mean of the matrix
             
@@ -323,214 +384,136 @@ public class ChannelAssignment_II extends OdinApplication {
 				System.out.println("[ChannelAssignment] Threshold: " + CHANNEL_PARAMS.threshold); // Print Threshold
                 System.out.println("[ChannelAssignment] ChannelAssignment not necessary");
                 System.out.println("[ChannelAssignment] =================================");
+                Runnable pause = new Runnable() {
+                    @Override
+                    public void run() {
+                        pause();
+                    }
+                };
                 // Get TxPower and channels from Agents and change channel if needed
                 if(operationMode.equals("manual")){
-                    j = 0;
-                    for (InetAddress AgentAddr: getAgents()) {
-                        channelAPs[j] = getChannelFromAgent(AgentAddr);
-                        txpowerAPs[j] = getTxPowerFromAgent(AgentAddr);
-                        System.out.println("[ChannelAssignment] [ " + j + " ]");
-                        System.out.println("[ChannelAssignment] Agent:" + AgentAddr);
-                        System.out.println("[ChannelAssignment]\tCurrent channel: " + channelAPs[j]);
-                        System.out.println("[ChannelAssignment]\tTxPower: " + txpowerAPs[j] + " dBm");
-                        System.out.print("[ChannelAssignment] Select channel for AP " + AgentAddr + "[1-11]:");
-                        userInt = in.nextInt(); // FIXME assume user will use 1-11
-                        System.out.println("[ChannelAssignment] ===================================");	
-                        setChannelToAgent(AgentAddr,userInt);
-                        channelAPs[j] = userInt;
-                        j++;
-                    }
-                    j = 0;
-                }
-                if ( (time-timeIdle) > CHANNEL_PARAMS.idle_time*1000){
-                    notScan = false;
-                    System.out.println("[ChannelAssignment] IdleTime has passed, rescan pathloss");
-                }else{
-                    System.out.println("[ChannelAssignment] Pause for " + CHANNEL_PARAMS.pause + " ms\n");
-                    Thread.sleep(CHANNEL_PARAMS.pause);
+                    onConsole(new Runnable() {
+                        @Override
+                        public void run() {
+            for (int j = 0; j < numAPs; j++) {
+                InetAddress AgentAddr = agents[j];
+                channelAPs[j] = getChannelFromAgent(AgentAddr);
+                txpowerAPs[j] = getTxPowerFromAgent(AgentAddr);
+                System.out.println("[ChannelAssignment] [ " + j + " ]");
+                System.out.println("[ChannelAssignment] Agent:" + AgentAddr);
+                System.out.println("[ChannelAssignment]\tCurrent channel: " + channelAPs[j]);
+                System.out.println("[ChannelAssignment]\tTxPower: " + txpowerAPs[j] + " dBm");
+                System.out.print("[ChannelAssignment] Select channel for AP " + AgentAddr + "[1-11]:");
+                userInt = in.nextInt(); // FIXME assume user will use 1-11
+                System.out.println("[ChannelAssignment] ===================================");	
+                setChannelToAgent(AgentAddr,userInt);
+                channelAPs[j] = userInt;
+                graph.setChannel(j, channelAPs[j]);
+                graph.setTxPower(j, txpowerAPs[j]);
+            }
+                        }
+                    }, pause);
+                    return;
                 }
-                
-                continue;
+                pause();
+                return;
             }
             else{
-                if(isValidforChAssign) { // Launch Algorithm
-                    System.out.println("[ChannelAssignment] Interference Impact: " + String.format("%.2f",sumII));
-                    System.out.println("[ChannelAssignment] Threshold: " + CHANNEL_PARAMS.threshold); // Print Threshold
-                    
-                    externalII = getExternalII(CHANNEL_PARAMS.scanning_interval,numAPs);
-                    
-                    channels = this.getChannelAssignments(pathLosses, CHANNEL_PARAMS.method, externalII); // Method: 1 for WI5, 2 for RANDOM, 3 for LCC
-                    System.out.println("[ChannelAssignment] Timestamp - Algorithm: " + System.currentTimeMillis() + " ms since epoch");
-                    int i=0;
-                    for (InetAddress agentAddr: getAgents()) {
-                        System.out.println("[ChannelAssignment] Setting AP " + agentAddr + " to channel: " + channels[0][i]);
-                        setChannelToAgent(agentAddr,channels[0][i]);
-                        i++;
-                    }
-                }else{
+                System.out.println("[ChannelAssignment] Interference Impact: " + String.format("%.2f",sumII));
+                System.out.println("[ChannelAssignment] Threshold: " + CHANNEL_PARAMS.threshold); // Print Threshold
+                if(!graph.isComplete()) {
                     System.out.println("[ChannelAssignment] Matrix not valid for channel assignment");
+                }else if(!graph.hasChangedSinceAssignment()) { // Same result as the last time
+                    System.out.println("[ChannelAssignment] Pathloss has not changed since the last channel assignment");
+                }else{ // Launch Algorithm
+                    clients = new HashSet<OdinClient>(getClients());
+                    scanExternalII(1, new double[11][numAPs]);
+                    return;
                 }
             }
+            processingDone();
+  }
+
+  /**
+   * Assign the channels, with the external interference impact
+   * the APs measured
+   */
+  private void assignChannels(double[][] externalII) {
+                    channels = this.getChannelAssignments(graph.getPathLosses(), CHANNEL_PARAMS.method, externalII); // Method: 1 for WI5, 2 for RANDOM, 3 for LCC
+                    System.out.println("[ChannelAssignment] Timestamp - Algorithm: " + System.currentTimeMillis() + " ms since epoch");
+                    if (channels != null) {
+                        for (int i = 0; i < numAPs; i++) {
+                            System.out.println("[ChannelAssignment] Setting AP " + agents[i] + " to channel: " + channels[i]);
+                            setChannelToAgent(agents[i],channels[i]);
+                            graph.setChannel(i, channels[i]);
+                        }
+                        graph.markAssigned();
+                    }
+            processingDone();
+  }
+
+  private void processingDone() {
             System.out.println("[ChannelAssignment] Processing done in: " + (System.currentTimeMillis()-time) + " ms");
             System.out.println("[ChannelAssignment] =================================");
+            pause();
+  }
+
+  /**
+   * Check the interference again after a pause, or scan the path
+   * losses again once the idle time has passed
+   */
+  private void pause() {
             if ( (time-timeIdle) > CHANNEL_PARAMS.idle_time*1000){
-                notScan = false;
                 System.out.println("[ChannelAssignment] IdleTime has passed, rescan pathloss");
+                nextRound(0);
             }else{
                 System.out.println("[ChannelAssignment] Pause for " + CHANNEL_PARAMS.pause + " ms\n");
-                Thread.sleep(CHANNEL_PARAMS.pause);
+                scheduleTimer(new Runnable() {
+                    @Override
+                    public void run() {
+                        checkInterference();
+                    }
+                }, CHANNEL_PARAMS.pause);
             }
-      }
-        
-        number_scans = 0;
-		pathLosses = new double[numAPs][numAPs];
-		matrixII = new double[numAPs][numAPs];
-	  
-	  } catch (InterruptedException e) {
-	      e.printStackTrace();
-      }
-	}
   }
   
-    private int[][] getChannelAssignments(double[][] pathLosses, int methodType, double[][] externalII) { // New parameter in function
-
-		//System.out.println(System.getProperty("java.library.path"));
+    private int[] getChannelAssignments(double[][] pathLosses, int methodType, double[][] externalII) { // New parameter in function
 
-		MWNumericArray n = null;   /* Stores method_number */
-		Object[] result = null;    /* Stores the result */
-		Wi5 channelFinder= null;     /* Stores magic class instance */
+		int[] channels = null;
 
-		MWNumericArray pathLossMatrix = null;
-		MWNumericArray externalIIMatrix = null;
-		
-		MWNumericArray channelsArray = null;
-		int[][] channels = null;
-		
 		try
-		{	/* Convert and print inputs */
-			pathLossMatrix = new MWNumericArray(pathLosses, MWClassID.DOUBLE);
-			externalIIMatrix = new MWNumericArray(externalII, MWClassID.DOUBLE);
-			n = new MWNumericArray(methodType, MWClassID.DOUBLE);
-			/* Create new ChannelAssignment object */
-
-			channelFinder = new Wi5();
-			result = channelFinder.getChannelAssignments(1, pathLossMatrix, n, externalIIMatrix);
+		{
+			channels = ChannelAssignmentSolvers.forMethod(methodType).assign(pathLosses, externalII);
 
-			/* Compute magic square and print result */
 			System.out.println("[ChannelAssignment] =======CHANNEL ASSIGNMENTS=======");
-			System.out.println(result[0]); // result is type Object
+			System.out.println(Arrays.toString(channels));
 			System.out.println("[ChannelAssignment] =================================");
-			
-			channelsArray = (MWNumericArray) result[0]; // Object to 2D MWNumericArray
-			channels = (int[][]) channelsArray.toIntArray(); // 2D MWNumericArray to int[][]
 		}
 		catch (Exception e)
 		{
 			System.out.println("Exception: " + e.toString());
 		}
-
-		finally
-		{
-			/* Free native resources */
-			MWArray.disposeArray(pathLossMatrix);
-			MWArray.disposeArray(externalIIMatrix);
-			MWArray.disposeArray(result);
-			MWArray.disposeArray(channelsArray);
-			if (channelFinder != null)
-				channelFinder.dispose();
-            return channels;
-		}
+		return channels;
 	}
 	private void promptEnterKey(){ // Function to ask for a key
       System.out.println("Press \"ENTER\" to continue...");
       Scanner scanner = new Scanner(System.in);
       scanner.nextLine();
     }
-    private double updateAndPrintInternalII(double[][] pathLosses, int[] channelAPs, int[] txpowerAPs, double[] coefII){ // Function to calculate and print Internal Interference Impact
-        int i=0;
-        int j=0;
-        for (InetAddress AgentAddr: getAgents()) { // Update channels
-            channelAPs[i] = getChannelFromAgent(AgentAddr);
-            i++;
-        }
-        int numAPs = channelAPs.length;
-        
-        double[][] matrixII = new double[numAPs][numAPs];
-        
-        i=0;
-        
-        for (i=0;i<numAPs;i++) { // Create matrixII
-        
-            for (j=0;j<numAPs;j++) {
-        
-                //System.out.println("[ChannelAssignment] ["+i+"]["+j+"]");
-                
-                if (i != j) {
-
-                    int channelDistance = Math.abs(channelAPs[i]-channelAPs[j]);
-
-                    double avg_signal_dB_II = txpowerAPs[i] - pathLosses[i][j];
-                            
-                    double avg_signal_II = Math.pow(10.0, avg_signal_dB_II / 10.0);
-                    
-                    //System.out.println("[ChannelAssignment] channelDistance["+i+"]["+j+"]: "+ channelDistance);
-
-                    if(coefII[channelDistance]==0){
-                        matrixII[i][j] = 0;
-                    }else{
-                        matrixII[i][j] = 10.0*Math.log10(coefII[channelDistance]*avg_signal_II);//II in dB
-                    }
-                    //System.out.println("[ChannelAssignment] matrixII["+i+"]["+j+"]: "+ matrixII[i][j]);
-
-                }else{
-                    matrixII[i][j] = 0;
-                }
-            }
+    private double updateAndPrintInternalII(InterferenceGraph graph, InetAddress[] agents){ // Function to update and print Internal Interference Impact
+        for (int i = 0; i < agents.length; i++) { // Update channels, only the pairs of an AP that moved are recomputed
+            channelAPs[i] = getChannelFromAgent(agents[i]);
+            graph.setChannel(i, channelAPs[i]);
         }
+        double sumII = graph.getImpactDb();
         System.out.println("[ChannelAssignment] ======================================");
 		System.out.println("[ChannelAssignment] = INTERNAL INTERFERENCE IMPACT [dBm] =\n");
-		double sumII = 0;
-		for (double[] arrayCoefII: matrixII) {
-
-            System.out.print("[ ");
-            for (double coef_II: arrayCoefII) {
-                System.out.print(String.format("%.2f",coef_II)+" ");
-            }
-            System.out.println("]");
-        }
-        double sumIIlineal = 0;
-        for (double[] arrayCoefII: matrixII) {
-
-            for (double coef_II: arrayCoefII) {
-                if(coef_II!=0.0){
-                    double coef_II_lineal = Math.pow(10.0, coef_II / 10.0);
-                    sumIIlineal += coef_II_lineal;
-                }
-            }
-        }
-        sumII = 10.0*Math.log10(sumIIlineal);//II in dB;
+		System.out.println("[ " + String.format("%.2f",sumII) + " ]");
         System.out.println("");
 		System.out.println("[ChannelAssignment] ======================================");
         return sumII;
     }
-    private double[][] getExternalII(int scanningInterval, int numAPs){ // Function to get and calculate External Interference Impact
-        double[][] externalII = new double[11][numAPs];
-
-        // SSID to scan
-        String SCANNED_SSID = "*";
-
-        // Scanning agents
-        Map<InetAddress, Integer> scanningAgents = new HashMap<InetAddress, Integer> ();
-        int result; // Result for scanning
-
-        HashSet<OdinClient> clients = new HashSet<OdinClient>(getClients());
-        //For each channel
-        double sumEII = 0;
-        int numAgent = 0;
-        
-		for (int num_channel = 1 ; num_channel <= 11 ; ++num_channel) {
-            sumEII = 0;
-            numAgent = 0;
+    private void scanExternalII(final int num_channel, final double[][] externalII){ // Function to get and calculate External Interference Impact
 			scanningAgents.clear();
 
 			// For each Agent
@@ -540,14 +523,18 @@ public class ChannelAssignment_II extends OdinApplication {
 				scanningAgents.put(agentAddr, result);
 			}					
 				
-			try {
-				Thread.sleep(scanningInterval);
-				} 
-			catch (InterruptedException e) {
-							e.printStackTrace();
+			scheduleTimer(new Runnable() {
+				@Override
+				public void run() {
+					collectExternalII(num_channel, externalII);
 				}
-            //System.out.println("[ChannelAssignment - ExternalII] After sleep");
-			
+			}, CHANNEL_PARAMS.scanning_interval);
+    }
+    private void collectExternalII(int num_channel, double[][] externalII){
+        //For each channel
+        double sumEII = 0;
+        int numAgent = 0;
+        
 			for (InetAddress agentAddr: getAgents()) {
                 //System.out.println("[ChannelAssignment - ExternalII] Agent: " + agentAddr + " scans in channel: " + num_channel);
 				// Reception statistics 
@@ -609,6 +596,10 @@ public class ChannelAssignment_II extends OdinApplication {
 				externalII[num_channel-1][numAgent] = 10.0*Math.log10(sumEII);
 				numAgent++;
 		    }
+
+		if (num_channel < 11) {
+			scanExternalII(num_channel + 1, externalII);
+			return;
 		}
     
     
@@ -625,6 +616,6 @@ public class ChannelAssignment_II extends OdinApplication {
         System.out.println("");
         System.out.println("[ChannelAssignment] =================================\n");
         
-        return externalII;
+        assignChannels(externalII);
     }
 } 
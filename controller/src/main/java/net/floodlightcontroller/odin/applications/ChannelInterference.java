@@ -0,0 +1,153 @@
+package net.floodlightcontroller.odin.applications;
+
+/**
+ * The interference a channel assignment causes, in linear power.
+ *
+ * Two APs interfere with each other as much as the power one gets
+ * from the other, times the overlap of their channels. Each AP also
+ * suffers the interference of the networks outside the pool on its
+ * own channel.
+ */
+final class ChannelInterference {
+	// Overlap of two channels, by the distance between them
+	static final double[] OVERLAP = {1.0, 0.8, 0.6, 0.4, 0.2, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0};
+
+	private static final int CHANNELS = ChannelAssignmentSolvers.NUM_CHANNELS;
+
+	private final int aps;
+
+	// [i][j], the same as [j][i]: AP i hears AP j plus AP j hears AP i
+	private final double[][] coupling;
+
+	// [channel - 1][i]
+	private final double[][] external;
+
+
+	ChannelInterference (double[][] pathLosses, double[][] externalII) {
+		aps = pathLosses.length;
+		for (double[] row: pathLosses) {
+			if (row.length != aps)
+				throw new IllegalArgumentException("Path losses are not a square matrix");
+		}
+		if (externalII != null) {
+			if (externalII.length != CHANNELS)
+				throw new IllegalArgumentException("External interference for " + externalII.length
+						+ " channels instead of " + CHANNELS);
+			for (double[] row: externalII) {
+				if (row.length != aps)
+					throw new IllegalArgumentException("External interference for " + row.length
+							+ " APs instead of " + aps);
+			}
+		}
+
+		coupling = new double[aps][aps];
+		for (int i = 0; i < aps; i++) {
+			for (int j = i + 1; j < aps; j++) {
+				final double c = gain(pathLosses[i][j]) + gain(pathLosses[j][i]);
+				coupling[i][j] = c;
+				coupling[j][i] = c;
+			}
+		}
+
+		external = new double[CHANNELS][aps];
+		if (externalII != null) {
+			for (int ch = 0; ch < CHANNELS; ch++) {
+				for (int i = 0; i < aps; i++) {
+					external[ch][i] = toLinear(externalII[ch][i]);
+				}
+			}
+		}
+	}
+
+
+	int getAps () {
+		return aps;
+	}
+
+
+	/**
+	 * @return how strongly the AP interferes with the rest
+	 */
+	double getCoupling (int ap) {
+		double sum = 0;
+		for (int j = 0; j < aps; j++) {
+			sum += coupling[ap][j];
+		}
+		return sum;
+	}
+
+
+	/**
+	 * Interference the AP would get on each channel, from the
+	 * other APs and the networks outside the pool
+	 *
+	 * @param channels of the APs, 0 for those without one yet
+	 * @param costs filled in, [channel - 1]
+	 */
+	void channelCosts (int ap, int[] channels, double[] costs) {
+		for (int ch = 0; ch < CHANNELS; ch++) {
+			costs[ch] = external[ch][ap];
+		}
+
+		final double[] row = coupling[ap];
+		for (int j = 0; j < aps; j++) {
+			final int other = channels[j];
+			if (j == ap || other == 0 || row[j] == 0)
+				continue;
+
+			final double c = row[j];
+			for (int ch = 0; ch < CHANNELS; ch++) {
+				final int distance = ch + 1 - other;
+				costs[ch] += c * OVERLAP[distance < 0 ? -distance : distance];
+			}
+		}
+	}
+
+
+	/**
+	 * @return the cheapest channel, the lowest one if there's a tie
+	 */
+	static int cheapest (double[] costs) {
+		int best = 0;
+		for (int ch = 1; ch < CHANNELS; ch++) {
+			if (costs[ch] < costs[best])
+				best = ch;
+		}
+		return best + 1;
+	}
+
+
+	/**
+	 * @return the interference of the whole pool
+	 */
+	double cost (int[] channels) {
+		double sum = 0;
+		for (int i = 0; i < aps; i++) {
+			sum += external[channels[i] - 1][i];
+			for (int j = i + 1; j < aps; j++) {
+				sum += coupling[i][j] * OVERLAP[Math.abs(channels[i] - channels[j])];
+			}
+		}
+		return sum;
+	}
+
+
+	/**
+	 * A path loss of 0 dB means it wasn't measured
+	 */
+	private static double gain (double pathLoss) {
+		if (pathLoss == 0 || Double.isNaN(pathLoss))
+			return 0;
+		return Math.pow(10.0, -pathLoss / 10.0);
+	}
+
+
+	/**
+	 * -Infinity dB means nothing was heard
+	 */
+	private static double toLinear (double dB) {
+		if (Double.isNaN(dB) || dB == Double.NEGATIVE_INFINITY)
+			return 0;
+		return Math.pow(10.0, dB / 10.0);
+	}
+}
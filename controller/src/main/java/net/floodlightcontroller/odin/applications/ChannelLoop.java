@@ -18,16 +18,22 @@ public class ChannelLoop extends OdinApplication {
 
   private InetAddress apAddr;
   
+  private int channel = 1;
+  
   private Scanner in = new Scanner(System.in);
   
+  @Override
+  protected void start() {
+    scheduleTimer(new Runnable() {
+      @Override
+      public void run() {
+        runDedicated(); // Waits for the user on the console
+      }
+    }, 15000); // Wait 15 seconds to start
+  }
+
   @Override
   public void run() {
-	
-    try {
-			Thread.sleep(15000); // Wait 15 seconds to start
-		} catch (InterruptedException e) {
-	    e.printStackTrace();
-	  }
 
 	for (InetAddress agentAddr: getAgents()) { // First Ap in poolfile
 		apAddr = agentAddr;
@@ -41,20 +47,21 @@ public class ChannelLoop extends OdinApplication {
         
     System.out.println("Press \"ENTER\" to begin channel iteration...");
     in.nextLine();
-	int i=1;
-	while(i<=11){
-		System.out.println("[ChannelAssignment] New channel for AP " + apAddr + ": " + i);
-        setChannelToAgent(apAddr,i);
-        try{
-          Thread.sleep(10000);
-        }catch(InterruptedException e) {
-          e.printStackTrace();
-        }
-        if(i==11){
-          i=1;
-        }else{
-          i++;
-        }
-	}
+	schedulePeriodic(new Runnable() {
+      @Override
+      public void run() {
+        nextChannel();
+      }
+    }, 0, 10000);
+  }
+
+  private void nextChannel() {
+	System.out.println("[ChannelAssignment] New channel for AP " + apAddr + ": " + channel);
+    setChannelToAgent(apAddr,channel);
+    if(channel==11){
+      channel=1;
+    }else{
+      channel++;
+    }
   }
 } 
@@ -21,14 +21,18 @@ public class ChannelPrompt extends OdinApplication {
   
   private Scanner in = new Scanner(System.in);
   
+  @Override
+  protected void start() {
+    scheduleTimer(new Runnable() {
+      @Override
+      public void run() {
+        runDedicated(); // Waits for the user on the console
+      }
+    }, 15000); // Wait 15 seconds to start
+  }
+
   @Override
   public void run() {
-	
-    try {
-			Thread.sleep(15000); // Wait 15 seconds to start
-		} catch (InterruptedException e) {
-	    e.printStackTrace();
-	  }
 
 	while(true){
 		for (InetAddress agentAddr: getAgents()) {
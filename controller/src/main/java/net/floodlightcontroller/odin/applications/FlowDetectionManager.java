@@ -48,10 +48,14 @@ public class FlowDetectionManager extends OdinApplication {
 	}
 
 	@Override
-	public void run() {
+	protected void start() {
 		/* When the application runs, you need some time to start the agents */
-		this.giveTime(10000);
-		init (); 
+		scheduleTimer(new Runnable() {
+			@Override
+			public void run() {
+				init ();
+			}
+		}, 10000);
 	}
 	
 	/**
@@ -73,17 +77,5 @@ public class FlowDetectionManager extends OdinApplication {
 		log.info("");
 	}
 	
-	/**
-	 * Sleep
-	 *
-	 * @param time
-	 */
-	private void giveTime (int time) {
-		try {
-					Thread.sleep(time);
-			} catch (InterruptedException e) {
-					e.printStackTrace();
-			}
-	}
 	
 }
\ No newline at end of file
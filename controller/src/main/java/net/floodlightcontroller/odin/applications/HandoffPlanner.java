@@ -0,0 +1,308 @@
+package net.floodlightcontroller.odin.applications;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Plans the handoffs of a round for all the stations at once.
+ *
+ * Given the utility of every station on every AP, it looks for the
+ * assignment that maximizes the total utility plus the Jain's fairness
+ * index of the number of stations per AP, times fairnessWeight:
+ *
+ *   sum(utility[s][ap(s)]) + fairnessWeight * (sum n)^2 / (APs * sum n^2)
+ *
+ * It is a local search: starting from the current assignment, the move
+ * of one station to another AP that gains the most is applied, until no
+ * move gains more than minGain, maxHandoffs stations are away from their
+ * AP, or the time budget is over. The gain of a move only depends on the
+ * station and the loads of both APs, so each step is O(stations x APs),
+ * and the moves are evaluated in parallel, by ranges of stations, on the
+ * executor. The result doesn't depend on the executor: ties go to the
+ * lowest station and AP.
+ *
+ * Utilities that aren't finite (NaN, -Infinity) are APs the station
+ * can't go to. The current AP of every station must be finite.
+ */
+final class HandoffPlanner {
+	// Below this many station x AP cells, handing the moves out to
+	// the executor costs more than evaluating them here
+	static final int MIN_PARALLEL_CELLS = 16384;
+
+	private final ExecutorService executor;
+	private final int tasks;
+	private final double fairnessWeight;
+	private final double minGain;
+
+
+	/**
+	 * @param executor to evaluate the moves, null to do it in the
+	 *   calling thread
+	 * @param tasks the moves of a step are split in
+	 * @param minGain a move has to gain more than this
+	 */
+	HandoffPlanner (ExecutorService executor, int tasks, double fairnessWeight, double minGain) {
+		this.executor = executor;
+		this.tasks = executor == null ? 1 : Math.max(1, tasks);
+		this.fairnessWeight = fairnessWeight;
+		this.minGain = minGain;
+	}
+
+
+	/**
+	 * @param utility [station][ap]
+	 * @param current AP of each station
+	 * @param maxHandoffs stations that can end up in an AP other than
+	 *   their current one
+	 * @param budgetMs time to plan, the best plan so far is returned
+	 *   when it is over
+	 */
+	Plan plan (double[][] utility, int[] current, int maxHandoffs, long budgetMs) throws InterruptedException {
+		final long deadline = System.nanoTime() + budgetMs * 1000000L;
+		final Search search = new Search(utility, current, maxHandoffs);
+		final double before = search.objective();
+
+		int moves = 0;
+		boolean timedOut = false;
+		while (true) {
+			if (System.nanoTime() - deadline >= 0) {
+				timedOut = true;
+				break;
+			}
+			final Move move = bestMove(search);
+			if (move == null || move.gain <= minGain)
+				break;
+			search.apply(move);
+			moves++;
+		}
+
+		return new Plan(current, search.assignment, before, search.objective(), search.fairness(), moves, timedOut);
+	}
+
+
+	private Move bestMove (final Search search) throws InterruptedException {
+		final int stations = search.assignment.length;
+		if (tasks == 1 || stations < tasks * 2 || (long) stations * search.aps < MIN_PARALLEL_CELLS)
+			return search.bestMove(0, stations);
+
+		final List<Callable<Move>> ranges = new ArrayList<Callable<Move>>(tasks);
+		for (int t = 0; t < tasks; t++) {
+			final int from = (int) ((long) stations * t / tasks);
+			final int to = (int) ((long) stations * (t + 1) / tasks);
+			ranges.add(new Callable<Move>() {
+				@Override
+				public Move call() {
+					return search.bestMove(from, to);
+				}
+			});
+		}
+
+		Move best = null;
+		for (Future<Move> future: executor.invokeAll(ranges)) {
+			final Move move;
+			try {
+				move = future.get();
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+			// In order of the ranges, so the lowest station wins ties
+			if (move != null && (best == null || move.gain > best.gain))
+				best = move;
+		}
+		return best;
+	}
+
+
+	private static boolean isFeasible (double u) {
+		return !Double.isNaN(u) && !Double.isInfinite(u);
+	}
+
+
+	private static final class Move {
+		final int station;
+		final int ap;
+		final double gain;
+
+		Move (int station, int ap, double gain) {
+			this.station = station;
+			this.ap = ap;
+			this.gain = gain;
+		}
+	}
+
+
+	/**
+	 * Assignment being improved. Moves are only read concurrently,
+	 * and applied between steps.
+	 */
+	private final class Search {
+		final double[][] utility;
+		final int[] current;
+		final int[] assignment;
+		final int maxHandoffs;
+		final int aps;
+		final int[] loads;
+		final double jainScale; // (sum n)^2 / APs
+		long sumSquares = 0;
+		int handoffs = 0;
+
+		Search (double[][] utility, int[] current, int maxHandoffs) {
+			if (utility.length != current.length)
+				throw new IllegalArgumentException(utility.length + " utility rows for " + current.length + " stations");
+
+			this.utility = utility;
+			this.current = current;
+			this.assignment = current.clone();
+			this.maxHandoffs = maxHandoffs;
+			this.aps = utility.length == 0 ? 0 : utility[0].length;
+			this.loads = new int[aps];
+
+			for (int s = 0; s < current.length; s++) {
+				if (utility[s].length != aps)
+					throw new IllegalArgumentException("Station " + s + " has " + utility[s].length + " APs, not " + aps);
+				if (current[s] < 0 || current[s] >= aps || !isFeasible(utility[s][current[s]]))
+					throw new IllegalArgumentException("Station " + s + " can't be in AP " + current[s]);
+				loads[current[s]]++;
+			}
+			for (int n: loads) {
+				sumSquares += (long) n * n;
+			}
+			jainScale = aps == 0 ? 0 : (double) current.length * current.length / aps;
+		}
+
+		double fairness () {
+			return sumSquares == 0 ? 1 : jainScale / sumSquares;
+		}
+
+		double objective () {
+			double sum = fairnessWeight * fairness();
+			for (int s = 0; s < assignment.length; s++) {
+				sum += utility[s][assignment[s]];
+			}
+			return sum;
+		}
+
+		/**
+		 * @return the best move of the stations in [from, to),
+		 *   or null if none of them can move
+		 */
+		Move bestMove (int from, int to) {
+			final double fairnessBefore = fairness();
+			Move best = null;
+			for (int s = from; s < to; s++) {
+				final int a = assignment[s];
+				final double[] u = utility[s];
+				final int awayBefore = a != current[s] ? 1 : 0;
+
+				for (int b = 0; b < aps; b++) {
+					if (b == a || !isFeasible(u[b]))
+						continue;
+					final int away = b != current[s] ? 1 : 0;
+					if (handoffs - awayBefore + away > maxHandoffs)
+						continue;
+
+					final long squares = sumSquares + 2L * (loads[b] - loads[a] + 1);
+					final double gain = u[b] - u[a] + fairnessWeight * (jainScale / squares - fairnessBefore);
+					if (best == null || gain > best.gain)
+						best = new Move(s, b, gain);
+				}
+			}
+			return best;
+		}
+
+		void apply (Move move) {
+			final int s = move.station;
+			final int a = assignment[s];
+			final int b = move.ap;
+
+			sumSquares += 2L * (loads[b] - loads[a] + 1);
+			loads[a]--;
+			loads[b]++;
+			handoffs += (b != current[s] ? 1 : 0) - (a != current[s] ? 1 : 0);
+			assignment[s] = b;
+		}
+	}
+
+
+	/**
+	 * Result of a round of planning
+	 */
+	static final class Plan {
+		private final int[] assignment;
+		private final int[] handoffs;
+		private final double objectiveBefore;
+		private final double objective;
+		private final double fairness;
+		private final int moves;
+		private final boolean timedOut;
+
+		private Plan (int[] current, int[] assignment, double objectiveBefore, double objective,
+				double fairness, int moves, boolean timedOut) {
+			this.assignment = assignment;
+			this.objectiveBefore = objectiveBefore;
+			this.objective = objective;
+			this.fairness = fairness;
+			this.moves = moves;
+			this.timedOut = timedOut;
+
+			int n = 0;
+			for (int s = 0; s < current.length; s++) {
+				if (assignment[s] != current[s])
+					n++;
+			}
+			handoffs = new int[n];
+			n = 0;
+			for (int s = 0; s < current.length; s++) {
+				if (assignment[s] != current[s])
+					handoffs[n++] = s;
+			}
+		}
+
+		/**
+		 * @return the AP of each station
+		 */
+		int[] getAssignment () {
+			return assignment;
+		}
+
+		/**
+		 * @return the stations to hand off to their AP in the
+		 *   assignment, in order
+		 */
+		int[] getHandoffs () {
+			return handoffs;
+		}
+
+		double getObjectiveBefore () {
+			return objectiveBefore;
+		}
+
+		double getObjective () {
+			return objective;
+		}
+
+		/**
+		 * @return Jain's fairness index of the loads of the APs
+		 *   after the handoffs
+		 */
+		double getFairness () {
+			return fairness;
+		}
+
+		/**
+		 * @return moves applied by the search, more than the handoffs
+		 *   if some station moved twice
+		 */
+		int getMoves () {
+			return moves;
+		}
+
+		boolean isTimedOut () {
+			return timedOut;
+		}
+	}
+}
@@ -81,12 +81,7 @@ public class Handover extends OdinApplication {
 
 
     @Override
-    public void run() {
-//        try {
-//            Thread.sleep(INTERVAL);
-//        } catch (InterruptedException e){
-//            e.printStackTrace();
-//        }
+    protected void start() {
         //assigmentChannel();
         init ();
     }
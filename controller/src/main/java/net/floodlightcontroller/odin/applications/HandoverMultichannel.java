@@ -54,15 +54,15 @@ public class HandoverMultichannel extends OdinApplication {
 	}
 
 	@Override
-	public void run() {
+	protected void start() {
 		/* When the application runs, you need some time to start the agents */
-		try {
-			Thread.sleep(INTERVAL);
-		} catch (InterruptedException e){
-        		e.printStackTrace();
-		}
-		//assigmentChannel();
-		init (); 
+		scheduleTimer(new Runnable() {
+			@Override
+			public void run() {
+				//assigmentChannel();
+				init (); 
+			}
+		}, INTERVAL);
 	}
 
 	/**
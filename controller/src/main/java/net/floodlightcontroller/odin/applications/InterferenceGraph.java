@@ -0,0 +1,293 @@
+package net.floodlightcontroller.odin.applications;
+
+/**
+ * Path losses between the APs of a pool, and the internal interference
+ * impact the APs cause each other on their current channels, kept up
+ * to date one measured pair at a time.
+ *
+ * Every pair keeps a moving average of its path loss, in linear power:
+ * the cumulative average of its first window samples, and then an
+ * exponential one with the same weight. The impact of a pair is only
+ * recomputed when the pair is measured, or when one of its APs changes
+ * channel or power, and the impact of the pool is a running sum. The
+ * work done thus follows what changed, not the size of the pool.
+ *
+ * Pairs are [from][to]: the path loss AP to measured from the beacons
+ * of AP from.
+ */
+final class InterferenceGraph {
+	private final int aps;
+	private final int window;
+	private final double[] coefII;
+	private final double minChange;
+
+	// Indexed from * aps + to
+	private final double[] loss;
+	private final double[] lossDb;
+	private final int[] samples;
+	private final double[] impact;
+	private final double[] assignedLossDb;
+	private final boolean[] moving;
+	private final boolean[] changed;
+
+	private final int[] channels;
+	private final int[] txPower;
+
+	// Pairs of each AP's beacons that are still moving
+	private final int[] unsettled;
+
+	private int measuredPairs = 0;
+	private int changedPairs = 0;
+	private boolean assigned = false;
+	private boolean retuned = false;
+	private double totalImpact = 0;
+
+
+	/**
+	 * @param window samples the average of a pair is over
+	 * @param coefII impact of two channels on each other, by
+	 *   the distance between them
+	 * @param minChange how much the path loss of a pair has to
+	 *   change to matter, in dB
+	 */
+	InterferenceGraph (int aps, int window, double[] coefII, double minChange) {
+		if (window < 1)
+			throw new IllegalArgumentException("Window of " + window + " samples");
+
+		this.aps = aps;
+		this.window = window;
+		this.coefII = coefII.clone();
+		this.minChange = minChange;
+
+		loss = new double[aps * aps];
+		lossDb = new double[aps * aps];
+		samples = new int[aps * aps];
+		impact = new double[aps * aps];
+		assignedLossDb = new double[aps * aps];
+		moving = new boolean[aps * aps];
+		changed = new boolean[aps * aps];
+
+		channels = new int[aps];
+		txPower = new int[aps];
+
+		unsettled = new int[aps];
+		for (int from = 0; from < aps; from++) {
+			unsettled[from] = aps - 1;
+		}
+	}
+
+
+	int getAps () {
+		return aps;
+	}
+
+
+	/**
+	 * Add a measurement of the path loss of a pair
+	 */
+	void update (int from, int to, double pathLossDb) {
+		if (from == to)
+			throw new IllegalArgumentException("AP " + from + " can't measure itself");
+
+		final int i = from * aps + to;
+		final double linear = Math.pow(10.0, pathLossDb / 10.0);
+		final int n = samples[i];
+		final double previousDb = lossDb[i];
+		final boolean wasUnsettled = isUnsettled(i);
+
+		if (n == 0) {
+			loss[i] = linear;
+			measuredPairs++;
+		} else {
+			loss[i] += (linear - loss[i]) / Math.min(n + 1, window);
+		}
+		if (n < Integer.MAX_VALUE)
+			samples[i] = n + 1;
+		lossDb[i] = 10.0 * Math.log10(loss[i]);
+
+		moving[i] = n == 0 || Math.abs(lossDb[i] - previousDb) >= minChange;
+		final boolean isUnsettled = isUnsettled(i);
+		if (wasUnsettled != isUnsettled)
+			unsettled[from] += isUnsettled ? 1 : -1;
+
+		if (assigned)
+			setChanged(i, Math.abs(lossDb[i] - assignedLossDb[i]) >= minChange);
+
+		updateImpact(from, to);
+	}
+
+
+	void setChannel (int ap, int channel) {
+		if (channels[ap] == channel)
+			return;
+		channels[ap] = channel;
+		retuned = assigned;
+		updateImpacts(ap);
+	}
+
+
+	void setTxPower (int ap, int power) {
+		if (txPower[ap] == power)
+			return;
+		txPower[ap] = power;
+		retuned = assigned;
+		updateImpacts(ap);
+	}
+
+
+	/**
+	 * @return the averaged path loss of the pair in dB,
+	 *   or 0 if it was never measured
+	 */
+	double getPathLoss (int from, int to) {
+		return lossDb[from * aps + to];
+	}
+
+
+	int getSamples (int from, int to) {
+		return samples[from * aps + to];
+	}
+
+
+	/**
+	 * @return the averaged path losses, as the channel
+	 *   assignment solvers take them
+	 */
+	double[][] getPathLosses () {
+		final double[][] pathLosses = new double[aps][aps];
+		for (int from = 0; from < aps; from++) {
+			System.arraycopy(lossDb, from * aps, pathLosses[from], 0, aps);
+		}
+		return pathLosses;
+	}
+
+
+	/**
+	 * @return whether every pair has been measured at least once
+	 */
+	boolean isComplete () {
+		return measuredPairs == aps * (aps - 1);
+	}
+
+
+	/**
+	 * @return whether the pairs measured from the beacons of the AP
+	 *   have a full window of samples, and didn't move the last time
+	 */
+	boolean isSettled (int ap) {
+		return unsettled[ap] == 0;
+	}
+
+
+	/**
+	 * @return the internal interference impact of the pool in dBm,
+	 *   -Infinity if there's none
+	 */
+	double getImpactDb () {
+		if (totalImpact <= 0)
+			return Double.NEGATIVE_INFINITY;
+		return 10.0 * Math.log10(totalImpact);
+	}
+
+
+	/**
+	 * @return the impact of AP from on AP to in dBm,
+	 *   -Infinity if there's none
+	 */
+	double getImpactDb (int from, int to) {
+		final double ii = impact[from * aps + to];
+		if (ii <= 0)
+			return Double.NEGATIVE_INFINITY;
+		return 10.0 * Math.log10(ii);
+	}
+
+
+	/**
+	 * @return whether the path loss of some pair changed by minChange,
+	 *   or some AP changed channel or power, since the last assignment,
+	 *   or there was none yet
+	 */
+	boolean hasChangedSinceAssignment () {
+		return !assigned || retuned || changedPairs > 0;
+	}
+
+
+	/**
+	 * The channels were assigned with the current path losses
+	 */
+	void markAssigned () {
+		System.arraycopy(lossDb, 0, assignedLossDb, 0, lossDb.length);
+		for (int i = 0; i < changed.length; i++) {
+			changed[i] = false;
+		}
+		changedPairs = 0;
+		assigned = true;
+		retuned = false;
+
+		// Start again from the exact sum, so rounding doesn't add up
+		totalImpact = 0;
+		for (double ii: impact) {
+			totalImpact += ii;
+		}
+	}
+
+
+	/**
+	 * @return the path losses in dB, one row per beaconing AP
+	 */
+	String formatPathLosses (String[] names) {
+		final StringBuilder sb = new StringBuilder();
+		for (int from = 0; from < aps; from++) {
+			sb.append(names[from]);
+			for (int to = 0; to < aps; to++) {
+				final int i = from * aps + to;
+				if (from == to)
+					sb.append("\t----------");
+				else if (samples[i] == 0)
+					sb.append("\t?         ");
+				else
+					sb.append(String.format("\t%6.2f dB  ", lossDb[i]));
+			}
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+
+	private boolean isUnsettled (int i) {
+		return samples[i] < window || moving[i];
+	}
+
+
+	private void setChanged (int i, boolean value) {
+		if (changed[i] != value) {
+			changed[i] = value;
+			changedPairs += value ? 1 : -1;
+		}
+	}
+
+
+	private void updateImpacts (int ap) {
+		for (int j = 0; j < aps; j++) {
+			if (j != ap) {
+				updateImpact(ap, j);
+				updateImpact(j, ap);
+			}
+		}
+	}
+
+
+	private void updateImpact (int from, int to) {
+		final int i = from * aps + to;
+		double ii = 0;
+		final int distance = Math.abs(channels[from] - channels[to]);
+		// Until both channels are known there's no telling
+		if (samples[i] > 0 && channels[from] != 0 && channels[to] != 0 && distance < coefII.length) {
+			final double coef = coefII[distance];
+			if (coef != 0)
+				ii = coef * Math.pow(10.0, (txPower[from] - lossDb[i]) / 10.0);
+		}
+		totalImpact += ii - impact[i];
+		impact[i] = ii;
+	}
+}
@@ -0,0 +1,22 @@
+package net.floodlightcontroller.odin.applications;
+
+/**
+ * Least Congested Channel: one after the other, each AP takes the
+ * channel where it hears the least interference, counting the APs
+ * that already took one.
+ */
+final class LccChannelSolver implements ChannelAssignmentSolver {
+
+	@Override
+	public int[] assign (double[][] pathLosses, double[][] externalII) {
+		final ChannelInterference interference = new ChannelInterference(pathLosses, externalII);
+		final int[] channels = new int[interference.getAps()];
+		final double[] costs = new double[ChannelAssignmentSolvers.NUM_CHANNELS];
+
+		for (int i = 0; i < channels.length; i++) {
+			interference.channelCosts(i, channels, costs);
+			channels[i] = ChannelInterference.cheapest(costs);
+		}
+		return channels;
+	}
+}
@@ -74,15 +74,18 @@ public class MobilityManager extends OdinApplication {
 	}
 
 	@Override
-	public void run() {
+	protected void start() {
 
 		this.MOBILITY_PARAMS = getMobilityParams ();
 		/* When the application runs, you need some time to start the agents */
-		this.giveTime(this.MOBILITY_PARAMS.time_to_start);
-		//this.channelAssignment();
-		//this.giveTime(10000);
-		//setAgentTimeout(10000);
-		init (); 
+		scheduleTimer(new Runnable() {
+			@Override
+			public void run() {
+				//channelAssignment();
+				//setAgentTimeout(10000);
+				init ();
+			}
+		}, this.MOBILITY_PARAMS.time_to_start);
 	}
 	
 	/**
@@ -286,18 +289,6 @@ public class MobilityManager extends OdinApplication {
 	}
 	
 	
-	/**
-	 * Sleep
-	 *
-	 * @param time
-	 */
-	private void giveTime (int time) {
-		try {
-					Thread.sleep(time);
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-	}
 		
 	/**
 	 * It will be a method for channel assignment
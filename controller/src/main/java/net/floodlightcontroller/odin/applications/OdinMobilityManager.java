@@ -72,18 +72,14 @@ public class OdinMobilityManager extends OdinApplication {
 	}
 
 	@Override
-	public void run() {
-
-		
+	protected void start() {
 		/* when the application runs, you need some time to start the agents */
-		try {
-			Thread.sleep(INTERVAL);
-		} catch (InterruptedException e){
-        		e.printStackTrace();
-		}
+		scheduleTimer(this, INTERVAL);
+	}
 
+	@Override
+	public void run() {
 		init (); 
-		
 
 		// Purely reactive, so end.
 	}
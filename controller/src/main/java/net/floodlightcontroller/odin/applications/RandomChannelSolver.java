@@ -0,0 +1,27 @@
+package net.floodlightcontroller.odin.applications;
+
+import java.util.Random;
+
+/**
+ * Gives every AP a channel at random, as a reference for
+ * the other methods
+ */
+final class RandomChannelSolver implements ChannelAssignmentSolver {
+	private final Random random;
+
+	RandomChannelSolver (long seed) {
+		random = new Random(seed);
+	}
+
+	@Override
+	public int[] assign (double[][] pathLosses, double[][] externalII) {
+		// Only to check the matrices
+		final ChannelInterference interference = new ChannelInterference(pathLosses, externalII);
+
+		final int[] channels = new int[interference.getAps()];
+		for (int i = 0; i < channels.length; i++) {
+			channels[i] = 1 + random.nextInt(ChannelAssignmentSolvers.NUM_CHANNELS);
+		}
+		return channels;
+	}
+}
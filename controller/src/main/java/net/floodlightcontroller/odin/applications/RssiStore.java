@@ -0,0 +1,333 @@
+package net.floodlightcontroller.odin.applications;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * Averaged RSSI of every station in every agent, as a dense
+ * station x agent matrix in linear power.
+ *
+ * Stations get a row the first time they are added, found through
+ * an index from their MAC address. Scans from the agents are parsed
+ * in a single pass straight into the matrix: each line updates the
+ * exponential average of its station, with the given weight for the
+ * new sample, without building strings or boxed values.
+ *
+ * Cells are in mW, 0 for a station an agent hasn't heard yet.
+ */
+final class RssiStore {
+	static final double NOT_HEARD = -99.9;
+
+	// Linear power of the integer dBm values, the usual ones
+	private static final int MIN_DBM = -128;
+	private static final double[] LINEAR = new double[256];
+	static {
+		for (int i = 0; i < LINEAR.length; i++) {
+			LINEAR[i] = Math.pow(10.0, (MIN_DBM + i) / 10.0);
+		}
+	}
+
+	// Value of the hex digits, -1 for the other characters
+	private static final byte[] HEX = new byte[128];
+	static {
+		for (int c = 0; c < HEX.length; c++) {
+			HEX[c] = (byte) Character.digit((char) c, 16);
+		}
+	}
+
+	// Keys of the index are the MAC as a long, with a bit above
+	// the 48 of the address so that none of them is 0
+	private static final long KEY_BIT = 1L << 48;
+
+	private final int numAgents;
+	private final double weight;
+
+	// Index from MAC to row, open addressing
+	private long[] keys = new long[64];
+	private int[] slots = new int[64];
+
+	private int stations = 0;
+	private MACAddress[] macs = new MACAddress[16];
+	private int[] channels = new int[16];
+	private boolean[] scanned = new boolean[16];
+	private double[] power;
+
+	// Characters of the scan being parsed
+	private char[] buffer = new char[1024];
+
+
+	/**
+	 * @param weight of a new sample in the average
+	 */
+	RssiStore (int numAgents, double weight) {
+		this.numAgents = numAgents;
+		this.weight = weight;
+		power = new double[macs.length * numAgents];
+	}
+
+
+	/**
+	 * @return the row of the station, added if it wasn't there
+	 */
+	int addStation (MACAddress mac) {
+		final long key = mac.toLong() | KEY_BIT;
+		int slot = find(key);
+		if (keys[slot] == key)
+			return slots[slot];
+
+		if (stations == macs.length)
+			growRows();
+		final int row = stations++;
+		macs[row] = mac;
+		channels[row] = ScanScheduler.IDLE;
+
+		keys[slot] = key;
+		slots[slot] = row;
+		if (stations * 2 > keys.length)
+			growIndex();
+		return row;
+	}
+
+
+	/**
+	 * @return the row of the station, or -1 if it was never added
+	 */
+	int getRow (MACAddress mac) {
+		final long key = mac.toLong() | KEY_BIT;
+		final int slot = find(key);
+		return keys[slot] == key ? slots[slot] : -1;
+	}
+
+
+	int getStations () {
+		return stations;
+	}
+
+
+	MACAddress getMac (int row) {
+		return macs[row];
+	}
+
+
+	/**
+	 * Scans of the channel the station is in are the ones that
+	 * update it, by its index
+	 */
+	void setChannel (int row, int channel) {
+		channels[row] = channel;
+	}
+
+
+	/**
+	 * Add the scan of an agent, a "MAC rssi" line per station heard,
+	 * to the stations in the channel scanned
+	 *
+	 * @return the number of stations updated
+	 */
+	int update (int agent, int channel, String scan) {
+		final int length = scan.length();
+		if (buffer.length < length)
+			buffer = new char[Math.max(length, buffer.length * 2)];
+		final char[] chars = buffer;
+		scan.getChars(0, length, chars, 0);
+
+		int updated = 0;
+		int start = 0;
+		while (start < length) {
+			final int end = updateLine(agent, channel, chars, start, length);
+			if (end >= 0) {
+				updated++;
+				start = end + 1;
+			} else {
+				start = ~end + 1;
+			}
+		}
+
+		// Stations in the channel have been scanned, heard or not
+		for (int row = 0; row < stations; row++) {
+			if (channels[row] == channel)
+				scanned[row] = true;
+		}
+		return updated;
+	}
+
+
+	/**
+	 * @return whether the channel of the station has been scanned,
+	 *   false if the row is -1
+	 */
+	boolean hasData (int row) {
+		return row >= 0 && scanned[row];
+	}
+
+
+	/**
+	 * @return the average RSSI in dBm, NOT_HEARD if the agent
+	 *   didn't hear the station or the row is -1
+	 */
+	double getDbm (int row, int agent) {
+		if (row < 0)
+			return NOT_HEARD;
+		final double p = power[row * numAgents + agent];
+		return p > 0 ? 10.0 * Math.log10(p) : NOT_HEARD;
+	}
+
+
+	/**
+	 * Fill dBm, one per agent, with the average RSSI of the station
+	 *
+	 * @return dBm
+	 */
+	double[] getDbm (int row, double[] dBm) {
+		for (int agent = 0; agent < numAgents; agent++) {
+			dBm[agent] = getDbm(row, agent);
+		}
+		return dBm;
+	}
+
+
+	/**
+	 * Parse the line that starts at start, and update its station if
+	 * it is in the channel
+	 *
+	 * @return the end of the line, or its complement (~end) if it
+	 *   wasn't a station in the channel
+	 */
+	private int updateLine (int agent, int channel, char[] chars, int start, int length) {
+		// MAC, 12 hex digits
+		long mac = 0;
+		int digits = 0;
+		int i = start;
+		for (; i < length; i++) {
+			final char c = chars[i];
+			if (c == ' ')
+				break;
+			if (c == ':')
+				continue;
+			final int digit = c < HEX.length ? HEX[c] : -1;
+			if (digit < 0)
+				return ~endOfLine(chars, i, length);
+			mac = (mac << 4) | digit;
+			digits++;
+		}
+		if (digits != 12 || i == length)
+			return ~endOfLine(chars, i, length);
+		i++;
+
+		// RSSI, [-]int[.fraction]
+		boolean negative = false;
+		if (i < length && chars[i] == '-') {
+			negative = true;
+			i++;
+		}
+		int integer = 0;
+		int intDigits = 0;
+		for (; i < length && isDigit(chars[i]); i++) {
+			if (intDigits++ < 6)
+				integer = integer * 10 + (chars[i] - '0');
+		}
+		long fraction = 0;
+		long divisor = 1;
+		if (i < length && chars[i] == '.') {
+			for (i++; i < length && isDigit(chars[i]); i++) {
+				if (divisor < 1000000000L) {
+					fraction = fraction * 10 + (chars[i] - '0');
+					divisor *= 10;
+				}
+			}
+		}
+		// Nothing else but trailing white space
+		for (; i < length && chars[i] != '\n'; i++) {
+			if (!Character.isWhitespace(chars[i]))
+				return ~endOfLine(chars, i, length);
+		}
+		if (intDigits == 0 && divisor == 1)
+			return ~i;
+
+		final int slot = find(mac | KEY_BIT);
+		if (keys[slot] != (mac | KEY_BIT))
+			return ~i;
+		final int row = slots[slot];
+		if (channels[row] != channel)
+			return ~i;
+
+		final int table = (negative ? -integer : integer) - MIN_DBM;
+		final double sample;
+		if (fraction == 0 && table >= 0 && table < LINEAR.length) {
+			sample = LINEAR[table];
+		} else {
+			final double dBm = integer + (double) fraction / divisor;
+			sample = Math.pow(10.0, (negative ? -dBm : dBm) / 10.0);
+		}
+
+		final int cell = row * numAgents + agent;
+		if (power[cell] == 0)
+			power[cell] = sample;
+		else
+			power[cell] += (sample - power[cell]) * weight;
+		return i;
+	}
+
+
+	private static int endOfLine (char[] chars, int i, int length) {
+		while (i < length && chars[i] != '\n') {
+			i++;
+		}
+		return i;
+	}
+
+
+	private static boolean isDigit (char c) {
+		return c >= '0' && c <= '9';
+	}
+
+
+	private int find (long key) {
+		final int mask = keys.length - 1;
+		int slot = hash(key) & mask;
+		while (keys[slot] != 0 && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+
+	private static int hash (long key) {
+		final long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+
+	private void growRows () {
+		final int capacity = macs.length * 2;
+		final MACAddress[] newMacs = new MACAddress[capacity];
+		System.arraycopy(macs, 0, newMacs, 0, stations);
+		macs = newMacs;
+
+		final int[] newChannels = new int[capacity];
+		System.arraycopy(channels, 0, newChannels, 0, stations);
+		channels = newChannels;
+
+		final boolean[] newScanned = new boolean[capacity];
+		System.arraycopy(scanned, 0, newScanned, 0, stations);
+		scanned = newScanned;
+
+		final double[] newPower = new double[capacity * numAgents];
+		System.arraycopy(power, 0, newPower, 0, stations * numAgents);
+		power = newPower;
+	}
+
+
+	private void growIndex () {
+		final long[] oldKeys = keys;
+		final int[] oldSlots = slots;
+		keys = new long[oldKeys.length * 2];
+		slots = new int[oldKeys.length * 2];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0) {
+				final int slot = find(oldKeys[i]);
+				keys[slot] = oldKeys[i];
+				slots[slot] = oldSlots[i];
+			}
+		}
+	}
+}
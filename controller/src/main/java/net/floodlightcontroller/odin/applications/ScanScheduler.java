@@ -0,0 +1,227 @@
+package net.floodlightcontroller.odin.applications;
+
+/**
+ * Plans which channel each agent scans, so that all the channels
+ * in use are listened to at the same time.
+ *
+ * A round has to get the scan of every agent on every channel of the
+ * round. Agents scan with a single auxiliary interface, so they take
+ * one channel per slot; in each slot they are spread over the channels
+ * by rotating them, so every channel is heard by some agents in every
+ * slot instead of one channel being heard by all of them.
+ *
+ * An agent that is busy keeps its scan pending, and is asked again in
+ * a later slot of the same round, up to maxAttempts times.
+ *
+ * Channels and agents are referred to by their index.
+ */
+final class ScanScheduler {
+	static final int IDLE = -1;
+
+	private final int numChannels;
+	private final int numAgents;
+	private final int maxAttempts;
+
+	// Channels of the current round
+	private int[] roundChannels = new int[0];
+
+	// [channel][agent]
+	private final String[][] results;
+	private final boolean[][] pending;
+	private final boolean[][] fresh;
+	private final int[][] attempts;
+
+	private int pendingScans = 0;
+	private int slot = 0;
+	private long roundStart = 0;
+
+	private long rounds = 0;
+	private long retries = 0;
+	private long missed = 0;
+	private long lastRoundLatency = 0;
+	private long totalRoundLatency = 0;
+	private long maxRoundLatency = 0;
+
+
+	ScanScheduler (int numChannels, int numAgents, int maxAttempts) {
+		this.numChannels = numChannels;
+		this.numAgents = numAgents;
+		this.maxAttempts = maxAttempts;
+
+		results = new String[numChannels][numAgents];
+		pending = new boolean[numChannels][numAgents];
+		fresh = new boolean[numChannels][numAgents];
+		attempts = new int[numChannels][numAgents];
+	}
+
+
+	/**
+	 * Start a round, unless the current one isn't done
+	 *
+	 * @param channels indexes of the channels to scan
+	 * @return whether a new round started
+	 */
+	boolean startRound (int[] channels, long now) {
+		if (!isRoundDone())
+			return false;
+
+		roundChannels = channels.clone();
+		for (int channel: roundChannels) {
+			for (int agent = 0; agent < numAgents; agent++) {
+				if (!pending[channel][agent]) {
+					pending[channel][agent] = true;
+					attempts[channel][agent] = 0;
+					pendingScans++;
+				}
+			}
+		}
+		slot = 0;
+		roundStart = now;
+		return true;
+	}
+
+
+	/**
+	 * @return for each agent, the channel to scan in the next
+	 *   slot, or IDLE if there's none left
+	 */
+	int[] nextSlot () {
+		for (boolean[] row: fresh) {
+			for (int agent = 0; agent < numAgents; agent++) {
+				row[agent] = false;
+			}
+		}
+
+		final int[] plan = new int[numAgents];
+		final int n = roundChannels.length;
+		for (int agent = 0; agent < numAgents; agent++) {
+			plan[agent] = IDLE;
+			for (int k = 0; k < n; k++) {
+				final int channel = roundChannels[(agent + slot + k) % n];
+				if (pending[channel][agent]) {
+					plan[agent] = channel;
+					break;
+				}
+			}
+		}
+		slot++;
+		return plan;
+	}
+
+
+	/**
+	 * The agent scanned the channel
+	 *
+	 * @param rssi as returned by the agent
+	 */
+	void scanned (int channel, int agent, String rssi, long now) {
+		results[channel][agent] = rssi;
+		fresh[channel][agent] = true;
+		complete(channel, agent, now);
+	}
+
+
+	/**
+	 * The agent couldn't scan the channel
+	 */
+	void busy (int channel, int agent, long now) {
+		if (!pending[channel][agent])
+			return;
+
+		if (++attempts[channel][agent] >= maxAttempts) {
+			missed++;
+			complete(channel, agent, now);
+		} else {
+			retries++;
+		}
+	}
+
+
+	boolean isRoundDone () {
+		return pendingScans == 0;
+	}
+
+
+	/**
+	 * @return the last scan of the agent on the channel,
+	 *   maybe from an earlier slot or round
+	 */
+	String getResult (int channel, int agent) {
+		return results[channel][agent];
+	}
+
+
+	/**
+	 * @return whether the agent scanned the channel in the last slot
+	 */
+	boolean isFresh (int channel, int agent) {
+		return fresh[channel][agent];
+	}
+
+
+	int getNumChannels () {
+		return numChannels;
+	}
+
+
+	/**
+	 * @return slots the current round has taken so far
+	 */
+	int getSlot () {
+		return slot;
+	}
+
+
+	long getRounds () {
+		return rounds;
+	}
+
+
+	/**
+	 * @return scans asked again because the agent was busy
+	 */
+	long getRetries () {
+		return retries;
+	}
+
+
+	/**
+	 * @return scans given up after maxAttempts
+	 */
+	long getMissed () {
+		return missed;
+	}
+
+
+	/**
+	 * @return from the start of the last round until all of
+	 *   its scans were done, in ms
+	 */
+	long getLastRoundLatency () {
+		return lastRoundLatency;
+	}
+
+
+	long getAverageRoundLatency () {
+		return rounds == 0 ? 0 : totalRoundLatency / rounds;
+	}
+
+
+	long getMaxRoundLatency () {
+		return maxRoundLatency;
+	}
+
+
+	private void complete (int channel, int agent, long now) {
+		if (!pending[channel][agent])
+			return;
+
+		pending[channel][agent] = false;
+		if (--pendingScans == 0) {
+			lastRoundLatency = now - roundStart;
+			totalRoundLatency += lastRoundLatency;
+			maxRoundLatency = Math.max(maxRoundLatency, lastRoundLatency);
+			rounds++;
+		}
+	}
+}
@@ -37,19 +37,26 @@ private String matrix = "";
 private String avg_dB = "";
 
 
+  // Agents sending the measurement beacon, one after another
+  private InetAddress[] beaconAgents;
+
   @Override
-  public void run() {
+  protected void start() {
 	
 	this.SCANN_PARAMS = getMatrixParams();
-    try {
-			Thread.sleep(SCANN_PARAMS.time_to_start);
-		} catch (InterruptedException e) {
-	    e.printStackTrace();
-	  }
-	
-	while (true) {
-      try {
-        Thread.sleep(SCANN_PARAMS.reporting_period);
+	scheduleTimer(new Runnable() {
+		@Override
+		public void run() {
+			report();
+		}
+	}, SCANN_PARAMS.time_to_start + SCANN_PARAMS.reporting_period);
+  }
+
+  /**
+   * Build the matrix, with each agent sending the measurement
+   * beacon in turn
+   */
+  private void report() {
         matrix = "";
         		
 		System.out.println("[ShowMatrixOfDistancedBs] Matrix of Distance"); 
@@ -60,7 +67,31 @@ private String avg_dB = "";
 		System.out.println("[ShowMatrixOfDistancedBs] Scanning channel " + SCANN_PARAMS.channel);
 		System.out.println("[ShowMatrixOfDistancedBs]");
 
-		for (InetAddress beaconAgentAddr: getAgents()) {
+		beaconAgents = getAgents().toArray(new InetAddress[0]);
+		measure(0);
+  }
+
+  /**
+   * Have an agent send the measurement beacon while the others scan,
+   * and read their results once the scanning interval is over
+   */
+  private void measure(final int beacon) {
+		if (beacon == beaconAgents.length) {
+			//Print matrix
+			System.out.println("[ShowMatrixOfDistancedBs] ==================");
+			System.out.println(matrix);            
+			System.out.println("[ShowMatrixOfDistancedBs] ==================");	
+
+			scheduleTimer(new Runnable() {
+				@Override
+				public void run() {
+					report();
+				}
+			}, SCANN_PARAMS.reporting_period);
+			return;
+		}
+
+		InetAddress beaconAgentAddr = beaconAgents[beacon];
 			scanningAgents.clear();
 			System.out.println("[ShowMatrixOfDistancedBs] Agent to send measurement beacon: " + beaconAgentAddr);	
 			
@@ -79,15 +110,20 @@ private String avg_dB = "";
 			// Request to send measurement beacon
 			if (requestSendMesurementBeaconFromAgent(beaconAgentAddr, SCANN_PARAMS.channel, SCANNED_SSID) == 0) {
 					System.out.println("[ShowMatrixOfDistancedBs] Agent BUSY during measurement beacon operation");
-					continue;				
+					measure(beacon + 1);
+					return;
 			}
 
-			try {
-				Thread.sleep(SCANN_PARAMS.scanning_interval + SCANN_PARAMS.added_time);
-				} 
-			catch (InterruptedException e) {
-							e.printStackTrace();
+			scheduleTimer(new Runnable() {
+				@Override
+				public void run() {
+					collect(beacon);
 				}
+			}, SCANN_PARAMS.scanning_interval + SCANN_PARAMS.added_time);
+  }
+
+  private void collect(int beacon) {
+		InetAddress beaconAgentAddr = beaconAgents[beacon];
 			
 			// Stop sending meesurement beacon
 			stopSendMesurementBeaconFromAgent(beaconAgentAddr);
@@ -126,14 +162,7 @@ private String avg_dB = "";
 				}   
 			}
 			matrix = matrix + "\n";
-		}
-		//Print matrix
-		System.out.println("[ShowMatrixOfDistancedBs] ==================");
-        System.out.println(matrix);            
-		System.out.println("[ShowMatrixOfDistancedBs] ==================");	
-	  } catch (InterruptedException e) {
-	      e.printStackTrace();
-	    }
-	}
+
+		measure(beacon + 1);
   }
-} 
+}
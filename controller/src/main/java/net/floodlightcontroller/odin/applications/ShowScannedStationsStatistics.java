@@ -37,26 +37,35 @@ int result; // Result for scanning
 
 HashSet<OdinClient> clients;
 
+  // Write on file integration
+  private PrintStream stdout; // To enable return to console
+  private FileOutputStream fos = null;
+  private PrintStream ps = null;
+
   @Override
-  public void run() {
+  protected void start() {
 	
 	this.SCANN_PARAMS = getInterferenceParams();
-    try {
-			Thread.sleep(SCANN_PARAMS.time_to_start);
-		} catch (InterruptedException e) {
-	    e.printStackTrace();
-	  }
-	
-	while (true) {
-      try {
-        Thread.sleep(SCANN_PARAMS.reporting_period);
+	scheduleTimer(new Runnable() {
+		@Override
+		public void run() {
+			report();
+		}
+	}, SCANN_PARAMS.time_to_start + SCANN_PARAMS.reporting_period);
+  }
+
+  /**
+   * Show the stations heard by the agents, scanning one channel
+   * after another
+   */
+  private void report() {
         
 		clients = new HashSet<OdinClient>(getClients());
 		
 		// Write on file integration
-		PrintStream stdout = System.out; // To enable return to console
-		FileOutputStream fos = null;
-        PrintStream ps = null;
+		stdout = System.out; // To enable return to console
+		fos = null;
+        ps = null;
 		
 		if(SCANN_PARAMS.filename.length()>0){
             File f = new File(SCANN_PARAMS.filename); // FIXME: Add parameter to poolfile
@@ -76,8 +85,14 @@ HashSet<OdinClient> clients;
 		System.out.println("[ShowScannedStationsStatistics] ================"); 
 		System.out.println("[ShowScannedStationsStatistics]");
 
-		//For each channel
-		for (int num_channel = 1 ; num_channel <= 11 ; ++num_channel) {
+		scanChannel(1);
+  }
+
+  /**
+   * Ask all the agents to scan a channel, and show what they heard
+   * once the scanning interval is over
+   */
+  private void scanChannel(final int num_channel) {
 
 			scanningAgents.clear();
 			System.out.println("[ShowScannedStationsStatistics] Scanning channel " + num_channel);
@@ -95,13 +110,15 @@ HashSet<OdinClient> clients;
 				scanningAgents.put(agentAddr, result);
 			}					
 				
-			try {
-				Thread.sleep(SCANN_PARAMS.scanning_interval + SCANN_PARAMS.added_time);
-				} 
-			catch (InterruptedException e) {
-							e.printStackTrace();
+			scheduleTimer(new Runnable() {
+				@Override
+				public void run() {
+					showChannel(num_channel);
 				}
-			
+			}, SCANN_PARAMS.scanning_interval + SCANN_PARAMS.added_time);
+  }
+
+  private void showChannel(int num_channel) {
 			for (InetAddress agentAddr: getAgents()) {
                 
                 if(SCANN_PARAMS.filename.length()>0)
@@ -165,17 +182,31 @@ HashSet<OdinClient> clients;
 					System.out.println("");		
 				}
 		    }
+
+		if (num_channel < 11) {
+			scanChannel(num_channel + 1);
+			return;
 		}
+
 		if(SCANN_PARAMS.filename.length()>0){
             System.setOut(stdout); // Return to only console
             closeQuietly(fos); // Close Stream
         }
-		promptEnterKey(); // FIXME: Maybe we want to save multiple scannings, changing the filename in each iteration
-		
-	  } catch (InterruptedException e) {
-	      e.printStackTrace();
-	    }
-	}
+		runDedicated(); // Wait for the user on the console. FIXME: Maybe we want to save multiple scannings, changing the filename in each iteration
+  }
+
+  /**
+   * Wait for the user on the console, then show the next table
+   */
+  @Override
+  public void run() {
+		promptEnterKey();
+		scheduleTimer(new Runnable() {
+			@Override
+			public void run() {
+				report();
+			}
+		}, SCANN_PARAMS.reporting_period);
   }
 public void promptEnterKey(){ // Function to ask for a key
    System.out.println("Press \"ENTER\" to continue...");
@@ -27,16 +27,16 @@ private final int REPORTING_PERIOD = 15000; // in ms
 HashSet<OdinClient> clients;
 
   @Override
-  public void run() {
-    try {
-			Thread.sleep(INITIAL_INTERVAL);
-		} catch (InterruptedException e) {
-	    e.printStackTrace();
-	  }
-
-    while (true) {
-      try {
-        Thread.sleep(REPORTING_PERIOD);
+  protected void start() {
+    schedulePeriodic(new Runnable() {
+      @Override
+      public void run() {
+        report();
+      }
+    }, INITIAL_INTERVAL + REPORTING_PERIOD, REPORTING_PERIOD);
+  }
+
+  private void report() {
         clients = new HashSet<OdinClient>(getClients());
           /*
 					* If a handoff has happened during the statistic gathering period,
@@ -98,9 +98,5 @@ HashSet<OdinClient> clients;
 	          }
 	        }	    
 	      }
-	    } catch (InterruptedException e) {
-	      e.printStackTrace();
-	    }
-    }
   }
 }
@@ -9,6 +9,7 @@ import java.util.Set;
 
 import net.floodlightcontroller.odin.master.OdinApplication;
 import net.floodlightcontroller.odin.master.OdinClient;
+import net.floodlightcontroller.odin.master.RadioMeasurements;
 import net.floodlightcontroller.util.MACAddress;
 
 public class SimpleLoadBalancer extends OdinApplication {
@@ -16,6 +17,10 @@ public class SimpleLoadBalancer extends OdinApplication {
 	/*do the balancing every minute*/
 	private final int INTERVAL = 60000;
 	
+	/* how old the stats of the agents may be, in ms. They are
+	* shared with the other applications and refreshed by the master */
+	private final long MAX_STATS_AGE = 5000;
+	
 	/* define the signal threshold to consider moving a client to an AP */
 	private final int SIGNAL_THRESHOLD = 0;
 
@@ -47,76 +52,77 @@ public class SimpleLoadBalancer extends OdinApplication {
 
 	
 	@Override
-	public void run() {
+	protected void start() {
+		schedulePeriodic(new Runnable() {
+			@Override
+			public void run() {
+				rebalance();
+			}
+		}, INTERVAL, INTERVAL);
+	}
+	
+	private void rebalance() {
+		/*all the clients Odin has heared (even non-connected) */				
+		clients = new HashSet<OdinClient>(getClients());
 		
+		hearingMap.clear();
+		newMapping.clear();
 		
-		while (true) {
-			try {
-				Thread.sleep(INTERVAL);
-				
-				/*all the clients Odin has heared (even non-connected) */				
-				clients = new HashSet<OdinClient>(getClients());
+		/*
+		 * Probe each AP to get the list of MAC addresses that it can "hear".
+		 * We define "able to hear" as "signal strength > SIGNAL_THRESHOLD".
+		 * 
+		 *  We then build the hearing table.
+		 *
+		 * Note that the hearing table may not match the current distribution
+		 *of clients between the APs
+		 */
+		 
+		/* for each of the agents defined in the Poolfile (APs) */
+		for (InetAddress agentAddr: getAgents()) {
+			RadioMeasurements measurements = getRadioMeasurements(agentAddr, MAX_STATS_AGE);
+			
+			if (measurements == null)
+				continue;
+			
+			Map<MACAddress, Map<String, String>> vals = measurements.getRxStats();
+			
+			/* for each STA which has contacted that agent (AP) (not necessarily associated) */
+			for (Entry<MACAddress, Map<String, String>> vals_entry: vals.entrySet()) {
 				
-				hearingMap.clear();
-				newMapping.clear();
+				MACAddress staHwAddr = vals_entry.getKey();
 				
-				/*
-				 * Probe each AP to get the list of MAC addresses that it can "hear".
-				 * We define "able to hear" as "signal strength > SIGNAL_THRESHOLD".
-				 * 
-				 *  We then build the hearing table.
-				 *
-				 * Note that the hearing table may not match the current distribution
-				 *of clients between the APs
-				 */
-				 
-				/* for each of the agents defined in the Poolfile (APs)*/
-				for (InetAddress agentAddr: getAgents()) {
-					/* FIXME: if the next line is run before the APs are activated,
-					*the program blocks here */
-					Map<MACAddress, Map<String, String>> vals = getRxStatsFromAgent(agentAddr);
+				/* for all the clients registered in Odin (those who have an LVAP) */
+				for (OdinClient oc: clients) {
+					/* 
+					* Check four conditions:
+					* - the MAC address of the client must be that of the connected STA
+					* - the IP address of the STA cannot be null
+					* - the IP address of the STA cannot be 0.0.0.0
+					* - the received signal must be over the threshold
+					*/
+					if (oc.getMacAddress().equals(staHwAddr)
+							&& oc.getIpAddress() != null
+							&& !oc.getIpAddress().getHostAddress().equals("0.0.0.0")
+							&& Integer.parseInt(vals_entry.getValue().get("signal")) >= SIGNAL_THRESHOLD) {
 					
-					/* for each STA which has contacted that agent (AP) (not necessarily associated) */
-					for (Entry<MACAddress, Map<String, String>> vals_entry: vals.entrySet()) {
-						
-						MACAddress staHwAddr = vals_entry.getKey();
-						
-						/* for all the clients registered in Odin (those who have an LVAP) */
-						for (OdinClient oc: clients) {
-							/* 
-							* Check four conditions:
-							* - the MAC address of the client must be that of the connected STA
-							* - the IP address of the STA cannot be null
-							* - the IP address of the STA cannot be 0.0.0.0
-							* - the received signal must be over the threshold
-							*/
-							if (oc.getMacAddress().equals(staHwAddr)
-									&& oc.getIpAddress() != null
-									&& !oc.getIpAddress().getHostAddress().equals("0.0.0.0")
-									&& Integer.parseInt(vals_entry.getValue().get("signal")) >= SIGNAL_THRESHOLD) {
+						/* if the client is in not in the hearing map, I add
+						* the MAC address of the STA to the hearing map table
+						* and I initialize the table of agents who have heared it
+						*/
+						if (!hearingMap.containsKey(staHwAddr))
+							hearingMap.put(staHwAddr, new HashSet<InetAddress> ());
 							
-								/* if the client is in not in the hearing map, I add
-								* the MAC address of the STA to the hearing map table
-								* and I initialize the table of agents who have heared it
-								*/
-								if (!hearingMap.containsKey(staHwAddr))
-									hearingMap.put(staHwAddr, new HashSet<InetAddress> ());
-									
-								/* for that MAC address, add the agent (AP) 
-								*  in the table
-								*/
-								hearingMap.get(staHwAddr).add(agentAddr);
-							}
-						}
+						/* for that MAC address, add the agent (AP) 
+						*  in the table
+						*/
+						hearingMap.get(staHwAddr).add(agentAddr);
 					}
 				}
-				
-				balance();
-				
-			} catch (InterruptedException e) {
-				e.printStackTrace();
 			}
 		}
+		
+		balance();
 	}
 	
 	private void balance() {
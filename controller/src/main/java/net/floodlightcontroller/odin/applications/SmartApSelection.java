@@ -4,21 +4,24 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Arrays;
-import java.util.ArrayList;
+import java.util.Comparator;
 import java.io.File;
 import java.io.PrintStream;
 import java.math.*;
 
+import net.floodlightcontroller.odin.master.AgentQueryResult;
 import net.floodlightcontroller.odin.master.OdinApplication;
 import net.floodlightcontroller.odin.master.OdinClient;
 import net.floodlightcontroller.odin.master.OdinEventFlowDetection;
 import net.floodlightcontroller.odin.master.FlowDetectionCallback;
 import net.floodlightcontroller.odin.master.FlowDetectionCallbackContext;
 import net.floodlightcontroller.odin.master.OdinMaster.SmartApSelectionParams;
+import net.floodlightcontroller.odin.master.RadioMeasurements;
 import net.floodlightcontroller.util.MACAddress;
 
 public class SmartApSelection extends OdinApplication {
@@ -44,10 +47,38 @@ public class SmartApSelection extends OdinApplication {
   private int[] channels = null;
   private int num_channels = 0;
   private int num_agents = 0;
-  private String[][] vals_rx = null;
+  private ScanScheduler scanScheduler = null; // Results from agents
+
+  // Times an agent is asked to scan a channel in a round if it is busy
+  private final int SCAN_ATTEMPTS = 3;
+  private final long SCAN_RESULTS_TIMEOUT = 1000; // ms
+  private final long MAX_STATS_AGE = 1000; // ms, of the RxStats and txpower shared with the other applications
+
+  // Handoffs of a round are planned for all the STAs at once
+  private final int MAX_HANDOFFS = 10; // In a round
+  private final long PLANNER_BUDGET = 50; // ms
+  private final double RSSI_WEIGHT = 0.001; // Of the Rssi in dBm in the balancers, to prefer the strongest APs
+  private final double BALANCER_MIN_GAIN = 1e-9;
+  private final double FF_FAIRNESS_WEIGHT = 0.5; // Of the Jain's index per STA, against the FF
+  private final double FF_MIN_GAIN = 0.05; // FF a handoff has to gain
 
 
   private long time = 0L; // Compare timestamps in ms
+
+  // State kept from one round to the next
+  private PrintStream ps = null; // Log file
+  private String showAPsLine = "\033[K\r[SmartAPSelection] "; // Line with the names of the APs
+  private RssiStore rssiStore = null; // RSSI for each STA in all APs
+  private Map<MACAddress, Long> handoffDate = new HashMap<MACAddress, Long> (); // Map to store last handoff for each STA FIXME: Maybe create struct
+  private Map<MACAddress, Double[]> ffData = new HashMap<MACAddress, Double[]> (); // Map to store Throughput available for each STA in all APs
+  private final char[] progressChar = new char[] { '-', '\\', '|', '/' };
+  private int progressIndex = 0;
+
+  // State of the round, from the scan requests to the processing of the results
+  private int[] clientsChannels = null; // Array with the indexes of channels of the STAs, better performance in data process
+  private InetAddress[] agentsArray = null; // Array with the IP addresses of the Agents
+  private int[] scanPlan = null; // Channel scanned by each agent
+  private boolean roundRunning = false;
   
   InetAddress nullAddr = null;
   InetAddress vipAPAddr = null;
@@ -105,20 +136,25 @@ public class SmartApSelection extends OdinApplication {
    */
 
   @Override
-  public void run() {
+  protected void start() {
     System.out.println("[SmartAPSelection] Start");
     this.SMARTAP_PARAMS = getSmartApSelectionParams();  // Import the parameters of Poolfile, using this function of Odin Master
     
     // Wait a period in order to let the user start the agents
-    try {
-      System.out.println("[SmartAPSelection] Sleep for " + SMARTAP_PARAMS.time_to_start);
-      Thread.sleep(SMARTAP_PARAMS.time_to_start);
-    } catch (InterruptedException e) {
-      e.printStackTrace();
-    }
-    
+    System.out.println("[SmartAPSelection] Sleep for " + SMARTAP_PARAMS.time_to_start);
+    scheduleTimer(new Runnable() {
+      @Override
+      public void run() {
+        init();
+      }
+    }, SMARTAP_PARAMS.time_to_start);
+  }
+
+  /**
+   * Get the channels of the agents, open the log file and start the rounds
+   */
+  private void init() {
     // Integration of write on file functionality
-    PrintStream ps = null;
 
     if(SMARTAP_PARAMS.filename.length()>0){ // check that the parameter exists
       File f = new File(SMARTAP_PARAMS.filename);
@@ -149,9 +185,6 @@ public class SmartApSelection extends OdinApplication {
     ps.println("\tTxpowerSTA: " + SMARTAP_PARAMS.thReqSTA);
     ps.println("\tFilename: " + SMARTAP_PARAMS.filename);
 
-    // Array created to show the line with the names of the APs
-    String showAPsLine = "\033[K\r[SmartAPSelection] ";
-    
     try { // Create IP to compare with clients not assigned
       nullAddr = InetAddress.getByName("0.0.0.0");
       vipAPAddr = InetAddress.getByName(getVipAPIpAddress());   // VIP AP
@@ -191,616 +224,611 @@ public class SmartApSelection extends OdinApplication {
     ps.println("[SmartAPSelection]");
     ps.flush(); // write in the log file (empty the buffer)
 
-    vals_rx = new String[num_channels][num_agents]; // Matrix to store the results from agents
-    Map<MACAddress, Double[]> rssiData = new HashMap<MACAddress, Double[]> (); // Map to store RSSI for each STA in all APs
-    Map<MACAddress, Long> handoffDate = new HashMap<MACAddress, Long> (); // Map to store last handoff for each STA FIXME: Maybe create struct
-    Map<MACAddress, Double[]> ffData = new HashMap<MACAddress, Double[]> (); // Map to store Throughput available for each STA in all APs
+    scanScheduler = new ScanScheduler(num_channels, num_agents, SCAN_ATTEMPTS); // Matrix to store the results from agents
+    rssiStore = new RssiStore(num_agents, SMARTAP_PARAMS.weight); // RSSI for each STA in all APs
 
     System.out.print("\033[2J"); // Clear screen and cursor to 0,0
-    char[] progressChar = new char[] { '-', '\\', '|', '/' };
-    int progressIndex = 0;
 
     // From this moment, the detected flows are taken into account
     initDetection (); // Register flow detection
 
-    // Main loop
-    while (true) {
-      try {
-        Thread.sleep(100);  // milliseconds
-
-        // restart the clients hashset in order to see if there are new STAs
-        clients = new HashSet<OdinClient>(getClients());
-
-        int num_clients = clients.size(); // Number of STAs
+    nextRound();
+  }
 
-        if (num_clients == 0){ // No clients, no need of scan
-          System.out.println("\033[K\r[SmartAPSelection] ====================");
-          System.out.println("\033[K\r[SmartAPSelection] Proactive AP Handoff");
-          System.out.println("\033[K\r[SmartAPSelection]");
-          System.out.println("\033[K\r[SmartAPSelection] " + progressChar[progressIndex++] + "No clients associated, waiting for connection");
-          System.out.println("\033[K\r[SmartAPSelection] ====================");
-          if(progressIndex==3)
-            progressIndex=0;
-          System.out.print("\033[K\r\n\033[K\r\n\033[K\r\n\033[K\r\n\033[K\r\n\033[K\r\n\033[K\r\n\033[K\r\n\033[K\r\n\033[0;0H"); // Clear lines above and return to console 0,0
-          continue;
-        }
+  /**
+   * Start the next round, after a short pause
+   */
+  private void nextRound() {
+    scheduleTimer(new Runnable() {
+      @Override
+      public void run() {
+        scan();
+      }
+    }, 100);  // milliseconds
+  }
 
-        // if there are clients
-        int[] clientsChannels = new int[num_clients]; // Array with the indexes of channels of the STAs, better performance in data process
+  /**
+   * Ask the agents to scan the channels of the STAs, and process the
+   * results once the scanning interval is over
+   */
+  private void scan() {
+
+    // restart the clients hashset in order to see if there are new STAs
+    clients = new HashSet<OdinClient>(getClients());
+
+    int num_clients = clients.size(); // Number of STAs
+
+    if (num_clients == 0){ // No clients, no need of scan
+      System.out.println("\033[K\r[SmartAPSelection] ====================");
+      System.out.println("\033[K\r[SmartAPSelection] Proactive AP Handoff");
+      System.out.println("\033[K\r[SmartAPSelection]");
+      System.out.println("\033[K\r[SmartAPSelection] " + progressChar[progressIndex++] + "No clients associated, waiting for connection");
+      System.out.println("\033[K\r[SmartAPSelection] ====================");
+      if(progressIndex==3)
+        progressIndex=0;
+      System.out.print("\033[K\r\n\033[K\r\n\033[K\r\n\033[K\r\n\033[K\r\n\033[K\r\n\033[K\r\n\033[K\r\n\033[K\r\n\033[0;0H"); // Clear lines above and return to console 0,0
+      nextRound();
+      return;
+    }
 
+    // if there are clients
+    clientsChannels = new int[num_clients]; // Array with the indexes of channels of the STAs, better performance in data process
 
-        // Various indexes
-        int client_index = 0;
-        int client_channel = 0;
-        ind_aux = 0;
 
-        System.out.println("\033[K\r[SmartAPSelection] ====================");
-        System.out.println("\033[K\r[SmartAPSelection] Proactive AP Handoff");
-        System.out.println("\033[K\r[SmartAPSelection]");
+    // Various indexes
+    int client_index = 0;
+    int client_channel = 0;
+    int ind_aux = 0;
 
+    System.out.println("\033[K\r[SmartAPSelection] ====================");
+    System.out.println("\033[K\r[SmartAPSelection] Proactive AP Handoff");
+    System.out.println("\033[K\r[SmartAPSelection]");
 
-        // For each STA, fill the array
-        for (OdinClient oc: clients) { // Create array with client channels and their indexes for better data processing
 
-          ind_aux = 0;
+    // For each STA, fill the array
+    for (OdinClient oc: clients) { // Create array with client channels and their indexes for better data processing
 
-          client_channel = getChannelFromAgent(oc.getLvap().getAgent().getIpAddress());
+      ind_aux = 0;
 
-          for (int chann: channels){
+      client_channel = getChannelFromAgent(oc.getLvap().getAgent().getIpAddress());
 
-            if (chann == client_channel){
+      for (int chann: channels){
 
-              clientsChannels[client_index] = ind_aux;
-              client_index++;
-              break;
+        if (chann == client_channel){
 
-            }
-            ind_aux++;
-          }
+          clientsChannels[client_index] = ind_aux;
+          client_index++;
+          break;
 
         }
+        ind_aux++;
+      }
 
-        time = System.currentTimeMillis();
+    }
 
-        //For each channel used in our APs
-        for (int channel = 0 ; channel < num_channels ; ++channel) {
+    // Only the channels with STAs need to be scanned
+    boolean[] clientsOnChannel = new boolean[num_channels];
+    for (client_index = 0; client_index < num_clients; client_index++) {
+      clientsOnChannel[clientsChannels[client_index]] = true;
+    }
+    int[] scanChannels = new int[num_channels];
+    int num_scan_channels = 0;
+    for (int channel = 0 ; channel < num_channels ; ++channel) {
+      if (clientsOnChannel[channel] && channels[channel] != 0)
+        scanChannels[num_scan_channels++] = channel;
+    }
 
-          if(channels[channel]==0)
-            continue;
+    time = System.currentTimeMillis();
 
-          int agent = 0;
-          scanningAgents.clear();
+    // A round scans every channel with every agent, if the last one is done start another
+    scanScheduler.startRound(Arrays.copyOf(scanChannels, num_scan_channels), time);
+    roundRunning = !scanScheduler.isRoundDone();
 
-          // For each agent, request the statistics
-          for (InetAddress agentAddr: agents) {
+    // Array with the IP addresses of the Agents
+    agentsArray = agents.toArray(new InetAddress[0]);
 
-            // Request statistics
-            result = requestScannedStationsStatsFromAgent(agentAddr, channels[channel], SCANNED_SSID);    
-            // Check if the request has been successful
-            scanningAgents.put(agentAddr, result);
-          }         
+    // Each agent scans one channel, spread so that all the channels are scanned at the same time
+    scanPlan = scanScheduler.nextSlot();
+    boolean scanning = false;
 
-          // sleep during the scanning
-          try {
-            Thread.sleep(SMARTAP_PARAMS.scanning_interval + SMARTAP_PARAMS.added_time);
-          } 
-          catch (InterruptedException e) {
-            e.printStackTrace();
-          }
+    // For each agent, request the statistics
+    for (ind_aux = 0; ind_aux < num_agents; ind_aux++) {
 
-          // Recover the information after the scanning
-          for (InetAddress agentAddr: agents) {
+      if (scanPlan[ind_aux] == ScanScheduler.IDLE)
+        continue;
 
-            // Reception statistics 
-            if (scanningAgents.get(agentAddr) == 0) { // Busy agent
-              System.out.println("\033[K\r[SmartAPSelection] Agent BUSY during scanning operation");
-              continue;       
-            }
+      // Request statistics
+      result = requestScannedStationsStatsFromAgent(agentsArray[ind_aux], channels[scanPlan[ind_aux]], SCANNED_SSID);
+      // Check if the request has been successful
+      if (result == 0) { // Busy agent, it will be asked again in the next scan
+        System.out.println("\033[K\r[SmartAPSelection] Agent BUSY during scanning operation");
+        scanScheduler.busy(scanPlan[ind_aux], ind_aux, System.currentTimeMillis());
+        scanPlan[ind_aux] = ScanScheduler.IDLE;
+      } else {
+        scanning = true;
+      }
+    }
 
-            // Agent non busy, so we recover the information
-            vals_rx[channel][agent] = getScannedStaRssiFromAgent(agentAddr);
-            agent++;
-          }
-          //Thread.sleep(200); // Give some time to the AP
+    // Process the results once the agents are done scanning
+    if (scanning) {
+      scheduleTimer(new Runnable() {
+        @Override
+        public void run() {
+          process(true);
         }
+      }, SMARTAP_PARAMS.scanning_interval + SMARTAP_PARAMS.added_time);
+    } else {
+      process(false);
+    }
+  }
 
-        System.out.println("\033[K\r[SmartAPSelection] Scanning done in: " + (System.currentTimeMillis()-time) + " ms");
-
-        // All the statistics stored, now process
-        time = System.currentTimeMillis();
-        client_index = 0;
-        ind_aux = 0;
-
-        // For each STA (client) associated, store the RSSI value with which the APs "see" it
-        for (OdinClient oc: clients) {
-
-          MACAddress eth = oc.getMacAddress(); // client MAC
+  /**
+   * Store the results of the scans of the round and do the handoffs
+   *
+   * @param scanning whether any agent was asked to scan
+   */
+  private void process(boolean scanning) {
+    int client_index = 0;
+    int ind_aux = 0;
 
-          client_channel = clientsChannels[client_index]; // row in the matrix
+    try {
 
-          for ( ind_aux = 0; ind_aux < num_agents; ind_aux++){// For 
+      // Recover the information after the scanning, from all the agents at once
+      AgentQueryResult<String> scans = scanning ? getScannedStaRssiFromAgents(SCAN_RESULTS_TIMEOUT) : null;
+      for (ind_aux = 0; ind_aux < num_agents; ind_aux++) {
 
-            String arr = vals_rx[client_channel][ind_aux]; // String with "MAC rssi\nMAC rssi\n..."
+        if (scanPlan[ind_aux] == ScanScheduler.IDLE)
+          continue;
 
-            Double rssi = getRssiFromRxStats(eth,arr); // rssi or -99.9
+        String scan = scans.get(agentsArray[ind_aux]);
+        if (scan == null) { // No answer, it will be asked again in the next scan
+          System.out.println("\033[K\r[SmartAPSelection] Agent " + agentsArray[ind_aux] + " did not answer");
+          scanScheduler.busy(scanPlan[ind_aux], ind_aux, System.currentTimeMillis());
+          continue;
+        }
+        scanScheduler.scanned(scanPlan[ind_aux], ind_aux, scan, System.currentTimeMillis());
+      }
 
-            Double[] client_average_dBm = new Double[num_agents];
+      System.out.println("\033[K\r[SmartAPSelection] Scanning done in: " + (System.currentTimeMillis()-time) + " ms");
+      if (roundRunning && scanScheduler.isRoundDone()) { // Every channel scanned by every agent
+        System.out.println("\033[K\r[SmartAPSelection] Scan round done in: " + scanScheduler.getLastRoundLatency() + " ms, "
+            + scanScheduler.getSlot() + " scans (average " + scanScheduler.getAverageRoundLatency() + " ms, max "
+            + scanScheduler.getMaxRoundLatency() + " ms, " + scanScheduler.getRetries() + " retries, "
+            + scanScheduler.getMissed() + " missed)");
+        ps.println("[SmartAPSelection] Scan round done in: " + scanScheduler.getLastRoundLatency() + " ms"); // Log in file
+      }
 
-            // get the stored RSSI averaged value (historical data)
-            client_average_dBm = rssiData.get(eth);
+      // All the statistics stored, now process
+      time = System.currentTimeMillis();
+      client_index = 0;
+      ind_aux = 0;
 
-            if (client_average_dBm == null){// First time STA is associated
+      // For each STA (client) associated, its row in the store, updated by the scans of its channel
+      for (OdinClient oc: clients) {
+        int row = rssiStore.addStation(oc.getMacAddress());
+        rssiStore.setChannel(row, clientsChannels[client_index]);
+        client_index++;
+      }
 
-              client_average_dBm = new Double[num_agents];
-              Arrays.fill(client_average_dBm,-99.9); // first, we put -99.9 everywhere
-              client_average_dBm[ind_aux] = rssi;   // put the last value instead of -99.9
+      // Store the RSSI values with which the APs "see" the STAs, straight from each scan
+      for (ind_aux = 0; ind_aux < num_agents; ind_aux++) {
 
-            } else {
+        if (scanPlan[ind_aux] == ScanScheduler.IDLE || !scanScheduler.isFresh(scanPlan[ind_aux], ind_aux)) // Not scanned this time, keep the average
+          continue;
 
-              // Recalculate the new average
-              if((client_average_dBm[ind_aux]!=-99.9)&&(client_average_dBm[ind_aux]!=null)){
-                if(rssi!=-99.9){
-                  Double client_signal = Math.pow(10.0, (rssi) / 10.0); // Linear power
-                  Double client_average = Math.pow(10.0, (client_average_dBm[ind_aux]) / 10.0); // Linear power average
-                  client_average = client_average*(1-SMARTAP_PARAMS.weight) + client_signal*SMARTAP_PARAMS.weight; // use the "alpha" parameter (weight) to calculate the new value
-                  client_average_dBm[ind_aux] = Double.valueOf((double)Math.round(1000*Math.log10(client_average))/100); //Average power in dBm with 2 decimals
-                }
-              }else{
-                // It is the first time we have data of this STA in this AP
-                client_average_dBm[ind_aux] = rssi;
-              }
-            }
-            rssiData.put(eth,client_average_dBm); // Store all the data
-          }
-          client_index++;
-        }
-        System.out.println("\033[K\r[SmartAPSelection] Processing done in: " + (System.currentTimeMillis()-time) + " ms");
-        System.out.println("\033[K\r[SmartAPSelection] ====================");
-        System.out.println("\033[K\r[SmartAPSelection] ");
+        rssiStore.update(ind_aux, scanPlan[ind_aux], scanScheduler.getResult(scanPlan[ind_aux], ind_aux)); // String with "MAC rssi\nMAC rssi\n..."
+      }
+      System.out.println("\033[K\r[SmartAPSelection] Processing done in: " + (System.currentTimeMillis()-time) + " ms");
+      System.out.println("\033[K\r[SmartAPSelection] ====================");
+      System.out.println("\033[K\r[SmartAPSelection] ");
 
-        System.out.println(showAPsLine + " - RSSI [dBm]\033[00m");
+      System.out.println(showAPsLine + " - RSSI [dBm]\033[00m");
 
-        // Now comparation and handoff if it's needed
-        time = System.currentTimeMillis();
+      // Now comparation and handoff if it's needed
+      time = System.currentTimeMillis();
 
-        ps.println(time + " ms"); // Log file
+      ps.println(time + " ms"); // Log file
 
-        // Array with the IP addresses of the Agents
-        InetAddress[] agentsArray = agents.toArray(new InetAddress[0]);
+      // Write to screen the updated value of the averaged RSSI
+      for (OdinClient oc: clients) {
 
-        // Write to screen the updated value of the averaged RSSI
-        for (OdinClient oc: clients) {
+        client_index = 0;
 
-          client_index = 0;
+        MACAddress eth = oc.getMacAddress(); // client MAC
 
-          MACAddress eth = oc.getMacAddress(); // client MAC
+        double[] client_dBm = new double[num_agents];
 
-          Double[] client_dBm = new Double[num_agents];
+        InetAddress clientAddr = oc.getIpAddress();
+        InetAddress agentAddr = oc.getLvap().getAgent().getIpAddress();
 
-          InetAddress clientAddr = oc.getIpAddress();
-          InetAddress agentAddr = oc.getLvap().getAgent().getIpAddress();
+        if(clientAddr.equals(nullAddr))// If client not assigned, go to next one (associated, but without IP address)
+          continue;
 
-          if(clientAddr.equals(nullAddr))// If client not assigned, go to next one (associated, but without IP address)
-            continue;
+        System.out.println("\033[K\r[SmartAPSelection] \t\t\t\tClient " + clientAddr + " in agent " + agentAddr);
+        ps.println("\tClient " + clientAddr + " in agent " + agentAddr); // Log in file
 
-          System.out.println("\033[K\r[SmartAPSelection] \t\t\t\tClient " + clientAddr + " in agent " + agentAddr);
-          ps.println("\tClient " + clientAddr + " in agent " + agentAddr); // Log in file
+        // Recover the information
+        int row = rssiStore.getRow(eth);
 
-          // Recover the information
-          client_dBm = rssiData.get(eth);
+        if (rssiStore.hasData(row)){// Array with rssi
 
-          if (client_dBm != null){// Array with rssi
+          rssiStore.getDbm(row, client_dBm);
 
-            Double maxRssi = client_dBm[0]; // Start with first rssi
+          Double maxRssi = client_dBm[0]; // Start with first rssi
 
-            Double currentRssi = null;
+          Double currentRssi = null;
 
-            for(ind_aux = 1; ind_aux < client_dBm.length; ind_aux++){//Get the index of the AP where the STA has the highest RSSI, VIP AP not considered
+          for(ind_aux = 1; ind_aux < client_dBm.length; ind_aux++){//Get the index of the AP where the STA has the highest RSSI, VIP AP not considered
 
-              if((client_dBm[ind_aux]>maxRssi)&&(!vipAPAddr.equals(agentsArray[ind_aux]))){
-                maxRssi=client_dBm[ind_aux];
-                client_index = ind_aux;
-              }
+            if((client_dBm[ind_aux]>maxRssi)&&(!vipAPAddr.equals(agentsArray[ind_aux]))){
+              maxRssi=client_dBm[ind_aux];
+              client_index = ind_aux;
             }
+          }
 
-            // Printf with colours
-            System.out.print("\033[K\r[SmartAPSelection] ");
-
-            // write to the screen the information with colours
-            for(ind_aux = 0; ind_aux < client_dBm.length; ind_aux++){
+          // Printf with colours
+          System.out.print("\033[K\r[SmartAPSelection] ");
 
-              if(agentsArray[ind_aux].equals(agentAddr)){ // Current AP
+          // write to the screen the information with colours
+          for(ind_aux = 0; ind_aux < client_dBm.length; ind_aux++){
 
-                currentRssi = client_dBm[ind_aux];
-                if(agentsArray[ind_aux].equals(vipAPAddr)){
-                  System.out.print("[\033[48;5;3;1m" + String.format("%.2f",client_dBm[ind_aux]) + "\033[00m]"); // Olive
-                }else{
-                  System.out.print("[\033[48;5;29;1m" + String.format("%.2f",client_dBm[ind_aux]) + "\033[00m]"); // Dark Green
-                }
-                ps.println("\t\t[Associated] Rssi in agent " + agentsArray[ind_aux] + ": " + client_dBm[ind_aux] + " dBm"); // Log in file
+            if(agentsArray[ind_aux].equals(agentAddr)){ // Current AP
 
+              currentRssi = client_dBm[ind_aux];
+              if(agentsArray[ind_aux].equals(vipAPAddr)){
+                System.out.print("[\033[48;5;3;1m" + String.format("%.2f",client_dBm[ind_aux]) + "\033[00m]"); // Olive
               }else{
-                if(ind_aux==client_index){ // Max, VIP AP not considered
+                System.out.print("[\033[48;5;29;1m" + String.format("%.2f",client_dBm[ind_aux]) + "\033[00m]"); // Dark Green
+              }
+              ps.println("\t\t[Associated] Rssi in agent " + agentsArray[ind_aux] + ": " + client_dBm[ind_aux] + " dBm"); // Log in file
+
+            }else{
+              if(ind_aux==client_index){ // Max, VIP AP not considered
 
-                  System.out.print("[\033[48;5;88m" + String.format("%.2f",client_dBm[ind_aux]) + "\033[00m]"); // Dark red
-                  ps.println("\t\t[BetterAP] Rssi in agent " + agentsArray[ind_aux] + ": " + client_dBm[ind_aux] + " dBm"); // Log in file
+                System.out.print("[\033[48;5;88m" + String.format("%.2f",client_dBm[ind_aux]) + "\033[00m]"); // Dark red
+                ps.println("\t\t[BetterAP] Rssi in agent " + agentsArray[ind_aux] + ": " + client_dBm[ind_aux] + " dBm"); // Log in file
 
+              }else{
+                if(agentsArray[ind_aux].equals(vipAPAddr)){
+                  System.out.print("[\033[48;5;94m" + String.format("%.2f",client_dBm[ind_aux]) + "\033[00m]"); // Orange
                 }else{
-                  if(agentsArray[ind_aux].equals(vipAPAddr)){
-                    System.out.print("[\033[48;5;94m" + String.format("%.2f",client_dBm[ind_aux]) + "\033[00m]"); // Orange
-                  }else{
-                    System.out.print("["+ String.format("%.2f",client_dBm[ind_aux]) +"]"); // No color
-                  }
-                  ps.println("\t\t[WorseAP] Rssi in agent " + agentsArray[ind_aux] + ": " + client_dBm[ind_aux] + " dBm"); // Log in file
+                  System.out.print("["+ String.format("%.2f",client_dBm[ind_aux]) +"]"); // No color
                 }
-              } 
-            }
-            // End prinft with colours
+                ps.println("\t\t[WorseAP] Rssi in agent " + agentsArray[ind_aux] + ": " + client_dBm[ind_aux] + " dBm"); // Log in file
+              }
+            } 
+          }
+          // End prinft with colours
 
 
-            // this is used for all the modes except FF. If you also want a threshold in FF mode, substitute the next line with if(true){
-            //if(!SMARTAP_PARAMS.mode.equals("FF")){ // In BALANCER mode, it will assign STAs to APs always with higher RSSI than threshold, so there is not ping pong effect
+          // this is used for all the modes except FF. If you also want a threshold in FF mode, substitute the next line with if(true){
+          //if(!SMARTAP_PARAMS.mode.equals("FF")){ // In BALANCER mode, it will assign STAs to APs always with higher RSSI than threshold, so there is not ping pong effect
 			if(true){ // In BALANCER mode, it will assign STAs to APs always with higher RSSI than threshold, so there is not ping pong effect
-              if (!agentsArray[client_index].equals(agentAddr)){ // If the agent to which the STA is associated is not the one with the highest RSSI, change to the best RSSI
+            if (!agentsArray[client_index].equals(agentAddr)){ // If the agent to which the STA is associated is not the one with the highest RSSI, change to the best RSSI
 
-                //If Rssi threshold is reached, check hystheresis
-                if(currentRssi<SMARTAP_PARAMS.signal_threshold){
+              //If Rssi threshold is reached, check hystheresis
+              if(currentRssi<SMARTAP_PARAMS.signal_threshold){
 
-                  Long handoffTime = handoffDate.get(eth);
+                Long handoffTime = handoffDate.get(eth);
 
-                  //If hystheresis has expired, handoff to the AP with the highest RSSI
-                  if((handoffTime==null)||((System.currentTimeMillis()-handoffTime.longValue())/1000>SMARTAP_PARAMS.hysteresis_threshold)){
+                //If hystheresis has expired, handoff to the AP with the highest RSSI
+                if((handoffTime==null)||((System.currentTimeMillis()-handoffTime.longValue())/1000>SMARTAP_PARAMS.hysteresis_threshold)){
 
-                    handoffClientToAp(eth,agentsArray[client_index]);
-                    handoffDate.put(eth,Long.valueOf(System.currentTimeMillis())); // store the time for checking the hysteresis next time
-                    System.out.println(" - Handoff >--->--->---> "+agentsArray[client_index]);
-                    ps.println("\t\t[Action] Handoff to agent: " + agentsArray[client_index]); // Log in file
-
-                  }else{
-                    System.out.println(" - No Handoff: Hysteresis time not expired");
-                    ps.println("\t\t[No Action] No Handoff: Hysteresis time not expired"); // Log in file
-                  }
+                  handoffClientToAp(eth,agentsArray[client_index]);
+                  handoffDate.put(eth,Long.valueOf(System.currentTimeMillis())); // store the time for checking the hysteresis next time
+                  System.out.println(" - Handoff >--->--->---> "+agentsArray[client_index]);
+                  ps.println("\t\t[Action] Handoff to agent: " + agentsArray[client_index]); // Log in file
 
                 }else{
-                  // The threshold is not reached
-                  if(SMARTAP_PARAMS.mode.equals("RSSI")){
-                    System.out.println(" - No Handoff: Rssi Threshold not reached");
-                    ps.println("\t\t[No Action] No Handoff: Rssi Threshold not reached"); // Log in file
-                  }else if(SMARTAP_PARAMS.mode.equals("DETECTOR")){
-                    System.out.println(" - Assigned by DETECTOR");
-                    ps.println("\t\t[No Action] No Handoff: Assigned by DETECTOR"); // Log in file
-                  }else if(SMARTAP_PARAMS.mode.equals("FF")){
-                    System.out.println(" - Assigned by FF");
-                    ps.println("\t\t[No Action] No Handoff: Assigned by FF"); // Log in file
-                  }else{
-                    System.out.println(" - Assigned by BALANCER");
-                    ps.println("\t\t[No Action] No Handoff: Assigned by BALANCER"); // Log in file
-                  }
+                  System.out.println(" - No Handoff: Hysteresis time not expired");
+                  ps.println("\t\t[No Action] No Handoff: Hysteresis time not expired"); // Log in file
                 }
+
               }else{
-                System.out.println(""); // Best AP already
-                ps.println("\t\t[No Action] There is no better Rssi heard"); // Log in file
+                // The threshold is not reached
+                if(SMARTAP_PARAMS.mode.equals("RSSI")){
+                  System.out.println(" - No Handoff: Rssi Threshold not reached");
+                  ps.println("\t\t[No Action] No Handoff: Rssi Threshold not reached"); // Log in file
+                }else if(SMARTAP_PARAMS.mode.equals("DETECTOR")){
+                  System.out.println(" - Assigned by DETECTOR");
+                  ps.println("\t\t[No Action] No Handoff: Assigned by DETECTOR"); // Log in file
+                }else if(SMARTAP_PARAMS.mode.equals("FF")){
+                  System.out.println(" - Assigned by FF");
+                  ps.println("\t\t[No Action] No Handoff: Assigned by FF"); // Log in file
+                }else{
+                  System.out.println(" - Assigned by BALANCER");
+                  ps.println("\t\t[No Action] No Handoff: Assigned by BALANCER"); // Log in file
+                }
               }
+            }else{
+              System.out.println(""); // Best AP already
+              ps.println("\t\t[No Action] There is no better Rssi heard"); // Log in file
             }
+          }
+
+          // FF mode
+          if(SMARTAP_PARAMS.mode.equals("FF")){ // Calculate FF data
+            System.out.println("\033[K\r[SmartAPSelection]");
+
+            ind_aux = 0;
+            Double[] TH_av = new Double[num_agents];
+
+            for (InetAddress agentAddrFF: agents) {
+
+              if(oc.getLvap().getAgent().getIpAddress().equals(agentAddrFF)){ // If the STA is associated to this agent, use the real statistics
+                // Reception statistics
+                RadioMeasurements measurements_FF = getRadioMeasurements(agentAddrFF, MAX_STATS_AGE);
+                int sta_index = measurements_FF == null ? -1 : measurements_FF.indexOf(eth);  // Look for the statistics corresponding to this client (using the eth address)
+                if(sta_index != -1 && !Double.isNaN(measurements_FF.getRxRate(sta_index))){
+                  //System.out.println("\033[K\r[SmartAPSelection] avg rate: " + measurements_FF.getRxRate(sta_index) + " kbps");
+                  Double clientRate = measurements_FF.getRxRate(sta_index);
+                  // t and T
+                  double[] tTValues = getTransmissionTime(clientRate.doubleValue());
+                  double p = 0.98*(tTValues[1]/tTValues[0]);
+                  //System.out.println("\033[K\r[SmartAPSelection] Th_av["+ind_aux+"]: " + String.format("%.2f",clientRate.doubleValue()*p));
+                  TH_av[ind_aux] = clientRate.doubleValue()*p;
+                }else{
+                  TH_av[ind_aux] = 0.0;
+                }
 
-            // FF mode
-            if(SMARTAP_PARAMS.mode.equals("FF")){ // Calculate FF data
-              System.out.println("\033[K\r[SmartAPSelection]");
-
-              ind_aux = 0;
-              Double[] TH_av = new Double[num_agents];
-
-              for (InetAddress agentAddrFF: agents) {
-
-                if(oc.getLvap().getAgent().getIpAddress().equals(agentAddrFF)){ // If the STA is associated to this agent, use the real statistics
-                  // Reception statistics
-                  Map<MACAddress, Map<String, String>> vals_rx_FF = getRxStatsFromAgent(agentAddrFF);
-                  Map<String, String> vals_entry_rx = vals_rx_FF.get(eth);  // Look for the statistics corresponding to this client (using the eth address)
-                  if(vals_entry_rx != null){
-                    //System.out.println("\033[K\r[SmartAPSelection] avg rate: " + vals_entry_rx.get("avg_rate") + " kbps");
-                    Double clientRate = Double.parseDouble(vals_entry_rx.get("avg_rate"));
-                    // t and T
-                    double[] tTValues = getTransmissionTime(clientRate.doubleValue());
-                    double p = 0.98*(tTValues[1]/tTValues[0]);
-                    //System.out.println("\033[K\r[SmartAPSelection] Th_av["+ind_aux+"]: " + String.format("%.2f",clientRate.doubleValue()*p));
-                    TH_av[ind_aux] = clientRate.doubleValue()*p;
-                  }else{
-                    TH_av[ind_aux] = 0.0;
-                  }
-
-                }else{ // if the STA is NOT associated to this agent, estimate the available throughput
-                  double txpowerAP = Math.pow(10.0, (getTxPowerFromAgent(agentAddrFF)) / 10.0);
-                  double txpowerSTA = Math.pow(10.0, (SMARTAP_PARAMS.txpowerSTA) / 10.0);
-                  double rssiDL = client_dBm[ind_aux]+10.0*Math.log10(txpowerAP/txpowerSTA);
-                  double snr = 90.0 + rssiDL;
-                  double maxRate = getOFDMRates(snr);
-                  double[] tTValues = getTransmissionTime(maxRate);
-
-                  HashSet<OdinClient> clients_FF = new HashSet<OdinClient>(getClientsFromAgent(agentAddrFF));
-                  double t2Value = calculateT2(clients_FF.size(),tTValues[0]);
-                  double p = 0.98*(tTValues[1]/t2Value);
-                  //System.out.println("\033[K\r[SmartAPSelection] Th_av["+ind_aux+"]: " + String.format("%.2f",maxRate*p));
-                  TH_av[ind_aux] = maxRate*p;
+              }else{ // if the STA is NOT associated to this agent, estimate the available throughput
+                RadioMeasurements measurements_FF = getRadioMeasurements(agentAddrFF, MAX_STATS_AGE);
+                if(measurements_FF == null){ // Agent gone
+                  TH_av[ind_aux] = 0.0;
+                  ind_aux++;
+                  continue;
                 }
-                ind_aux++;
+                double txpowerAP = Math.pow(10.0, (measurements_FF.getTxPower()) / 10.0);
+                double txpowerSTA = Math.pow(10.0, (SMARTAP_PARAMS.txpowerSTA) / 10.0);
+                double rssiDL = client_dBm[ind_aux]+10.0*Math.log10(txpowerAP/txpowerSTA);
+                double snr = 90.0 + rssiDL;
+                double maxRate = getOFDMRates(snr);
+                double[] tTValues = getTransmissionTime(maxRate);
+
+                HashSet<OdinClient> clients_FF = new HashSet<OdinClient>(getClientsFromAgent(agentAddrFF));
+                double t2Value = calculateT2(clients_FF.size(),tTValues[0]);
+                double p = 0.98*(tTValues[1]/t2Value);
+                //System.out.println("\033[K\r[SmartAPSelection] Th_av["+ind_aux+"]: " + String.format("%.2f",maxRate*p));
+                TH_av[ind_aux] = maxRate*p;
               }
-              // Save TH_av in map
-              ffData.put(eth,TH_av);
+              ind_aux++;
             }
-          }else{
-            System.out.println("\033[K\r[SmartAPSelection] No data received");
+            // Save TH_av in map
+            ffData.put(eth,TH_av);
           }
+        }else{
+          System.out.println("\033[K\r[SmartAPSelection] No data received");
         }
-        if(SMARTAP_PARAMS.mode.equals("FF")){ // Show FF results and handoff if necessary
-          System.out.println("\033[K\r[SmartAPSelection] ====================");
-          System.out.println(showAPsLine + " - FF Throughput available [Mbps]\033[00m");
-		  
-          // obtain the FF values for each client on each AP
-          for (OdinClient oc: clients) {
-			ind_aux = 0;
-            client_index = 0;
-            MACAddress eth = oc.getMacAddress(); // client MAC
-            InetAddress clientAddr = oc.getIpAddress();
-            InetAddress agentAddr = oc.getLvap().getAgent().getIpAddress();
-
-            if(clientAddr.equals(nullAddr))// If client not assigned, next one
-              continue;
-
-            System.out.println("\033[K\r[SmartAPSelection] \t\t\t\tClient " + clientAddr + " in agent " + agentAddr);
-            ps.println("\tClient " + clientAddr + " in agent " + agentAddr); // Log in file
-
-            Double[] th_avFF = ffData.get(eth);
-            //System.out.println("\033[K\r[SmartAPSelection] th_avFF= "+Arrays.toString(th_avFF));
-            Double maxFF = calculateFittingnessFactor(SMARTAP_PARAMS.thReqSTA,th_avFF[0]); // Start with first Th_av
-            Double currentTh_av = null;
-			System.out.print("\033[K\r[SmartAPSelection] ff["+ind_aux+"]=" + String.format("%.3f",maxFF) + " ");
-			
-			ArrayList<Integer> th_list = new ArrayList<Integer>(); // To sort FF
-			th_list.add(0); // First FF
-			
-            for(ind_aux = 1; ind_aux < th_avFF.length; ind_aux++){//Get max position and calculate FF
-
-              Double currentFF = calculateFittingnessFactor(SMARTAP_PARAMS.thReqSTA,th_avFF[ind_aux]);
-			  boolean added_FF = false;
-			  
-			  for(int ind_list = 0; ind_list < th_list.size(); ind_list++){
-				
-				if(currentFF>th_list.get(ind_list)){
-                  maxFF=currentFF;
-                  client_index = ind_aux;
-				  th_list.add(ind_list,ind_aux);
-				  added_FF = true;
-				  break;
-                }
-			  }
-			  if(!added_FF)
-				th_list.add(ind_aux); // Not max FF
-              
-              System.out.print("ff["+ind_aux+"]=" + String.format("%.3f",currentFF) + " ");
-            }
-			System.out.println("");
-            System.out.print("\033[K\r[SmartAPSelection] ");
-			
-            // Print the results with colours
-            for(ind_aux = 0; ind_aux < th_avFF.length; ind_aux++){
-
-              if(agentsArray[ind_aux].equals(agentAddr)){ // Current AP 
-
-                currentTh_av = th_avFF[ind_aux];
-				if(currentTh_av!=0.0){
-                  System.out.print("[\033[48;5;29;1m" + String.format("%.2f",th_avFF[ind_aux]/1000.0) + "\033[00m]"); // Dark Green
-                  ps.println("\t\t[Associated] Throughput in agent " + agentsArray[ind_aux] + ": " + th_avFF[ind_aux] + " kbps"); // Log in file
-				}else{
-				  System.out.print("[\033[48;5;29;1m" + "-----" + "\033[00m]"); // Dark Green
-                  ps.println("\t\t[Associated] No packets received"); // Log in file
-				}
+      }
+      if(SMARTAP_PARAMS.mode.equals("FF")){ // Show FF results and handoff if necessary
+        System.out.println("\033[K\r[SmartAPSelection] ====================");
+        System.out.println(showAPsLine + " - FF Throughput available [Mbps]\033[00m");
+
+        OdinClient[] ffClients = sortedClients(clients, rssiStore);
+        double[][] ffUtility = new double[ffClients.length][];
+        int[] ffCurrent = new int[ffClients.length];
+        int num_ff_clients = 0;
+
+        // obtain the FF values for each client on each AP
+        for (OdinClient oc: ffClients) {
+          client_index = 0;
+          MACAddress eth = oc.getMacAddress(); // client MAC
+          InetAddress clientAddr = oc.getIpAddress();
+          InetAddress agentAddr = oc.getLvap().getAgent().getIpAddress();
+
+          if(clientAddr.equals(nullAddr))// If client not assigned, next one
+            continue;
+
+          Double[] th_avFF = ffData.get(eth);
+          if(th_avFF == null) // No data received
+            continue;
+
+          System.out.println("\033[K\r[SmartAPSelection] \t\t\t\tClient " + clientAddr + " in agent " + agentAddr);
+          ps.println("\tClient " + clientAddr + " in agent " + agentAddr); // Log in file
+
+          double[] ff = new double[th_avFF.length];
+          Double currentTh_av = null;
+          int current_index = -1;
+          System.out.print("\033[K\r[SmartAPSelection] ");
+
+          for(ind_aux = 0; ind_aux < th_avFF.length; ind_aux++){//Get max position and calculate FF
+
+            ff[ind_aux] = calculateFittingnessFactor(SMARTAP_PARAMS.thReqSTA,th_avFF[ind_aux]);
+            if(ff[ind_aux]>ff[client_index])
+              client_index = ind_aux;
+
+            System.out.print("ff["+ind_aux+"]=" + String.format("%.3f",ff[ind_aux]) + " ");
+          }
+          System.out.println("");
+          System.out.print("\033[K\r[SmartAPSelection] ");
+
+          // Print the results with colours
+          for(ind_aux = 0; ind_aux < th_avFF.length; ind_aux++){
 
+            if(agentsArray[ind_aux].equals(agentAddr)){ // Current AP 
+
+              currentTh_av = th_avFF[ind_aux];
+              current_index = ind_aux;
+              if(currentTh_av!=0.0){
+                System.out.print("[\033[48;5;29;1m" + String.format("%.2f",th_avFF[ind_aux]/1000.0) + "\033[00m]"); // Dark Green
+                ps.println("\t\t[Associated] Throughput in agent " + agentsArray[ind_aux] + ": " + th_avFF[ind_aux] + " kbps"); // Log in file
               }else{
-                if(ind_aux==client_index){ // Max
+                System.out.print("[\033[48;5;29;1m" + "-----" + "\033[00m]"); // Dark Green
+                ps.println("\t\t[Associated] No packets received"); // Log in file
+              }
 
-                  System.out.print("[\033[48;5;88m" + String.format("%.2f",th_avFF[ind_aux]/1000.0) + "\033[00m]"); // Dark red
-                  ps.println("\t\t[BetterAP] Throughput in agent " + agentsArray[ind_aux] + ": " + th_avFF[ind_aux] + " kbps"); // Log in file
+            }else{
+              if(ind_aux==client_index){ // Max
 
-                }else{
-                  System.out.print("["+ String.format("%.2f",th_avFF[ind_aux]/1000.0) +"]"); //
-                  ps.println("\t\t[WorseAP] Throughput in agent " + agentsArray[ind_aux] + ": " + th_avFF[ind_aux] + " kbps"); // Log in file
-                }
-              } 
-            }
-			
-			for(int ind_list = 0; ind_list < th_list.size(); ind_list++){
-				
-				client_index = th_list.get(ind_list);
-			
-				// Order the handoff to the AP with the highest FF
-				if (!agentsArray[client_index].equals(agentAddr)){ // Change to the best FF
-
-				  //If Rssi threshold is reached, check hystheresis
-				  Double[] client_dBm = rssiData.get(eth);
-				  Double currentRssi = client_dBm[client_index];
-				  if(currentRssi<SMARTAP_PARAMS.signal_threshold){
-				  
-					  Long handoffTime = handoffDate.get(eth);
-
-					  //If Time hysteresis has expired, handoff
-					  if((handoffTime==null)||((System.currentTimeMillis()-handoffTime.longValue())/1000>SMARTAP_PARAMS.hysteresis_threshold)){
-
-						// make sure that you have received at least one packet
-						if(!(currentTh_av==0.0)){
-						  handoffClientToAp(eth,agentsArray[client_index]);
-						  handoffDate.put(eth,Long.valueOf(System.currentTimeMillis()));
-						  System.out.println("\033[0;1m - Handoff >--->--->---> "+agentsArray[client_index]+"\033[00m");
-						  ps.println("\t\t[Action] Handoff to agent: " + agentsArray[client_index]); // Log in file
-						  break;
-						}else{
-						  System.out.println(""); // No packets received
-						  ps.println("\t\t[No Action] No packets received"); // Log in file
-						  break;
-						}
-					  }else{
-						System.out.println("\033[0;1m - No Handoff: Hysteresis time not reached\033[00m");
-						ps.println("\t\t[No Action] No Handoff: Hysteresis time not reached"); // Log in file
-						break;
-					  }
-					}else{
-						//System.out.println(" - No Handoff: Rssi Threshold not reached");
-						ps.println("\t\t[No Action] No Handoff: Rssi Threshold not reached, try next FF"); // Log in file
-						continue;
-					}
-				}else{
-				  System.out.println(""); // Best AP already
-				  ps.println("\t\t[No Action] There is no better FF"); // Log in file
-				  break;
-				}
-			}
+                System.out.print("[\033[48;5;88m" + String.format("%.2f",th_avFF[ind_aux]/1000.0) + "\033[00m]"); // Dark red
+                ps.println("\t\t[BetterAP] Throughput in agent " + agentsArray[ind_aux] + ": " + th_avFF[ind_aux] + " kbps"); // Log in file
+
+              }else{
+                System.out.print("["+ String.format("%.2f",th_avFF[ind_aux]/1000.0) +"]"); //
+                ps.println("\t\t[WorseAP] Throughput in agent " + agentsArray[ind_aux] + ": " + th_avFF[ind_aux] + " kbps"); // Log in file
+              }
+            } 
+          }
+          System.out.println("");
+
+          if(current_index < 0) // Agent not in the pool
+            continue;
+
+          // The STA can go to the APs with the Rssi threshold reached, if the hysteresis has expired
+          // and it has received at least one packet
+          boolean movable = currentTh_av!=0.0 && hysteresisExpired(handoffDate, eth);
+          if(currentTh_av==0.0)
+            ps.println("\t\t[No Action] No packets received"); // Log in file
+          else if(!movable)
+            ps.println("\t\t[No Action] No Handoff: Hysteresis time not reached"); // Log in file
+
+          int row = rssiStore.getRow(eth);
+          for(ind_aux = 0; ind_aux < ff.length; ind_aux++){
+            if(ind_aux != current_index && !(movable && rssiStore.getDbm(row, ind_aux)<SMARTAP_PARAMS.signal_threshold))
+              ff[ind_aux] = Double.NaN;
           }
-		  System.out.println("\033[K\r[SmartAPSelection]");
-          System.out.println("\033[K\r[SmartAPSelection] ====================");
+          ffUtility[num_ff_clients] = ff;
+          ffCurrent[num_ff_clients] = current_index;
+          ffClients[num_ff_clients] = oc;
+          num_ff_clients++;
+        }
+
+        // Order the handoffs to the APs with the highest FF, for all the STAs at once
+        HandoffPlanner.Plan plan = planHandoffs(Arrays.copyOf(ffUtility, num_ff_clients), Arrays.copyOf(ffCurrent, num_ff_clients),
+            FF_FAIRNESS_WEIGHT*num_ff_clients, FF_MIN_GAIN, MAX_HANDOFFS, ps);
+        for (int station: plan.getHandoffs()) {
+          MACAddress eth = ffClients[station].getMacAddress();
+          InetAddress assignedAgent = agentsArray[plan.getAssignment()[station]];
+          handoffClientToAp(eth,assignedAgent);
+          handoffDate.put(eth,Long.valueOf(System.currentTimeMillis()));
+          System.out.println("\033[K\r[SmartAPSelection] \033[0;1mHandoff "+ffClients[station].getIpAddress()+" >--->--->---> "+assignedAgent+"\033[00m");
+          ps.println("\t\t[Action] Handoff "+ffClients[station].getIpAddress()+" to agent: " + assignedAgent); // Log in file
         }
+        System.out.println("\033[K\r[SmartAPSelection]");
+        System.out.println("\033[K\r[SmartAPSelection] ====================");
+      }
 
-        // BALANCER and JAIN-BALANCER modes
-        if((SMARTAP_PARAMS.mode.equals("BALANCER"))||(SMARTAP_PARAMS.mode.equals("JAIN-BALANCER"))){
+      // BALANCER and JAIN-BALANCER modes
+      if((SMARTAP_PARAMS.mode.equals("BALANCER"))||(SMARTAP_PARAMS.mode.equals("JAIN-BALANCER"))){
 
-          Map<MACAddress, InetAddress> assignedClients = new HashMap<MACAddress, InetAddress> (); // Array with the balancer decission MAC of the STA - IP of the AP
+        Map<MACAddress, InetAddress> assignedClients = new HashMap<MACAddress, InetAddress> (); // Array with the balancer decission MAC of the STA - IP of the AP
 
-          System.out.println("\033[K\r[SmartAPSelection] ====================");
-          if(SMARTAP_PARAMS.mode.equals("JAIN-BALANCER")){
-            
-            System.out.println(showAPsLine + " - Jain's Fairness index Balancer\033[00m");
-            System.out.print("\033[K\r[SmartAPSelection] ");
-            assignedClients = jainsFairnessIndex(rssiData, agentsArray, clients, SMARTAP_PARAMS.signal_threshold); // More complex algorithm
+        System.out.println("\033[K\r[SmartAPSelection] ====================");
+        if(SMARTAP_PARAMS.mode.equals("JAIN-BALANCER")){
           
-          }else{
-            
-            System.out.println(showAPsLine + " - Balancer\033[00m");
-            System.out.print("\033[K\r[SmartAPSelection] ");
-            assignedClients = simpleBalancerAlgorithm(rssiData, agentsArray, clients, SMARTAP_PARAMS.signal_threshold); // Very simple balancer algorithm
-            System.out.println("");  
-          }
+          System.out.println(showAPsLine + " - Jain's Fairness index Balancer\033[00m");
+          assignedClients = balancerAlgorithm(rssiStore, agentsArray, clients, handoffDate, MAX_HANDOFFS, ps); // Several STAs at once
+        
+        }else{
           
-          // for each STA for which a handoff has been ordered
-          for(MACAddress eth:assignedClients.keySet()){
+          System.out.println(showAPsLine + " - Balancer\033[00m");
+          assignedClients = balancerAlgorithm(rssiStore, agentsArray, clients, handoffDate, 1, ps); // A STA at a time
+        }
+        
+        // for each STA for which a handoff has been ordered
+        for(MACAddress eth:assignedClients.keySet()){
+        
+          Long handoffTime = handoffDate.get(eth);
+          System.out.print("\033[K\r[SmartAPSelection] ");
+          OdinClient clientHandoff = getClientFromHwAddress(eth);
           
-            Long handoffTime = handoffDate.get(eth);
-            System.out.print("\033[K\r[SmartAPSelection] ");
-            OdinClient clientHandoff = getClientFromHwAddress(eth);
+          // Check hysteresis
+          if((handoffTime==null)||((System.currentTimeMillis()-handoffTime.longValue())/1000>SMARTAP_PARAMS.hysteresis_threshold)){
             
-            // Check hysteresis
-            if((handoffTime==null)||((System.currentTimeMillis()-handoffTime.longValue())/1000>SMARTAP_PARAMS.hysteresis_threshold)){
-              
-              InetAddress assignedAgent = assignedClients.get(eth);
-
-              // Do the handoff
-              if(getClientFromHwAddress(eth)!=null){
-                handoffClientToAp(eth,assignedAgent);
-                handoffDate.put(eth,Long.valueOf(System.currentTimeMillis()));
-                System.out.print("\033[0;1mHandoff "+clientHandoff.getIpAddress()+" >--->--->---> "+assignedAgent+"\033[00m");
-                ps.println("\t\t[Action] Handoff "+clientHandoff.getIpAddress()+" to agent: " + assignedAgent); // Log in file
-              }
-              
-            }else{
-            
-              System.out.print("No Handoff "+clientHandoff.getIpAddress()+": Hysteresis time not expired");
-              ps.println("\t\t[No Action] No Handoff: Hysteresis time not expired"); // Log in file
-              
+            InetAddress assignedAgent = assignedClients.get(eth);
+
+            // Do the handoff
+            if(getClientFromHwAddress(eth)!=null){
+              handoffClientToAp(eth,assignedAgent);
+              handoffDate.put(eth,Long.valueOf(System.currentTimeMillis()));
+              System.out.print("\033[0;1mHandoff "+clientHandoff.getIpAddress()+" >--->--->---> "+assignedAgent+"\033[00m");
+              ps.println("\t\t[Action] Handoff "+clientHandoff.getIpAddress()+" to agent: " + assignedAgent); // Log in file
             }
-            System.out.println("");
+            
+          }else{
+          
+            System.out.print("No Handoff "+clientHandoff.getIpAddress()+": Hysteresis time not expired");
+            ps.println("\t\t[No Action] No Handoff: Hysteresis time not expired"); // Log in file
+            
           }
+          System.out.println("");
         }
+      }
 
-        // DETECTOR mode
-        if(SMARTAP_PARAMS.mode.equals("DETECTOR")){ // If a flow is detected, the STA is moved to the VIP AP FIXME minimum rssi
-          System.out.println("\033[K\r[SmartAPSelection] ====================");
-          System.out.println(showAPsLine + " - DETECTOR - AP VIP: "+vipAPAddr+"\033[00m");
-          System.out.print("\033[K\r[SmartAPSelection] ");
-          printAgentsLoad(agentsArray,vipAPAddr); // Print load and VIP agent
-          System.out.println("");
-          for(OdinClient oc:clients){ // All clients
-            MACAddress eth = oc.getMacAddress(); // client MAC
-            InetAddress clientAddr = oc.getIpAddress(); // client IP
+      // DETECTOR mode
+      if(SMARTAP_PARAMS.mode.equals("DETECTOR")){ // If a flow is detected, the STA is moved to the VIP AP FIXME minimum rssi
+        System.out.println("\033[K\r[SmartAPSelection] ====================");
+        System.out.println(showAPsLine + " - DETECTOR - AP VIP: "+vipAPAddr+"\033[00m");
+        System.out.print("\033[K\r[SmartAPSelection] ");
+        printAgentsLoad(agentsArray,vipAPAddr); // Print load and VIP agent
+        System.out.println("");
+        for(OdinClient oc:clients){ // All clients
+          MACAddress eth = oc.getMacAddress(); // client MAC
+          InetAddress clientAddr = oc.getIpAddress(); // client IP
+          
+          if(flowsReceived.containsKey(clientAddr)){
+            DetectedFlow cntx = flowsReceived.get(clientAddr);
+            /*System.out.print("\033[K\r\t[Flow]     -> Source IP: " + cntx.IPSrcAddress + "\n");
+            System.out.print("\033[K\r\t[Flow]     -> Destination IP: " + cntx.IPDstAddress + "\n");
+            System.out.print("\033[K\r\t[Flow]     -> Protocol IP: " + cntx.protocol + "\n");
+            System.out.print("\033[K\r\t[Flow]     -> Source Port: " + cntx.SrcPort + "\n");
+            System.out.print("\033[K\r\t[Flow]     -> Destination Port: " + cntx.DstPort + "\n");
+            System.out.print("\033[K\r\t[Flow] from agent: " + cntx.odinAgentAddr + " at " + cntx.timeStamp + "\n");*/
             
-            if(flowsReceived.containsKey(clientAddr)){
-              DetectedFlow cntx = flowsReceived.get(clientAddr);
-              /*System.out.print("\033[K\r\t[Flow]     -> Source IP: " + cntx.IPSrcAddress + "\n");
-              System.out.print("\033[K\r\t[Flow]     -> Destination IP: " + cntx.IPDstAddress + "\n");
-              System.out.print("\033[K\r\t[Flow]     -> Protocol IP: " + cntx.protocol + "\n");
-              System.out.print("\033[K\r\t[Flow]     -> Source Port: " + cntx.SrcPort + "\n");
-              System.out.print("\033[K\r\t[Flow]     -> Destination Port: " + cntx.DstPort + "\n");
-              System.out.print("\033[K\r\t[Flow] from agent: " + cntx.odinAgentAddr + " at " + cntx.timeStamp + "\n");*/
-              
-              if((System.currentTimeMillis()-cntx.timeStamp)>30000){ // Clean flow after 30 sec
-                flowsReceived.remove(clientAddr);
-                System.out.print("\033[K\r\t[Flow] Clean flow from client " + clientAddr + " - Handoff\n");
-                handoffClientToAp(eth,cntx.lastAgentAddr);  // send the STA back to the AP where it was before the handoff to the VIP AP
-              }else{
-                InetAddress agentAddr = oc.getLvap().getAgent().getIpAddress();
-                if(!vipAPAddr.equals(agentAddr)){
-                  Double[] client_dBm = rssiData.get(eth);
-
-                  // Check if the signal level is above the threshold
-                  if(client_dBm[vip_index]>SMARTAP_PARAMS.signal_threshold){
-
-                    // move the STA to the VIP AP
-                    System.out.print("\033[K\r\t[Flow] Detected flow from client " + clientAddr + " - Handoff\n");
-                    cntx.lastAgentAddr = agentAddr;
-                    flowsReceived.put(clientAddr,cntx);
-                    handoffClientToAp(eth,vipAPAddr);
-                  }else{
-                    System.out.print("\033[K\r\t[Flow] Detected flow from client " + clientAddr + " - Signal threshold NOT reached\n");
-                  }
+            if((System.currentTimeMillis()-cntx.timeStamp)>30000){ // Clean flow after 30 sec
+              flowsReceived.remove(clientAddr);
+              System.out.print("\033[K\r\t[Flow] Clean flow from client " + clientAddr + " - Handoff\n");
+              handoffClientToAp(eth,cntx.lastAgentAddr);  // send the STA back to the AP where it was before the handoff to the VIP AP
+            }else{
+              InetAddress agentAddr = oc.getLvap().getAgent().getIpAddress();
+              if(!vipAPAddr.equals(agentAddr)){
+                // Check if the signal level is above the threshold
+                if(rssiStore.getDbm(rssiStore.getRow(eth), vip_index)>SMARTAP_PARAMS.signal_threshold){
+
+                  // move the STA to the VIP AP
+                  System.out.print("\033[K\r\t[Flow] Detected flow from client " + clientAddr + " - Handoff\n");
+                  cntx.lastAgentAddr = agentAddr;
+                  flowsReceived.put(clientAddr,cntx);
+                  handoffClientToAp(eth,vipAPAddr);
                 }else{
-                  System.out.print("\033[K\r\t[Flow] " + clientAddr + " already in VIP AP\n");
+                  System.out.print("\033[K\r\t[Flow] Detected flow from client " + clientAddr + " - Signal threshold NOT reached\n");
                 }
+              }else{
+                System.out.print("\033[K\r\t[Flow] " + clientAddr + " already in VIP AP\n");
               }
-            }/*else{
-              System.out.print("\033[K\r\t[Flow] No flow for client "+clientAddr+"\n");
-            }*/
-          }
-
-          // A new STA may have associated to the VIP AP. Remove it from there. This can be improved. FIXME
-          for(OdinClient oc:getClientsFromAgent(vipAPAddr)){ // In case STA is associated before the app starts
-            MACAddress eth = oc.getMacAddress(); // client MAC
-            InetAddress clientAddr = oc.getIpAddress(); // client IP
-            
-            if(!flowsReceived.containsKey(clientAddr)){
-              handoffClientToAp(eth,nonVipAPAddr);             
             }
+          }/*else{
+            System.out.print("\033[K\r\t[Flow] No flow for client "+clientAddr+"\n");
+          }*/
+        }
+
+        // A new STA may have associated to the VIP AP. Remove it from there. This can be improved. FIXME
+        for(OdinClient oc:getClientsFromAgent(vipAPAddr)){ // In case STA is associated before the app starts
+          MACAddress eth = oc.getMacAddress(); // client MAC
+          InetAddress clientAddr = oc.getIpAddress(); // client IP
+          
+          if(!flowsReceived.containsKey(clientAddr)){
+            handoffClientToAp(eth,nonVipAPAddr);             
           }
         }
-        ps.flush();
-        System.out.println("\033[K\r[SmartAPSelection] Assignation done in: " + (System.currentTimeMillis()-time) + " ms");
-        System.out.println("\033[K\r[SmartAPSelection] ====================");
-        System.out.println("\033[K\r");
-        Thread.sleep(SMARTAP_PARAMS.pause); // If a pause or a period is needed
-        System.out.print("\033[K\r\n\033[K\r\n\033[K\r\n\033[K\r\n\033[K\r\n\033[K\r\n\033[K\r\n\033[K\r\n\033[K\r\n\033[0;0H"); // Clear lines above and return to console 0,0
-      } catch (InterruptedException e) {
-        e.printStackTrace();
       }
+      ps.flush();
+      System.out.println("\033[K\r[SmartAPSelection] Assignation done in: " + (System.currentTimeMillis()-time) + " ms");
+      System.out.println("\033[K\r[SmartAPSelection] ====================");
+      System.out.println("\033[K\r");
+      // If a pause or a period is needed
+      scheduleTimer(new Runnable() {
+        @Override
+        public void run() {
+          System.out.print("\033[K\r\n\033[K\r\n\033[K\r\n\033[K\r\n\033[K\r\n\033[K\r\n\033[K\r\n\033[K\r\n\033[K\r\n\033[0;0H"); // Clear lines above and return to console 0,0
+          nextRound();
+        }
+      }, SMARTAP_PARAMS.pause);
+    } catch (InterruptedException e) {
+      e.printStackTrace();
     }
   }
 
-  private Double getRssiFromRxStats(MACAddress clientMAC, String arr){ // Process the string with all the data, it saves 2 ms if done inside the app vs. in agent
-
-    for (String elem : arr.split("\n")){//Split string in STAs
-
-      String row[] = elem.split(" ");//Split string in MAC and rssi
-
-      if (row.length != 2) { // If there is more than 2 items, next one
-        continue;
-      }
-
-      MACAddress eth = MACAddress.valueOf(row[0].toLowerCase());
-
-      if (clientMAC.equals(eth)){//If it belongs to the client, return rssi
-
-        Double rssi = Double.parseDouble(row[1]);
-
-        if(rssi!=null)
-          return rssi;
-      }
-    }
-    return -99.9;//Not heard by the AP, return -99.9
-  }
   private double calculateT2(int numberOfStas, double tValue){
     double cwMin = 15.0;
     double slot = 0.000009;
@@ -889,91 +917,108 @@ public class SmartApSelection extends OdinApplication {
     }
     return ff;
   }
-  private Map<MACAddress, InetAddress> simpleBalancerAlgorithm(Map<MACAddress, Double[]> rssiData, InetAddress[] agentsArray, HashSet<OdinClient> clients, Double threshold){ // Print load in each AP and returns array of agents to assign
-
-    int ind_aux = 0;
-    int agent_index = 0;
-    int max_index = 0;
-    int[] numStasPerAgent = new int[agentsArray.length];
-    boolean orderHandoff = false;
-    Map<MACAddress, InetAddress> arrayHandoff = new HashMap<MACAddress, InetAddress> ();
-
-    HashSet<OdinClient> clients_Balancer;
-
-    int maxStas = 0;
-    int minStas = Integer.MAX_VALUE;
-    int numberOfAgentsAvailable = 0;
-    int num_clients = clients.size();
-    
-
-    for (InetAddress agentAddrBalancer: agentsArray) { // Create array with number of STAs for each AP, find the one with lower number
+  /**
+   * Balance the number of STAs of the APs, with Jain's fairness index
+   *
+   * The STAs can go to the APs that hear them above the Rssi threshold,
+   * preferring the ones with a higher Rssi, if the hysteresis has expired.
+   * The whole round is planned at once, with up to maxHandoffs handoffs.
+   */
+  private Map<MACAddress, InetAddress> balancerAlgorithm(RssiStore rssiStore, InetAddress[] agentsArray, HashSet<OdinClient> clients, Map<MACAddress, Long> handoffDate, int maxHandoffs, PrintStream ps) throws InterruptedException { // Print load in each AP and returns array of agents to assign
 
-      clients_Balancer = new HashSet<OdinClient>(getClientsFromAgent(agentAddrBalancer));
+    Map<MACAddress, InetAddress> arrayHandoff = new LinkedHashMap<MACAddress, InetAddress> ();
+    Map<InetAddress, Integer> agentIndex = new HashMap<InetAddress, Integer> ();
+    for (int ind_aux = 0; ind_aux < agentsArray.length; ind_aux++) {
+      agentIndex.put(agentsArray[ind_aux], ind_aux);
+    }
 
-      int numberOfStas = clients_Balancer.size();
-      
-      boolean stasToMove = false;
+    OdinClient[] stas = sortedClients(clients, rssiStore);
+    double[][] utility = new double[stas.length][];
+    int[] current = new int[stas.length];
+    int num_stas = 0;
 
-      numStasPerAgent[ind_aux] = numberOfStas;
-      
-      for(MACAddress eth:rssiData.keySet()){ // If there is not a STA with enougth RSSI, not handoff
-        Double[] client_dBm = rssiData.get(eth);
-        if(client_dBm[ind_aux]>SMARTAP_PARAMS.signal_threshold){
-          stasToMove=true;
-        }
-      }
+    for (OdinClient oc: stas) {
+      MACAddress eth = oc.getMacAddress();
+      Integer agent_index_assoc = agentIndex.get(oc.getLvap().getAgent().getIpAddress());
+      if(oc.getIpAddress().equals(nullAddr) || agent_index_assoc == null) // If client not assigned, next one
+        continue;
 
-      if((numberOfStas <= minStas)&&(stasToMove)){
-        minStas = numberOfStas;
-        agent_index = ind_aux;
-      }
-      if(numberOfStas >= maxStas){
-        maxStas = numberOfStas;
-        max_index = ind_aux;
+      int row = rssiStore.getRow(eth);
+      boolean movable = rssiStore.hasData(row) && hysteresisExpired(handoffDate, eth);
+      double[] rssi = rssiStore.getDbm(row, new double[agentsArray.length]);
+      double[] u = new double[agentsArray.length];
+      for (int ind_aux = 0; ind_aux < agentsArray.length; ind_aux++) {
+        if ((ind_aux == agent_index_assoc) || (movable && rssi[ind_aux] > SMARTAP_PARAMS.signal_threshold))
+          u[ind_aux] = RSSI_WEIGHT * rssi[ind_aux];
+        else
+          u[ind_aux] = Double.NaN;
       }
-      if(stasToMove)
-        numberOfAgentsAvailable++;
-      ind_aux++;
+      utility[num_stas] = u;
+      current[num_stas] = agent_index_assoc;
+      stas[num_stas] = oc;
+      num_stas++;
     }
-    ind_aux = 0;
-    float mean = (float)num_clients/numberOfAgentsAvailable;
-    int meanStas = Math.round(mean);
 
-    for (InetAddress agentAddrBalancer: agentsArray) { // Print APs and number of STAs associated at it
+    HandoffPlanner.Plan plan = planHandoffs(Arrays.copyOf(utility, num_stas), Arrays.copyOf(current, num_stas),
+        num_stas, BALANCER_MIN_GAIN, maxHandoffs, ps);
 
-      if((ind_aux==agent_index)&&(numStasPerAgent[ind_aux]<meanStas)&&(maxStas>meanStas)){ // min<mean and max>mean try to handoff a STA
-        System.out.print("[\033[48;5;88;1m  "+numStasPerAgent[ind_aux]+"   \033[00m]");
-        orderHandoff = true;
-      }else{
-        System.out.print("[  "+numStasPerAgent[ind_aux]+"   ]");
-      }
-      ind_aux++;
+    // Print APs and number of STAs associated at them, before and after
+    int[] numStasBefore = new int[agentsArray.length];
+    int[] numStasAfter = new int[agentsArray.length];
+    for (int sta = 0; sta < num_stas; sta++) {
+      numStasBefore[current[sta]]++;
+      numStasAfter[plan.getAssignment()[sta]]++;
     }
-    OdinClient clientHandoff=null;
-    if(orderHandoff){
-      clients_Balancer = new HashSet<OdinClient>(getClientsFromAgent(agentsArray[max_index]));
-      double maxRssi=-99.9;
-      for (OdinClient oc: clients_Balancer) {
-        Double[] client_dBm = new Double[num_agents];
-        MACAddress eth = oc.getMacAddress();
-        InetAddress clientAddr = oc.getIpAddress();
-        if(clientAddr.equals(nullAddr))// If client not assigned, next one
-          continue;
-        client_dBm = rssiData.get(eth);
-        if (client_dBm != null){
-          if((client_dBm[agent_index]>=maxRssi)&&(client_dBm[agent_index]>SMARTAP_PARAMS.signal_threshold)){
-            maxRssi = client_dBm[agent_index];
-            clientHandoff = oc;
-          }
-        }
+    System.out.print("\033[K\r[SmartAPSelection] ");
+    for (int ind_aux = 0; ind_aux < agentsArray.length; ind_aux++) {
+      if(numStasAfter[ind_aux] > numStasBefore[ind_aux]){ // STAs coming
+        System.out.print("[\033[48;5;88;1m  "+numStasBefore[ind_aux]+" -> "+numStasAfter[ind_aux]+"   \033[00m]");
+      }else{
+        System.out.print("[  "+numStasBefore[ind_aux]+" -> "+numStasAfter[ind_aux]+"   ]");
       }
     }
-    if(clientHandoff!=null){
-      arrayHandoff.put(clientHandoff.getMacAddress(),agentsArray[agent_index]);
-      System.out.print("\033[0;1m - Handoff ordered\033[00m");
+    System.out.println("");
+
+    for (int sta: plan.getHandoffs()) {
+      arrayHandoff.put(stas[sta].getMacAddress(), agentsArray[plan.getAssignment()[sta]]);
     }
     return arrayHandoff;
   }
+
+  /**
+   * Run the planner on the STAs of the round, and show the result
+   */
+  private HandoffPlanner.Plan planHandoffs(double[][] utility, int[] current, double fairnessWeight, double minGain, int maxHandoffs, PrintStream ps) throws InterruptedException {
+    long start = System.currentTimeMillis();
+    HandoffPlanner planner = new HandoffPlanner(getComputeExecutor(), getComputeThreads(), fairnessWeight, minGain);
+    HandoffPlanner.Plan plan = planner.plan(utility, current, maxHandoffs, PLANNER_BUDGET);
+
+    String result = plan.getHandoffs().length + " handoffs, objective " + String.format("%.3f", plan.getObjectiveBefore())
+        + " -> " + String.format("%.3f", plan.getObjective()) + ", Jain's index " + String.format("%.3f", plan.getFairness())
+        + (plan.isTimedOut() ? ", timed out" : "");
+    System.out.println("\033[K\r[SmartAPSelection] Plan: " + result + " in " + (System.currentTimeMillis()-start) + " ms");
+    ps.println("\t[Plan] " + result); // Log in file
+    return plan;
+  }
+
+  // Clients in the order of their rows in the store, so the plans don't depend on the order of the HashSet
+  private OdinClient[] sortedClients(HashSet<OdinClient> clients, final RssiStore rssiStore){
+    OdinClient[] sorted = clients.toArray(new OdinClient[0]);
+    Arrays.sort(sorted, new Comparator<OdinClient>() {
+      @Override
+      public int compare(OdinClient a, OdinClient b) {
+        int rowA = rssiStore.getRow(a.getMacAddress());
+        int rowB = rssiStore.getRow(b.getMacAddress());
+        return rowA < rowB ? -1 : (rowA == rowB ? 0 : 1);
+      }
+    });
+    return sorted;
+  }
+
+  private boolean hysteresisExpired(Map<MACAddress, Long> handoffDate, MACAddress eth){
+    Long handoffTime = handoffDate.get(eth);
+    return (handoffTime==null)||((System.currentTimeMillis()-handoffTime.longValue())/1000>SMARTAP_PARAMS.hysteresis_threshold);
+  }
   /**
   * This method shows and stores detected flows
   *
@@ -1054,125 +1099,4 @@ public class SmartApSelection extends OdinApplication {
       ind_aux++;
     }
   }
-
-  private Map<MACAddress, InetAddress> jainsFairnessIndex(Map<MACAddress, Double[]> rssiData, InetAddress[] agentsArray, HashSet<OdinClient> clients, Double threshold){ // Print load in each AP and returns array of agents to assign
-
-    int ind_aux = 0;
-    int agent_index = 0;
-    int[] numStasPerAgent = new int[agentsArray.length];
-    boolean orderHandoff = false;
-    Map<MACAddress, InetAddress> arrayHandoff = new HashMap<MACAddress, InetAddress> ();
-    Map<InetAddress, Integer> agentIndex = new HashMap<InetAddress, Integer> ();
-  
-    HashSet<OdinClient> clients_Balancer;
-
-    int num_clients = clients.size();
-    
-    for (InetAddress agentAddrBalancer: agentsArray) { // Create array with number of STAs for each AP and print it
-
-      clients_Balancer = new HashSet<OdinClient>(getClientsFromAgent(agentAddrBalancer));
-
-      int numberOfStas = clients_Balancer.size();
-
-      numStasPerAgent[ind_aux] = numberOfStas;
-    
-      System.out.print("[  "+numberOfStas+"   ]");
-    
-      agentIndex.put(agentAddrBalancer,ind_aux);
-
-      ind_aux++;
-    }
-    System.out.println("");
-    
-  
-  for (OdinClient oc: clients) { // For each STA
-    
-    Double[] client_dBm = new Double[num_agents];
-    MACAddress eth = oc.getMacAddress();
-    InetAddress clientAddr = oc.getIpAddress();
-    InetAddress clientAgent = oc.getLvap().getAgent().getIpAddress();
-    int agent_index_assoc = agentIndex.get(clientAgent);
-    double maxFI = 0;
-    int index_maxFI = 0;
-    
-    
-    Double[] fairnessIndex = new Double[num_agents];
-    
-        if(clientAddr.equals(nullAddr))// If client not assigned, next one
-          continue;
-      
-        client_dBm = rssiData.get(eth);
-    
-        if (client_dBm != null){
-      
-        for (InetAddress agentAddrBalancer: agentsArray) { // For each AP
-      
-          ind_aux = 0;
-          double sum = 0;
-    
-        if(clientAgent.equals(agentAddrBalancer)){ // numSTAs not changed
-        
-          for(int stas: numStasPerAgent){
-            
-            sum = sum + Math.pow(stas, 2);
-          
-          }
-          
-          fairnessIndex[agentIndex.get(agentAddrBalancer)] = num_clients / (num_agents*sum);
-          
- 
-        }else{ // numSTAs changed
-        
-          agent_index = agentIndex.get(agentAddrBalancer);
-        
-          for(int stas: numStasPerAgent){
-            
-            if(agent_index == ind_aux){
-              sum = sum + Math.pow(stas+1, 2);
-            }else if(agent_index_assoc == ind_aux){
-              sum = sum + Math.pow(stas-1, 2);
-            }else{
-              sum = sum + Math.pow(stas, 2);
-            }
-            
-            ind_aux++;
-          
-          }
-          
-          fairnessIndex[agentIndex.get(agentAddrBalancer)] = num_clients / (num_agents*sum);
-
-        }
-        if((fairnessIndex[agentIndex.get(agentAddrBalancer)]>maxFI)&&(client_dBm[agentIndex.get(agentAddrBalancer)]>SMARTAP_PARAMS.signal_threshold)){
-          maxFI = fairnessIndex[agentIndex.get(agentAddrBalancer)];
-          index_maxFI = agentIndex.get(agentAddrBalancer);
-        }
-      }
-      
-      ind_aux = 0;
-      
-      System.out.print("\033[K\r[SmartAPSelection] ");
-      for (Double fair_index: fairnessIndex) {
-        
-        if(ind_aux==agent_index_assoc){ // Green  
-          System.out.print("[\033[48;5;29;1m " + String.format("%.2f",fair_index)+" \033[00m]");
-        }else if(ind_aux==index_maxFI){ // Red
-          System.out.print("[\033[48;5;88m " + String.format("%.2f",fair_index)+" \033[00m]");
-        }else{ // Other
-          System.out.print("[ " + String.format("%.2f",fair_index)+" ]");
-        }
-        ind_aux++;
-            }
-      System.out.print(" - "+clientAddr);
-      if((client_dBm[index_maxFI]>SMARTAP_PARAMS.signal_threshold)&&(index_maxFI!=agent_index_assoc)){
-        arrayHandoff.put(eth,agentsArray[index_maxFI]);
-        System.out.println("\033[0;1m - Handoff ordered\033[00m");
-        break; // FIXME: allow several handoffs ordered at the same time
-      }else{
-        System.out.println("");
-      }
-    }
-  }
-  
-    return arrayHandoff;
-  }
 }
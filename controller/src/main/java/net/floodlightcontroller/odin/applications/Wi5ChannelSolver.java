@@ -0,0 +1,105 @@
+package net.floodlightcontroller.odin.applications;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Minimizes the interference of the whole pool.
+ *
+ * APs first take a channel greedily, the ones interfering the most
+ * choosing first. Then, while some AP would get less interference on
+ * another channel, it moves there; as each move lowers the total
+ * interference, this ends. The result is shaken a few times, moving
+ * some APs at random, and searched again, keeping the best.
+ *
+ * Every step is O(APs x channels), so a pool of a few hundred APs is
+ * solved in milliseconds.
+ */
+final class Wi5ChannelSolver implements ChannelAssignmentSolver {
+	private static final int RESTARTS = 8;
+	private static final int MAX_SWEEPS = 100;
+
+	// Moves that improve less than this are not worth it
+	private static final double MIN_IMPROVEMENT = 1e-9;
+
+	private final Random random;
+
+	Wi5ChannelSolver (long seed) {
+		random = new Random(seed);
+	}
+
+	@Override
+	public int[] assign (double[][] pathLosses, double[][] externalII) {
+		final ChannelInterference interference = new ChannelInterference(pathLosses, externalII);
+		final int aps = interference.getAps();
+		final double[] costs = new double[ChannelAssignmentSolvers.NUM_CHANNELS];
+
+		int[] best = greedy(interference, costs);
+		improve(interference, best, costs);
+		double bestCost = interference.cost(best);
+
+		for (int restart = 0; restart < RESTARTS && aps > 1; restart++) {
+			final int[] channels = best.clone();
+			for (int moves = aps / 4 + 1; moves > 0; moves--) {
+				channels[random.nextInt(aps)] = 1 + random.nextInt(ChannelAssignmentSolvers.NUM_CHANNELS);
+			}
+			improve(interference, channels, costs);
+
+			final double cost = interference.cost(channels);
+			if (cost < bestCost) {
+				best = channels;
+				bestCost = cost;
+			}
+		}
+		return best;
+	}
+
+
+	private static int[] greedy (final ChannelInterference interference, double[] costs) {
+		final int aps = interference.getAps();
+		final double[] coupling = new double[aps];
+		final Integer[] order = new Integer[aps];
+		for (int i = 0; i < aps; i++) {
+			coupling[i] = interference.getCoupling(i);
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(coupling[b], coupling[a]);
+			}
+		});
+
+		final int[] channels = new int[aps];
+		for (int i: order) {
+			interference.channelCosts(i, channels, costs);
+			channels[i] = ChannelInterference.cheapest(costs);
+		}
+		return channels;
+	}
+
+
+	/**
+	 * Move APs to a better channel until none has one
+	 */
+	private static void improve (ChannelInterference interference, int[] channels, double[] costs) {
+		for (int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+			boolean moved = false;
+
+			for (int i = 0; i < channels.length; i++) {
+				interference.channelCosts(i, channels, costs);
+				final int channel = ChannelInterference.cheapest(costs);
+				final double current = costs[channels[i] - 1];
+
+				if (costs[channel - 1] < current * (1 - MIN_IMPROVEMENT)) {
+					channels[i] = channel;
+					moved = true;
+				}
+			}
+
+			if (!moved)
+				return;
+		}
+	}
+}
@@ -2,6 +2,7 @@ package net.floodlightcontroller.odin.master;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.SocketAddress;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -22,13 +23,27 @@ class AgentManager {
     protected static Logger log = LoggerFactory.getLogger(OdinMaster.class);
 
     private IFloodlightProviderService floodlightProvider;
+    private OdinApplicationRuntime applicationRuntime;
     private final ClientManager clientManager;
     private final PoolManager poolManager;
 
-	private final Timer failureDetectionTimer = new Timer();
+	// Expires agents that stop pinging. A timeout per agent, pushed
+	// back every time the agent is heard from.
+	private HashedWheelTimer timer;
+	private final ConcurrentHashMap<InetAddress, HashedWheelTimer.Timeout> livenessTimeouts = new ConcurrentHashMap<InetAddress, HashedWheelTimer.Timeout>();
 	private int agentTimeout = 6000;
 
-	Map<OdinClient, InetAddress> hearingMap = new HashMap<OdinClient, InetAddress> ();
+	// Switches by address, and agents that pinged before their switch
+	// connected, with the time of their last ping
+	private static final int MAX_PENDING_AGENTS = 1024;
+	private final ConcurrentHashMap<InetAddress, IOFSwitch> switchIndex = new ConcurrentHashMap<InetAddress, IOFSwitch>();
+	private final ConcurrentHashMap<InetAddress, Long> pendingAgents = new ConcurrentHashMap<InetAddress, Long>();
+
+	// Clients restored from disk, by the agent their LVAP was on
+	private final ConcurrentHashMap<InetAddress, List<MACAddress>> restoredLvaps = new ConcurrentHashMap<InetAddress, List<MACAddress>>();
+
+	// Moves the clients of the agents that time out
+	private FailoverEngine failoverEngine;
 
 	protected AgentManager (ClientManager clientManager, PoolManager poolManager) {
 		this.clientManager = clientManager;
@@ -37,6 +52,37 @@ class AgentManager {
 
 	protected void setFloodlightProvider(final IFloodlightProviderService provider) {
     	floodlightProvider = provider;
+
+    	// Switches that connected before we listened to them
+    	for (IOFSwitch sw: floodlightProvider.getSwitches().values()) {
+    		switchAdded(sw);
+    	}
+    }
+
+
+    protected void setApplicationRuntime(final OdinApplicationRuntime runtime) {
+    	applicationRuntime = runtime;
+    }
+
+
+    protected void setTimer(final HashedWheelTimer timer) {
+    	this.timer = timer;
+    }
+
+
+    protected void setFailoverEngine(final FailoverEngine engine) {
+    	failoverEngine = engine;
+    }
+
+
+    /**
+     * Clients restored from disk, whose LVAP goes back to its agent
+     * when the agent registers
+     *
+     * @param lvaps client addresses, by agent
+     */
+    protected void setRestoredLvaps(final Map<InetAddress, List<MACAddress>> lvaps) {
+    	restoredLvaps.putAll(lvaps);
     }
 
 
@@ -87,6 +133,30 @@ class AgentManager {
 		synchronized (this) {
 			agentMap.remove(agentInetAddr);
 		}
+
+		HashedWheelTimer.Timeout timeout = livenessTimeouts.remove(agentInetAddr);
+		if (timeout != null)
+			timeout.cancel();
+	}
+
+
+	/**
+	 * Record that a tracked agent is alive, and push its
+	 * failure detection back
+	 *
+	 * @param agentInetAddr
+	 */
+	protected void agentHeard(InetAddress agentInetAddr) {
+		IOdinAgent agent = agentMap.get(agentInetAddr);
+
+		if (agent == null)
+			return;
+
+		agent.setLastHeard(System.currentTimeMillis());
+
+		HashedWheelTimer.Timeout timeout = livenessTimeouts.get(agentInetAddr);
+		if (timeout != null)
+			timeout.reschedule(agentTimeout);
 	}
 
 	// Handle protocol messages here
@@ -100,13 +170,6 @@ class AgentManager {
      */
 	protected boolean receivePing(final InetAddress odinAgentAddr) {
 
-		//if we receive a ping from a new agent
-		if ((!isTracked (odinAgentAddr))&&(!odinAgentAddr.getHostAddress().equals(OdinMaster.getDetectorIpAddress()))) {
-
-			log.debug("Ping message from: " + odinAgentAddr);
-
-		};
-
     	/*
     	 * If this is not the first time we're hearing from this
     	 * agent, then skip.
@@ -115,31 +178,105 @@ class AgentManager {
 			return false;
     	}
 
-    	IOFSwitch ofSwitch = null;
+		//if we receive a ping from a new agent
+		if (log.isDebugEnabled() && !odinAgentAddr.getHostAddress().equals(OdinMaster.getDetectorIpAddress())) {
+			log.debug("Ping message from: " + odinAgentAddr);
+		}
 
 		/*
-		 * If the OFSwitch corresponding to the agent has already
-		 * registered here, then set it in the OdinAgent object.
 		 * We avoid registering the agent until its corresponding
-		 * OFSwitch has done so.
+		 * OFSwitch has done so. Until then the agent is pending,
+		 * and registers as soon as the switch connects.
 		 */
-		for (IOFSwitch sw: floodlightProvider.getSwitches().values()) {
+		IOFSwitch ofSwitch = switchIndex.get(odinAgentAddr);
 
-			/*
-			 * We're binding by IP addresses now, because we want to pool
-			 * an OFSwitch with its corresponding OdinAgent, if any.
-			 */
-			String switchIpAddr = ((InetSocketAddress) sw.getChannel().getRemoteAddress()).getAddress().getHostAddress();
+		if (ofSwitch == null) {
+			addPendingAgent(odinAgentAddr);
+			return false;
+		}
+
+		pendingAgents.remove(odinAgentAddr);
+		return registerAgent(odinAgentAddr, ofSwitch);
+	}
+
+
+	/**
+	 * Index a switch that connected, and register the agent
+	 * that has been waiting for it, if any
+	 *
+	 * @param sw
+	 * @return address of the agent that was registered, or null
+	 */
+	protected InetAddress switchAdded(final IOFSwitch sw) {
+		InetAddress switchIpAddr = addressOf(sw);
+
+		if (switchIpAddr == null)
+			return null;
 
-			if (switchIpAddr.equals(odinAgentAddr.getHostAddress())) {
-				ofSwitch = sw;
-				break;
+		switchIndex.put(switchIpAddr, sw);
+
+		// Pinged recently enough to still be alive
+		Long pingedAt = pendingAgents.remove(switchIpAddr);
+		if (pingedAt == null || System.currentTimeMillis() - pingedAt > agentTimeout)
+			return null;
+
+		return registerAgent(switchIpAddr, sw) ? switchIpAddr : null;
+	}
+
+
+	/**
+	 * Forget a switch that disconnected, and the agent
+	 * bound to it
+	 *
+	 * @param sw
+	 */
+	protected void switchRemoved(final IOFSwitch sw) {
+		InetAddress switchIpAddr = addressOf(sw);
+
+		if (switchIpAddr == null)
+			return;
+
+		switchIndex.remove(switchIpAddr, sw);
+		removeAgent(switchIpAddr);
+	}
+
+
+	/**
+	 * We're binding by IP addresses, because we want to pool
+	 * an OFSwitch with its corresponding OdinAgent, if any.
+	 *
+	 * @return address of the switch, or null if it is disconnected
+	 */
+	private static InetAddress addressOf(final IOFSwitch sw) {
+		if (sw.getChannel() == null)
+			return null;
+
+		SocketAddress remote = sw.getChannel().getRemoteAddress();
+		return (remote instanceof InetSocketAddress) ? ((InetSocketAddress) remote).getAddress() : null;
+	}
+
+
+	private void addPendingAgent(final InetAddress odinAgentAddr) {
+		long now = System.currentTimeMillis();
+
+		// Addresses that pinged once and never got a switch
+		if (pendingAgents.size() >= MAX_PENDING_AGENTS) {
+			for (Map.Entry<InetAddress, Long> entry: pendingAgents.entrySet()) {
+				if (now - entry.getValue() > agentTimeout)
+					pendingAgents.remove(entry.getKey(), entry.getValue());
 			}
 		}
 
-		if (ofSwitch == null)
-			return false;
+		pendingAgents.put(odinAgentAddr, now);
+	}
+
 
+	/**
+	 * Register an agent whose switch has connected
+	 *
+	 * @return true if the agent was added
+	 */
+	private boolean registerAgent(final InetAddress odinAgentAddr, final IOFSwitch ofSwitch) {
 		synchronized (this) {
 
 			/* Possible if a thread has waited
@@ -206,43 +343,46 @@ class AgentManager {
     			}
     		}
 
+    		/*
+    		 * Restored clients the agent hosted before the restart, but
+    		 * no longer does: put their LVAPs back.
+    		 */
+    		List<MACAddress> restored = restoredLvaps.remove(odinAgentAddr);
+    		if (restored != null) {
+    			for (MACAddress clientHwAddr: restored) {
+    				OdinClient trackedClient = clientManager.getClient(clientHwAddr);
+    				if (trackedClient != null && trackedClient.getLvap().getAgent() == null) {
+    					trackedClient.getLvap().setAgent(oa);
+    					oa.addClientLvap(trackedClient);
+    				}
+    			}
+    		}
+
    			agentMap.put(odinAgentAddr, oa);
 
     		log.info("Adding OdinAgent to map: " + odinAgentAddr.getHostAddress());
 
-    		/* This TimerTask checks the lastHeard value
+    		/* This timeout checks the lastHeard value
     		 * of the agent in order to handle failure detection
     		 */
-    		failureDetectionTimer.scheduleAtFixedRate(new OdinAgentFailureDetectorTask(oa), 1, agentTimeout/2);
-
-			for (Map.Entry<OdinClient, InetAddress> entry : hearingMap.entrySet()) {
-				OdinClient client = entry.getKey();
-				InetAddress homeAgentAddr = entry.getValue();
-
-
-				// if we receive a ping from recovering  agent
-				if ( homeAgentAddr.equals(odinAgentAddr)) {
-
-					IOdinAgent homeAgent =  getAgent(homeAgentAddr);
+    		livenessTimeouts.put(odinAgentAddr, timer.newTimeout(new OdinAgentFailureDetectorTask(oa), agentTimeout));
 
-					// move clients back to its original IOdinAgent after agent back in operation
-					InetAddress fromAgentAddr = client.getLvap().getAgent().getIpAddress();
-
-					log.info("Moving OdinClient: " +  client.getMacAddress() + " from OdinAGent: " + fromAgentAddr + " to OdinAgent: "  + homeAgentAddr);
-					client.getLvap().setAgent(homeAgent);
-					homeAgent.addClientLvap(client);
-
-					// remove client lvap from second agent
-					getAgent(fromAgentAddr).removeClientLvap(client);
-				}
-			}
 		}
 
+		// Its clients that were moved away go back, in the background
+		IOdinAgent registered = getAgent(odinAgentAddr);
+		if (failoverEngine != null && registered != null)
+			failoverEngine.agentBack(registered);
+
 		return true;
 	}
 
 
-	private class OdinAgentFailureDetectorTask extends TimerTask {
+	/**
+	 * Runs when the liveness timeout of an agent expires, on
+	 * the executor of the timer
+	 */
+	private class OdinAgentFailureDetectorTask implements Runnable {
 		private final IOdinAgent agent;
 
 		OdinAgentFailureDetectorTask (final IOdinAgent oa){
@@ -252,38 +392,40 @@ class AgentManager {
 		@Override
 		public void run() {
 			//log.info("Executing failure check against: " + agent.getIpAddress());
-			if ((System.currentTimeMillis() - agent.getLastHeard()) >= agentTimeout) {
-				log.error("Agent: " + agent.getIpAddress() + " has timed out");
-
-				/* This is default behaviour, maybe we should
-				 * re-assign the client based on some specific
-				 * behaviour
-				 */
-
+			long idle = System.currentTimeMillis() - agent.getLastHeard();
 
-				// TODO: There should be a way to lock the master
-				// during such operations
+			// Heard from without pushing the timeout back
+			if (idle < agentTimeout) {
+				if (agentMap.get(agent.getIpAddress()) == agent)
+					livenessTimeouts.put(agent.getIpAddress(), timer.newTimeout(this, agentTimeout - idle));
+				return;
+			}
 
+			// Removed meanwhile
+			if (agentMap.get(agent.getIpAddress()) != agent)
+				return;
 
-				for (IOdinAgent ag: getAgents().values()){
-					if (ag.getIpAddress() != agent.getIpAddress()) {
-						for (OdinClient oc : agent.getLvapsLocal()) {
-							log.info("Moving OdinClient: " +  oc.getMacAddress() + " from OdinAGent: " + agent.getIpAddress() + " to OdinAgent; "  + ag.getIpAddress());
-							clientManager.getClients().get(oc.getMacAddress()).getLvap().setAgent(ag);
-							ag.addClientLvap(oc);
+			log.error("Agent: " + agent.getIpAddress() + " has timed out");
 
+			// No handoff or failover picks it from now on
+			removeAgent(agent.getIpAddress());
 
-							hearingMap.put(oc, agent.getIpAddress());
-						}
-					}
+			if (failoverEngine != null) {
+				try {
+					failoverEngine.recover(agent, getAgents().values());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
 				}
 
-				System.out.println(hearingMap);
-
-				// Agent should now be cleared out
-				removeAgent(agent.getIpAddress());
-				this.cancel();
+				// Heard from again while its clients were being moved
+				IOdinAgent back = getAgent(agent.getIpAddress());
+				if (back != null)
+					failoverEngine.agentBack(back);
 			}
+
+			if (applicationRuntime != null)
+				applicationRuntime.agentLost(agent.getIpAddress());
 		}
 
 	}
@@ -0,0 +1,81 @@
+package net.floodlightcontroller.odin.master;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Outcome of a request that was sent to every agent in a pool
+ * concurrently. Agents that answered before the deadline have an
+ * entry in the result map. The others are listed as timed out, or
+ * as failed if the request to them threw an exception.
+ *
+ * @param <V> type of the per-agent answer
+ */
+public class AgentQueryResult<V> {
+	private final Map<InetAddress, V> results = new HashMap<InetAddress, V>();
+	private final Set<InetAddress> timedOut = new HashSet<InetAddress>();
+	private final Set<InetAddress> failed = new HashSet<InetAddress>();
+	private long elapsed;
+
+	void addResult (InetAddress agentAddr, V value) {
+		results.put(agentAddr, value);
+	}
+
+	void addTimedOut (InetAddress agentAddr) {
+		timedOut.add(agentAddr);
+	}
+
+	void addFailed (InetAddress agentAddr) {
+		failed.add(agentAddr);
+	}
+
+	void setElapsed (long elapsed) {
+		this.elapsed = elapsed;
+	}
+
+	/**
+	 * @return answers keyed by the agent that sent them
+	 */
+	public Map<InetAddress, V> getResults () {
+		return Collections.unmodifiableMap(results);
+	}
+
+	/**
+	 * @return the answer of an agent, or null if it has none
+	 */
+	public V get (InetAddress agentAddr) {
+		return results.get(agentAddr);
+	}
+
+	/**
+	 * @return agents that didn't answer before the deadline
+	 */
+	public Set<InetAddress> getTimedOut () {
+		return Collections.unmodifiableSet(timedOut);
+	}
+
+	/**
+	 * @return agents whose request failed, e.g. because they are no longer tracked
+	 */
+	public Set<InetAddress> getFailed () {
+		return Collections.unmodifiableSet(failed);
+	}
+
+	/**
+	 * @return true if every agent answered in time
+	 */
+	public boolean isComplete () {
+		return timedOut.isEmpty() && failed.isEmpty();
+	}
+
+	/**
+	 * @return wall time of the whole round in milliseconds
+	 */
+	public long getElapsed () {
+		return elapsed;
+	}
+}
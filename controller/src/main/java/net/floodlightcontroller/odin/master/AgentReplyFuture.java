@@ -0,0 +1,86 @@
+package net.floodlightcontroller.odin.master;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Future of an answer read from an agent, parsed out of the reply to
+ * the read handler by the thread that gets it. An error reply, or one
+ * that can't be parsed, fails the future like a read that failed.
+ *
+ * @param <V> type of the answer
+ */
+abstract class AgentReplyFuture<V> implements Future<V> {
+	private final Future<String> reply;
+
+
+	AgentReplyFuture (Future<String> reply) {
+		this.reply = reply;
+	}
+
+
+	/**
+	 * @param reply the read-handler string
+	 * @return the answer
+	 */
+	protected abstract V parse (String reply);
+
+
+	/**
+	 * @return a future of an answer that is known already
+	 */
+	static <V> Future<V> done (final V value) {
+		final OdinAgentControlChannel.Request req = new OdinAgentControlChannel.Request(true);
+		req.set("");
+		return new AgentReplyFuture<V>(req) {
+			@Override
+			protected V parse (String reply) {
+				return value;
+			}
+		};
+	}
+
+
+	@Override
+	public boolean cancel (boolean mayInterruptIfRunning) {
+		return reply.cancel(mayInterruptIfRunning);
+	}
+
+
+	@Override
+	public boolean isCancelled () {
+		return reply.isCancelled();
+	}
+
+
+	@Override
+	public boolean isDone () {
+		return reply.isDone();
+	}
+
+
+	@Override
+	public V get () throws InterruptedException, ExecutionException {
+		return parseReply(reply.get());
+	}
+
+
+	@Override
+	public V get (long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		return parseReply(reply.get(timeout, unit));
+	}
+
+
+	private V parseReply (String s) throws ExecutionException {
+		if (s == null)
+			throw new ExecutionException(new IllegalStateException("the agent returned an error"));
+		try {
+			return parse(s);
+		} catch (RuntimeException e) {
+			throw new ExecutionException(e);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package net.floodlightcontroller.odin.master;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * Fixed set of locks that protect per-client state in the master.
+ * A client always maps to the same stripe, so every operation on
+ * that client is serialized, while clients on other stripes are
+ * handled in parallel.
+ *
+ * Application callbacks run while the stripe of the triggering
+ * client is held, and may ask for operations on other clients.
+ * To rule out lock-order deadlocks, a thread that already holds
+ * a stripe only gets a second one if it is free right away; see
+ * {@link #tryLock(MACAddress)}.
+ */
+class ClientLockStripes {
+	private final ReentrantLock[] stripes;
+	private final int mask;
+
+	// Number of stripes held by the current thread
+	private final ThreadLocal<int[]> held = new ThreadLocal<int[]>() {
+		@Override
+		protected int[] initialValue() {
+			return new int[1];
+		}
+	};
+
+
+	/**
+	 * @param numStripes rounded up to a power of two
+	 */
+	ClientLockStripes (int numStripes) {
+		int n = 1;
+		while (n < numStripes)
+			n <<= 1;
+
+		stripes = new ReentrantLock[n];
+		for (int i = 0; i < n; i++)
+			stripes[i] = new ReentrantLock();
+		mask = n - 1;
+	}
+
+
+	/**
+	 * Block until the stripe of the client is held.
+	 */
+	void lock (MACAddress clientHwAddress) {
+		stripeFor(clientHwAddress).lock();
+		held.get()[0]++;
+	}
+
+
+	/**
+	 * Take the stripe of the client unless doing so could deadlock,
+	 * i.e. unless the current thread already holds a different stripe
+	 * and this one is busy.
+	 *
+	 * @return true if the stripe is now held and must be unlocked
+	 */
+	boolean tryLock (MACAddress clientHwAddress) {
+		ReentrantLock lock = stripeFor(clientHwAddress);
+
+		if (held.get()[0] == 0 || lock.isHeldByCurrentThread()) {
+			lock.lock();
+		}
+		else if (!lock.tryLock()) {
+			return false;
+		}
+
+		held.get()[0]++;
+		return true;
+	}
+
+
+	void unlock (MACAddress clientHwAddress) {
+		held.get()[0]--;
+		stripeFor(clientHwAddress).unlock();
+	}
+
+
+	private ReentrantLock stripeFor (MACAddress clientHwAddress) {
+		long v = clientHwAddress.toLong();
+		// Spread the bits, consecutive MACs are common
+		v ^= (v >>> 29);
+		v *= 0x9E3779B97F4A7C15L;
+		v ^= (v >>> 32);
+		return stripes[(int) v & mask];
+	}
+}
@@ -9,6 +9,20 @@ import net.floodlightcontroller.util.MACAddress;
 
 class ClientManager {
 	private final Map<MACAddress, OdinClient> odinClientMap = new ConcurrentHashMap<MACAddress, OdinClient> ();
+	private volatile StateJournal journal;
+
+
+	/**
+	 * Record the changes to the clients, and to their LVAPs
+	 *
+	 * @param journal
+	 */
+	protected void setJournal (final StateJournal journal) {
+		this.journal = journal;
+		for (OdinClient oc: odinClientMap.values()) {
+			oc.getLvap().setJournal(journal, oc.getMacAddress());
+		}
+	}
 
 	
 	/**
@@ -20,7 +34,7 @@ class ClientManager {
 	 * @param vapEssid Client specific VAP essid
 	 */
 	protected void addClient (final MACAddress clientHwAddress, final InetAddress ipv4Address, final Lvap lvap) {
-		odinClientMap.put(clientHwAddress, new OdinClient (clientHwAddress, ipv4Address, lvap));
+		addClient(new OdinClient (clientHwAddress, ipv4Address, lvap));
 	}
 	
 	
@@ -34,6 +48,26 @@ class ClientManager {
 	 */
 	protected void addClient (final OdinClient oc) {
 		odinClientMap.put(oc.getMacAddress(), oc);
+
+		StateJournal j = journal;
+		if (j != null) {
+			oc.getLvap().setJournal(j, oc.getMacAddress());
+			j.clientAdded(oc);
+			if (oc.getLvap().getAgent() != null)
+				j.agentChanged(oc.getMacAddress(), oc.getLvap().getAgent());
+		}
+	}
+	
+	
+	/**
+	 * Record a change to a client, e.g. of IP address
+	 * 
+	 * @param oc
+	 */
+	protected void clientUpdated (final OdinClient oc) {
+		StateJournal j = journal;
+		if (j != null)
+			j.clientAdded(oc);
 	}
 	
 	
@@ -43,7 +77,13 @@ class ClientManager {
 	 * @param hwAddress Client's hw address
 	 */
 	protected void removeClient (final MACAddress clientHwAddress) {
-		odinClientMap.remove(clientHwAddress);
+		OdinClient oc = odinClientMap.remove(clientHwAddress);
+
+		StateJournal j = journal;
+		if (j != null && oc != null) {
+			oc.getLvap().setJournal(null, null);
+			j.clientRemoved(clientHwAddress);
+		}
 	}
 	
 	
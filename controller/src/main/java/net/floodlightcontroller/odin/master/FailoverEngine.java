@@ -0,0 +1,401 @@
+package net.floodlightcontroller.odin.master;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.floodlightcontroller.util.LatencyHistogram;
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * Moves the LVAPs of an agent that timed out to the agents that are
+ * left, and hands them back once it is heard from again.
+ *
+ * Each client goes to a single agent of its pool: the one that heard
+ * it best in its recent measurements, less a penalty per LVAP the agent
+ * hosts, so the least loaded agent wins when no agent heard the client.
+ * The LVAPs are added in one control socket exchange per target agent,
+ * all of them in flight at once, and the adds are confirmed together.
+ * A client whose add isn't confirmed tries the next best agent, up to
+ * {@link #MAX_ATTEMPTS} agents; a client no agent takes is left without
+ * one, to be assigned again on its next probe.
+ *
+ * The failed agent is remembered as the home of the clients moved away
+ * from it. When it pings again its clients are handed back through the
+ * handoff pipeline, which batches them, so the ping does not wait for
+ * them. A home is forgotten once the client is handed back or has left,
+ * or after homeTtlMs.
+ *
+ * The time from the timeout of an agent until its clients are on other
+ * agents is kept in a histogram, in microseconds.
+ */
+class FailoverEngine {
+	protected static Logger log = LoggerFactory.getLogger(FailoverEngine.class);
+
+	static final double NO_SIGNAL = -100.0; // dBm
+	static final double LOAD_PENALTY = 1.0; // dB per hosted LVAP
+	static final int MAX_ATTEMPTS = 3;
+
+	private final ClientLockStripes clientLocks;
+	private final ClientManager clientManager;
+	private final PoolManager poolManager;
+	private final MeasurementCache measurementCache;
+	private final HandoffPipeline handoffPipeline;
+	private final long ackTimeoutMs;
+	private final long measurementMaxAgeMs;
+	private final long homeTtlMs;
+
+	// Agent each moved client is to go back to
+	private final ConcurrentHashMap<MACAddress, Home> homes = new ConcurrentHashMap<MACAddress, Home>();
+
+	private final LatencyHistogram recovery = new LatencyHistogram();
+	private final AtomicLong failovers = new AtomicLong();
+	private final AtomicLong moved = new AtomicLong();
+	private final AtomicLong retried = new AtomicLong();
+	private final AtomicLong unassigned = new AtomicLong();
+	private final AtomicLong handedBack = new AtomicLong();
+
+
+	/**
+	 * @param clientLocks held while the agent of a client changes
+	 * @param clientManager to tell the clients that are gone
+	 * @param poolManager to keep clients within their pool
+	 * @param measurementCache where the signal of the clients is read
+	 *   from, never the agents themselves. May be null
+	 * @param handoffPipeline hands the clients back to their home
+	 * @param ackTimeoutMs time for the agents to acknowledge the adds
+	 * @param measurementMaxAgeMs how old measurements may be to be used
+	 * @param homeTtlMs how long the home of a client is remembered
+	 */
+	FailoverEngine (ClientLockStripes clientLocks, ClientManager clientManager, PoolManager poolManager,
+			MeasurementCache measurementCache, HandoffPipeline handoffPipeline,
+			long ackTimeoutMs, long measurementMaxAgeMs, long homeTtlMs) {
+		this.clientLocks = clientLocks;
+		this.clientManager = clientManager;
+		this.poolManager = poolManager;
+		this.measurementCache = measurementCache;
+		this.handoffPipeline = handoffPipeline;
+		this.ackTimeoutMs = ackTimeoutMs;
+		this.measurementMaxAgeMs = measurementMaxAgeMs;
+		this.homeTtlMs = homeTtlMs;
+	}
+
+
+	/**
+	 * Move the clients of an agent that is no longer tracked. Blocks
+	 * until the adds are confirmed, or for up to ackTimeoutMs per attempt.
+	 *
+	 * @param failed the agent that timed out
+	 * @param agents the agents that are left
+	 */
+	void recover (IOdinAgent failed, Collection<IOdinAgent> agents) throws InterruptedException {
+		final long start = System.nanoTime();
+		failovers.incrementAndGet();
+		forgetStale();
+
+		List<OdinClient> clients = new ArrayList<OdinClient>();
+		for (OdinClient oc: failed.getLvapsLocal()) {
+			OdinClient client = clientManager.getClient(oc.getMacAddress());
+			if (client != null)
+				clients.add(client);
+		}
+
+		Map<InetAddress, RadioMeasurements> measurements = new HashMap<InetAddress, RadioMeasurements>();
+		Map<IOdinAgent, Integer> load = new IdentityHashMap<IOdinAgent, Integer>();
+		for (IOdinAgent agent: agents) {
+			if (agent == failed)
+				continue;
+			load.put(agent, agent.getLvapsLocal().size());
+			RadioMeasurements m = measurementCache == null ? null : measurementCache.getCached(agent.getIpAddress(), measurementMaxAgeMs);
+			if (m != null)
+				measurements.put(agent.getIpAddress(), m);
+		}
+
+		Map<MACAddress, Set<IOdinAgent>> tried = new HashMap<MACAddress, Set<IOdinAgent>>();
+
+		for (int attempt = 0; attempt < MAX_ATTEMPTS && !clients.isEmpty(); attempt++) {
+			if (attempt > 0)
+				retried.addAndGet(clients.size());
+
+			Map<IOdinAgent, List<OdinClient>> byTarget = new LinkedHashMap<IOdinAgent, List<OdinClient>>();
+			List<OdinClient> left = new ArrayList<OdinClient>();
+
+			for (OdinClient client: clients) {
+				Set<IOdinAgent> excluded = tried.get(client.getMacAddress());
+				IOdinAgent target = pickTarget(client, load, measurements, excluded);
+				if (target == null) {
+					left.add(client);
+					continue;
+				}
+
+				if (excluded == null) {
+					excluded = Collections.newSetFromMap(new IdentityHashMap<IOdinAgent, Boolean>());
+					tried.put(client.getMacAddress(), excluded);
+				}
+				excluded.add(target);
+				load.put(target, load.get(target) + 1);
+
+				List<OdinClient> list = byTarget.get(target);
+				if (list == null) {
+					list = new ArrayList<OdinClient>();
+					byTarget.put(target, list);
+				}
+				list.add(client);
+			}
+
+			// Every add is sent before any is waited for
+			Map<IOdinAgent, List<Future<String>>> replies = new LinkedHashMap<IOdinAgent, List<Future<String>>>();
+			for (Entry<IOdinAgent, List<OdinClient>> e: byTarget.entrySet()) {
+				log.info("Moving " + e.getValue().size() + " clients from OdinAgent " + failed.getIpAddress()
+						+ " to OdinAgent " + e.getKey().getIpAddress());
+				replies.put(e.getKey(), e.getKey().addClientLvaps(e.getValue()));
+			}
+
+			final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ackTimeoutMs);
+			List<OdinClient> refused = new ArrayList<OdinClient>();
+
+			for (Entry<IOdinAgent, List<OdinClient>> e: byTarget.entrySet()) {
+				IOdinAgent target = e.getKey();
+				List<Future<String>> acks = replies.get(target);
+				List<OdinClient> undo = new ArrayList<OdinClient>();
+
+				for (int i = 0; i < e.getValue().size(); i++) {
+					OdinClient client = e.getValue().get(i);
+					if (!acknowledged(acks.get(i), client, target, deadline)) {
+						load.put(target, load.get(target) - 1);
+						undo.add(client);
+						refused.add(client);
+					}
+					else if (!commit(client, failed, target)) {
+						undo.add(client);
+					}
+				}
+
+				if (!undo.isEmpty())
+					target.removeClientLvaps(undo);
+			}
+
+			left.addAll(refused);
+			clients = left;
+		}
+
+		for (OdinClient client: clients) {
+			unassign(client, failed);
+		}
+
+		recovery.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+	}
+
+
+	/**
+	 * Hand the clients that were moved away from an agent back to it
+	 *
+	 * @param home the agent, tracked again
+	 */
+	void agentBack (IOdinAgent home) {
+		final InetAddress homeAddr = home.getIpAddress();
+		final long now = System.currentTimeMillis();
+
+		for (Entry<MACAddress, Home> e: homes.entrySet()) {
+			Home h = e.getValue();
+			if (!h.agentAddr.equals(homeAddr) && now - h.since <= homeTtlMs)
+				continue;
+			if (!homes.remove(e.getKey(), h) || !h.agentAddr.equals(homeAddr))
+				continue;
+
+			OdinClient client = clientManager.getClient(e.getKey());
+			if (client == null)
+				continue;
+
+			clientLocks.lock(client.getMacAddress());
+			try {
+				IOdinAgent current = client.getLvap().getAgent();
+				// Left, unassigned or already home
+				if (clientManager.getClient(client.getMacAddress()) != client || current == null || current == home)
+					continue;
+
+				log.info("Moving OdinClient " + client.getMacAddress() + " from OdinAgent " + current.getIpAddress()
+						+ " back to OdinAgent " + homeAddr);
+				client.getLvap().setAgent(home);
+				handoffPipeline.submit(client, current, home);
+				handedBack.incrementAndGet();
+			} finally {
+				clientLocks.unlock(client.getMacAddress());
+			}
+		}
+	}
+
+
+	/**
+	 * @return the agent the client is to go back to, or null
+	 */
+	InetAddress getHome (MACAddress clientHwAddr) {
+		Home h = homes.get(clientHwAddr);
+		return h == null ? null : h.agentAddr;
+	}
+
+
+	LatencyHistogram getRecoveryLatency () {
+		return recovery;
+	}
+
+
+	/**
+	 * @return counters and time-to-recover percentiles, as shown by the REST API
+	 */
+	Map<String, Object> getStatistics () {
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("failovers", failovers.get());
+		stats.put("moved", moved.get());
+		stats.put("retried", retried.get());
+		stats.put("unassigned", unassigned.get());
+		stats.put("handedBack", handedBack.get());
+		stats.put("homes", homes.size());
+		stats.put("recoveryUs", recovery.getSnapshot());
+		return stats;
+	}
+
+
+	/**
+	 * Best agent for a client: strongest recent signal from it, less
+	 * the load of the agent
+	 *
+	 * @return the agent, or null if there is none left to try
+	 */
+	private IOdinAgent pickTarget (OdinClient client, Map<IOdinAgent, Integer> load,
+			Map<InetAddress, RadioMeasurements> measurements, Set<IOdinAgent> excluded) {
+		String pool = poolManager.getPoolForClient(client);
+		Set<InetAddress> poolAgents = pool == null ? Collections.<InetAddress>emptySet() : poolManager.getAgentAddrsForPool(pool);
+
+		IOdinAgent best = null;
+		double bestScore = Double.NEGATIVE_INFINITY;
+
+		for (Entry<IOdinAgent, Integer> e: load.entrySet()) {
+			IOdinAgent agent = e.getKey();
+			if (excluded != null && excluded.contains(agent))
+				continue;
+			if (!poolAgents.isEmpty() && !poolAgents.contains(agent.getIpAddress()))
+				continue;
+
+			double score = signalOf(client.getMacAddress(), measurements.get(agent.getIpAddress()))
+					- LOAD_PENALTY * e.getValue();
+			if (score > bestScore) {
+				best = agent;
+				bestScore = score;
+			}
+		}
+		return best;
+	}
+
+
+	/**
+	 * @return signal the agent received the client with, or scanned
+	 *   it with, in dBm; {@link #NO_SIGNAL} if it has neither
+	 */
+	static double signalOf (MACAddress clientHwAddr, RadioMeasurements m) {
+		if (m == null)
+			return NO_SIGNAL;
+		int i = m.indexOf(clientHwAddr);
+		if (i < 0)
+			return NO_SIGNAL;
+
+		double signal = m.getRxSignal(i);
+		if (Double.isNaN(signal))
+			signal = m.getScannedRssi(i);
+		return Double.isNaN(signal) ? NO_SIGNAL : signal;
+	}
+
+
+	/**
+	 * Move a client whose LVAP its new agent has confirmed, unless it
+	 * left or was handed off in the meantime
+	 *
+	 * @return false if the LVAP isn't wanted on the agent
+	 */
+	private boolean commit (OdinClient client, IOdinAgent failed, IOdinAgent target) {
+		clientLocks.lock(client.getMacAddress());
+		try {
+			if (clientManager.getClient(client.getMacAddress()) != client || client.getLvap().getAgent() != failed)
+				return false;
+
+			client.getLvap().setAgent(target);
+			homes.putIfAbsent(client.getMacAddress(), new Home(failed.getIpAddress(), System.currentTimeMillis()));
+			moved.incrementAndGet();
+			return true;
+		} finally {
+			clientLocks.unlock(client.getMacAddress());
+		}
+	}
+
+
+	/**
+	 * No agent took the client
+	 */
+	private void unassign (OdinClient client, IOdinAgent failed) {
+		clientLocks.lock(client.getMacAddress());
+		try {
+			if (client.getLvap().getAgent() != failed)
+				return;
+			log.error("No OdinAgent took OdinClient " + client.getMacAddress() + " from OdinAgent " + failed.getIpAddress());
+			client.getLvap().setAgent(null);
+			unassigned.incrementAndGet();
+		} finally {
+			clientLocks.unlock(client.getMacAddress());
+		}
+	}
+
+
+	private boolean acknowledged (Future<String> reply, OdinClient client, IOdinAgent agent, long deadline) throws InterruptedException {
+		try {
+			String status = reply.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			if (OdinAgentControlChannel.isOk(status))
+				return true;
+			log.error("Agent " + agent.getIpAddress() + " refused failover of " + client.getMacAddress() + ": " + status);
+		} catch (TimeoutException e) {
+			log.error("Timed out waiting for failover of " + client.getMacAddress() + " to agent " + agent.getIpAddress());
+		} catch (ExecutionException e) {
+			log.error("Failed to move " + client.getMacAddress() + " to agent " + agent.getIpAddress() + ": " + e.getCause().getMessage());
+		}
+		return false;
+	}
+
+
+	/**
+	 * Forget the homes of the clients that left, and the expired ones
+	 */
+	private void forgetStale () {
+		final long now = System.currentTimeMillis();
+		for (Entry<MACAddress, Home> e: homes.entrySet()) {
+			if (now - e.getValue().since > homeTtlMs || clientManager.getClient(e.getKey()) == null)
+				homes.remove(e.getKey(), e.getValue());
+		}
+	}
+
+
+	private static final class Home {
+		final InetAddress agentAddr;
+		final long since;
+
+		Home (InetAddress agentAddr, long since) {
+			this.agentAddr = agentAddr;
+			this.since = since;
+		}
+	}
+}
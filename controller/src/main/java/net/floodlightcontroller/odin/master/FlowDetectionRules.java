@@ -0,0 +1,306 @@
+package net.floodlightcontroller.odin.master;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The flow detections registered by applications, indexed so
+ * that a detected flow is only checked against the rules that
+ * can match it.
+ *
+ * Agents report every flow they see, so the filtering happens
+ * here. A rule matches on protocol, source and destination port
+ * (0 meaning any) and on source and destination address, which
+ * may be "*", a single address or a prefix such as 10.0.0.0/8.
+ *
+ * Rules are grouped by shape: which of protocol and ports are
+ * wildcards, and the length of the destination prefix. Every
+ * shape has a hash table keyed on the fields it does specify, so
+ * matching a flow costs one lookup per shape in use, however many
+ * rules there are. The tables are rebuilt when a rule is added or
+ * removed, which is rare, and are read without locking.
+ */
+class FlowDetectionRules {
+	static final String ANY_ADDRESS = "*";
+
+	private static final Table[] NO_TABLES = new Table[0];
+
+	// Guarded by this
+	private long ruleId = 0;
+	private final Map<Long, Rule> rules = new LinkedHashMap<Long, Rule>();
+
+	private volatile Table[] tables = NO_TABLES;
+
+
+	/**
+	 * Add a rule
+	 *
+	 * @return the id of the rule
+	 * @throws IllegalArgumentException if an address, the protocol
+	 *   or a port is not valid
+	 */
+	long add (OdinEventFlowDetection oefd, FlowDetectionCallback cb) {
+		final Prefix src = Prefix.valueOf(oefd.getIPSrcAddress());
+		final Prefix dst = Prefix.valueOf(oefd.getIPDstAddress());
+		checkRange("protocol", oefd.getProtocol(), 0xff);
+		checkRange("source port", oefd.getSrcPort(), 0xffff);
+		checkRange("destination port", oefd.getDstPort(), 0xffff);
+
+		synchronized (this) {
+			ruleId++;
+			rules.put(ruleId, new Rule(ruleId, oefd, cb, src, dst));
+			rebuild();
+			return ruleId;
+		}
+	}
+
+
+	/**
+	 * Remove a rule
+	 *
+	 * @return true if the rule existed
+	 */
+	synchronized boolean remove (long id) {
+		if (rules.remove(id) == null)
+			return false;
+
+		rebuild();
+		return true;
+	}
+
+
+	synchronized int size () {
+		return rules.size();
+	}
+
+
+	/**
+	 * @return the rules matching the flow, in the order
+	 *   they were added
+	 */
+	List<Rule> match (FlowTuple flow) {
+		List<Rule> matching = null;
+
+		for (Table table: tables) {
+			final Rule[] candidates = table.rules.get(table.key(flow.protocol, flow.srcPort, flow.dstPort, flow.dstIp));
+			if (candidates == null)
+				continue;
+
+			for (Rule rule: candidates) {
+				if (!rule.matches(flow))
+					continue;
+
+				if (matching == null)
+					matching = new ArrayList<Rule>(2);
+				matching.add(rule);
+			}
+		}
+
+		if (matching == null)
+			return Collections.emptyList();
+
+		if (matching.size() > 1)
+			Collections.sort(matching, RULE_ORDER);
+
+		return matching;
+	}
+
+
+	private void rebuild () {
+		final Map<Integer, Map<Long, List<Rule>>> shapes = new LinkedHashMap<Integer, Map<Long, List<Rule>>>();
+
+		for (Rule rule: rules.values()) {
+			final int shape = Table.shape(rule);
+			Map<Long, List<Rule>> buckets = shapes.get(shape);
+			if (buckets == null) {
+				buckets = new HashMap<Long, List<Rule>>();
+				shapes.put(shape, buckets);
+			}
+
+			final long key = Table.key(shape, rule.protocol, rule.srcPort, rule.dstPort, rule.dst.addr);
+			List<Rule> bucket = buckets.get(key);
+			if (bucket == null) {
+				bucket = new ArrayList<Rule>(1);
+				buckets.put(key, bucket);
+			}
+			bucket.add(rule);
+		}
+
+		final Table[] newTables = new Table[shapes.size()];
+		int i = 0;
+		for (Map.Entry<Integer, Map<Long, List<Rule>>> entry: shapes.entrySet()) {
+			newTables[i++] = new Table(entry.getKey(), entry.getValue());
+		}
+		tables = newTables;
+	}
+
+
+	private static void checkRange (String field, int value, int max) {
+		if (value < 0 || value > max)
+			throw new IllegalArgumentException("Invalid " + field + " in flow detection: " + value);
+	}
+
+
+	private static final Comparator<Rule> RULE_ORDER = new Comparator<Rule>() {
+		@Override
+		public int compare(Rule r1, Rule r2) {
+			return r1.id < r2.id ? -1 : (r1.id == r2.id ? 0 : 1);
+		}
+	};
+
+
+	/**
+	 * A registered flow detection and its callback
+	 */
+	static class Rule {
+		final long id;
+		final OdinEventFlowDetection oefd;
+		final FlowDetectionCallback cb;
+
+		private final Prefix src;
+		private final Prefix dst;
+		private final int protocol;
+		private final int srcPort;
+		private final int dstPort;
+
+		Rule (long id, OdinEventFlowDetection oefd, FlowDetectionCallback cb, Prefix src, Prefix dst) {
+			this.id = id;
+			this.oefd = oefd;
+			this.cb = cb;
+			this.src = src;
+			this.dst = dst;
+			this.protocol = oefd.getProtocol();
+			this.srcPort = oefd.getSrcPort();
+			this.dstPort = oefd.getDstPort();
+		}
+
+		boolean matches (FlowTuple flow) {
+			return (protocol == 0 || protocol == flow.protocol) &&
+					(srcPort == 0 || srcPort == flow.srcPort) &&
+					(dstPort == 0 || dstPort == flow.dstPort) &&
+					src.contains(flow.srcIp) &&
+					dst.contains(flow.dstIp);
+		}
+	}
+
+
+	/**
+	 * The rules of one shape, by key
+	 */
+	private static class Table {
+		private static final int ANY_PROTOCOL = 1 << 6;
+		private static final int ANY_SRC_PORT = 1 << 7;
+		private static final int ANY_DST_PORT = 1 << 8;
+		private static final int PREFIX_LENGTH = 0x3f;
+
+		final int shape;
+		final Map<Long, Rule[]> rules;
+
+		Table (int shape, Map<Long, List<Rule>> buckets) {
+			this.shape = shape;
+			this.rules = new HashMap<Long, Rule[]>(buckets.size() * 2);
+			for (Map.Entry<Long, List<Rule>> entry: buckets.entrySet()) {
+				rules.put(entry.getKey(), entry.getValue().toArray(new Rule[entry.getValue().size()]));
+			}
+		}
+
+		long key (int protocol, int srcPort, int dstPort, int dstIp) {
+			return key(shape, protocol, srcPort, dstPort, dstIp);
+		}
+
+		static int shape (Rule rule) {
+			return rule.dst.length |
+					(rule.protocol == 0 ? ANY_PROTOCOL : 0) |
+					(rule.srcPort == 0 ? ANY_SRC_PORT : 0) |
+					(rule.dstPort == 0 ? ANY_DST_PORT : 0);
+		}
+
+		/**
+		 * Pack the fields the shape specifies. Different flows may
+		 * end up with the same key, which is fine as every candidate
+		 * is checked in full.
+		 */
+		static long key (int shape, int protocol, int srcPort, int dstPort, int dstIp) {
+			final int dst = dstIp & Prefix.mask(shape & PREFIX_LENGTH);
+			final long p = (shape & ANY_PROTOCOL) != 0 ? 0 : protocol;
+			final long sp = (shape & ANY_SRC_PORT) != 0 ? 0 : srcPort;
+			final long dp = (shape & ANY_DST_PORT) != 0 ? 0 : dstPort;
+
+			return (((long) dst << 32) ^ (p << 56)) | (sp << 16) | dp;
+		}
+	}
+
+
+	/**
+	 * An IPv4 address prefix
+	 */
+	static class Prefix {
+		private static final Prefix ANY = new Prefix(0, 0);
+
+		final int addr;
+		final int length;
+		private final int mask;
+
+		private Prefix (int addr, int length) {
+			this.mask = mask(length);
+			this.addr = addr & mask;
+			this.length = length;
+		}
+
+		boolean contains (int ip) {
+			return (ip & mask) == addr;
+		}
+
+		static int mask (int length) {
+			return length == 0 ? 0 : -1 << (32 - length);
+		}
+
+		/**
+		 * Parse "*", "a.b.c.d" or "a.b.c.d/len"
+		 *
+		 * @throws IllegalArgumentException if malformed
+		 */
+		static Prefix valueOf (String s) {
+			if (s == null || s.equals(ANY_ADDRESS))
+				return ANY;
+
+			int length = 32;
+			String ip = s;
+			final int slash = s.indexOf('/');
+			if (slash >= 0) {
+				ip = s.substring(0, slash);
+				try {
+					length = Integer.parseInt(s.substring(slash + 1));
+				} catch (NumberFormatException e) {
+					length = -1;
+				}
+				if (length < 0 || length > 32)
+					throw new IllegalArgumentException("Invalid prefix length in flow detection: " + s);
+			}
+
+			final String[] octets = ip.split("\\.");
+			if (octets.length != 4)
+				throw new IllegalArgumentException("Invalid address in flow detection: " + s);
+
+			int addr = 0;
+			for (String octet: octets) {
+				int value;
+				try {
+					value = Integer.parseInt(octet);
+				} catch (NumberFormatException e) {
+					value = -1;
+				}
+				if (value < 0 || value > 255)
+					throw new IllegalArgumentException("Invalid address in flow detection: " + s);
+				addr = (addr << 8) | value;
+			}
+
+			return new Prefix(addr, length);
+		}
+	}
+}
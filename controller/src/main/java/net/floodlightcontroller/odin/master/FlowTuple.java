@@ -0,0 +1,37 @@
+package net.floodlightcontroller.odin.master;
+
+/**
+ * A flow reported by an agent, decoded once from the
+ * "detectedflow" message. IPv4 addresses are kept as ints,
+ * in network order (a.b.c.d is a << 24 | ... | d).
+ */
+class FlowTuple {
+	final int srcIp;
+	final int dstIp;
+	final int protocol;
+	final int srcPort;
+	final int dstPort;
+
+	FlowTuple (int srcIp, int dstIp, int protocol, int srcPort, int dstPort) {
+		this.srcIp = srcIp;
+		this.dstIp = dstIp;
+		this.protocol = protocol;
+		this.srcPort = srcPort;
+		this.dstPort = dstPort;
+	}
+
+	/**
+	 * @return the address in dotted decimal notation
+	 */
+	static String ipToString (int ip) {
+		return ((ip >>> 24) & 0xff) + "." +
+				((ip >>> 16) & 0xff) + "." +
+				((ip >>> 8) & 0xff) + "." +
+				(ip & 0xff);
+	}
+
+	@Override
+	public String toString () {
+		return ipToString(srcIp) + " " + ipToString(dstIp) + " " + protocol + " " + srcPort + " " + dstPort;
+	}
+}
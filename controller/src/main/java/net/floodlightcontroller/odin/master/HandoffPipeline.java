@@ -0,0 +1,481 @@
+package net.floodlightcontroller.odin.master;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openflow.protocol.OFMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.util.LatencyHistogram;
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * Network side of the LVAP handoffs, make-before-break and in batches.
+ *
+ * The master moves a client to its new agent right away and submits
+ * the handoff here. Handoffs submitted while a batch is in progress are
+ * queued, and go out together in the next batch, in four phases:
+ *
+ *   1. add: the LVAPs are staged on their new agents, in one control
+ *      socket exchange per agent, and the adds are confirmed
+ *   2. flows: the flows of the clients are pushed to the switches of
+ *      their new agents, in one write per switch
+ *   3. csa: clients whose new agent is on another channel get a Channel
+ *      Switch Announcement from their old agent, batched per agent
+ *   4. remove: the LVAPs are removed from the old agents
+ *
+ * A handoff whose add isn't confirmed is rolled back: the staged LVAP
+ * is removed, and the client goes back to its old agent unless it has
+ * been handed off again in the meantime. The handoffs of clients that
+ * left while they were queued are undone on both agents. A client is in
+ * at most one handoff of a batch; its later handoffs wait for the next
+ * one.
+ *
+ * The time until each phase is acknowledged, counted from the start of
+ * the phase, and the time from submission to the end of the handoff
+ * are kept in histograms, in microseconds.
+ */
+class HandoffPipeline {
+	protected static Logger log = LoggerFactory.getLogger(HandoffPipeline.class);
+
+	static final String PHASE_ADD = "add";
+	static final String PHASE_FLOWS = "flows";
+	static final String PHASE_CSA = "csa";
+	static final String PHASE_REMOVE = "remove";
+	static final String TOTAL = "total";
+
+	private final Executor executor;
+	private final ClientLockStripes clientLocks;
+	private final ClientManager clientManager;
+	private final long ackTimeoutMs;
+	private final int maxBatch;
+
+	private final ConcurrentLinkedQueue<Handoff> queue = new ConcurrentLinkedQueue<Handoff>();
+	private final AtomicBoolean draining = new AtomicBoolean(false);
+
+	// Only touched by the thread draining the queue
+	private final LinkedList<Handoff> deferred = new LinkedList<Handoff>();
+	private final Map<MACAddress, IOdinAgent> stranded = new HashMap<MACAddress, IOdinAgent>();
+
+	private final Map<String, LatencyHistogram> latency = new LinkedHashMap<String, LatencyHistogram>();
+	private final AtomicLong batches = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong cancelled = new AtomicLong();
+
+
+	/**
+	 * @param executor runs the batches, which block for up to
+	 *   ackTimeoutMs per phase, so it shouldn't be a shared pool.
+	 *   One thread is enough.
+	 * @param clientLocks to roll back the agent of a client
+	 * @param clientManager to tell the clients that are gone
+	 * @param ackTimeoutMs time for the agents to acknowledge a phase
+	 * @param maxBatch handoffs in a batch
+	 */
+	HandoffPipeline (Executor executor, ClientLockStripes clientLocks, ClientManager clientManager,
+			long ackTimeoutMs, int maxBatch) {
+		this.executor = executor;
+		this.clientLocks = clientLocks;
+		this.clientManager = clientManager;
+		this.ackTimeoutMs = ackTimeoutMs;
+		this.maxBatch = maxBatch;
+
+		for (String phase: new String[] {PHASE_ADD, PHASE_FLOWS, PHASE_CSA, PHASE_REMOVE, TOTAL}) {
+			latency.put(phase, new LatencyHistogram());
+		}
+	}
+
+
+	/**
+	 * Move the LVAP of a client, whose agent in the master has
+	 * already been set to the new one.
+	 */
+	void submit (OdinClient client, IOdinAgent from, IOdinAgent to) {
+		queue.add(new Handoff(client, from, to));
+
+		if (draining.compareAndSet(false, true))
+			executor.execute(new Drainer());
+	}
+
+
+	/**
+	 * @return histogram of a phase, or of the whole handoffs for {@link #TOTAL}
+	 */
+	LatencyHistogram getLatency (String phase) {
+		return latency.get(phase);
+	}
+
+
+	/**
+	 * @return counters and latency percentiles, as shown by the REST API
+	 */
+	Map<String, Object> getStatistics () {
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("queued", queue.size());
+		stats.put("batches", batches.get());
+		stats.put("completed", completed.get());
+		stats.put("failed", failed.get());
+		stats.put("cancelled", cancelled.get());
+
+		Map<String, LatencyHistogram.Snapshot> snapshots = new LinkedHashMap<String, LatencyHistogram.Snapshot>();
+		for (Entry<String, LatencyHistogram> e: latency.entrySet()) {
+			snapshots.put(e.getKey(), e.getValue().getSnapshot());
+		}
+		stats.put("latencyUs", snapshots);
+		return stats;
+	}
+
+
+	long getCompleted () {
+		return completed.get();
+	}
+
+
+	long getFailed () {
+		return failed.get();
+	}
+
+
+	long getCancelled () {
+		return cancelled.get();
+	}
+
+
+	private class Drainer implements Runnable {
+		@Override
+		public void run () {
+			while (true) {
+				List<Handoff> batch = nextBatch();
+
+				if (batch.isEmpty()) {
+					draining.set(false);
+					// Submitted after the queue was found empty
+					if (queue.isEmpty() || !draining.compareAndSet(false, true))
+						return;
+					continue;
+				}
+
+				try {
+					process(batch);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					draining.set(false);
+					return;
+				} catch (RuntimeException e) {
+					log.error("Handoff batch failed", e);
+				}
+			}
+		}
+	}
+
+
+	private List<Handoff> nextBatch () {
+		List<Handoff> batch = new ArrayList<Handoff>();
+		Set<MACAddress> clients = new HashSet<MACAddress>();
+		List<Handoff> later = new ArrayList<Handoff>();
+
+		while (batch.size() < maxBatch) {
+			Handoff h = deferred.isEmpty() ? queue.poll() : deferred.removeFirst();
+			if (h == null)
+				break;
+			if (clients.add(h.client.getMacAddress()))
+				batch.add(h);
+			else
+				later.add(h);
+		}
+		deferred.addAll(0, later);
+		return batch;
+	}
+
+
+	private void process (List<Handoff> batch) throws InterruptedException {
+		batches.incrementAndGet();
+
+		// Channels of the agents, read while the LVAPs are staged
+		Map<IOdinAgent, Future<Integer>> channels = readChannels(batch);
+
+		// 1. Stage the LVAPs on the new agents
+		long start = System.nanoTime();
+		for (Entry<IOdinAgent, List<Handoff>> e: group(batch, true).entrySet()) {
+			List<Future<String>> replies = e.getKey().addClientLvaps(clients(e.getValue()));
+			for (int i = 0; i < replies.size(); i++) {
+				e.getValue().get(i).reply = replies.get(i);
+			}
+		}
+
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(ackTimeoutMs);
+		List<Handoff> staged = new ArrayList<Handoff>(batch.size());
+		for (Handoff h: batch) {
+			if (!acknowledged(h, PHASE_ADD, h.to, deadline)) {
+				rollBack(h);
+			}
+			else if (!isConnected(h.client)) {
+				cancel(h);
+			}
+			else {
+				latency.get(PHASE_ADD).record(elapsedUs(start));
+				staged.add(h);
+			}
+		}
+
+		if (staged.isEmpty())
+			return;
+
+		// 2. Point the flows of the clients to the new agents
+		start = System.nanoTime();
+		Map<IOFSwitch, List<Handoff>> bySwitch = new IdentityHashMap<IOFSwitch, List<Handoff>>();
+		for (Handoff h: staged) {
+			IOFSwitch sw = h.to.getSwitch();
+			if (sw == null) {
+				log.error("Agent " + h.to.getIpAddress() + " has no switch to push the flows of " + h.client.getMacAddress());
+				continue;
+			}
+			List<Handoff> l = bySwitch.get(sw);
+			if (l == null) {
+				l = new ArrayList<Handoff>();
+				bySwitch.put(sw, l);
+			}
+			l.add(h);
+		}
+		for (Entry<IOFSwitch, List<Handoff>> e: bySwitch.entrySet()) {
+			List<OFMessage> messages = new ArrayList<OFMessage>();
+			for (Handoff h: e.getValue()) {
+				messages.addAll(h.client.getLvap().getOFMessageList());
+			}
+			try {
+				e.getKey().write(messages, null);
+			} catch (IOException ex) {
+				log.error("Failed to update switch's flow tables " + e.getKey());
+			}
+			long us = elapsedUs(start);
+			for (int i = 0; i < e.getValue().size(); i++) {
+				latency.get(PHASE_FLOWS).record(us);
+			}
+		}
+
+		// 3. Announce the new channel to the clients that change it
+		start = System.nanoTime();
+		Map<IOdinAgent, Map<Integer, List<Handoff>>> switching = new LinkedHashMap<IOdinAgent, Map<Integer, List<Handoff>>>();
+		List<Handoff> announced = new ArrayList<Handoff>();
+		deadline = start + TimeUnit.MILLISECONDS.toNanos(ackTimeoutMs);
+		for (Handoff h: staged) {
+			int fromChannel = channelOf(channels, h.from, deadline);
+			int toChannel = channelOf(channels, h.to, deadline);
+			if (fromChannel < 0 || toChannel < 0 || fromChannel == toChannel)
+				continue;
+
+			Map<Integer, List<Handoff>> byChannel = switching.get(h.from);
+			if (byChannel == null) {
+				byChannel = new LinkedHashMap<Integer, List<Handoff>>();
+				switching.put(h.from, byChannel);
+			}
+			List<Handoff> l = byChannel.get(toChannel);
+			if (l == null) {
+				l = new ArrayList<Handoff>();
+				byChannel.put(toChannel, l);
+			}
+			l.add(h);
+		}
+		for (Entry<IOdinAgent, Map<Integer, List<Handoff>>> e: switching.entrySet()) {
+			for (Entry<Integer, List<Handoff>> c: e.getValue().entrySet()) {
+				List<Future<String>> replies = e.getKey().sendChannelSwitches(clients(c.getValue()), c.getKey());
+				for (int i = 0; i < replies.size(); i++) {
+					c.getValue().get(i).reply = replies.get(i);
+				}
+				announced.addAll(c.getValue());
+			}
+		}
+		deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ackTimeoutMs);
+		for (Handoff h: announced) {
+			// The client may still find its way to the new agent
+			if (acknowledged(h, PHASE_CSA, h.from, deadline))
+				latency.get(PHASE_CSA).record(elapsedUs(start));
+		}
+
+		// 4. Remove the LVAPs from the old agents
+		start = System.nanoTime();
+		for (Entry<IOdinAgent, List<Handoff>> e: group(staged, false).entrySet()) {
+			List<Future<String>> replies = e.getKey().removeClientLvaps(clients(e.getValue()));
+			for (int i = 0; i < replies.size(); i++) {
+				e.getValue().get(i).reply = replies.get(i);
+			}
+		}
+		for (Handoff h: staged) {
+			IOdinAgent agent = stranded.remove(h.client.getMacAddress());
+			if (agent != null && agent != h.to && agent != h.from)
+				agent.removeClientLvaps(Collections.singletonList(h.client));
+		}
+
+		deadline = start + TimeUnit.MILLISECONDS.toNanos(ackTimeoutMs);
+		for (Handoff h: staged) {
+			if (acknowledged(h, PHASE_REMOVE, h.from, deadline))
+				latency.get(PHASE_REMOVE).record(elapsedUs(start));
+			latency.get(TOTAL).record(elapsedUs(h.submitted));
+			completed.incrementAndGet();
+		}
+	}
+
+
+	/**
+	 * The new agent didn't take the LVAP, so the old one keeps serving
+	 * the client.
+	 */
+	private void rollBack (Handoff h) {
+		failed.incrementAndGet();
+		h.to.removeClientLvaps(Collections.singletonList(h.client));
+
+		MACAddress mac = h.client.getMacAddress();
+		clientLocks.lock(mac);
+		try {
+			Lvap lvap = h.client.getLvap();
+			if (lvap.getAgent() == h.to) {
+				lvap.setAgent(h.from);
+				log.warn("Handoff of " + mac + " to " + h.to.getIpAddress() + " failed, back to " + h.from.getIpAddress());
+				return;
+			}
+		} finally {
+			clientLocks.unlock(mac);
+		}
+
+		// Handed off again: its next handoff removes it from here
+		log.warn("Handoff of " + mac + " to " + h.to.getIpAddress() + " failed");
+		stranded.put(mac, h.from);
+	}
+
+
+	private boolean isConnected (OdinClient client) {
+		clientLocks.lock(client.getMacAddress());
+		try {
+			return clientManager.getClient(client.getMacAddress()) == client;
+		} finally {
+			clientLocks.unlock(client.getMacAddress());
+		}
+	}
+
+
+	/**
+	 * The client left while its handoff was queued
+	 */
+	private void cancel (Handoff h) {
+		cancelled.incrementAndGet();
+		log.info("Client " + h.client.getMacAddress() + " left during its handoff to " + h.to.getIpAddress());
+		h.to.removeClientLvaps(Collections.singletonList(h.client));
+		h.from.removeClientLvaps(Collections.singletonList(h.client));
+		stranded.remove(h.client.getMacAddress());
+	}
+
+
+	private boolean acknowledged (Handoff h, String phase, IOdinAgent agent, long deadline) throws InterruptedException {
+		try {
+			String status = h.reply.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+			if (OdinAgentControlChannel.isOk(status))
+				return true;
+			log.error("Agent " + agent.getIpAddress() + " refused " + phase + " of " + h.client.getMacAddress() + ": " + status);
+		} catch (TimeoutException e) {
+			log.error("Timed out waiting for " + phase + " of " + h.client.getMacAddress() + " on agent " + agent.getIpAddress());
+		} catch (ExecutionException e) {
+			log.error("Failed to " + phase + " " + h.client.getMacAddress() + " on agent " + agent.getIpAddress() + ": " + e.getCause().getMessage());
+		}
+		return false;
+	}
+
+
+	/**
+	 * Send the channel reads, without waiting for the replies
+	 */
+	private Map<IOdinAgent, Future<Integer>> readChannels (List<Handoff> batch) {
+		Map<IOdinAgent, Future<Integer>> channels = new IdentityHashMap<IOdinAgent, Future<Integer>>();
+		for (Handoff h: batch) {
+			for (IOdinAgent agent: new IOdinAgent[] {h.from, h.to}) {
+				if (!channels.containsKey(agent))
+					channels.put(agent, agent.getChannelAsync());
+			}
+		}
+		return channels;
+	}
+
+
+	/**
+	 * @return channel of the agent, or -1 if it is unknown
+	 */
+	private int channelOf (Map<IOdinAgent, Future<Integer>> channels, IOdinAgent agent, long deadline) throws InterruptedException {
+		try {
+			return channels.get(agent).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			log.error("Timed out reading the channel of agent " + agent.getIpAddress());
+		} catch (ExecutionException e) {
+			log.error("Failed to read the channel of agent " + agent.getIpAddress() + ": " + e.getCause().getMessage());
+		}
+		return -1;
+	}
+
+
+	/**
+	 * @param byTarget group by new agent, or else by old agent
+	 */
+	private static Map<IOdinAgent, List<Handoff>> group (List<Handoff> handoffs, boolean byTarget) {
+		Map<IOdinAgent, List<Handoff>> groups = new LinkedHashMap<IOdinAgent, List<Handoff>>();
+		for (Handoff h: handoffs) {
+			IOdinAgent agent = byTarget ? h.to : h.from;
+			List<Handoff> l = groups.get(agent);
+			if (l == null) {
+				l = new ArrayList<Handoff>();
+				groups.put(agent, l);
+			}
+			l.add(h);
+		}
+		return groups;
+	}
+
+
+	private static List<OdinClient> clients (List<Handoff> handoffs) {
+		List<OdinClient> clients = new ArrayList<OdinClient>(handoffs.size());
+		for (Handoff h: handoffs) {
+			clients.add(h.client);
+		}
+		return clients;
+	}
+
+
+	private static long elapsedUs (long startNanos) {
+		return (System.nanoTime() - startNanos) / 1000;
+	}
+
+
+	private static class Handoff {
+		final OdinClient client;
+		final IOdinAgent from;
+		final IOdinAgent to;
+		final long submitted = System.nanoTime();
+
+		// Reply of the phase in progress
+		Future<String> reply;
+
+		Handoff (OdinClient client, IOdinAgent from, IOdinAgent to) {
+			this.client = client;
+			this.from = from;
+			this.to = to;
+		}
+	}
+}
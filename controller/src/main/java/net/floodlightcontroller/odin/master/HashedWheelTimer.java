@@ -0,0 +1,231 @@
+package net.floodlightcontroller.odin.master;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hashed wheel of timeouts, for the timers of the master that are pushed
+ * back much more often than they expire: the liveness of the agents,
+ * refreshed by every ping and publish, and the idle LVAPs.
+ *
+ * The wheel has a bucket per tick, and a timeout sits in the bucket of
+ * its deadline. A single thread advances the wheel every tick and hands
+ * the expired timeouts to an executor, so a slow task never delays the
+ * others. Moving a deadline later only stores it: the timeout changes
+ * bucket when the wheel reaches the old one. Creating, rescheduling and
+ * cancelling a timeout are O(1) and never block.
+ *
+ * Timeouts expire up to a tick late, never early.
+ */
+final class HashedWheelTimer {
+	protected static Logger log = LoggerFactory.getLogger(HashedWheelTimer.class);
+
+	private static final int PENDING = 0;
+	private static final int CANCELLED = 1;
+	private static final int EXPIRED = 2;
+
+	private final long tickNanos;
+	private final Node[] wheel;
+	private final int mask;
+	private final Executor executor;
+	private final long startNanos = System.nanoTime();
+
+	// Timeouts to put in the wheel, from any thread
+	private final ConcurrentLinkedQueue<Node> added = new ConcurrentLinkedQueue<Node>();
+
+	// Only touched by the timer thread
+	private long tick = 0;
+
+	private final Thread thread;
+	private volatile boolean stopped = false;
+
+
+	/**
+	 * @param name of the timer thread
+	 * @param tickMs resolution of the timer
+	 * @param buckets rounded up to a power of two. Timeouts further than
+	 *   buckets * tickMs ahead are looked at once per turn of the wheel
+	 * @param executor runs the tasks of the expired timeouts
+	 */
+	HashedWheelTimer (String name, long tickMs, int buckets, Executor executor) {
+		int n = 1;
+		while (n < buckets)
+			n <<= 1;
+
+		this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMs));
+		this.wheel = new Node[n];
+		this.mask = n - 1;
+		this.executor = executor;
+
+		thread = new Thread(new Worker(), name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+
+	/**
+	 * Run a task on the executor once the delay is over, unless the
+	 * timeout is cancelled before.
+	 */
+	Timeout newTimeout (Runnable task, long delayMs) {
+		Timeout timeout = new Timeout(task, now() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMs)));
+		timeout.add();
+		return timeout;
+	}
+
+
+	/**
+	 * Stop the timer thread. Pending timeouts never expire.
+	 */
+	void stop () {
+		stopped = true;
+		thread.interrupt();
+	}
+
+
+	private long now () {
+		return System.nanoTime() - startNanos;
+	}
+
+
+	/**
+	 * A task waiting for its deadline
+	 */
+	final class Timeout {
+		private final Runnable task;
+		private final AtomicInteger state = new AtomicInteger(PENDING);
+		private volatile long deadline;
+
+		// Where the timeout is in the wheel. Older nodes are dropped
+		// when the wheel gets to them.
+		private volatile Node node;
+
+		private Timeout (Runnable task, long deadline) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		private void add () {
+			Node n = new Node(this);
+			node = n;
+			added.add(n);
+		}
+
+		/**
+		 * Count the delay again from now. A timeout that is due may
+		 * still expire while this is called.
+		 *
+		 * @return false if the timeout has already expired or has been
+		 *   cancelled, and a new one is needed
+		 */
+		boolean reschedule (long delayMs) {
+			if (state.get() != PENDING)
+				return false;
+
+			long d = now() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMs));
+			long previous = deadline;
+			deadline = d;
+
+			// The wheel would get to its bucket too late
+			if (d < previous)
+				add();
+			return state.get() == PENDING;
+		}
+
+		/**
+		 * @return false if the timeout had already expired
+		 *   or been cancelled
+		 */
+		boolean cancel () {
+			return state.compareAndSet(PENDING, CANCELLED);
+		}
+
+		boolean isExpired () {
+			return state.get() == EXPIRED;
+		}
+
+		boolean isCancelled () {
+			return state.get() == CANCELLED;
+		}
+	}
+
+
+	private static final class Node {
+		final Timeout timeout;
+		Node next;
+
+		Node (Timeout timeout) {
+			this.timeout = timeout;
+		}
+	}
+
+
+	private class Worker implements Runnable {
+		@Override
+		public void run () {
+			while (!stopped) {
+				long sleep = (tick + 1) * tickNanos - now();
+				if (sleep > 0) {
+					try {
+						TimeUnit.NANOSECONDS.sleep(sleep);
+					} catch (InterruptedException e) {
+						// stop() or spurious, the loop checks
+					}
+					continue;
+				}
+
+				tick++;
+
+				Node n;
+				while ((n = added.poll()) != null) {
+					place(n);
+				}
+				expire(wheel[(int) (tick & mask)]);
+			}
+		}
+
+		/**
+		 * Put a node in the bucket of its deadline, or in the current
+		 * one if it is already due
+		 */
+		private void place (Node n) {
+			long deadlineTick = (n.timeout.deadline + tickNanos - 1) / tickNanos;
+			int bucket = (int) (Math.max(deadlineTick, tick) & mask);
+			n.next = wheel[bucket];
+			wheel[bucket] = n;
+		}
+
+		private void expire (Node head) {
+			wheel[(int) (tick & mask)] = null;
+			long now = now();
+
+			while (head != null) {
+				Node n = head;
+				head = n.next;
+				n.next = null;
+
+				Timeout t = n.timeout;
+				if (t.node != n || t.state.get() != PENDING)
+					continue;
+
+				if (t.deadline > now) {
+					// Rescheduled, or more than a turn away
+					place(n);
+				}
+				else if (t.state.compareAndSet(PENDING, EXPIRED)) {
+					try {
+						executor.execute(t.task);
+					} catch (RejectedExecutionException e) {
+						log.error("Dropped an expired timeout: " + e.getMessage());
+					}
+				}
+			}
+		}
+	}
+}
@@ -5,6 +5,7 @@ import java.net.InetAddress;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Future;
 
 import org.codehaus.jackson.map.annotate.JsonSerialize;
 
@@ -55,6 +56,24 @@ public interface IOdinAgent {
 	 *  of properties and values.
 	 */
 	public Map<MACAddress, Map<String, String>> getRxStats ();
+
+
+	/**
+	 * Retrieve Tx-stats from the OdinAgent, parsed into
+	 * primitive columns.
+	 *
+	 *  @return one row per station
+	 */
+	public StationStats getTxStationStats ();
+
+
+	/**
+	 * Retrieve Rx-stats from the OdinAgent, parsed into
+	 * primitive columns.
+	 *
+	 *  @return one row per station
+	 */
+	public StationStats getRxStationStats ();
 	
 	
 	/**
@@ -104,6 +123,26 @@ public interface IOdinAgent {
 	public void addClientLvap (OdinClient oc);
 	
 	
+	/**
+	 * Add the LVAPs of several clients to the AP in a single exchange
+	 * with the agent
+	 * 
+	 * @param clients whose LVAPs are added
+	 * @return futures holding the status line of each add, in the order of the clients
+	 */
+	public List<Future<String>> addClientLvaps (List<OdinClient> clients);
+	
+	
+	/**
+	 * Remove the LVAPs of several clients from the AP in a single
+	 * exchange with the agent
+	 * 
+	 * @param clients whose LVAPs are removed
+	 * @return futures holding the status line of each remove, in the order of the clients
+	 */
+	public List<Future<String>> removeClientLvaps (List<OdinClient> clients);
+	
+	
 	/**
 	 * Update a virtual access point with possibly new IP, BSSID, or SSID
 	 * 
@@ -172,6 +211,18 @@ public interface IOdinAgent {
 	public void sendChannelSwitch(MACAddress clientHwAddr, MACAddress bssid, List<String> ssidList, int channel);
 	
 	
+	/**
+	 * Channel Switch Announcement to several clients of this AP, in a
+	 * single exchange with the agent. The BSSID and SSIDs are the ones of
+	 * the LVAP of each client.
+	 * 
+	 * @param clients to announce the switch to
+	 * @param channel they switch to
+	 * @return futures holding the status line of each announcement, in the order of the clients
+	 */
+	public List<Future<String>> sendChannelSwitches(List<OdinClient> clients, int channel);
+	
+	
 	/**
 	 * Convert Frequency to Channel in 2.4 GHz and 5 GHz
 	 * 
@@ -224,6 +275,14 @@ public interface IOdinAgent {
 	public Map<MACAddress, Map<String, String>> getScannedStationsStats (String ssid);
 
 
+	/**
+	 * Retreive scanned stations statistics from the agent,
+	 * parsed into primitive columns
+	 * @return one row per station
+	 */
+	public StationStats getScannedStationStats (String ssid);
+
+
 	/**
 	 * Request scanned stations statistics from the agent
 	 * @param agentAddr InetAddress of the agent
@@ -263,6 +322,45 @@ public interface IOdinAgent {
 	 * @param agentAddr InetAddress of the agent
 	 * @return Key-Value entries of each recorded rssi for each wi5 station 
 	 */
-	public String getScannedStaRssi ();	
-		
+	public String getScannedStaRssi ();
+	
+	
+	/**
+	 * Read Tx-stats without waiting for the agent
+	 * 
+	 * @return future of one row per station, failed if the read fails
+	 */
+	public Future<StationStats> getTxStationStatsAsync ();
+	
+	
+	/**
+	 * Read Rx-stats without waiting for the agent
+	 * 
+	 * @return future of one row per station, failed if the read fails
+	 */
+	public Future<StationStats> getRxStationStatsAsync ();
+	
+	
+	/**
+	 * Read the scanned wi5 stations rssi without waiting for the agent
+	 * 
+	 * @return future of the rssi entries, failed if the read fails
+	 */
+	public Future<String> getScannedStaRssiAsync ();
+	
+	
+	/**
+	 * Read TxPower without waiting for the agent
+	 * 
+	 * @return future of the TxPower in dBm, failed if the read fails
+	 */
+	public Future<Integer> getTxPowerAsync ();
+	
+	
+	/**
+	 * Read the channel without waiting for the agent
+	 * 
+	 * @return future of the channel number, failed if the read fails
+	 */
+	public Future<Integer> getChannelAsync ();
 }
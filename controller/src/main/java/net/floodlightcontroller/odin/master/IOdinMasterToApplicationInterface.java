@@ -59,6 +59,24 @@ interface IOdinMasterToApplicationInterface {
 	 */
 	Map<MACAddress, Map<String, String>> getRxStatsFromAgent (String pool, InetAddress agentAddr);
 
+	/**
+	 * Retreive TxStats from the agent, without going through strings
+	 * 
+	 * @param agentAddr InetAddress of the agent
+	 * 
+	 * @return one row of statistics per client
+	 */
+	StationStats getTxStationStatsFromAgent (String pool, InetAddress agentAddr);
+
+	/**
+	 * Retreive RxStats from the agent, without going through strings
+	 * 
+	 * @param agentAddr InetAddress of the agent
+	 * 
+	 * @return one row of statistics per client
+	 */
+	StationStats getRxStationStatsFromAgent (String pool, InetAddress agentAddr);
+
 
 	/**
 	 * Request scanned stations statistics from the agent
@@ -300,4 +318,63 @@ interface IOdinMasterToApplicationInterface {
 	 */
 	String getVipAPIpAddress ();
 
+	
+	//********* Bulk queries, run against every agent of the pool in parallel **********//
+	
+	/**
+	 * Retreive TxStats from every agent in the pool concurrently
+	 * 
+	 * @param pool
+	 * @param timeoutMs deadline for the whole round, in milliseconds
+	 * @return answers of the agents that replied in time, and the list of those that didn't
+	 */
+	AgentQueryResult<Map<MACAddress, Map<String, String>>> getTxStatsFromAgents (String pool, long timeoutMs);
+	
+	/**
+	 * Retreive RxStats from every agent in the pool concurrently
+	 * 
+	 * @param pool
+	 * @param timeoutMs deadline for the whole round, in milliseconds
+	 * @return answers of the agents that replied in time, and the list of those that didn't
+	 */
+	AgentQueryResult<Map<MACAddress, Map<String, String>>> getRxStatsFromAgents (String pool, long timeoutMs);
+	
+	/**
+	 * Retreive scanned wi5 stations rssi from every agent in the pool concurrently
+	 * 
+	 * @param pool
+	 * @param timeoutMs deadline for the whole round, in milliseconds
+	 * @return answers of the agents that replied in time, and the list of those that didn't
+	 */
+	AgentQueryResult<String> getScannedStaRssiFromAgents (String pool, long timeoutMs);
+	
+	/**
+	 * Get TxPower from every agent in the pool concurrently
+	 * 
+	 * @param pool
+	 * @param timeoutMs deadline for the whole round, in milliseconds
+	 * @return answers of the agents that replied in time, and the list of those that didn't
+	 */
+	AgentQueryResult<Integer> getTxPowerFromAgents (String pool, long timeoutMs);
+	
+	/**
+	 * Get channel from every agent in the pool concurrently
+	 * 
+	 * @param pool
+	 * @param timeoutMs deadline for the whole round, in milliseconds
+	 * @return answers of the agents that replied in time, and the list of those that didn't
+	 */
+	AgentQueryResult<Integer> getChannelFromAgents (String pool, long timeoutMs);
+	
+	/**
+	 * Get the radio measurements of an agent from the master's
+	 * cache, reading the agent only if they are too old
+	 * 
+	 * @param pool
+	 * @param agentAddr InetAddress of the agent
+	 * @param maxAgeMs how old the measurements may be, in milliseconds
+	 * @return the measurements, or null if the agent is unknown
+	 */
+	RadioMeasurements getRadioMeasurements (String pool, InetAddress agentAddr, long maxAgeMs);
+
 }
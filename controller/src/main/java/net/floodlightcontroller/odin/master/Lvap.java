@@ -21,13 +21,30 @@ public class Lvap {
 	private List<OFMessage> msgList = new ArrayList<OFMessage>();
 	private boolean assocState;
 
+	// Where the changes of agent are recorded, if anywhere
+	private volatile StateJournal journal;
+	private volatile MACAddress clientHwAddr;
+
 	Lvap(MACAddress bssid, List<String> ssidList) {
 		lvapBssid = bssid;
 		lvapSsids = ssidList;
 	}
 
 	protected void setAgent(IOdinAgent agent) {
+		IOdinAgent previous = this.odinAgent;
 		this.odinAgent = agent;
+
+		StateJournal j = journal;
+		if (j != null && previous != agent)
+			j.agentChanged(clientHwAddr, agent);
+	}
+
+	/**
+	 * Record the changes of agent of the LVAP of a client
+	 */
+	void setJournal(StateJournal journal, MACAddress clientHwAddr) {
+		this.clientHwAddr = clientHwAddr;
+		this.journal = journal;
 	}
 
 	// ***** Getters and setters ***** //
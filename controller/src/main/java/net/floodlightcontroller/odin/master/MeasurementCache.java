@@ -0,0 +1,275 @@
+package net.floodlightcontroller.odin.master;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * Reads the radio measurements of every agent once per period, and
+ * serves them to all the applications from memory.
+ *
+ * Applications ask for measurements no older than a bound of their
+ * choosing. If the last ones are older, the agent is read there and
+ * then; concurrent requests for the same agent wait for that single
+ * read instead of sending their own. Either way the number of reads
+ * an agent gets doesn't grow with the number of applications.
+ */
+class MeasurementCache {
+    protected static Logger log = LoggerFactory.getLogger(MeasurementCache.class);
+
+	private static final double NO_VALUE = Double.NaN;
+
+	private final AgentManager agentManager;
+	private final Executor pollExecutor;
+	private final OdinApplicationRuntime applicationRuntime;
+
+	private final ConcurrentMap<InetAddress, AgentEntry> entries = new ConcurrentHashMap<InetAddress, AgentEntry>();
+
+	// Reads sent to the agents, and requests served from memory
+	private final AtomicLong agentReads = new AtomicLong();
+	private final AtomicLong hits = new AtomicLong();
+
+
+	/**
+	 * @param applicationRuntime told about new RxStats, may be null
+	 */
+	MeasurementCache (AgentManager agentManager, Executor pollExecutor, OdinApplicationRuntime applicationRuntime) {
+		this.agentManager = agentManager;
+		this.pollExecutor = pollExecutor;
+		this.applicationRuntime = applicationRuntime;
+	}
+
+
+	/**
+	 * Start reading all the agents in the background
+	 *
+	 * @param periodMs time between two reads of an agent
+	 */
+	void start (ScheduledExecutorService scheduler, long periodMs) {
+		scheduler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				pollAll();
+			}
+		}, periodMs, periodMs, TimeUnit.MILLISECONDS);
+	}
+
+
+	/**
+	 * Get the measurements of an agent
+	 *
+	 * @param maxAgeMs how old the measurements may be
+	 * @return the measurements, or null if the agent is unknown
+	 */
+	RadioMeasurements get (InetAddress agentAddr, long maxAgeMs) {
+		final IOdinAgent agent = agentManager.getAgent(agentAddr);
+		if (agent == null)
+			return null;
+
+		final AgentEntry entry = getEntry(agentAddr);
+
+		RadioMeasurements m = entry.measurements;
+		if (isFresh(m, maxAgeMs)) {
+			hits.incrementAndGet();
+			return m;
+		}
+
+		entry.lock.lock();
+		try {
+			// Somebody else may have read the agent meanwhile
+			m = entry.measurements;
+			if (isFresh(m, maxAgeMs)) {
+				hits.incrementAndGet();
+				return m;
+			}
+			return poll(agent, entry);
+		} finally {
+			entry.lock.unlock();
+		}
+	}
+
+
+	/**
+	 * Get the measurements of an agent without reading it
+	 *
+	 * @param maxAgeMs how old the measurements may be
+	 * @return the measurements, or null if there are none recent enough
+	 */
+	RadioMeasurements getCached (InetAddress agentAddr, long maxAgeMs) {
+		final AgentEntry entry = entries.get(agentAddr);
+		if (entry == null)
+			return null;
+
+		final RadioMeasurements m = entry.measurements;
+		if (!isFresh(m, maxAgeMs))
+			return null;
+		hits.incrementAndGet();
+		return m;
+	}
+
+
+	/**
+	 * Read every agent, unless it is being read already
+	 */
+	void pollAll () {
+		// Forget the agents that went away
+		entries.keySet().retainAll(agentManager.getAgents().keySet());
+
+		for (final IOdinAgent agent: agentManager.getAgents().values()) {
+			final AgentEntry entry = getEntry(agent.getIpAddress());
+
+			pollExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (!entry.lock.tryLock())
+						return;
+
+					try {
+						poll(agent, entry);
+					} catch (Exception e) {
+						log.warn("Failed to read measurements from agent " + agent.getIpAddress(), e);
+					} finally {
+						entry.lock.unlock();
+					}
+				}
+			});
+		}
+	}
+
+
+	long getAgentReads () {
+		return agentReads.get();
+	}
+
+
+	long getHits () {
+		return hits.get();
+	}
+
+
+	private AgentEntry getEntry (InetAddress agentAddr) {
+		AgentEntry entry = entries.get(agentAddr);
+		if (entry == null) {
+			entry = new AgentEntry();
+			final AgentEntry existing = entries.putIfAbsent(agentAddr, entry);
+			if (existing != null)
+				entry = existing;
+		}
+		return entry;
+	}
+
+
+	private static boolean isFresh (RadioMeasurements m, long maxAgeMs) {
+		return m != null && System.currentTimeMillis() - m.getTimestamp() <= maxAgeMs;
+	}
+
+
+	/**
+	 * Read an agent. Called with the entry locked.
+	 */
+	private RadioMeasurements poll (IOdinAgent agent, AgentEntry entry) {
+		final long timestamp = System.currentTimeMillis();
+
+		StationStats rxStats = agent.getRxStationStats();
+		if (rxStats == null)
+			rxStats = StationStats.EMPTY;
+		final String rssi = agent.getScannedStaRssi();
+		final int txPower = agent.getTxPower();
+		agentReads.incrementAndGet();
+
+		final RadioMeasurements m = build(agent.getIpAddress(), timestamp, rxStats, rssi, txPower);
+		entry.measurements = m;
+
+		if (applicationRuntime != null)
+			applicationRuntime.statsUpdated(agent.getIpAddress(), null, rxStats);
+
+		return m;
+	}
+
+
+	/**
+	 * Put the RxStats and scanned RSSI of the same station
+	 * at the same index
+	 *
+	 * @param rssi "MAC rssi\nMAC rssi\n...", may be null
+	 */
+	static RadioMeasurements build (InetAddress agentAddr, long timestamp,
+			StationStats rxStats, String rssi, int txPower) {
+		final String[] rssiRows = (rssi == null || rssi.trim().length() == 0) ? new String[0] : rssi.trim().split("\n");
+
+		// Every station reported, sorted and without duplicates
+		long[] stations = new long[rxStats.size() + rssiRows.length];
+		int n = 0;
+		for (int i = 0; i < rxStats.size(); i++) {
+			stations[n++] = rxStats.getMac(i);
+		}
+		final long[] rssiStations = new long[rssiRows.length];
+		final double[] rssiValues = new double[rssiRows.length];
+		for (int i = 0; i < rssiRows.length; i++) {
+			final String[] fields = rssiRows[i].trim().split(" ");
+			rssiStations[i] = -1;
+			if (fields.length < 2)
+				continue;
+			try {
+				rssiStations[i] = MACAddress.valueOf(fields[0]).toLong();
+				rssiValues[i] = Double.parseDouble(fields[1]);
+				stations[n++] = rssiStations[i];
+			} catch (RuntimeException e) {
+				rssiStations[i] = -1;
+			}
+		}
+		Arrays.sort(stations, 0, n);
+		int unique = 0;
+		for (int i = 0; i < n; i++) {
+			if (unique == 0 || stations[unique - 1] != stations[i])
+				stations[unique++] = stations[i];
+		}
+		stations = Arrays.copyOf(stations, unique);
+
+		final double[] rxSignal = new double[unique];
+		final double[] rxRate = new double[unique];
+		final long[] rxPackets = new long[unique];
+		final double[] rxAirTime = new double[unique];
+		final double[] scannedRssi = new double[unique];
+		Arrays.fill(rxSignal, NO_VALUE);
+		Arrays.fill(rxRate, NO_VALUE);
+		Arrays.fill(rxPackets, -1);
+		Arrays.fill(rxAirTime, NO_VALUE);
+		Arrays.fill(scannedRssi, NO_VALUE);
+
+		// Already numbers, nothing left to parse
+		for (int row = 0; row < rxStats.size(); row++) {
+			final int i = Arrays.binarySearch(stations, rxStats.getMac(row));
+			rxSignal[i] = rxStats.getAvgSignal(row);
+			rxRate[i] = rxStats.getAvgRate(row);
+			rxAirTime[i] = rxStats.getAirTime(row);
+			final double packets = rxStats.getPackets(row);
+			rxPackets[i] = Double.isNaN(packets) ? -1 : (long) packets;
+		}
+
+		for (int j = 0; j < rssiStations.length; j++) {
+			if (rssiStations[j] >= 0)
+				scannedRssi[Arrays.binarySearch(stations, rssiStations[j])] = rssiValues[j];
+		}
+
+		return new RadioMeasurements(agentAddr, timestamp, stations, rxSignal, rxRate, rxPackets, rxAirTime,
+				scannedRssi, txPower, rxStats);
+	}
+
+
+	private static class AgentEntry {
+		final ReentrantLock lock = new ReentrantLock();
+		volatile RadioMeasurements measurements;
+	}
+}
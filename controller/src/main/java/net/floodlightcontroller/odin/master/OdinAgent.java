@@ -1,18 +1,19 @@
 package net.floodlightcontroller.odin.master;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
 import java.net.InetAddress;
-import java.net.Socket;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 import org.codehaus.jackson.map.annotate.JsonSerialize;
 import org.openflow.protocol.OFFlowMod;
 import org.openflow.protocol.OFMatch;
@@ -21,7 +22,6 @@ import org.openflow.protocol.action.OFAction;
 import org.openflow.protocol.action.OFActionOutput;
 import org.openflow.util.U16;
 
-import java.util.Collections;
 import java.lang.*;
 
 import net.floodlightcontroller.core.IOFSwitch;
@@ -43,9 +43,7 @@ class OdinAgent implements IOdinAgent {
 	protected static Logger log = LoggerFactory.getLogger(OdinAgent.class);
 
 	// Connect to control socket on OdinAgent
-	private Socket odinAgentSocket = null;
-	private PrintWriter outBuf;
-	private BufferedReader inBuf;
+	private OdinAgentControlChannel controlChannel = null;
 	private IOFSwitch ofSwitch;
 	private InetAddress ipAddress;
 	private long lastHeard;
@@ -87,6 +85,7 @@ class OdinAgent implements IOdinAgent {
 	private final int RX_STAT_NUM_PROPERTIES = 8;
 	private final int MTX_DISTANCE_RX_STAT_NUM_PROPERTIES = 1;
 	private final int ODIN_AGENT_PORT = 6777;
+	private final long READ_HANDLER_TIMEOUT_MS = 10000;
 
 
 	/**
@@ -193,34 +192,22 @@ class OdinAgent implements IOdinAgent {
 	 *         values.
 	 */
 	public Map<MACAddress, Map<String, String>> getTxStats() {
-		String stats = invokeReadHandler(READ_HANDLER_TXSTATS);
+		return getTxStationStats().toMap();
+	}
 
-		Map<MACAddress, Map<String, String>> ret = new HashMap<MACAddress, Map<String, String>>();
 
+	/**
+	 * Retrieve Tx-stats from the OdinAgent, parsed into
+	 * primitive columns in a single pass.
+	 *
+	 * @return one row per station
+	 */
+	public StationStats getTxStationStats() {
 		/*
 		 * We basically get rows like this MAC_ADDR1 prop1:<value> prop2:<value>
 		 * MAC_ADDR2 prop1:<value> prop2:<value>
 		 */
-		String arr[] = stats.split("\n");
-		for (String elem : arr) {
-			String row[] = elem.split(" ");
-
-			if (row.length != TX_STAT_NUM_PROPERTIES + 1) {
-				continue;
-			}
-
-			MACAddress eth = MACAddress.valueOf(row[0].toLowerCase());
-
-			Map<String, String> innerMap = new HashMap<String, String>();
-
-			for (int i = 1; i < TX_STAT_NUM_PROPERTIES + 1; i += 1) {
-				innerMap.put(row[i].split(":")[0], row[i].split(":")[1]);
-			}
-
-			ret.put(eth, Collections.unmodifiableMap(innerMap));
-		}
-
-		return Collections.unmodifiableMap(ret);
+		return StationStats.parse(invokeReadHandler(READ_HANDLER_TXSTATS), TX_STAT_NUM_PROPERTIES, false);
 	}
 
 	/**
@@ -230,37 +217,24 @@ class OdinAgent implements IOdinAgent {
 	 *         values.
 	 */
 	public Map<MACAddress, Map<String, String>> getRxStats() {
-		String stats = invokeReadHandler(READ_HANDLER_RXSTATS);
+		return getRxStationStats().toMap();
+	}
 
-		Map<MACAddress, Map<String, String>> ret = new HashMap<MACAddress, Map<String, String>>();
 
+	/**
+	 * Retrieve Rx-stats from the OdinAgent, parsed into
+	 * primitive columns in a single pass.
+	 *
+	 * @return one row per station
+	 */
+	public StationStats getRxStationStats() {
 		/*
 		 * We basically get rows like this MAC_ADDR1 prop1:<value> prop2:<value>
 		 * MAC_ADDR2 prop1:<value> prop2:<value>
+		 *
+		 * Stations with no packets were only heard in beacons
 		 */
-		String arr[] = stats.split("\n");
-		for (String elem : arr) {
-			String row[] = elem.split(" ");
-
-			if (row.length != RX_STAT_NUM_PROPERTIES + 1) {
-				continue;
-			}
-			if (row[1].split(":")[1].equals("0")) { // Avoid beacons
-                continue;
-			}
-
-			MACAddress eth = MACAddress.valueOf(row[0].toLowerCase());
-
-			Map<String, String> innerMap = new HashMap<String, String>();
-
-			for (int i = 1; i < RX_STAT_NUM_PROPERTIES + 1; i += 1) {
-				innerMap.put(row[i].split(":")[0], row[i].split(":")[1]);
-			}
-
-			ret.put(eth, Collections.unmodifiableMap(innerMap));
-		}
-
-		return Collections.unmodifiableMap(ret);
+		return StationStats.parse(invokeReadHandler(READ_HANDLER_RXSTATS), RX_STAT_NUM_PROPERTIES, true);
 	}
 
 
@@ -376,14 +350,12 @@ class OdinAgent implements IOdinAgent {
 		}*/
 
 		try {
-			odinAgentSocket = new Socket(host.getHostAddress(), ODIN_AGENT_PORT);
-			outBuf = new PrintWriter(odinAgentSocket.getOutputStream(), true);
-			inBuf = new BufferedReader(new InputStreamReader(odinAgentSocket
-					.getInputStream()));
+			OdinAgentControlChannel ch = new OdinAgentControlChannel(
+					new InetSocketAddress(host, ODIN_AGENT_PORT),
+					OdinAgentControlReactor.getInstance());
+			ch.connect();
+			controlChannel = ch;
 			ipAddress = host;
-		} catch (UnknownHostException e) {
-			e.printStackTrace();
-			return -1;
 		} catch (IOException e) {
 			e.printStackTrace();
 			return -1;
@@ -446,6 +418,42 @@ class OdinAgent implements IOdinAgent {
 	}
 
 
+	@Override
+	public List<Future<String>> removeClientLvaps(List<OdinClient> clients) {
+		List<String> texts = new ArrayList<String>(clients.size());
+		for (OdinClient oc: clients) {
+			texts.add(oc.getMacAddress().toString());
+		}
+		List<Future<String>> replies = invokeWriteHandler(WRITE_HANDLER_REMOVE_VAP, texts);
+		clientList.removeAll(clients);
+		return replies;
+	}
+
+
+	@Override
+	public List<Future<String>> addClientLvaps(List<OdinClient> clients) {
+		List<String> texts = new ArrayList<String>(clients.size());
+		for (OdinClient oc: clients) {
+			assert (oc.getLvap() != null);
+
+			StringBuilder sb = new StringBuilder();
+			sb.append(oc.getMacAddress());
+			sb.append(" ");
+			sb.append(oc.getIpAddress().getHostAddress());
+			sb.append(" ");
+			sb.append(oc.getLvap().getBssid());
+			for (String ssid: oc.getLvap().getSsids()) {
+				sb.append(" ");
+				sb.append(ssid);
+			}
+			texts.add(sb.toString());
+		}
+		List<Future<String>> replies = invokeWriteHandler(WRITE_HANDLER_ADD_VAP, texts);
+		clientList.addAll(clients);
+		return replies;
+	}
+
+
 	/**
 	 * Update a virtual access point with possibly new IP, BSSID, or SSID
 	 *
@@ -478,62 +486,78 @@ class OdinAgent implements IOdinAgent {
 
 
 	/**
-	 * Internal method to invoke a read handler on the OdinAgent
+	 * Internal method to invoke a read handler on the OdinAgent. Blocks
+	 * until the reply arrives, but other requests to the same agent
+	 * can be issued in the meantime.
 	 *
 	 * @param handlerName OdinAgent handler
-	 * @return read-handler string
+	 * @return read-handler string, or null on failure or timeout
 	 */
-	private synchronized String invokeReadHandler(String handlerName) {
-		//log.info("[invokeReadHandler] Begin " + handlerName);
-		//log.info("[invokeReadHandler] IP address of detection agent is " + this.detectionAgentIP);
-		//log.info("[invokeReadHandler] IP address of agent is " + this.ipAddress);
-		if (this.ipAddress.getHostAddress().equals(this.detectionAgentIP))
-		   	outBuf.println("READ " + DETECTION_AGENT_ELEMENT + "." + handlerName);
-		else outBuf.println("READ " + ODIN_AGENT_ELEMENT + "." + handlerName);
-		
-		String line = "";
+	private String invokeReadHandler(String handlerName) {
+		Future<String> reply = invokeReadHandlerAsync(handlerName);
 
 		try {
-			String data = null;
-			while ((data = inBuf.readLine()).contains("DATA") == false) {
-				// skip all the crap that the Click control
-				// socket tells us
-			}
-			int numBytes = Integer.parseInt(data.split(" ")[1]);
-
-			while (numBytes != 0) {
-				numBytes--;
-				char[] buf = new char[1];
-				inBuf.read(buf);
-				line = line + new String(buf);
-			}
-			//log.info("[invokeReadHandler] End " + handlerName + line);
-			return line;
-		} catch (IOException e) {
-			e.printStackTrace();
+			return reply.get(READ_HANDLER_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			log.error("Timed out reading " + handlerName + " from agent " + ipAddress);
+		} catch (ExecutionException e) {
+			log.error("Failed to read " + handlerName + " from agent " + ipAddress + ": " + e.getCause().getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
 		}
-		//log.info("[invokeReadHandler] End " + handlerName);
 		return null;
 	}
 
 
 	/**
-	 * Internal method to invoke a write handler of the OdinAgent
+	 * Internal method to invoke a read handler on the OdinAgent
+	 * without waiting for the reply
+	 *
+	 * @param handlerName OdinAgent handler
+	 * @return future holding the read-handler string
+	 */
+	Future<String> invokeReadHandlerAsync(String handlerName) {
+		return controlChannel.read(getElement() + "." + handlerName);
+	}
+
+
+	/**
+	 * Internal method to invoke a write handler of the OdinAgent. Does
+	 * not wait for the agent to acknowledge the write.
 	 *
 	 * @param handlerName OdinAgent write handler name
 	 * @param handlerText Write string
+	 * @return future holding the status line returned by the agent
 	 */
-	private synchronized void invokeWriteHandler(String handlerName,
+	Future<String> invokeWriteHandler(String handlerName,
 			String handlerText) {
-		//log.info("[invokeWriteHandler] Begin " + handlerName);
-		//log.info("[invokeWriteHandler] IP address of detection agent is " + this.detectionAgentIP);
-		//log.info("[invokeWriteHandler] IP address of agent is " + this.ipAddress);
-		if (this.ipAddress.getHostAddress().equals(this.detectionAgentIP))
-		   	outBuf.println("WRITE " + DETECTION_AGENT_ELEMENT + "." + handlerName + " " + handlerText);
-		else outBuf.println("WRITE " + ODIN_AGENT_ELEMENT + "." + handlerName + " " + handlerText);
+		return controlChannel.write(getElement() + "." + handlerName, handlerText);
+	}
+
 
-		//outBuf.println("WRITE " + ODIN_AGENT_ELEMENT + "." + handlerName + " " + handlerText);
-		//log.info("[invokeWriteHandler] End " + handlerName);
+	/**
+	 * Internal method to invoke a write handler of the OdinAgent several
+	 * times in a single exchange. Does not wait for the agent to
+	 * acknowledge the writes.
+	 *
+	 * @param handlerName OdinAgent write handler name
+	 * @param handlerTexts Write string of each invocation
+	 * @return futures holding the status line of each write, in order
+	 */
+	List<Future<String>> invokeWriteHandler(String handlerName,
+			List<String> handlerTexts) {
+		return controlChannel.writeAll(getElement() + "." + handlerName, handlerTexts);
+	}
+
+
+	/**
+	 * The detection agent runs a different Click element
+	 * than the regular OdinAgents
+	 */
+	private String getElement() {
+		if (this.ipAddress.getHostAddress().equals(this.detectionAgentIP))
+			return DETECTION_AGENT_ELEMENT;
+		return ODIN_AGENT_ELEMENT;
 	}
 
 
@@ -565,6 +589,8 @@ class OdinAgent implements IOdinAgent {
 	public int getChannel() {
 		int chan = 0;
 		String handler = invokeReadHandler(READ_HANDLER_CHANNEL);
+		if (handler == null)
+			return this.channel;
 		chan = Integer.parseInt(handler.trim());
 		if(chan != this.channel)
 			this.channel = chan;
@@ -585,6 +611,25 @@ class OdinAgent implements IOdinAgent {
 		}
 		invokeWriteHandler(WRITE_HANDLER_CHANNEL_SWITCH_ANNOUNCEMENT, sb.toString());
 	}
+	
+	@Override
+	public List<Future<String>> sendChannelSwitches(List<OdinClient> clients, int channel) {
+		List<String> texts = new ArrayList<String>(clients.size());
+		for (OdinClient oc: clients) {
+			StringBuilder sb = new StringBuilder();
+			sb.append(oc.getMacAddress());
+			sb.append(" ");
+			sb.append(oc.getLvap().getBssid());
+			sb.append(" ");
+			sb.append(channel);
+			for (String ssid: oc.getLvap().getSsids()) {
+				sb.append(" ");
+				sb.append(ssid);
+			}
+			texts.add(sb.toString());
+		}
+		return invokeWriteHandler(WRITE_HANDLER_CHANNEL_SWITCH_ANNOUNCEMENT, texts);
+	}
 	 
 	public int convertFrequencyToChannel(int freq) {
 	    if (freq >= 2412 && freq <= 2484) {
@@ -626,6 +671,8 @@ class OdinAgent implements IOdinAgent {
 		}
 		log.debug("Sending READ_HANDLER_SCAN_CLIENT");
 		String handler = invokeReadHandler(READ_HANDLER_SCAN_CLIENT);
+		if (handler == null)
+			return 0;
 		lastScan = Integer.parseInt(handler.trim());
 		log.debug("READ_HANDLER_SCAN_CLIENT " + lastScan);
 		return lastScan;
@@ -644,6 +691,8 @@ class OdinAgent implements IOdinAgent {
 	public int requestScannedStationsStats (int channel, String ssid) { // Log disabled
 		//log.info("Sending READ_HANDLER_SCANNING_FLAGS");
 		String flags = invokeReadHandler(READ_HANDLER_SCANING_FLAGS);
+		if (flags == null)
+			return (0); // Treat an unreachable agent as busy
 		//log.info("Received flags: " + flags);
 		String row[] = flags.split(" ");
 		int client_scanning_flag = Integer.parseInt(row[0].trim());
@@ -670,11 +719,16 @@ class OdinAgent implements IOdinAgent {
 	 */
 	@Override
 	public Map<MACAddress, Map<String, String>> getScannedStationsStats (String ssid) {
+		return getScannedStationStats(ssid).toMap();
+	}
 
-		String stats = invokeReadHandler(READ_HANDLER_SCAN_APS);
-
-		Map<MACAddress, Map<String, String>> ret = new HashMap<MACAddress, Map<String, String>>();
 
+	/**
+	 * Retreive scanned stations statistics from the agent,
+	 * parsed into primitive columns in a single pass
+	 * @return one row per station
+	 */
+	public StationStats getScannedStationStats (String ssid) {
 		int num_properties;
 		if (ssid == "*")
 			 num_properties = RX_STAT_NUM_PROPERTIES;
@@ -684,26 +738,7 @@ class OdinAgent implements IOdinAgent {
 		 * We basically get rows like this MAC_ADDR1 prop1:<value> prop2:<value>
 		 * MAC_ADDR2 prop1:<value> prop2:<value>
 		 */
-		String arr[] = stats.split("\n");
-		for (String elem : arr) {
-			String row[] = elem.split(" ");
-
-			if (row.length != num_properties + 1) {
-				continue;
-			}
-
-			MACAddress eth = MACAddress.valueOf(row[0].toLowerCase());
-
-			Map<String, String> innerMap = new HashMap<String, String>();
-
-			for (int i = 1; i < num_properties + 1; i += 1) {
-				innerMap.put(row[i].split(":")[0], row[i].split(":")[1]);
-			}
-
-			ret.put(eth, Collections.unmodifiableMap(innerMap));
-		}
-
-		return Collections.unmodifiableMap(ret);
+		return StationStats.parse(invokeReadHandler(READ_HANDLER_SCAN_APS), num_properties, false);
 	}
 
 
@@ -719,6 +754,8 @@ class OdinAgent implements IOdinAgent {
 	public int requestSendMesurementBeacon (int channel, String ssid) {
 		log.info("Sending READ_HANDLER_SCANING_FLAGS");
 		String flags = invokeReadHandler(READ_HANDLER_SCANING_FLAGS);
+		if (flags == null)
+			return (0); // Treat an unreachable agent as busy
 		log.info("Received flags: " + flags);
 		String row[] = flags.split(" ");
 		int client_scanning_flag = Integer.parseInt(row[0].trim());
@@ -772,6 +809,8 @@ class OdinAgent implements IOdinAgent {
 	public int getTxPower() {
 		int txpower = 0;
 		String handler = invokeReadHandler(READ_HANDLER_TXPOWER);
+		if (handler == null)
+			return this.txpower;
 		txpower = Integer.parseInt(handler.trim());
 		if(txpower != this.txpower)
 			this.txpower = txpower;
@@ -800,4 +839,61 @@ class OdinAgent implements IOdinAgent {
 
 		return stats;
 	}
+	
+	
+	@Override
+	public Future<StationStats> getTxStationStatsAsync() {
+		return new AgentReplyFuture<StationStats>(invokeReadHandlerAsync(READ_HANDLER_TXSTATS)) {
+			@Override
+			protected StationStats parse(String reply) {
+				return StationStats.parse(reply, TX_STAT_NUM_PROPERTIES, false);
+			}
+		};
+	}
+	
+	
+	@Override
+	public Future<StationStats> getRxStationStatsAsync() {
+		return new AgentReplyFuture<StationStats>(invokeReadHandlerAsync(READ_HANDLER_RXSTATS)) {
+			@Override
+			protected StationStats parse(String reply) {
+				return StationStats.parse(reply, RX_STAT_NUM_PROPERTIES, true);
+			}
+		};
+	}
+	
+	
+	@Override
+	public Future<String> getScannedStaRssiAsync() {
+		return new AgentReplyFuture<String>(invokeReadHandlerAsync(READ_HANDLER_STA_RSSI)) {
+			@Override
+			protected String parse(String reply) {
+				return reply;
+			}
+		};
+	}
+	
+	
+	@Override
+	public Future<Integer> getTxPowerAsync() {
+		return new AgentReplyFuture<Integer>(invokeReadHandlerAsync(READ_HANDLER_TXPOWER)) {
+			@Override
+			protected Integer parse(String reply) {
+				txpower = Integer.parseInt(reply.trim());
+				return txpower;
+			}
+		};
+	}
+	
+	
+	@Override
+	public Future<Integer> getChannelAsync() {
+		return new AgentReplyFuture<Integer>(invokeReadHandlerAsync(READ_HANDLER_CHANNEL)) {
+			@Override
+			protected Integer parse(String reply) {
+				channel = Integer.parseInt(reply.trim());
+				return channel;
+			}
+		};
+	}
 }
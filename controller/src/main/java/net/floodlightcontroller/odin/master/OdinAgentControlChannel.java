@@ -0,0 +1,502 @@
+package net.floodlightcontroller.odin.master;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking connection to the Click ControlSocket of an OdinAgent.
+ *
+ * Requests are written as soon as they are issued, so several READ and
+ * WRITE handler invocations can be in flight on the same agent at once.
+ * The ControlSocket answers strictly in order, which is how replies are
+ * matched to the requests that are waiting for them. All channels are
+ * serviced by the single selector thread of {@link OdinAgentControlReactor}.
+ *
+ * A ControlSocket reply looks like this:
+ *
+ *   200 Read handler 'odinagent.txstats' OK\r\n
+ *   DATA 42\r\n
+ *   <42 bytes of handler data>
+ *
+ * Writes get the status line only. Error replies (5xx) never carry data.
+ */
+class OdinAgentControlChannel {
+	protected static Logger log = LoggerFactory.getLogger(OdinAgentControlChannel.class);
+
+	private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+	private static final int CONNECT_TIMEOUT_MS = 5000;
+	private static final int INITIAL_BUFFER_SIZE = 8192;
+	private static final int CLICK_OK = 200;
+
+	private final InetSocketAddress remoteAddr;
+	private final OdinAgentControlReactor reactor;
+	private SocketChannel channel;
+	private SelectionKey key;
+	private volatile boolean closed = false;
+
+	// Requests that have been written, in the order the agent will answer them
+	private final ConcurrentLinkedQueue<Request> pending = new ConcurrentLinkedQueue<Request>();
+
+	// Outbound data not yet accepted by the socket. Guarded by writeLock.
+	private final Object writeLock = new Object();
+	private final LinkedList<ByteBuffer> outQueue = new LinkedList<ByteBuffer>();
+
+	// Receive side, only touched by the reactor thread. Both buffers are
+	// reused for every reply and grow when a larger reply shows up.
+	private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+	private byte[] dataBuffer = new byte[INITIAL_BUFFER_SIZE];
+	private int dataLength = -1;
+	private int dataReceived = 0;
+
+
+	OdinAgentControlChannel (InetSocketAddress remoteAddr, OdinAgentControlReactor reactor) {
+		this.remoteAddr = remoteAddr;
+		this.reactor = reactor;
+	}
+
+
+	/**
+	 * Connect to the control socket and hand the channel over
+	 * to the reactor.
+	 *
+	 * @throws IOException if the agent can't be reached
+	 */
+	void connect () throws IOException {
+		channel = SocketChannel.open();
+		try {
+			channel.socket().setTcpNoDelay(true);
+			channel.socket().connect(remoteAddr, CONNECT_TIMEOUT_MS);
+			channel.configureBlocking(false);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+		reactor.register(this);
+	}
+
+
+	/**
+	 * Issue a READ on a handler.
+	 *
+	 * @param handler fully qualified handler, e.g. odinagent.txstats
+	 * @return future holding the handler data, or null if the agent refused
+	 */
+	Future<String> read (String handler) {
+		Request req = new Request(true);
+		send(req, "READ " + handler + "\n");
+		return req;
+	}
+
+
+	/**
+	 * Issue a WRITE on a handler.
+	 *
+	 * @param handler fully qualified handler, e.g. odinagent.add_vap
+	 * @param text argument of the write handler
+	 * @return future holding the ControlSocket status line as text
+	 */
+	Future<String> write (String handler, String text) {
+		Request req = new Request(false);
+		send(req, "WRITE " + handler + " " + text + "\n");
+		return req;
+	}
+
+
+	/**
+	 * Issue several WRITEs on the same handler in a single
+	 * socket write.
+	 *
+	 * @param handler fully qualified handler, e.g. odinagent.add_vap
+	 * @param texts argument of each write
+	 * @return futures holding the status line of each write, in order
+	 */
+	List<Future<String>> writeAll (String handler, List<String> texts) {
+		List<Request> reqs = new ArrayList<Request>(texts.size());
+		StringBuilder sb = new StringBuilder();
+		for (String text: texts) {
+			reqs.add(new Request(false));
+			sb.append("WRITE ").append(handler).append(' ').append(text).append('\n');
+		}
+		if (!reqs.isEmpty())
+			send(reqs, sb.toString());
+		return new ArrayList<Future<String>>(reqs);
+	}
+
+
+	/**
+	 * @return true if a write was acknowledged by the agent
+	 */
+	static boolean isOk (String status) {
+		return status != null && status.startsWith(Integer.toString(CLICK_OK));
+	}
+
+
+	/**
+	 * Number of requests that have been written and not yet answered.
+	 */
+	int getPendingCount () {
+		return pending.size();
+	}
+
+
+	boolean isClosed () {
+		return closed;
+	}
+
+
+	/**
+	 * Close the connection and fail every outstanding request.
+	 */
+	void close () {
+		// Under writeLock, so that no send() can register requests
+		// after the pending ones have been failed
+		synchronized (writeLock) {
+			if (closed)
+				return;
+
+			closed = true;
+
+			if (key != null)
+				key.cancel();
+
+			try {
+				if (channel != null)
+					channel.close();
+			} catch (IOException e) {
+				// ignore
+			}
+
+			Request req;
+			while ((req = pending.poll()) != null) {
+				req.fail(new IOException("Control socket to " + remoteAddr + " closed"));
+			}
+		}
+	}
+
+
+	private void send (Request req, String command) {
+		send(Collections.singletonList(req), command);
+	}
+
+
+	/**
+	 * Write the commands of several requests at once. The requests
+	 * are answered in the order of the list.
+	 */
+	private void send (List<Request> reqs, String command) {
+		if (closed) {
+			failClosed(reqs);
+			return;
+		}
+
+		ByteBuffer buf = ByteBuffer.wrap(command.getBytes(CHARSET));
+		boolean needWrite = false;
+
+		synchronized (writeLock) {
+			// Closed since the check above
+			if (closed) {
+				failClosed(reqs);
+				return;
+			}
+
+			// Register before the bytes hit the wire so that the
+			// reply can never overtake its request
+			pending.addAll(reqs);
+
+			if (outQueue.isEmpty()) {
+				try {
+					channel.write(buf);
+				} catch (IOException e) {
+					log.error("Failed to write to control socket of " + remoteAddr + ": " + e.getMessage());
+					reactor.close(this);
+					return;
+				}
+			}
+
+			if (buf.hasRemaining()) {
+				needWrite = outQueue.isEmpty();
+				outQueue.add(buf);
+			}
+		}
+
+		if (needWrite)
+			reactor.requestWrite(this);
+	}
+
+
+	private void failClosed (List<Request> reqs) {
+		for (Request req: reqs) {
+			req.fail(new IOException("Control socket to " + remoteAddr + " closed"));
+		}
+	}
+
+
+	//********* Called from the reactor thread **********//
+
+	SocketChannel getChannel () {
+		return channel;
+	}
+
+
+	void setKey (SelectionKey key) {
+		this.key = key;
+	}
+
+
+	SelectionKey getKey () {
+		return key;
+	}
+
+
+	/**
+	 * Drain the outbound queue.
+	 *
+	 * @return true if everything has been written
+	 */
+	boolean flush () throws IOException {
+		synchronized (writeLock) {
+			while (!outQueue.isEmpty()) {
+				ByteBuffer buf = outQueue.getFirst();
+				channel.write(buf);
+				if (buf.hasRemaining())
+					return false;
+				outQueue.removeFirst();
+			}
+			return true;
+		}
+	}
+
+
+	/**
+	 * Read whatever is available and complete the requests it answers.
+	 *
+	 * @return false on end of stream
+	 */
+	boolean onReadable () throws IOException {
+		int n = channel.read(readBuffer);
+
+		if (n < 0)
+			return false;
+
+		readBuffer.flip();
+		while (parse()) {
+			// keep going
+		}
+		readBuffer.compact();
+
+		// A line longer than the buffer: make room for the rest of it
+		if (!readBuffer.hasRemaining()) {
+			ByteBuffer bigger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+			readBuffer.flip();
+			bigger.put(readBuffer);
+			readBuffer = bigger;
+		}
+
+		return true;
+	}
+
+
+	/**
+	 * Consume one protocol element from the read buffer.
+	 *
+	 * @return true if progress was made
+	 */
+	private boolean parse () {
+		if (dataLength >= 0) {
+			// Copy the handler data straight from the socket buffer
+			int n = Math.min(dataLength - dataReceived, readBuffer.remaining());
+			readBuffer.get(dataBuffer, dataReceived, n);
+			dataReceived += n;
+
+			if (dataReceived < dataLength)
+				return false;
+
+			Request req = pending.poll();
+			if (req != null)
+				req.set(new String(dataBuffer, 0, dataLength, CHARSET));
+
+			dataLength = -1;
+			return true;
+		}
+
+		int start = readBuffer.position();
+		int limit = readBuffer.limit();
+		int eol = -1;
+
+		for (int i = start; i < limit; i++) {
+			if (readBuffer.get(i) == '\n') {
+				eol = i;
+				break;
+			}
+		}
+
+		if (eol < 0)
+			return false;
+
+		int end = eol;
+		if (end > start && readBuffer.get(end - 1) == '\r')
+			end--;
+
+		readBuffer.position(eol + 1);
+		handleLine(start, end);
+		return true;
+	}
+
+
+	private void handleLine (int start, int end) {
+		int len = end - start;
+
+		if (len > 5 && matches(start, "DATA ")) {
+			int n = 0;
+			for (int i = start + 5; i < end; i++) {
+				byte b = readBuffer.get(i);
+				if (b < '0' || b > '9')
+					break;
+				n = n * 10 + (b - '0');
+			}
+
+			if (dataBuffer.length < n)
+				dataBuffer = new byte[Math.max(n, dataBuffer.length * 2)];
+
+			dataLength = n;
+			dataReceived = 0;
+			return;
+		}
+
+		if (len < 3 || !isDigit(start) || !isDigit(start + 1) || !isDigit(start + 2)) {
+			// Connection banner, e.g. Click::ControlSocket/1.3
+			return;
+		}
+
+		// Multi-line messages use '-' after the code on all but the last line
+		if (len > 3 && readBuffer.get(start + 3) == '-')
+			return;
+
+		int code = (readBuffer.get(start) - '0') * 100
+				+ (readBuffer.get(start + 1) - '0') * 10
+				+ (readBuffer.get(start + 2) - '0');
+
+		Request req = pending.peek();
+		if (req == null) {
+			log.debug("Unsolicited reply from " + remoteAddr);
+			return;
+		}
+
+		if (req.isRead && code == CLICK_OK) {
+			// DATA line follows
+			return;
+		}
+
+		pending.poll();
+		String status = new String(readBuffer.array(), readBuffer.arrayOffset() + start, len, CHARSET);
+
+		if (req.isRead) {
+			log.error("Read handler failed on " + remoteAddr + ": " + status);
+			req.set(null);
+		}
+		else {
+			if (code != CLICK_OK)
+				log.error("Write handler failed on " + remoteAddr + ": " + status);
+			req.set(status);
+		}
+	}
+
+
+	private boolean isDigit (int index) {
+		byte b = readBuffer.get(index);
+		return b >= '0' && b <= '9';
+	}
+
+
+	private boolean matches (int index, String prefix) {
+		for (int i = 0; i < prefix.length(); i++) {
+			if (readBuffer.get(index + i) != prefix.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+
+	@Override
+	public String toString () {
+		return "OdinAgentControlChannel[" + remoteAddr + "]";
+	}
+
+
+	/**
+	 * An outstanding handler invocation
+	 */
+	static class Request implements Future<String> {
+		final boolean isRead;
+		private final CountDownLatch latch = new CountDownLatch(1);
+		private volatile String result;
+		private volatile Throwable error;
+
+		Request (boolean isRead) {
+			this.isRead = isRead;
+		}
+
+		void set (String value) {
+			result = value;
+			latch.countDown();
+		}
+
+		void fail (Throwable t) {
+			error = t;
+			latch.countDown();
+		}
+
+		@Override
+		public boolean cancel (boolean mayInterruptIfRunning) {
+			// The reply will still arrive and has to be consumed in order
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled () {
+			return false;
+		}
+
+		@Override
+		public boolean isDone () {
+			return latch.getCount() == 0;
+		}
+
+		@Override
+		public String get () throws InterruptedException, ExecutionException {
+			latch.await();
+			return getResult();
+		}
+
+		@Override
+		public String get (long timeout, TimeUnit unit)
+				throws InterruptedException, ExecutionException, TimeoutException {
+			if (!latch.await(timeout, unit))
+				throw new TimeoutException();
+			return getResult();
+		}
+
+		private String getResult () throws ExecutionException {
+			if (error != null)
+				throw new ExecutionException(error);
+			return result;
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package net.floodlightcontroller.odin.master;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Selector thread shared by the control channels of all OdinAgents.
+ * Reads replies as they arrive and finishes writes that the socket
+ * could not take in one go. Other threads never touch the selector
+ * directly; they queue a change and wake the selector up.
+ */
+class OdinAgentControlReactor implements Runnable {
+	protected static Logger log = LoggerFactory.getLogger(OdinAgentControlReactor.class);
+
+	private static OdinAgentControlReactor instance = null;
+
+	private final Selector selector;
+	private final ConcurrentLinkedQueue<OdinAgentControlChannel> registrations = new ConcurrentLinkedQueue<OdinAgentControlChannel>();
+	private final ConcurrentLinkedQueue<OdinAgentControlChannel> writeRequests = new ConcurrentLinkedQueue<OdinAgentControlChannel>();
+	private final ConcurrentLinkedQueue<OdinAgentControlChannel> closeRequests = new ConcurrentLinkedQueue<OdinAgentControlChannel>();
+
+
+	private OdinAgentControlReactor () throws IOException {
+		selector = Selector.open();
+	}
+
+
+	/**
+	 * Get the reactor, starting its thread on first use
+	 */
+	static synchronized OdinAgentControlReactor getInstance () throws IOException {
+		if (instance == null) {
+			instance = new OdinAgentControlReactor();
+			Thread t = new Thread(instance, "OdinAgentControlReactor");
+			t.setDaemon(true);
+			t.start();
+		}
+		return instance;
+	}
+
+
+	void register (OdinAgentControlChannel ch) {
+		registrations.add(ch);
+		selector.wakeup();
+	}
+
+
+	void requestWrite (OdinAgentControlChannel ch) {
+		writeRequests.add(ch);
+		selector.wakeup();
+	}
+
+
+	void close (OdinAgentControlChannel ch) {
+		closeRequests.add(ch);
+		selector.wakeup();
+	}
+
+
+	@Override
+	public void run () {
+		while (true) {
+			try {
+				selector.select();
+				processChanges();
+
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+
+					OdinAgentControlChannel ch = (OdinAgentControlChannel) key.attachment();
+
+					if (!key.isValid())
+						continue;
+
+					try {
+						if (key.isWritable() && ch.flush()) {
+							key.interestOps(SelectionKey.OP_READ);
+						}
+
+						if (key.isReadable() && !ch.onReadable()) {
+							log.error("Control socket closed by agent: " + ch);
+							ch.close();
+						}
+					} catch (IOException e) {
+						log.error("I/O error on " + ch + ": " + e.getMessage());
+						ch.close();
+					}
+				}
+			} catch (Exception e) {
+				// Never let the selector thread die
+				log.error("Unexpected error in control socket reactor", e);
+			}
+		}
+	}
+
+
+	private void processChanges () {
+		OdinAgentControlChannel ch;
+
+		while ((ch = registrations.poll()) != null) {
+			try {
+				ch.setKey(ch.getChannel().register(selector, SelectionKey.OP_READ, ch));
+			} catch (ClosedChannelException e) {
+				ch.close();
+			}
+		}
+
+		// Registrations are handled first, so a channel always has
+		// its key by the time its first write request shows up
+		while ((ch = writeRequests.poll()) != null) {
+			SelectionKey key = ch.getKey();
+			if (key != null && key.isValid())
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		}
+
+		while ((ch = closeRequests.poll()) != null) {
+			ch.close();
+		}
+	}
+}
@@ -0,0 +1,380 @@
+package net.floodlightcontroller.odin.master;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * Decodes the ASCII messages that agents send to the master
+ * straight out of the receive buffer. Fields are located and
+ * converted in place, so the only objects created are the ones
+ * handed to the master (MAC addresses, SSIDs, id maps, flows).
+ *
+ * Messages are whitespace separated and case insensitive:
+ *
+ *   ping
+ *   probe <sta-mac> [<ssid>]
+ *   publish <sta-mac> <count> <id>:<value> ...
+ *   detectedflow <src-ip> <dst-ip> <protocol> <src-port> <dst-port>
+ *   deauthentication <sta-mac>
+ *   association <sta-mac>
+ */
+class OdinAgentMessageParser {
+
+	/**
+	 * Receiver of decoded agent messages
+	 */
+	interface Listener {
+		void receivePing (InetAddress odinAgentAddr);
+		void receiveProbe (InetAddress odinAgentAddr, MACAddress clientHwAddress, String ssid);
+		void receivePublish (MACAddress clientHwAddress, InetAddress odinAgentAddr, Map<Long, Long> subscriptionIds);
+		void receiveDetectedFlow (InetAddress odinAgentAddr, FlowTuple flow);
+		void receiveDeauth (InetAddress odinAgentAddr, MACAddress clientHwAddress);
+		void receiveAssoc (InetAddress odinAgentAddr, MACAddress clientHwAddress);
+	}
+
+	// Odin Message types
+	private static final byte[] ODIN_MSG_PING = ascii("ping");
+	private static final byte[] ODIN_MSG_PROBE = ascii("probe");
+	private static final byte[] ODIN_MSG_PUBLISH = ascii("publish");
+	private static final byte[] ODIN_MSG_DETECTED_FLOW = ascii("detectedflow");
+	private static final byte[] ODIN_MSG_DEAUTH = ascii("deauthentication");
+	private static final byte[] ODIN_MSG_ASSOC = ascii("association");
+
+
+	// Message types, as returned by getType()
+	static final int TYPE_UNKNOWN = 0;
+	static final int TYPE_PING = 1;
+	static final int TYPE_PROBE = 2;
+	static final int TYPE_PUBLISH = 3;
+	static final int TYPE_DETECTED_FLOW = 4;
+	static final int TYPE_DEAUTH = 5;
+	static final int TYPE_ASSOC = 6;
+
+
+	private OdinAgentMessageParser () {
+	}
+
+
+	/**
+	 * Peek at the type of a message without decoding it
+	 *
+	 * @param buf the received datagram, left untouched
+	 * @return one of the TYPE_ constants
+	 */
+	static int getType (ByteBuffer buf) {
+		final int limit = buf.limit();
+		final int typeStart = skipSpace(buf, buf.position(), limit);
+		final int typeEnd = tokenEnd(buf, typeStart, limit);
+
+		if (matches(buf, typeStart, typeEnd, ODIN_MSG_PING))
+			return TYPE_PING;
+		if (matches(buf, typeStart, typeEnd, ODIN_MSG_PROBE))
+			return TYPE_PROBE;
+		if (matches(buf, typeStart, typeEnd, ODIN_MSG_PUBLISH))
+			return TYPE_PUBLISH;
+		if (matches(buf, typeStart, typeEnd, ODIN_MSG_DETECTED_FLOW))
+			return TYPE_DETECTED_FLOW;
+		if (matches(buf, typeStart, typeEnd, ODIN_MSG_DEAUTH))
+			return TYPE_DEAUTH;
+		if (matches(buf, typeStart, typeEnd, ODIN_MSG_ASSOC))
+			return TYPE_ASSOC;
+		return TYPE_UNKNOWN;
+	}
+
+
+	/**
+	 * Peek at the station address of a probe, publish,
+	 * association or deauthentication message, which is
+	 * always the second field
+	 *
+	 * @param buf the received datagram, left untouched
+	 * @return the address in the lower 48 bits, or -1 if there is none
+	 */
+	static long getClientMac (ByteBuffer buf) {
+		final int limit = buf.limit();
+		final int typeStart = skipSpace(buf, buf.position(), limit);
+		final int macStart = skipSpace(buf, tokenEnd(buf, typeStart, limit), limit);
+		return parseMac(buf, macStart, tokenEnd(buf, macStart, limit));
+	}
+
+
+	/**
+	 * Decode one message and pass it on to the listener. The
+	 * buffer's position and limit delimit the message and are
+	 * left untouched.
+	 *
+	 * @param buf the received datagram
+	 * @param odinAgentAddr agent that sent the message
+	 * @param listener
+	 * @return false if the message was not understood
+	 */
+	static boolean parse (ByteBuffer buf, InetAddress odinAgentAddr, Listener listener) {
+		final int limit = trimEnd(buf, buf.position(), buf.limit());
+		final int typeStart = skipSpace(buf, buf.position(), limit);
+		final int typeEnd = tokenEnd(buf, typeStart, limit);
+
+		if (matches(buf, typeStart, typeEnd, ODIN_MSG_PING)) {
+			listener.receivePing(odinAgentAddr);
+			return true;
+		}
+
+		if (matches(buf, typeStart, typeEnd, ODIN_MSG_PROBE)) {
+			final int macStart = skipSpace(buf, typeEnd, limit);
+			final int macEnd = tokenEnd(buf, macStart, limit);
+			final long mac = parseMac(buf, macStart, macEnd);
+
+			if (mac < 0)
+				return false;
+
+			// The SSID, if specified in the scan, is the rest
+			// of the message and may contain spaces
+			String ssid = "";
+			if (macEnd < limit)
+				ssid = asciiLowerCase(buf, macEnd + 1, limit);
+
+			listener.receiveProbe(odinAgentAddr, MACAddress.valueOf(mac), ssid);
+			return true;
+		}
+
+		if (matches(buf, typeStart, typeEnd, ODIN_MSG_PUBLISH)) {
+			int start = skipSpace(buf, typeEnd, limit);
+			int end = tokenEnd(buf, start, limit);
+			final long mac = parseMac(buf, start, end);
+
+			start = skipSpace(buf, end, limit);
+			end = tokenEnd(buf, start, limit);
+			final long count = parseLong(buf, start, end);
+
+			if (mac < 0 || count < 0)
+				return false;
+
+			final Map<Long, Long> matchingIds = new HashMap<Long, Long>();
+
+			for (int i = 0; i < count; i++) {
+				start = skipSpace(buf, end, limit);
+				end = tokenEnd(buf, start, limit);
+
+				final int colon = indexOf(buf, start, end, (byte) ':');
+				if (colon < 0)
+					return false;
+
+				final long id = parseLong(buf, start, colon);
+				final long value = parseLong(buf, colon + 1, end);
+				if (id < 0 || value < 0)
+					return false;
+
+				matchingIds.put(id, value);
+			}
+
+			listener.receivePublish(MACAddress.valueOf(mac), odinAgentAddr, matchingIds);
+			return true;
+		}
+
+		if (matches(buf, typeStart, typeEnd, ODIN_MSG_DETECTED_FLOW)) {
+			int start = skipSpace(buf, typeEnd, limit);
+			int end = tokenEnd(buf, start, limit);
+			final long srcIp = parseIp(buf, start, end);
+
+			start = skipSpace(buf, end, limit);
+			end = tokenEnd(buf, start, limit);
+			final long dstIp = parseIp(buf, start, end);
+
+			start = skipSpace(buf, end, limit);
+			end = tokenEnd(buf, start, limit);
+			final long protocol = parseLong(buf, start, end);
+
+			start = skipSpace(buf, end, limit);
+			end = tokenEnd(buf, start, limit);
+			final long srcPort = parseLong(buf, start, end);
+
+			start = skipSpace(buf, end, limit);
+			end = tokenEnd(buf, start, limit);
+			final long dstPort = parseLong(buf, start, end);
+
+			if (srcIp < 0 || dstIp < 0 || protocol < 0 || protocol > 0xff ||
+					srcPort < 0 || srcPort > 0xffff || dstPort < 0 || dstPort > 0xffff)
+				return false;
+
+			listener.receiveDetectedFlow(odinAgentAddr,
+					new FlowTuple((int) srcIp, (int) dstIp, (int) protocol, (int) srcPort, (int) dstPort));
+			return true;
+		}
+
+		final boolean deauth = matches(buf, typeStart, typeEnd, ODIN_MSG_DEAUTH);
+
+		if (deauth || matches(buf, typeStart, typeEnd, ODIN_MSG_ASSOC)) {
+			final int macStart = skipSpace(buf, typeEnd, limit);
+			final long mac = parseMac(buf, macStart, tokenEnd(buf, macStart, limit));
+
+			if (mac < 0)
+				return false;
+
+			if (deauth)
+				listener.receiveDeauth(odinAgentAddr, MACAddress.valueOf(mac));
+			else
+				listener.receiveAssoc(odinAgentAddr, MACAddress.valueOf(mac));
+			return true;
+		}
+
+		return false;
+	}
+
+
+	/**
+	 * Parse a MAC address of the form 00:1b:b3:aa:bb:cc
+	 *
+	 * @return the address in the lower 48 bits, or -1 if malformed
+	 */
+	static long parseMac (ByteBuffer buf, int start, int end) {
+		if (end - start != 17)
+			return -1;
+
+		long mac = 0;
+		for (int i = 0; i < 6; i++) {
+			final int pos = start + i * 3;
+
+			if (i > 0 && buf.get(pos - 1) != ':')
+				return -1;
+
+			final int hi = hexValue(buf.get(pos));
+			final int lo = hexValue(buf.get(pos + 1));
+			if (hi < 0 || lo < 0)
+				return -1;
+
+			mac = (mac << 8) | (hi << 4) | lo;
+		}
+		return mac;
+	}
+
+
+	/**
+	 * Parse an IPv4 address in dotted decimal notation
+	 *
+	 * @return the address in the lower 32 bits, or -1 if malformed
+	 */
+	static long parseIp (ByteBuffer buf, int start, int end) {
+		long ip = 0;
+		int octetStart = start;
+
+		for (int i = 0; i < 4; i++) {
+			int octetEnd = (i < 3) ? indexOf(buf, octetStart, end, (byte) '.') : end;
+			if (octetEnd < 0 || octetEnd - octetStart > 3)
+				return -1;
+
+			final long octet = parseLong(buf, octetStart, octetEnd);
+			if (octet < 0 || octet > 255)
+				return -1;
+
+			ip = (ip << 8) | octet;
+			octetStart = octetEnd + 1;
+		}
+		return ip;
+	}
+
+
+	/**
+	 * Parse a non-negative decimal number
+	 *
+	 * @return the number, or -1 if malformed
+	 */
+	static long parseLong (ByteBuffer buf, int start, int end) {
+		if (start >= end)
+			return -1;
+
+		long n = 0;
+		for (int i = start; i < end; i++) {
+			final byte b = buf.get(i);
+			if (b < '0' || b > '9')
+				return -1;
+			n = n * 10 + (b - '0');
+		}
+		return n;
+	}
+
+
+	private static int hexValue (byte b) {
+		if (b >= '0' && b <= '9')
+			return b - '0';
+		if (b >= 'a' && b <= 'f')
+			return b - 'a' + 10;
+		if (b >= 'A' && b <= 'F')
+			return b - 'A' + 10;
+		return -1;
+	}
+
+
+	private static boolean isSpace (byte b) {
+		// Also covers the NUL padding some agents send
+		return (b & 0xff) <= ' ';
+	}
+
+
+	private static int skipSpace (ByteBuffer buf, int pos, int limit) {
+		while (pos < limit && isSpace(buf.get(pos)))
+			pos++;
+		return pos;
+	}
+
+
+	private static int tokenEnd (ByteBuffer buf, int pos, int limit) {
+		while (pos < limit && !isSpace(buf.get(pos)))
+			pos++;
+		return pos;
+	}
+
+
+	private static int trimEnd (ByteBuffer buf, int start, int limit) {
+		while (limit > start && isSpace(buf.get(limit - 1)))
+			limit--;
+		return limit;
+	}
+
+
+	private static int indexOf (ByteBuffer buf, int start, int end, byte b) {
+		for (int i = start; i < end; i++) {
+			if (buf.get(i) == b)
+				return i;
+		}
+		return -1;
+	}
+
+
+	/**
+	 * Case insensitive comparison of a token against a lower case keyword
+	 */
+	private static boolean matches (ByteBuffer buf, int start, int end, byte[] keyword) {
+		if (end - start != keyword.length)
+			return false;
+
+		for (int i = 0; i < keyword.length; i++) {
+			if (toLower(buf.get(start + i)) != keyword[i])
+				return false;
+		}
+		return true;
+	}
+
+
+	private static byte toLower (byte b) {
+		return (b >= 'A' && b <= 'Z') ? (byte) (b + ('a' - 'A')) : b;
+	}
+
+
+	private static String asciiLowerCase (ByteBuffer buf, int start, int end) {
+		final char[] chars = new char[end - start];
+		for (int i = start; i < end; i++)
+			chars[i - start] = (char) (toLower(buf.get(i)) & 0xff);
+		return new String(chars);
+	}
+
+
+	private static byte[] ascii (String s) {
+		final byte[] bytes = new byte[s.length()];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = (byte) s.charAt(i);
+		return bytes;
+	}
+}
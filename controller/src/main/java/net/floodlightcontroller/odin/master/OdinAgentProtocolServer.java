@@ -1,172 +1,370 @@
 package net.floodlightcontroller.odin.master;
 
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
 import java.net.InetAddress;
-import java.util.HashMap;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.floodlightcontroller.util.MACAddress;
 
+/**
+ * Receives the UDP messages of the agents.
+ *
+ * The socket is drained in batches by a single thread, which only
+ * peeks at the message type and hands the datagram to the lane for
+ * that kind of traffic. Every lane has its own bounded queues and
+ * worker threads, so a flood of probes can't hold up pings and cause
+ * agents to be declared dead. When a lane is full, new datagrams for
+ * it are dropped and counted instead of piling up.
+ *
+ * Association and deauthentication messages change the state of the
+ * clients, so they have a lane of their own with more room. When it is
+ * full, the receiving thread waits a little for it before dropping, so
+ * a burst slows the socket down instead of losing them. Within a lane messages of the same client always go to
+ * the same worker, so they are handled in the order they arrived.
+ */
 class OdinAgentProtocolServer implements Runnable {
     protected static Logger log = LoggerFactory.getLogger(OdinAgentProtocolServer.class);
 
-	// Odin Message types
-	private final String ODIN_MSG_PING = "ping";
-	private final String ODIN_MSG_PROBE = "probe";
-	private final String ODIN_MSG_PUBLISH = "publish";
-	private final String ODIN_MSG_DETECTED_FLOW = "detectedflow";
-    private final String ODIN_MSG_DEAUTH = "deauthentication";
-    private final String ODIN_MSG_ASSOC = "association";
+	// Largest message we expect from an agent
+	private static final int MAX_MESSAGE_SIZE = 1024;
 
+	// Datagrams read from the socket before going back to the selector
+	private static final int RECEIVE_BATCH = 64;
+
+	// Buffers kept around for reuse once the burst that needed them is over
+	private static final int MAX_POOLED_BUFFERS = 1024;
+
+	// Lanes: name, worker threads, queue capacity per worker
+	static final int LANE_PING = 0;
+	static final int LANE_PROBE = 1;
+	static final int LANE_PUBLISH = 2;
+	static final int LANE_FLOW = 3;
+	static final int LANE_ASSOC = 4;
+	private static final String[] LANE_NAMES = {"ping", "probe", "publish", "flow", "assoc"};
+	private static final int[] LANE_WORKERS = {1, 2, 4, 1, 1};
+	private static final int DEFAULT_LANE_CAPACITY = 1024;
+
+	// The assoc lane has this many times the capacity of the others,
+	// and is waited for this long when full
+	private static final int ASSOC_CAPACITY_FACTOR = 8;
+	private static final long ASSOC_OFFER_TIMEOUT = 5; // ms
 
 	private final int ODIN_SERVER_PORT;
 
-	private DatagramSocket controllerSocket;
-	private final ExecutorService executor;
-	private final OdinMaster odinMaster;
+	private DatagramChannel controllerChannel;
+	private Selector selector;
+	private final OdinAgentMessageParser.Listener listener;
+	private final Lane[] lanes;
+	private final AtomicLong unknownMessages = new AtomicLong();
 
-	public OdinAgentProtocolServer (OdinMaster om, int port, ExecutorService executor) {
-		this.odinMaster = om;
+	private final ConcurrentLinkedQueue<AgentDatagram> datagramPool = new ConcurrentLinkedQueue<AgentDatagram>();
+	private final AtomicInteger pooledDatagrams = new AtomicInteger();
+
+	public OdinAgentProtocolServer (OdinMaster om, int port) {
+		this(new MasterListener(om), port, DEFAULT_LANE_CAPACITY);
+	}
+
+	OdinAgentProtocolServer (OdinAgentMessageParser.Listener listener, int port, int laneCapacity) {
+		this.listener = listener;
 		this.ODIN_SERVER_PORT = port;
-		this.executor = executor;
+
+		lanes = new Lane[LANE_NAMES.length];
+		for (int i = 0; i < lanes.length; i++) {
+			if (i == LANE_ASSOC)
+				lanes[i] = new Lane(LANE_NAMES[i], LANE_WORKERS[i], laneCapacity * ASSOC_CAPACITY_FACTOR, ASSOC_OFFER_TIMEOUT);
+			else
+				lanes[i] = new Lane(LANE_NAMES[i], LANE_WORKERS[i], laneCapacity, 0);
+		}
+	}
+
+	/**
+	 * Bind the socket. Called by run() if it hasn't been done yet.
+	 */
+	synchronized void open () throws IOException {
+		if (controllerChannel != null)
+			return;
+
+		controllerChannel = DatagramChannel.open();
+		controllerChannel.socket().bind(new InetSocketAddress(ODIN_SERVER_PORT));
+		controllerChannel.configureBlocking(false);
+		selector = Selector.open();
+		controllerChannel.register(selector, SelectionKey.OP_READ);
+	}
+
+	int getLocalPort () {
+		return controllerChannel.socket().getLocalPort();
 	}
 
 	@Override
 	public void run() {
 
 		try {
-			controllerSocket = new DatagramSocket(ODIN_SERVER_PORT);
+			open();
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
 
+		for (Lane lane: lanes) {
+			lane.start();
+		}
+
 		while(true)	{
 
 			try {
-				final byte[] receiveData = new byte[1024]; // We can probably live with less
-				final DatagramPacket receivedPacket = new DatagramPacket(receiveData, receiveData.length);
-				controllerSocket.receive(receivedPacket);
-
-				executor.execute(new OdinAgentConnectionHandler(receivedPacket));
+				selector.select();
+				selector.selectedKeys().clear();
+				drain();
 			}
 			catch (IOException e) {
-				log.error("controllerSocket.accept() failed: " + ODIN_SERVER_PORT);
+				log.error("controllerChannel.receive() failed: " + ODIN_SERVER_PORT);
 				e.printStackTrace();
 				System.exit(-1);
 			}
 		}
 	}
 
-	/** Protocol handlers **/
+	/**
+	 * Read up to a batch of datagrams and dispatch them to their lanes
+	 */
+	private void drain () throws IOException {
+		for (int i = 0; i < RECEIVE_BATCH; i++) {
+			final AgentDatagram d = takeDatagram();
+			final InetSocketAddress sender = (InetSocketAddress) controllerChannel.receive(d.buf);
+
+			if (sender == null) {
+				releaseDatagram(d);
+				return;
+			}
 
-	private void receivePing (final InetAddress odinAgentAddr) {
-		odinMaster.receivePing(odinAgentAddr);
+			d.buf.flip();
+			d.odinAgentAddr = sender.getAddress();
+			dispatch(d);
+		}
+	}
+
+	private void dispatch (AgentDatagram d) {
+		switch (OdinAgentMessageParser.getType(d.buf)) {
+		case OdinAgentMessageParser.TYPE_PING:
+			lanes[LANE_PING].offer(d, d.odinAgentAddr.hashCode());
+			break;
+		case OdinAgentMessageParser.TYPE_PROBE:
+			lanes[LANE_PROBE].offer(d, OdinAgentMessageParser.getClientMac(d.buf));
+			break;
+		case OdinAgentMessageParser.TYPE_ASSOC:
+		case OdinAgentMessageParser.TYPE_DEAUTH:
+			lanes[LANE_ASSOC].offer(d, OdinAgentMessageParser.getClientMac(d.buf));
+			break;
+		case OdinAgentMessageParser.TYPE_PUBLISH:
+			lanes[LANE_PUBLISH].offer(d, OdinAgentMessageParser.getClientMac(d.buf));
+			break;
+		case OdinAgentMessageParser.TYPE_DETECTED_FLOW:
+			lanes[LANE_FLOW].offer(d, d.odinAgentAddr.hashCode());
+			break;
+		default:
+			unknownMessages.incrementAndGet();
+			log.debug("Ignoring unknown message from agent " + d.odinAgentAddr);
+			releaseDatagram(d);
+		}
+	}
+
+	private AgentDatagram takeDatagram () {
+		final AgentDatagram d = datagramPool.poll();
+
+		if (d == null)
+			return new AgentDatagram();
+
+		pooledDatagrams.decrementAndGet();
+		return d;
 	}
 
-	private void receiveProbe (final InetAddress odinAgentAddr, final MACAddress clientHwAddress, final String ssid) {
-		odinMaster.receiveProbe(odinAgentAddr, clientHwAddress, ssid);
+	private void releaseDatagram (AgentDatagram d) {
+		if (pooledDatagrams.incrementAndGet() > MAX_POOLED_BUFFERS) {
+			pooledDatagrams.decrementAndGet();
+			return;
+		}
+
+		d.buf.clear();
+		d.odinAgentAddr = null;
+		datagramPool.add(d);
 	}
 
-	private void receivePublish (final MACAddress clientHwAddress, final InetAddress odinAgentAddr, final Map<Long, Long> subscriptionIds) {
-		odinMaster.receivePublish(clientHwAddress, odinAgentAddr, subscriptionIds);
+	/**
+	 * Messages accepted and dropped by every lane, plus messages
+	 * of unknown type, e.g. "ping.dropped"
+	 */
+	Map<String, Long> getCounters () {
+		Map<String, Long> counters = new LinkedHashMap<String, Long>();
+		for (Lane lane: lanes) {
+			counters.put(lane.name + ".received", lane.received.get());
+			counters.put(lane.name + ".dropped", lane.dropped.get());
+		}
+		counters.put("unknown", unknownMessages.get());
+		return counters;
 	}
 
-	private void receiveDetectedFlow (final InetAddress odinAgentAddr, final Map<Long, String> detectedFlowIds) {
-		odinMaster.receiveDetectedFlow(odinAgentAddr, detectedFlowIds);
+	long getDropped (int lane) {
+		return lanes[lane].dropped.get();
 	}
-	
-    private void receiveDeauth (final InetAddress odinAgentAddr, final MACAddress clientHwAddress) {
-        odinMaster.receiveDeauth(odinAgentAddr, clientHwAddress);
-    }
 
-    private void receiveAssoc (final InetAddress odinAgentAddr, final MACAddress clientHwAddress) {
-        odinMaster.receiveAssoc(odinAgentAddr, clientHwAddress);
-    }
+	long getReceived (int lane) {
+		return lanes[lane].received.get();
+	}
 
-	private class OdinAgentConnectionHandler implements Runnable {
-		final DatagramPacket receivedPacket;
+	/**
+	 * A received message and the agent that sent it
+	 */
+	private static class AgentDatagram {
+		final ByteBuffer buf = ByteBuffer.allocateDirect(MAX_MESSAGE_SIZE);
+		InetAddress odinAgentAddr;
+	}
 
-		public OdinAgentConnectionHandler(final DatagramPacket dp) {
-			receivedPacket = dp;
+	/**
+	 * Queues and worker threads for one kind of traffic
+	 */
+	private class Lane {
+		final String name;
+		final List<BlockingQueue<AgentDatagram>> queues;
+		final long offerTimeoutMs;
+		final AtomicLong received = new AtomicLong();
+		final AtomicLong dropped = new AtomicLong();
+
+		/**
+		 * @param capacity queue capacity per worker
+		 * @param offerTimeoutMs how long to wait for a full queue
+		 *   before dropping, 0 to drop right away
+		 */
+		Lane (String name, int workers, int capacity, long offerTimeoutMs) {
+			this.name = name;
+			this.offerTimeoutMs = offerTimeoutMs;
+			queues = new ArrayList<BlockingQueue<AgentDatagram>>(workers);
+			for (int i = 0; i < workers; i++) {
+				queues.add(new ArrayBlockingQueue<AgentDatagram>(capacity));
+			}
+		}
+
+		void start () {
+			for (int i = 0; i < queues.size(); i++) {
+				Thread t = new Thread(new LaneWorker(queues.get(i)), "OdinAgentProtocol-" + name + "-" + i);
+				t.setDaemon(true);
+				t.start();
+			}
+		}
+
+		/**
+		 * Queue a datagram on the worker picked by key, or drop it
+		 * if that worker is too far behind. Blocks for up to
+		 * offerTimeoutMs.
+		 */
+		void offer (AgentDatagram d, long key) {
+			key ^= (key >>> 32);
+			key ^= (key >>> 16);
+			final BlockingQueue<AgentDatagram> queue = queues.get((int) ((key & 0x7fffffff) % queues.size()));
+
+			boolean queued = queue.offer(d);
+			if (!queued && offerTimeoutMs > 0) {
+				try {
+					queued = queue.offer(d, offerTimeoutMs, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if (queued) {
+				received.incrementAndGet();
+				return;
+			}
+
+			releaseDatagram(d);
+			final long n = dropped.incrementAndGet();
+			if (n == 1 || n % 1000 == 0) {
+				log.warn("Agent protocol lane " + name + " is full, " + n + " messages dropped so far");
+			}
+		}
+	}
+
+	private class LaneWorker implements Runnable {
+		private final BlockingQueue<AgentDatagram> queue;
+
+		LaneWorker (BlockingQueue<AgentDatagram> queue) {
+			this.queue = queue;
 		}
 
 		// Agent message handler
+		@Override
 		public void run() {
-			final String msg = new String(receivedPacket.getData()).trim().toLowerCase();
-			final String[] fields = msg.split(" ");
-			final String msg_type = fields[0];
-			final InetAddress odinAgentAddr = receivedPacket.getAddress();
-			
-                if (msg_type.equals(ODIN_MSG_PING)) {	
-				       	receivePing(odinAgentAddr);
-                }
-                else if (msg_type.equals(ODIN_MSG_PROBE)) {
-            	       // 2nd part of message should contain
-            	       // the STA's MAC address
-					   final String staAddress = fields[1];
-            	       String ssid = "";
-
-            	       if (fields.length > 2) {
-            		             //SSID is specified in the scan
-            		             ssid = msg.substring(ODIN_MSG_PROBE.length() + staAddress.length() + 2);
-            	       }
-
-            	       receiveProbe(odinAgentAddr, MACAddress.valueOf(staAddress), ssid);
-                }
-                else if (msg_type.equals(ODIN_MSG_PUBLISH)) {
-				       final String staAddress = fields[1];
-            	       final int count = Integer.parseInt(fields[2]);
-            	       final Map<Long, Long> matchingIds = new HashMap<Long,Long> ();
-
-                       for (int i = 0; i < count; i++) {
-            		             matchingIds.put(Long.parseLong(fields[3 + i].split(":")[0]),
-            				     Long.parseLong(fields[3 + i].split(":")[1]));
-            	       }
-
-            	       receivePublish(MACAddress.valueOf(staAddress), odinAgentAddr, matchingIds);
-
-                }
-                else if (msg_type.equals(ODIN_MSG_DETECTED_FLOW)) {
-            	       
-					   // FIXME: Always detect all flows --> flows2detect is equal to (IP source address  = *, IP destination address = *, Protocol = 0, Source Port = 0 and Destination Port = 0)
-					   // 1st part of message is not sent. There is a only Id. It is always 1
-					   // 2nd part of message is sent. It should contain detected flow (IP source address, IP destination address, Protocol, Source Port and Destination Port
-            	       
-					   //final String IPSrcAddress = fields[1];
-					   //final String IPDstAddress = fields[2];
-					   //final int protocol = Integer.parseInt(fields[3]);
-					   //final int SrcPort = Integer.parseInt(fields[4]);
-					   //final int DstPort = Integer.parseInt(fields[5]);
-
-					   final String detectedFlow = fields[1] + " " + fields[2] + " " + fields[3] + " " + fields[4] + " " + fields[5];
-					   //log.info("We receive a detected flow "+ detectedFlow +  "from: " + odinAgentAddr.getHostAddress());
-					   final Map<Long, String> matchingId = new HashMap<Long,String> ();
-					   // There is a only Id. It is always 1
-					   final long detectedId = 1;
-					   matchingId.put(detectedId,detectedFlow);
-          	       
-            	       receiveDetectedFlow(odinAgentAddr, matchingId);
-                }
-				
-				else if(msg_type.equals(ODIN_MSG_DEAUTH)){
-
-                       final String staAddress = fields[1];
-                       receiveDeauth(odinAgentAddr, MACAddress.valueOf(staAddress));
-
-                }
-				else if(msg_type.equals(ODIN_MSG_ASSOC)){
-
-                       final String staAddress = fields[1];
-                       receiveAssoc(odinAgentAddr, MACAddress.valueOf(staAddress));
-
-                }
-	     }
-	}
-}
\ No newline at end of file
+			while (true) {
+				AgentDatagram d;
+				try {
+					d = queue.take();
+				} catch (InterruptedException e) {
+					return;
+				}
+
+				try {
+					if (!OdinAgentMessageParser.parse(d.buf, d.odinAgentAddr, listener))
+						log.debug("Ignoring malformed message from agent " + d.odinAgentAddr);
+				} catch (Exception e) {
+					log.error("Failed to handle message from agent " + d.odinAgentAddr, e);
+				} finally {
+					releaseDatagram(d);
+				}
+			}
+		}
+	}
+
+	/** Protocol handlers **/
+
+	private static class MasterListener implements OdinAgentMessageParser.Listener {
+		private final OdinMaster odinMaster;
+
+		MasterListener (OdinMaster om) {
+			odinMaster = om;
+		}
+
+		@Override
+		public void receivePing (final InetAddress odinAgentAddr) {
+			odinMaster.receivePing(odinAgentAddr);
+		}
+
+		@Override
+		public void receiveProbe (final InetAddress odinAgentAddr, final MACAddress clientHwAddress, final String ssid) {
+			odinMaster.receiveProbe(odinAgentAddr, clientHwAddress, ssid);
+		}
+
+		@Override
+		public void receivePublish (final MACAddress clientHwAddress, final InetAddress odinAgentAddr, final Map<Long, Long> subscriptionIds) {
+			odinMaster.receivePublish(clientHwAddress, odinAgentAddr, subscriptionIds);
+		}
+
+		@Override
+		public void receiveDetectedFlow (final InetAddress odinAgentAddr, final FlowTuple flow) {
+			odinMaster.receiveDetectedFlow(odinAgentAddr, flow);
+		}
+
+		@Override
+		public void receiveDeauth (final InetAddress odinAgentAddr, final MACAddress clientHwAddress) {
+			odinMaster.receiveDeauth(odinAgentAddr, clientHwAddress);
+		}
+
+		@Override
+		public void receiveAssoc (final InetAddress odinAgentAddr, final MACAddress clientHwAddress) {
+			odinMaster.receiveAssoc(odinAgentAddr, clientHwAddress);
+		}
+	}
+}
@@ -3,6 +3,7 @@ package net.floodlightcontroller.odin.master;
 import java.net.InetAddress;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import net.floodlightcontroller.odin.master.IOdinMasterToApplicationInterface;
 import net.floodlightcontroller.odin.master.NotificationCallback;
@@ -18,8 +19,17 @@ import net.floodlightcontroller.util.MACAddress;
 
 
 /**
- * Base class for all Odin applications. They are
- * expected to run as a thread provided by the master. * 
+ * Base class for all Odin applications.
+ *
+ * Applications are event driven: start() schedules the work of
+ * the application with scheduleTimer() and schedulePeriodic(), and
+ * the on...() hooks are called as things happen in the network.
+ * All of it runs on a small pool shared by every application, one
+ * task of an application at a time.
+ *
+ * Applications that really have to block, e.g. waiting for input
+ * on the console, call runDedicated() to get run() called on a
+ * thread of their own.
  * 
  * @author Lalith Suresh <suresh.lalith@gmail.com>
  *
@@ -28,6 +38,8 @@ public abstract class OdinApplication implements Runnable {
 
 	private IOdinMasterToApplicationInterface odinApplicationInterfaceToMaster;
 	private String pool;
+	private OdinApplicationRuntime runtime;
+	private OdinApplicationRuntime.Context context;
 	
 	
 	/**
@@ -47,11 +59,124 @@ public abstract class OdinApplication implements Runnable {
 	}
 	
 	
+	final String getPool () {
+		return pool;
+	}
+
+
+	/**
+	 * Set the runtime the application is started on
+	 */
+	final void setRuntime (OdinApplicationRuntime runtime, OdinApplicationRuntime.Context context) {
+		this.runtime = runtime;
+		this.context = context;
+	}
+
+
+	final OdinApplicationRuntime.Context getContext () {
+		return context;
+	}
+
+
+	/**
+	 * Called once, when the master starts the application.
+	 * Applications schedule their tasks here and return.
+	 */
+	protected void start () {
+	}
+
+
+	/**
+	 * Run by the thread runDedicated() starts. Does nothing
+	 * by default.
+	 */
+	public void run () {
+	}
+
+
+	/**
+	 * Call run() on a thread of its own, outside of the shared
+	 * pool. Only for applications that block, everything else
+	 * should use scheduleTimer() and schedulePeriodic().
+	 */
+	protected final void runDedicated () {
+		runtime.runDedicated(this);
+	}
+
+
+	/**
+	 * Pool for CPU-bound work, shared with the other applications.
+	 * Tasks handed to it must not block.
+	 */
+	protected final ExecutorService getComputeExecutor () {
+		return runtime.getComputeExecutor();
+	}
+
+
+	/**
+	 * @return threads of the compute pool, to split work in
+	 */
+	protected final int getComputeThreads () {
+		return runtime.getComputeThreads();
+	}
+
+
+	/**
+	 * A client has completed its association
+	 *
+	 * @param clientHwAddress MAC address of the client
+	 * @param agentAddr agent the client associated through
+	 */
+	protected void onClientAssociated (MACAddress clientHwAddress, InetAddress agentAddr) {
+	}
+
+
+	/**
+	 * The master got fresh statistics from an agent, whichever
+	 * application asked for them
+	 *
+	 * @param agentAddr InetAddress of the agent
+	 * @param txStats the new TxStats, or null if only RxStats were read
+	 * @param rxStats the new RxStats, or null if only TxStats were read
+	 */
+	protected void onStatsUpdated (InetAddress agentAddr, StationStats txStats, StationStats rxStats) {
+	}
+
+
+	/**
+	 * An agent has timed out
+	 *
+	 * @param agentAddr InetAddress of the agent
+	 */
+	protected void onAgentLost (InetAddress agentAddr) {
+	}
+
+
+	/**
+	 * Run a task once, after a delay
+	 *
+	 * @param task
+	 * @param delayMs in milliseconds
+	 * @return the task, to cancel it
+	 */
+	protected final OdinApplicationTask scheduleTimer (Runnable task, long delayMs) {
+		return runtime.schedule(this, task, delayMs, 0);
+	}
+
+
 	/**
-	 * Needed to wrap OdinApplications into a thread, and is
-	 * implemented by the specific application
+	 * Run a task over and over. Every run starts periodMs after
+	 * the previous one ended.
+	 *
+	 * @param task
+	 * @param initialDelayMs before the first run, in milliseconds
+	 * @param periodMs between runs, in milliseconds
+	 * @return the task, to cancel it
 	 */
-	public abstract void run();
+	protected final OdinApplicationTask schedulePeriodic (Runnable task, long initialDelayMs, long periodMs) {
+		assert (periodMs > 0);
+		return runtime.schedule(this, task, initialDelayMs, periodMs);
+	}
 
 	
 	/**
@@ -116,6 +241,28 @@ public abstract class OdinApplication implements Runnable {
 		return odinApplicationInterfaceToMaster.getRxStatsFromAgent(pool, agentAddr);
 	}
 
+	/**
+	 * Retreive TxStats from the agent, without going through strings
+	 * 
+	 * @param agentAddr InetAddress of the agent
+	 * 
+	 * @return one row of statistics per client
+	 */
+	protected final StationStats getTxStationStatsFromAgent (InetAddress agentAddr) {
+		return odinApplicationInterfaceToMaster.getTxStationStatsFromAgent(pool, agentAddr);
+	}
+
+	/**
+	 * Retreive RxStats from the agent, without going through strings
+	 * 
+	 * @param agentAddr InetAddress of the agent
+	 * 
+	 * @return one row of statistics per client
+	 */
+	protected final StationStats getRxStationStatsFromAgent (InetAddress agentAddr) {
+		return odinApplicationInterfaceToMaster.getRxStationStatsFromAgent(pool, agentAddr);
+	}
+
 
 	/**
 	 * Request scanned stations statistics from the agent
@@ -363,4 +510,67 @@ public abstract class OdinApplication implements Runnable {
 	protected final String getVipAPIpAddress (){
 	  return odinApplicationInterfaceToMaster.getVipAPIpAddress();
 	}
+	
+	/**
+	 * Retreive TxStats from all the agents of the pool in parallel
+	 * 
+	 * @param timeoutMs deadline for the whole round, in milliseconds
+	 * @return per-agent results, plus the agents that timed out
+	 */
+	protected final AgentQueryResult<Map<MACAddress, Map<String, String>>> getTxStatsFromAgents (long timeoutMs) {
+		return odinApplicationInterfaceToMaster.getTxStatsFromAgents(pool, timeoutMs);
+	}
+	
+	/**
+	 * Retreive RxStats from all the agents of the pool in parallel
+	 * 
+	 * @param timeoutMs deadline for the whole round, in milliseconds
+	 * @return per-agent results, plus the agents that timed out
+	 */
+	protected final AgentQueryResult<Map<MACAddress, Map<String, String>>> getRxStatsFromAgents (long timeoutMs) {
+		return odinApplicationInterfaceToMaster.getRxStatsFromAgents(pool, timeoutMs);
+	}
+	
+	/**
+	 * Retreive scanned wi5 stations rssi from all the agents of the pool in parallel
+	 * 
+	 * @param timeoutMs deadline for the whole round, in milliseconds
+	 * @return per-agent results, plus the agents that timed out
+	 */
+	protected final AgentQueryResult<String> getScannedStaRssiFromAgents (long timeoutMs) {
+		return odinApplicationInterfaceToMaster.getScannedStaRssiFromAgents(pool, timeoutMs);
+	}
+	
+	/**
+	 * Get TxPower from all the agents of the pool in parallel
+	 * 
+	 * @param timeoutMs deadline for the whole round, in milliseconds
+	 * @return per-agent results, plus the agents that timed out
+	 */
+	protected final AgentQueryResult<Integer> getTxPowerFromAgents (long timeoutMs) {
+		return odinApplicationInterfaceToMaster.getTxPowerFromAgents(pool, timeoutMs);
+	}
+	
+	/**
+	 * Get channel from all the agents of the pool in parallel
+	 * 
+	 * @param timeoutMs deadline for the whole round, in milliseconds
+	 * @return per-agent results, plus the agents that timed out
+	 */
+	protected final AgentQueryResult<Integer> getChannelFromAgents (long timeoutMs) {
+		return odinApplicationInterfaceToMaster.getChannelFromAgents(pool, timeoutMs);
+	}
+	
+	/**
+	 * Get the radio measurements of an agent, shared with the
+	 * other applications. The agent is only read if the last
+	 * measurements are older than maxAgeMs.
+	 * 
+	 * @param agentAddr InetAddress of the agent
+	 * @param maxAgeMs how old the measurements may be, in milliseconds
+	 * @return the measurements, or null if the agent is unknown
+	 */
+	protected final RadioMeasurements getRadioMeasurements (InetAddress agentAddr, long maxAgeMs) {
+		return odinApplicationInterfaceToMaster.getRadioMeasurements(pool, agentAddr, maxAgeMs);
+	}
 }
@@ -0,0 +1,268 @@
+package net.floodlightcontroller.odin.master;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * Runs the OdinApplications on a small shared pool of threads.
+ *
+ * Applications schedule timers and periodic tasks, and receive
+ * events from the master, instead of sleeping in a loop on a
+ * thread of their own. Everything an application is handed runs
+ * in order, one thing at a time, so the application doesn't need
+ * to be thread-safe, while different applications run in parallel.
+ *
+ * Periodic tasks are scheduled again once they finish, so a slow
+ * round delays the next one rather than piling up.
+ *
+ * Applications that have to block can ask for a thread of their
+ * own, outside of the master's shared executor. CPU-bound work, such
+ * as planning handoffs, goes to a compute pool shared by all of them.
+ */
+class OdinApplicationRuntime {
+    protected static Logger log = LoggerFactory.getLogger(OdinApplicationRuntime.class);
+
+	// Tasks an application runs before giving its thread to another one
+	private static final int TASK_BATCH = 16;
+
+	// Half the cores, the other half is left to the I/O threads
+	private static final int COMPUTE_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+	private final ScheduledExecutorService scheduler;
+	private final PoolManager poolManager;
+	private final List<OdinApplication> applications = new CopyOnWriteArrayList<OdinApplication>();
+
+	// Created the first time an application needs it
+	private ExecutorService computeExecutor;
+	private boolean shutdown = false;
+
+	OdinApplicationRuntime (ScheduledExecutorService scheduler, PoolManager poolManager) {
+		this.scheduler = scheduler;
+		this.poolManager = poolManager;
+	}
+
+
+	/**
+	 * Start an application and deliver events to it from now on
+	 */
+	void startApplication (final OdinApplication app) {
+		app.setRuntime(this, new Context(app));
+		applications.add(app);
+
+		app.getContext().execute(new Runnable() {
+			@Override
+			public void run() {
+				app.start();
+			}
+		});
+	}
+
+
+	/**
+	 * @return the pool for the CPU-bound work of the applications,
+	 *   shared by all of them
+	 */
+	synchronized ExecutorService getComputeExecutor () {
+		if (computeExecutor == null) {
+			computeExecutor = Executors.newFixedThreadPool(COMPUTE_THREADS, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "OdinApplicationCompute");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			if (shutdown)
+				computeExecutor.shutdown();
+		}
+		return computeExecutor;
+	}
+
+
+	int getComputeThreads () {
+		return COMPUTE_THREADS;
+	}
+
+
+	/**
+	 * Stop running the applications
+	 */
+	synchronized void shutdown () {
+		shutdown = true;
+		scheduler.shutdownNow();
+		if (computeExecutor != null)
+			computeExecutor.shutdownNow();
+	}
+
+
+	/**
+	 * Run an application that blocks on a thread of its own
+	 */
+	void runDedicated (OdinApplication app) {
+		Thread t = new Thread(app, "OdinApplication-" + app.getClass().getSimpleName());
+		t.setDaemon(true);
+		t.start();
+	}
+
+
+	/**
+	 * Schedule a task of an application
+	 *
+	 * @param delayMs before the first run
+	 * @param periodMs between the end of a run and the start of
+	 *   the next one, or 0 to run only once
+	 */
+	OdinApplicationTask schedule (OdinApplication app, Runnable task, long delayMs, long periodMs) {
+		final OdinApplicationTask handle = new OdinApplicationTask();
+		handle.setNext(scheduler.schedule(new Timer(app.getContext(), task, handle, periodMs), delayMs, TimeUnit.MILLISECONDS));
+		return handle;
+	}
+
+
+	/** Events **/
+
+	void clientAssociated (final MACAddress clientHwAddress, final InetAddress agentAddr) {
+		for (final OdinApplication app: applicationsOf(agentAddr)) {
+			app.getContext().execute(new Runnable() {
+				@Override
+				public void run() {
+					app.onClientAssociated(clientHwAddress, agentAddr);
+				}
+			});
+		}
+	}
+
+
+	void statsUpdated (final InetAddress agentAddr, final StationStats txStats, final StationStats rxStats) {
+		for (final OdinApplication app: applicationsOf(agentAddr)) {
+			app.getContext().execute(new Runnable() {
+				@Override
+				public void run() {
+					app.onStatsUpdated(agentAddr, txStats, rxStats);
+				}
+			});
+		}
+	}
+
+
+	void agentLost (final InetAddress agentAddr) {
+		for (final OdinApplication app: applicationsOf(agentAddr)) {
+			app.getContext().execute(new Runnable() {
+				@Override
+				public void run() {
+					app.onAgentLost(agentAddr);
+				}
+			});
+		}
+	}
+
+
+	/**
+	 * @return the applications whose pool the agent belongs to
+	 */
+	private List<OdinApplication> applicationsOf (InetAddress agentAddr) {
+		if (applications.isEmpty())
+			return applications;
+
+		final List<String> pools = poolManager.getPoolsForAgent(agentAddr);
+		final List<OdinApplication> apps = new ArrayList<OdinApplication>();
+		for (OdinApplication app: applications) {
+			if (PoolManager.GLOBAL_POOL.equals(app.getPool()) || pools.contains(app.getPool()))
+				apps.add(app);
+		}
+		return apps;
+	}
+
+
+	/**
+	 * Runs the tasks of one application, in order, on the shared pool
+	 */
+	class Context implements Runnable {
+		private final OdinApplication app;
+		private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+		private final AtomicInteger pending = new AtomicInteger();
+
+		Context (OdinApplication app) {
+			this.app = app;
+		}
+
+		void execute (Runnable task) {
+			tasks.add(task);
+			if (pending.getAndIncrement() == 0)
+				scheduler.execute(this);
+		}
+
+		@Override
+		public void run() {
+			for (int i = 1; ; i++) {
+				try {
+					tasks.poll().run();
+				} catch (Throwable e) {
+					log.error("Application " + app.getClass().getSimpleName() + " failed", e);
+				}
+
+				if (pending.decrementAndGet() == 0)
+					return;
+
+				// Give other applications a chance
+				if (i == TASK_BATCH) {
+					scheduler.execute(this);
+					return;
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * Hands a due task over to its application
+	 */
+	private class Timer implements Runnable {
+		private final Context context;
+		private final Runnable task;
+		private final OdinApplicationTask handle;
+		private final long periodMs;
+
+		Timer (Context context, Runnable task, OdinApplicationTask handle, long periodMs) {
+			this.context = context;
+			this.task = task;
+			this.handle = handle;
+			this.periodMs = periodMs;
+		}
+
+		@Override
+		public void run() {
+			if (handle.isCancelled())
+				return;
+
+			context.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (handle.isCancelled())
+						return;
+
+					try {
+						task.run();
+					} finally {
+						if (periodMs > 0 && !handle.isCancelled())
+							handle.setNext(scheduler.schedule(Timer.this, periodMs, TimeUnit.MILLISECONDS));
+					}
+				}
+			});
+		}
+	}
+}
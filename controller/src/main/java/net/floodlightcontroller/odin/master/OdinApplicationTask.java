@@ -0,0 +1,39 @@
+package net.floodlightcontroller.odin.master;
+
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * A timer or periodic task scheduled by an OdinApplication.
+ * Keep it around to cancel the task later.
+ */
+public final class OdinApplicationTask {
+	private volatile boolean cancelled = false;
+	private volatile ScheduledFuture<?> next;
+
+	OdinApplicationTask () {
+	}
+
+	/**
+	 * Stop the task. If it is running right now it
+	 * finishes, but it won't run again.
+	 */
+	public void cancel () {
+		cancelled = true;
+
+		final ScheduledFuture<?> f = next;
+		if (f != null)
+			f.cancel(false);
+	}
+
+	public boolean isCancelled () {
+		return cancelled;
+	}
+
+	void setNext (ScheduledFuture<?> f) {
+		next = f;
+
+		// Lost a race with cancel()
+		if (cancelled)
+			f.cancel(false);
+	}
+}
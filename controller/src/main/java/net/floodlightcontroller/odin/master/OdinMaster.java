@@ -1,11 +1,11 @@
 package net.floodlightcontroller.odin.master;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
@@ -19,8 +19,14 @@ import java.util.Map.Entry;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.sound.midi.MidiDevice.Info;
 
@@ -34,6 +40,7 @@ import net.floodlightcontroller.core.IFloodlightProviderService;
 import net.floodlightcontroller.core.IOFMessageListener;
 import net.floodlightcontroller.core.IOFSwitch;
 import net.floodlightcontroller.core.IOFSwitchListener;
+import net.floodlightcontroller.core.PacketInView;
 import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
@@ -59,21 +66,51 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 
 	private IFloodlightProviderService floodlightProvider;
 	private ScheduledExecutorService executor;
+	private OdinAgentProtocolServer protocolServer;
 
 	private final AgentManager agentManager;
 	private final ClientManager clientManager;
 	private final LvapManager lvapManager;
 	private final PoolManager poolManager;
 
-	private long subscriptionId = 0;
-	private String subscriptionList = "";
-	private long flowdetectionId = 0;
-	private String flowdetectionList = "";
+	// Background measurement reads, one task per agent. They wait on
+	// the control sockets, so they get threads of their own instead
+	// of the shared pool.
+	private final ExecutorService measurementExecutor = Executors.newCachedThreadPool(daemonThreadFactory("OdinMeasurement"));
+
+	// Agent liveness and idle LVAP timeouts. Expired timeouts run on
+	// their own pool, so a slow failover doesn't hold up the others.
+	private final HashedWheelTimer timer = new HashedWheelTimer("OdinTimer", TIMER_TICK, TIMER_BUCKETS,
+			Executors.newCachedThreadPool(daemonThreadFactory("OdinTimeout")));
+	private final ConcurrentHashMap<MACAddress, HashedWheelTimer.Timeout> idleLvapTimeouts = new ConcurrentHashMap<MACAddress, HashedWheelTimer.Timeout>();
+
+	// Keeps agents' subscription lists up to date, in the background
+	private final SubscriptionManager subscriptionManager;
+
+	// Runs the applications and delivers events to them
+	private final OdinApplicationRuntime applicationRuntime;
+
+	// Radio measurements of the agents, shared by the applications
+	private final MeasurementCache measurementCache;
+	private long measurementPeriod = DEFAULT_MEASUREMENT_PERIOD; // ms, 0 to only read on demand
+
 	private int idleLvapTimeout = 60; // Seconds
 
 	private final ConcurrentMap<Long, SubscriptionCallbackTuple> subscriptions = new ConcurrentHashMap<Long, SubscriptionCallbackTuple>();
 
-	private final ConcurrentMap<Long, FlowDetectionCallbackTuple> flowsdetection = new ConcurrentHashMap<Long, FlowDetectionCallbackTuple>();
+	// Agents report every flow, the registered detections are matched here
+	private final FlowDetectionRules flowDetectionRules = new FlowDetectionRules();
+
+	// Protocol handlers only serialize on the client they act on,
+	// so events for unrelated clients are processed in parallel
+	private final ClientLockStripes clientLocks = new ClientLockStripes(CLIENT_LOCK_STRIPES);
+
+	// Makes the LVAPs of the handoffs on the new agents before breaking them on the old ones
+	private HandoffPipeline handoffPipeline;
+	private FailoverEngine failoverEngine;
+
+	// Serializes agent (re)registration
+	private final Object agentLock = new Object();
 
 	private static String detector_ip_address = "0.0.0.0"; // Detector Ip Address not assigned
 	
@@ -93,12 +130,29 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 	static private final String DEFAULT_POOL_FILE = "poolfile";
 	static private final String DEFAULT_CLIENT_LIST_FILE = "odin_client_list";
 	static private final int DEFAULT_PORT = 2819;
+	static private final int CLIENT_LOCK_STRIPES = 256;
+	static private final long HANDOFF_ACK_TIMEOUT = 1000; // ms
+	static private final int HANDOFF_BATCH = 256;
+	static private final long FAILOVER_MEASUREMENT_AGE = 10000; // ms
+	static private final long FAILOVER_HOME_TTL = 600000; // ms
+	static private final long TIMER_TICK = 100; // ms
+	static private final int TIMER_BUCKETS = 512;
+	static private final int APPLICATION_THREADS = 4;
+	static private final long DEFAULT_MEASUREMENT_PERIOD = 0; // ms, only read the agents the applications ask for
+	static private final long DEFAULT_SNAPSHOT_PERIOD = 60000; // ms
 
 	public OdinMaster(){
 		clientManager = new ClientManager();
 		lvapManager = new LvapManager();
 		poolManager = new PoolManager();
 		agentManager = new AgentManager(clientManager, poolManager);
+		subscriptionManager = new SubscriptionManager(agentManager, poolManager,
+				Executors.newSingleThreadExecutor(daemonThreadFactory("OdinSubscriptionPublisher")));
+		applicationRuntime = new OdinApplicationRuntime(
+				Executors.newScheduledThreadPool(APPLICATION_THREADS, daemonThreadFactory("OdinApplication")), poolManager);
+		agentManager.setApplicationRuntime(applicationRuntime);
+		agentManager.setTimer(timer);
+		measurementCache = new MeasurementCache(agentManager, measurementExecutor, applicationRuntime);
 	}
 
 	public OdinMaster(AgentManager agentManager, ClientManager clientManager, LvapManager lvapManager, PoolManager poolManager){
@@ -106,6 +160,24 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 		this.clientManager = clientManager;
 		this.lvapManager = lvapManager;
 		this.poolManager = poolManager;
+		this.subscriptionManager = new SubscriptionManager(agentManager, poolManager,
+				Executors.newSingleThreadExecutor(daemonThreadFactory("OdinSubscriptionPublisher")));
+		this.applicationRuntime = new OdinApplicationRuntime(
+				Executors.newScheduledThreadPool(APPLICATION_THREADS, daemonThreadFactory("OdinApplication")), poolManager);
+		agentManager.setApplicationRuntime(applicationRuntime);
+		agentManager.setTimer(timer);
+		this.measurementCache = new MeasurementCache(agentManager, measurementExecutor, applicationRuntime);
+	}
+
+	private static ThreadFactory daemonThreadFactory (final String name) {
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, name);
+				t.setDaemon(true);
+				return t;
+			}
+		};
 	}
 
 
@@ -116,23 +188,51 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 	 *
 	 * @param InetAddress of the agent
 	 */
-	synchronized void receivePing (final InetAddress odinAgentAddr) {
+	void receivePing (final InetAddress odinAgentAddr) {
 		
-		if (agentManager.receivePing(odinAgentAddr)&&(!odinAgentAddr.getHostAddress().equals(OdinMaster.detector_ip_address))) { // Detector does not need to be checked
-			log.info(odinAgentAddr.getHostAddress() + " is a new agent");
-			// if the above leads to a new agent being
-			// tracked, push the current subscription list
-			// to it.
-			IOdinAgent agent = agentManager.getAgent(odinAgentAddr);
-			pushSubscriptionListToAgent(agent);
-			
-			// Reclaim idle lvaps and also attach flows to lvaps
-			for (OdinClient client: agent.getLvapsLocal()) {
-				executor.schedule(new IdleLvapReclaimTask(client), idleLvapTimeout, TimeUnit.SECONDS);
+		// Pings from known agents only refresh their last-heard
+		// time and don't need to wait for a registration
+		if (agentManager.isTracked(odinAgentAddr)) {
+			if (!odinAgentAddr.getHostAddress().equals(OdinMaster.detector_ip_address)) {
+				updateAgentLastHeard (odinAgentAddr);
+			}
+			return;
+		}
 
-				// Assign flow tables
-				if (!client.getIpAddress().getHostAddress().equals("0.0.0.0")) {
+		synchronized (agentLock) {
+			if (agentManager.receivePing(odinAgentAddr)&&(!odinAgentAddr.getHostAddress().equals(OdinMaster.detector_ip_address))) { // Detector does not need to be checked
+				agentJoined(odinAgentAddr);
+			}
+			else {
+	            if(!odinAgentAddr.getHostAddress().equals(OdinMaster.detector_ip_address)){
+	                updateAgentLastHeard (odinAgentAddr);
+	            }
+			}
+		}
+	}
 
+	/**
+	 * Set up an agent that has just been registered. Called
+	 * with agentLock held.
+	 *
+	 * @param odinAgentAddr
+	 */
+	private void agentJoined (final InetAddress odinAgentAddr) {
+		log.info(odinAgentAddr.getHostAddress() + " is a new agent");
+		// if the above leads to a new agent being
+		// tracked, push the current subscription list
+		// to it.
+		IOdinAgent agent = agentManager.getAgent(odinAgentAddr);
+		subscriptionManager.agentJoined(odinAgentAddr);
+		
+		// Reclaim idle lvaps and also attach flows to lvaps
+		for (OdinClient client: agent.getLvapsLocal()) {
+			scheduleIdleLvapReclaim(client);
+
+			// Assign flow tables
+			if (!client.getIpAddress().getHostAddress().equals("0.0.0.0")) {
+				clientLocks.lock(client.getMacAddress());
+				try {
 					// Obtain reference to client entity from clientManager, because agent.getLvapsLocal()
 					// returns a separate copy of the client objects.
 					OdinClient trackedClient = clientManager.getClients().get(client.getMacAddress());
@@ -141,42 +241,48 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 					lvap.setOFMessageList(lvapManager.getDefaultOFModList(client.getIpAddress()));
 
 					// Push flow messages associated with the client
-        			try {
-        				lvap.getAgent().getSwitch().write(lvap.getOFMessageList(), null);
-        			} catch (IOException e) {
-        				log.error("Failed to update switch's flow tables " + lvap.getAgent().getSwitch());
-        			}
+		        			try {
+		        				lvap.getAgent().getSwitch().write(lvap.getOFMessageList(), null);
+		        			} catch (IOException e) {
+		        				log.error("Failed to update switch's flow tables " + lvap.getAgent().getSwitch());
+		        			}
+				} finally {
+					clientLocks.unlock(client.getMacAddress());
 				}
 			}
 		}
-		else {
-            if(!odinAgentAddr.getHostAddress().equals(OdinMaster.detector_ip_address)){
-                updateAgentLastHeard (odinAgentAddr);
-            }
-		}
 	}
 
-	synchronized void receiveDeauth (final InetAddress odinAgentAddr, final MACAddress clientHwAddress) {
+	void receiveDeauth (final InetAddress odinAgentAddr, final MACAddress clientHwAddress) {
 
 		if (clientHwAddress == null || odinAgentAddr == null)
 			return;
 
 		IOdinAgent agent = agentManager.getAgent(odinAgentAddr);
-		OdinClient oc = clientManager.getClient(clientHwAddress);
 
 		if(agent == null)
 			return;
 
-		log.info("Clearing Lvap " + clientHwAddress +
-		" from agent:" + agent.getIpAddress() + " due to deauthentication/inactivity");
-		poolManager.removeClientPoolMapping(oc);
-		agent.removeClientLvap(oc);
-		clientManager.removeClient(clientHwAddress);
+		clientLocks.lock(clientHwAddress);
+		try {
+			OdinClient oc = clientManager.getClient(clientHwAddress);
+
+			if (oc == null)
+				return;
 
+			log.info("Clearing Lvap " + clientHwAddress +
+			" from agent:" + agent.getIpAddress() + " due to deauthentication/inactivity");
+			cancelIdleLvapReclaim(clientHwAddress);
+			poolManager.removeClientPoolMapping(oc);
+			agent.removeClientLvap(oc);
+			clientManager.removeClient(clientHwAddress);
+		} finally {
+			clientLocks.unlock(clientHwAddress);
+		}
 	}
 
 	/* This method stops the timer that clears the lvap if an IP is not received for the client */
-	synchronized void receiveAssoc (final InetAddress odinAgentAddr, final MACAddress clientHwAddress) {
+	void receiveAssoc (final InetAddress odinAgentAddr, final MACAddress clientHwAddress) {
 
 		if (clientHwAddress == null || odinAgentAddr == null)
 			return;
@@ -188,8 +294,19 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 
 		log.info("Client " + clientHwAddress + " completed the association");
 
-		OdinClient oc = clientManager.getClient(clientHwAddress);
-		oc.getLvap().setAssocState(true); //associated;
+		clientLocks.lock(clientHwAddress);
+		try {
+			OdinClient oc = clientManager.getClient(clientHwAddress);
+			if (oc == null)
+				return;
+
+			oc.getLvap().setAssocState(true); //associated;
+			cancelIdleLvapReclaim(clientHwAddress);
+		} finally {
+			clientLocks.unlock(clientHwAddress);
+		}
+
+		applicationRuntime.clientAssociated(clientHwAddress, odinAgentAddr);
 
 		//poolManager.removeClientPoolMapping(oc);
 		//agent.removeClientLvap(oc);
@@ -204,7 +321,7 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 	 * @param odinAgentAddr InetAddress of agent
 	 * @param clientHwAddress MAC address of client that performed probe scan
 	 */
-	synchronized void receiveProbe (final InetAddress odinAgentAddr, final MACAddress clientHwAddress, String ssid) {
+	void receiveProbe (final InetAddress odinAgentAddr, final MACAddress clientHwAddress, String ssid) {
 
 		if (odinAgentAddr == null
 	    	|| clientHwAddress == null
@@ -246,42 +363,47 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 		 * which pool is hosting the SSID, and assign
 		 * an LVAP into that pool
 		 */
-		for (String pool: poolManager.getPoolsForAgent(odinAgentAddr)) {
-			if (poolManager.getSsidListForPool(pool).contains(ssid)) {
-				OdinClient oc = clientManager.getClient(clientHwAddress);
+		clientLocks.lock(clientHwAddress);
+		try {
+			for (String pool: poolManager.getPoolsForAgent(odinAgentAddr)) {
+				if (poolManager.getSsidListForPool(pool).contains(ssid)) {
+					OdinClient oc = clientManager.getClient(clientHwAddress);
 
-		    	// Hearing from this client for the first time
-		    	if (oc == null) {
-					List<String> ssidList = new ArrayList<String> ();
-					ssidList.addAll(poolManager.getSsidListForPool(pool));
+			    	// Hearing from this client for the first time
+			    	if (oc == null) {
+						List<String> ssidList = new ArrayList<String> ();
+						ssidList.addAll(poolManager.getSsidListForPool(pool));
 
-					Lvap lvap = new Lvap (poolManager.generateBssidForClient(clientHwAddress), ssidList); 
-					//FIXME: WHy not before also? -- because only when you connect to the network u store it.
+						Lvap lvap = new Lvap (poolManager.generateBssidForClient(clientHwAddress), ssidList); 
+						//FIXME: WHy not before also? -- because only when you connect to the network u store it.
 
-					try {
-						oc = new OdinClient(clientHwAddress, InetAddress.getByName("0.0.0.0"), lvap);
-					} catch (UnknownHostException e) {
-						e.printStackTrace();
+						try {
+							oc = new OdinClient(clientHwAddress, InetAddress.getByName("0.0.0.0"), lvap);
+						} catch (UnknownHostException e) {
+							e.printStackTrace();
+						}
+			    		clientManager.addClient(oc);
+			    	}
+
+			    	Lvap lvap = oc.getLvap();
+			    	assert (lvap != null);
+
+					if (lvap.getAgent() == null) {
+						// client is connecting for the
+						// first time, had explicitly
+						// disconnected, or knocked
+						// out at as a result of an agent
+						// failure.pr first time connections
+						handoffClientToApInternal(PoolManager.GLOBAL_POOL, clientHwAddress, odinAgentAddr);
 					}
-		    		clientManager.addClient(oc);
-		    	}
-
-		    	Lvap lvap = oc.getLvap();
-		    	assert (lvap != null);
-
-				if (lvap.getAgent() == null) {
-					// client is connecting for the
-					// first time, had explicitly
-					// disconnected, or knocked
-					// out at as a result of an agent
-					// failure.pr first time connections
-					handoffClientToApInternal(PoolManager.GLOBAL_POOL, clientHwAddress, odinAgentAddr);
-				}
 
-				poolManager.mapClientToPool(oc, pool);
+					poolManager.mapClientToPool(oc, pool);
 
-				return;
+					return;
+				}
 			}
+		} finally {
+			clientLocks.unlock(clientHwAddress);
 		}
 	}
 
@@ -292,7 +414,7 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 	 * @param odinAgentAddr agent at which the event was triggered
 	 * @param subscriptionIds list of subscription Ids that the event matches
 	 */
-	synchronized void receivePublish (final MACAddress clientHwAddress, final InetAddress odinAgentAddr, final Map<Long, Long> subscriptionIds) {
+	void receivePublish (final MACAddress clientHwAddress, final InetAddress odinAgentAddr, final Map<Long, Long> subscriptionIds) {
 
 		// The check for null clientHwAddress might go away
 		// in the future if we end up having events
@@ -307,22 +429,29 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 			return;
 
 		// Update last-heard for failure detection
-		oa.setLastHeard(System.currentTimeMillis());
-
-		for (Entry<Long, Long> entry: subscriptionIds.entrySet()) {
-			SubscriptionCallbackTuple tup = subscriptions.get(entry.getKey());
-
-			/* This might occur as a race condition when the master
-			 * has cleared all subscriptions, but hasn't notified
-			 * the agent about it yet.
-			 */
-			if (tup == null)
-				continue;
+		agentManager.agentHeard(odinAgentAddr);
+
+		// Events of a client are delivered in order, events
+		// of different clients may be delivered concurrently
+		clientLocks.lock(clientHwAddress);
+		try {
+			for (Entry<Long, Long> entry: subscriptionIds.entrySet()) {
+				SubscriptionCallbackTuple tup = subscriptions.get(entry.getKey());
+
+				/* This might occur as a race condition when the master
+				 * has cleared all subscriptions, but hasn't notified
+				 * the agent about it yet.
+				 */
+				if (tup == null)
+					continue;
 
 
-			NotificationCallbackContext cntx = new NotificationCallbackContext(clientHwAddress, oa, entry.getValue(),0,0);
+				NotificationCallbackContext cntx = new NotificationCallbackContext(clientHwAddress, oa, entry.getValue(),0,0);
 
-			tup.cb.exec(tup.oes, cntx);
+				tup.cb.exec(tup.oes, cntx);
+			}
+		} finally {
+			clientLocks.unlock(clientHwAddress);
 		}
 	}
 	
@@ -331,41 +460,23 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 	 * Handle an event flow detection from an agent
 	 *
      * @param odinAgentAddr InetAddress of the agent at which the event was triggered
-	 * @param detectedFlowIds  list of detected flow Ids that the event matches. String contains the detected flow: "IPSrcAddress IPDstAddress Protocol SrcPort DstPort"
+	 * @param flow the detected flow
 	 */
-	synchronized void receiveDetectedFlow (final InetAddress odinAgentAddr, final Map<Long, String> detectedFlowIds) {
-	
-		if (odinAgentAddr == null || detectedFlowIds == null)
-			return;
-	
-		//IOdinAgent oa = agentManager.getAgent(odinAgentAddr);
-		// This should never happen!
-		//if (oa == null)
-			//return;
-		// Update last-heard for failure detection
-		//oa.setLastHeard(System.currentTimeMillis());
-
-		//FIXME: Always detect all flows --> flowsdetection is equal to (IP source address  = *, IP destination address = *, Protocol = 0, Source Port = 0 and Destination Port = 0)
-		// list of detected flow Ids have a only ID (always is 1)
-		for (Entry<Long, String> entry: detectedFlowIds.entrySet()) {
-			FlowDetectionCallbackTuple tup = flowsdetection.get(entry.getKey());
+	void receiveDetectedFlow (final InetAddress odinAgentAddr, final FlowTuple flow) {
 
-			if (tup == null)
-				continue;
+		if (odinAgentAddr == null || flow == null)
+			return;
 
-			final String[] fields = entry.getValue().split(" ");
-      	    final String IPSrcAddress = fields[0];
-			final String IPDstAddress = fields[1];
-			final int protocol = Integer.parseInt(fields[2]);
-			final int SrcPort = Integer.parseInt(fields[3]);
-			final int DstPort = Integer.parseInt(fields[4]);
+		final List<FlowDetectionRules.Rule> matching = flowDetectionRules.match(flow);
+		if (matching.isEmpty())
+			return;
 
-			//log.info("We receive a detected flow "+ IPSrcAddress + " " + IPDstAddress + " " + protocol + " " + SrcPort + " " + DstPort + " " + "registered as Id: " + entry.getKey() + "  from: " + odinAgentAddr.getHostAddress());
-			
-			FlowDetectionCallbackContext cntx = new FlowDetectionCallbackContext(odinAgentAddr, IPSrcAddress, IPDstAddress, protocol, SrcPort, DstPort );
-			//FlowDetectionCallbackContext cntx = new FlowDetectionCallbackContext(oa, IPSrcAddress, IPDstAddress, protocol, SrcPort, DstPort );
+		final String IPSrcAddress = FlowTuple.ipToString(flow.srcIp);
+		final String IPDstAddress = FlowTuple.ipToString(flow.dstIp);
 
-			tup.cb.exec(tup.oefd, cntx);
+		for (FlowDetectionRules.Rule rule: matching) {
+			FlowDetectionCallbackContext cntx = new FlowDetectionCallbackContext(odinAgentAddr, IPSrcAddress, IPDstAddress, flow.protocol, flow.srcPort, flow.dstPort);
+			rule.cb.exec(rule.oefd, cntx);
 		}
 	}
 
@@ -386,7 +497,22 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 			return;
 		}
 
-		synchronized (this) {
+		/* The caller may be an application callback that already holds
+		 * the lock of another client. Rather than risk a deadlock, the
+		 * handoff is then finished on a pool thread.
+		 */
+		if (!clientLocks.tryLock(clientHwAddr)) {
+			final String handoffPool = pool;
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					handoffClientToApInternal(handoffPool, clientHwAddr, newApIpAddr);
+				}
+			});
+			return;
+		}
+
+		try {
 
 			IOdinAgent newAgent = agentManager.getAgent(newApIpAddr);
 
@@ -423,7 +549,7 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 
 				newAgent.addClientLvap(client);
 				lvap.setAgent(newAgent);
-				executor.schedule(new IdleLvapReclaimTask (client), idleLvapTimeout, TimeUnit.SECONDS);
+				scheduleIdleLvapReclaim(client);
 				return;
 			}
 
@@ -459,34 +585,41 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 				return;
 			}
 
-			// Wi5 Add: Are the APs in the same channel? If not, start CSA procedure.
-			if ((agentManager.getAgent(currentApIpAddress)).getChannel() != (agentManager.getAgent(newApIpAddr)).getChannel()) {
-				//Send CSA messages and wait.
-				sendChannelSwitchToClient(clientPool,currentApIpAddress, clientHwAddr, client.getLvap().getSsids(),(agentManager.getAgent(newApIpAddr)).getChannel());
-				//void sendChannelSwitchToClient (String pool, InetAddress agentAddr, MACAddress clientHwAddr, List<String> lvapSsids, int channel);
-				
-			}
-			
-			// Push flow messages associated with the client
-			try {
-				newAgent.getSwitch().write(lvap.getOFMessageList(), null);
-			} catch (IOException e) {
-				log.error("Failed to update switch's flow tables " + newAgent.getSwitch());
-			}
-
-			/* Client is with another AP. We remove the VAP from
-			 * the current AP of the client, and spawn it on the new one.
-			 * We split the add and remove VAP operations across two threads
-			 * to make it faster. Note that there is a temporary inconsistent
-			 * state between setting the agent for the client and it actually
-			 * being reflected in the network
+			/* Client is with another AP. The LVAP is spawned on the new AP
+			 * before it is removed from the current one, and the client gets
+			 * a Channel Switch Announcement if the APs are on different
+			 * channels. That is done by the handoff pipeline, away from the
+			 * client lock and batched with the other handoffs in flight.
+			 * Note that there is a temporary inconsistent state between
+			 * setting the agent for the client and it actually being
+			 * reflected in the network.
 			 */
+			IOdinAgent currentAgent = lvap.getAgent();
 			lvap.setAgent(newAgent);
-			executor.execute(new OdinAgentLvapAddRunnable(newAgent, client));
-			executor.execute(new OdinAgentLvapRemoveRunnable(agentManager.getAgent(currentApIpAddress), client));
+			handoffPipeline.submit(client, currentAgent, newAgent);
+		} finally {
+			clientLocks.unlock(clientHwAddr);
 		}
 	}
 	
+	/**
+	 * Counters and per-phase latencies of the handoffs
+	 *
+	 * @return statistics of the handoff pipeline
+	 */
+	Map<String, Object> getHandoffStatistics (){
+		return handoffPipeline.getStatistics();
+	}
+	
+	/**
+	 * Counters and time-to-recover of the agent failovers
+	 *
+	 * @return statistics of the failover engine
+	 */
+	Map<String, Object> getFailoverStatistics (){
+		return failoverEngine.getStatistics();
+	}
+	
 	/**
 	 * Return Detector Ip Address
 	 *
@@ -570,7 +703,24 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 	 */
 	@Override
 	public Map<MACAddress, Map<String, String>> getTxStatsFromAgent (String pool, InetAddress agentAddr) {
-		return agentManager.getAgent(agentAddr).getTxStats();
+		return toMap(getTxStationStatsFromAgent(pool, agentAddr));
+	}
+
+
+	/**
+	 * Retreive TxStats from the agent, without going through strings
+	 *
+	 * @param pool that the invoking application corresponds to
+	 * @param agentAddr InetAddress of the agent
+	 *
+	 * @return one row of statistics per client
+	 */
+	@Override
+	public StationStats getTxStationStatsFromAgent (String pool, InetAddress agentAddr) {
+		StationStats txStats = agentManager.getAgent(agentAddr).getTxStationStats();
+		if (txStats != null)
+			applicationRuntime.statsUpdated(agentAddr, txStats, null);
+		return txStats;
 	}
 
 	
@@ -583,7 +733,29 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 	 * @return Key-Value entries of each recorded statistic for each client
 	 */
 	public Map<MACAddress, Map<String, String>> getRxStatsFromAgent (String pool, InetAddress agentAddr) {
-		return agentManager.getAgent(agentAddr).getRxStats();
+		return toMap(getRxStationStatsFromAgent(pool, agentAddr));
+	}
+
+
+	/**
+	 * Retreive RxStats from the agent, without going through strings
+	 *
+	 * @param pool that the invoking application corresponds to
+	 * @param agentAddr InetAddress of the agent
+	 *
+	 * @return one row of statistics per client
+	 */
+	@Override
+	public StationStats getRxStationStatsFromAgent (String pool, InetAddress agentAddr) {
+		StationStats rxStats = agentManager.getAgent(agentAddr).getRxStationStats();
+		if (rxStats != null)
+			applicationRuntime.statsUpdated(agentAddr, null, rxStats);
+		return rxStats;
+	}
+
+
+	private static Map<MACAddress, Map<String, String>> toMap (StationStats stats) {
+		return stats == null ? null : stats.toMap();
 	}
 
 
@@ -673,45 +845,23 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 	 * @param cb the callback
 	 */
 	@Override
-	public synchronized long registerSubscription (String pool, final OdinEventSubscription oes, final NotificationCallback cb) {
-		// FIXME: Need to calculate subscriptions per pool
+	public long registerSubscription (String pool, final OdinEventSubscription oes, final NotificationCallback cb) {
 		assert (oes != null);
 		assert (cb != null);
 		SubscriptionCallbackTuple tup = new SubscriptionCallbackTuple();
 		tup.oes = oes;
 		tup.cb = cb;
-		subscriptionId++;
-		subscriptions.put(subscriptionId, tup);
 
 		/**
-		 * Update the subscription list, and push to all agents
-		 * TODO: This is a common subsription string being
-		 * sent to all agents. Replace this with per-agent
-		 * subscriptions.
+		 * Register the callback before the agents learn about the
+		 * subscription, so that no matching event goes unhandled.
+		 * The agents of the pool are updated in the background.
 		 */
-		subscriptionList = "";
-		int count = 0;
-		for (Entry<Long, SubscriptionCallbackTuple> entry: subscriptions.entrySet()) {
-			count++;
-			final String addr = entry.getValue().oes.getClient();
-			subscriptionList = subscriptionList +
-								entry.getKey() + " " +
-								(addr.equals("*") ? MACAddress.valueOf("00:00:00:00:00:00") : addr)  + " " +
-								entry.getValue().oes.getStatistic() + " " +
-								entry.getValue().oes.getRelation().ordinal() + " " +
-								entry.getValue().oes.getValue() + " ";
-		}
-
-		subscriptionList = String.valueOf(count) + " " + subscriptionList;
+		long id = subscriptionManager.newSubscriptionId();
+		subscriptions.put(id, tup);
+		subscriptionManager.addSubscription(id, pool, oes);
 
-		/**
-		 * Should probably have threads to do this
-		 */
-		for (InetAddress agentAddr : poolManager.getAgentAddrsForPool(pool)) {
-			pushSubscriptionListToAgent(agentManager.getAgent(agentAddr));
-		}
-
-		return subscriptionId;
+		return id;
 	}
 
 
@@ -722,31 +872,9 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 	 * @return
 	 */
 	@Override
-	public synchronized void unregisterSubscription (String pool, final long id) {
-		// FIXME: Need to calculate subscriptions per pool
+	public void unregisterSubscription (String pool, final long id) {
+		subscriptionManager.removeSubscription(id);
 		subscriptions.remove(id);
-
-		subscriptionList = "";
-		int count = 0;
-		for (Entry<Long, SubscriptionCallbackTuple> entry: subscriptions.entrySet()) {
-			count++;
-			final String addr = entry.getValue().oes.getClient();
-			subscriptionList = subscriptionList +
-								entry.getKey() + " " +
-								(addr.equals("*") ? MACAddress.valueOf("00:00:00:00:00:00") : addr)  + " " +
-								entry.getValue().oes.getStatistic() + " " +
-								entry.getValue().oes.getRelation().ordinal() + " " +
-								entry.getValue().oes.getValue() + " ";
-		}
-
-		subscriptionList = String.valueOf(count) + " " + subscriptionList;
-
-		/**
-		 * Should probably have threads to do this
-		 */
-		for (InetAddress agentAddr : poolManager.getAgentAddrsForPool(pool)) {
-			pushSubscriptionListToAgent(agentManager.getAgent(agentAddr));
-		}
 	}
 
 
@@ -761,51 +889,13 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 	 * @param cb the callback
 	 */
 	@Override
-	public synchronized long registerFlowDetection (String pool, final OdinEventFlowDetection oefd, final FlowDetectionCallback cb) {
-		// FIXME: Need to calculate subscriptions per pool
-		
+	public long registerFlowDetection (String pool, final OdinEventFlowDetection oefd, final FlowDetectionCallback cb) {
+		// FIXME: Need to calculate flow detections per pool
+
 		assert (oefd != null);
 		assert (cb != null);
-		
-		FlowDetectionCallbackTuple tup = new FlowDetectionCallbackTuple();
-		tup.oefd = oefd;
-		tup.cb = cb;
-		flowdetectionId++;
-		flowsdetection.put(flowdetectionId, tup);
-
-		/**
-		 * Update the flowsdetection list, and push to all agents
-		 * TODO: This is a common flow2detect string being
-		 * sent to all agents. Replace this with per-agent
-		 * flow2detect.
-		 */
-		flowdetectionList = "";
-		int count = 0;
-		for (Entry<Long, FlowDetectionCallbackTuple> entry: flowsdetection.entrySet()) {
-			count++;
-			flowdetectionList = flowdetectionList +
-								entry.getKey() + " " +
-								entry.getValue().oefd.getIPSrcAddress() + " " +
-								entry.getValue().oefd.getIPDstAddress() + " " +
-								entry.getValue().oefd.getProtocol() + " " +
-								entry.getValue().oefd.getSrcPort() + " " +
-								entry.getValue().oefd.getDstPort() + " ";
-		}
 
-		flowdetectionList = String.valueOf(count) + " " + flowdetectionList;
-
-		/**
-		 * FIXME:  Only one registered request: detect all flows. And it is not sent to agents 
-		 *
-		 * Only in case of sending to the agents the registered flows to detect
-		 * Should probably have threads to do this
-		 *
-		 *  for (InetAddress agentAddr : poolManager.getAgentAddrsForPool(pool)) {
-		 *	    pushSubscriptionListToAgent(agentManager.getAgent(agentAddr));
-			
-		}*/
-
-		return flowdetectionId;
+		return flowDetectionRules.add(oefd, cb);
 	}
 
 
@@ -816,36 +906,9 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 	 * @return
 	 */
 	@Override
-	public synchronized void unregisterFlowDetection (String pool, final long id) {
-		// FIXME: Need to calculate subscriptions per pool
-		flowsdetection.remove(id);
-
-		flowdetectionList = "";
-		int count = 0;
-		for (Entry<Long, FlowDetectionCallbackTuple> entry: flowsdetection.entrySet()) {
-			count++;
-			flowdetectionList = flowdetectionList +
-								entry.getKey() + " " +
-								entry.getValue().oefd.getIPSrcAddress() + " " +
-								entry.getValue().oefd.getIPDstAddress() + " " +
-								entry.getValue().oefd.getProtocol() + " " +
-								entry.getValue().oefd.getSrcPort() + " " +
-								entry.getValue().oefd.getDstPort() + " ";		
-		}
-
-		flowdetectionList = String.valueOf(count) + " " + flowdetectionList;
-
-		/**
-		 * FIXME:  Only one registered request: detect all flows. And it is not sent to agents 
-		 *
-		 * Only in case of sending to the agents the registered flows to detect
-		 * Should probably have threads to do this
-		 *
-		 *  for (InetAddress agentAddr : poolManager.getAgentAddrsForPool(pool)) {
-		 *	    pushSubscriptionListToAgent(agentManager.getAgent(agentAddr));
-			
-		}*/
-		
+	public void unregisterFlowDetection (String pool, final long id) {
+		// FIXME: Need to calculate flow detections per pool
+		flowDetectionRules.remove(id);
 	}
 
 	
@@ -935,21 +998,6 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 		return agentManager.getAgent(agentAddr).getChannel();
 	}
 	
-	/**
-	 * Channel Switch Announcement, to the clients of an specific agent (AP) -> Must it be private? 
-	 * 
-	 * @param Pool
-	 * @param Agent InetAddress
-	 * @param Client MAC
-	 * @param SSID
-	 * @param Channel 
-	 */
-	//@Override
-	private void sendChannelSwitchToClient (String pool, InetAddress agentAddr, MACAddress clientHwAddr, List<String> lvapSsids, int channel) {		
-		MACAddress bssid = poolManager.generateBssidForClient(clientHwAddr);
-		agentManager.getAgent(agentAddr).sendChannelSwitch(clientHwAddr, bssid, lvapSsids, channel);
-	}
-	
 	/**
 	 * Scanning for a client in a specific agent (AP)
 	 * 
@@ -1050,6 +1098,220 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 	public Set<OdinClient> getClientsFromAgent (String pool, InetAddress agentAddr) {
 		return agentManager.getAgent(agentAddr).getLvapsLocal();
 	}
+	
+	
+	//********* Bulk agent queries **********//
+	
+	/**
+	 * Retreive TxStats from all the agents of the pool at once
+	 * 
+	 * @param pool that the invoking application corresponds to
+	 * @param timeoutMs deadline for the whole round, in milliseconds
+	 * @return per-agent TxStats, plus the agents that didn't answer in time
+	 */
+	@Override
+	public AgentQueryResult<Map<MACAddress, Map<String, String>>> getTxStatsFromAgents (String pool, long timeoutMs) {
+		return queryAgents(pool, timeoutMs, new AgentQuery<StationStats, Map<MACAddress, Map<String, String>>>() {
+			@Override
+			public Future<StationStats> issue(IOdinAgent agent) {
+				return agent.getTxStationStatsAsync();
+			}
+			
+			@Override
+			public Map<MACAddress, Map<String, String>> answer(IOdinAgent agent, StationStats txStats) {
+				applicationRuntime.statsUpdated(agent.getIpAddress(), txStats, null);
+				return toMap(txStats);
+			}
+		});
+	}
+	
+	
+	/**
+	 * Retreive RxStats from all the agents of the pool at once
+	 * 
+	 * @param pool that the invoking application corresponds to
+	 * @param timeoutMs deadline for the whole round, in milliseconds
+	 * @return per-agent RxStats, plus the agents that didn't answer in time
+	 */
+	@Override
+	public AgentQueryResult<Map<MACAddress, Map<String, String>>> getRxStatsFromAgents (String pool, long timeoutMs) {
+		return queryAgents(pool, timeoutMs, new AgentQuery<StationStats, Map<MACAddress, Map<String, String>>>() {
+			@Override
+			public Future<StationStats> issue(IOdinAgent agent) {
+				return agent.getRxStationStatsAsync();
+			}
+			
+			@Override
+			public Map<MACAddress, Map<String, String>> answer(IOdinAgent agent, StationStats rxStats) {
+				applicationRuntime.statsUpdated(agent.getIpAddress(), null, rxStats);
+				return toMap(rxStats);
+			}
+		});
+	}
+	
+	
+	/**
+	 * Retreive scanned wi5 stations rssi from all the agents of the pool at once
+	 * 
+	 * @param pool that the invoking application corresponds to
+	 * @param timeoutMs deadline for the whole round, in milliseconds
+	 * @return per-agent rssi strings, plus the agents that didn't answer in time
+	 */
+	@Override
+	public AgentQueryResult<String> getScannedStaRssiFromAgents (String pool, long timeoutMs) {
+		return queryAgents(pool, timeoutMs, new SimpleAgentQuery<String>() {
+			@Override
+			public Future<String> issue(IOdinAgent agent) {
+				return agent.getScannedStaRssiAsync();
+			}
+		});
+	}
+	
+	
+	/**
+	 * Get TxPower from all the agents of the pool at once
+	 * 
+	 * @param pool that the invoking application corresponds to
+	 * @param timeoutMs deadline for the whole round, in milliseconds
+	 * @return per-agent TxPower in dBm, plus the agents that didn't answer in time
+	 */
+	@Override
+	public AgentQueryResult<Integer> getTxPowerFromAgents (String pool, long timeoutMs) {
+		return queryAgents(pool, timeoutMs, new SimpleAgentQuery<Integer>() {
+			@Override
+			public Future<Integer> issue(IOdinAgent agent) {
+				return agent.getTxPowerAsync();
+			}
+		});
+	}
+	
+	
+	/**
+	 * Get channel from all the agents of the pool at once
+	 * 
+	 * @param pool that the invoking application corresponds to
+	 * @param timeoutMs deadline for the whole round, in milliseconds
+	 * @return per-agent channel, plus the agents that didn't answer in time
+	 */
+	@Override
+	public AgentQueryResult<Integer> getChannelFromAgents (String pool, long timeoutMs) {
+		return queryAgents(pool, timeoutMs, new SimpleAgentQuery<Integer>() {
+			@Override
+			public Future<Integer> issue(IOdinAgent agent) {
+				return agent.getChannelAsync();
+			}
+		});
+	}
+	
+	
+	/**
+	 * Get the radio measurements of an agent from the cache,
+	 * reading the agent only if they are too old
+	 * 
+	 * @param pool that the invoking application corresponds to
+	 * @param agentAddr InetAddress of the agent
+	 * @param maxAgeMs how old the measurements may be, in milliseconds
+	 * @return the measurements, or null if the agent is unknown
+	 */
+	@Override
+	public RadioMeasurements getRadioMeasurements (String pool, InetAddress agentAddr, long maxAgeMs) {
+		return measurementCache.get(agentAddr, maxAgeMs);
+	}
+	
+	
+	/**
+	 * Send a read to every agent of the pool at once, and wait for the
+	 * replies until the deadline. The reads are pipelined on the control
+	 * channels of the agents, so the round needs no thread per agent,
+	 * and a slow agent only costs the round its own answer.
+	 * 
+	 * @param pool
+	 * @param timeoutMs deadline for the whole round, in milliseconds
+	 * @param q the read to issue to each agent
+	 * @return the collected answers. Agents whose reply didn't come
+	 * before the deadline are timed out; those whose read failed, or
+	 * whose reply couldn't be parsed, are failed.
+	 */
+	private <R, V> AgentQueryResult<V> queryAgents (String pool, long timeoutMs, AgentQuery<R, V> q) {
+		AgentQueryResult<V> result = new AgentQueryResult<V>();
+		long start = System.currentTimeMillis();
+		long deadline = start + timeoutMs;
+		
+		Map<IOdinAgent, Future<R>> futures = new HashMap<IOdinAgent, Future<R>>();
+		
+		for (InetAddress agentAddr: poolManager.getAgentAddrsForPool(pool)) {
+			IOdinAgent agent = agentManager.getAgent(agentAddr);
+			
+			if (agent == null) {
+				result.addFailed(agentAddr);
+				continue;
+			}
+			
+			try {
+				futures.put(agent, q.issue(agent));
+			} catch (RuntimeException e) {
+				log.error("Query to agent " + agentAddr + " failed: " + e);
+				result.addFailed(agentAddr);
+			}
+		}
+		
+		for (Entry<IOdinAgent, Future<R>> entry: futures.entrySet()) {
+			IOdinAgent agent = entry.getKey();
+			InetAddress agentAddr = agent.getIpAddress();
+			Future<R> future = entry.getValue();
+			
+			try {
+				long remaining = Math.max(0, deadline - System.currentTimeMillis());
+				result.addResult(agentAddr, q.answer(agent, future.get(remaining, TimeUnit.MILLISECONDS)));
+			} catch (TimeoutException e) {
+				future.cancel(false);
+				result.addTimedOut(agentAddr);
+			} catch (ExecutionException e) {
+				log.error("Query to agent " + agentAddr + " failed: " + e.getCause());
+				result.addFailed(agentAddr);
+			} catch (InterruptedException e) {
+				result.addTimedOut(agentAddr);
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		result.setElapsed(System.currentTimeMillis() - start);
+		return result;
+	}
+	
+	
+	/**
+	 * Messages accepted and dropped by each lane of the agent protocol server
+	 */
+	Map<String, Long> getAgentProtocolCounters () {
+		if (protocolServer == null)
+			return new HashMap<String, Long>();
+		return protocolServer.getCounters();
+	}
+	
+	
+	/**
+	 * A read issued to a single agent during a bulk query
+	 * 
+	 * @param <R> type of the reply
+	 * @param <V> type of the answer made of it
+	 */
+	private interface AgentQuery<R, V> {
+		Future<R> issue (IOdinAgent agent);
+		
+		V answer (IOdinAgent agent, R reply);
+	}
+	
+	
+	/**
+	 * A bulk query answered with the replies as they are
+	 */
+	private static abstract class SimpleAgentQuery<V> implements AgentQuery<V, V> {
+		@Override
+		public V answer (IOdinAgent agent, V reply) {
+			return reply;
+		}
+	}
 
 	//********* from IFloodlightModule **********//
 
@@ -1084,6 +1346,13 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 		restApi = context.getServiceImpl(IRestApiService.class);
 		IThreadPoolService tp = context.getServiceImpl(IThreadPoolService.class);
 		executor = tp.getScheduledExecutor();
+		// The batches block on the agents' acknowledgements, so they
+		// run on a thread of their own instead of the shared pool
+		handoffPipeline = new HandoffPipeline(Executors.newSingleThreadExecutor(daemonThreadFactory("OdinHandoffPipeline")),
+				clientLocks, clientManager, HANDOFF_ACK_TIMEOUT, HANDOFF_BATCH);
+		failoverEngine = new FailoverEngine(clientLocks, clientManager, poolManager, measurementCache, handoffPipeline,
+				HANDOFF_ACK_TIMEOUT, FAILOVER_MEASUREMENT_AGE, FAILOVER_HOME_TTL);
+		agentManager.setFailoverEngine(failoverEngine);
 	}
 
 	@Override
@@ -1392,6 +1661,15 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
         	}
         }
 
+        String periodStr = configOptions.get("measurementPeriod");
+        if (periodStr != null) {
+        	long period = Long.parseLong(periodStr);
+
+        	if (period >= 0) {
+        		measurementPeriod = period;
+        	}
+        }
+
         int port = DEFAULT_PORT;
         String portNum = configOptions.get("masterPort");
         if (portNum != null) {
@@ -1400,20 +1678,88 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 
         IThreadPoolService tp = context.getServiceImpl(IThreadPoolService.class);
         executor = tp.getScheduledExecutor();
-        // Spawn threads for different services
-        executor.execute(new OdinAgentProtocolServer(this, port, executor));
 
-        // Spawn applications
+        // Saved state, resumed before the agents connect
+        String stateDir = configOptions.get("stateDir");
+        if (stateDir != null) {
+        	long snapshotPeriod = DEFAULT_SNAPSHOT_PERIOD;
+        	String snapshotPeriodStr = configOptions.get("stateSnapshotPeriod");
+        	if (snapshotPeriodStr != null) {
+        		snapshotPeriod = Long.parseLong(snapshotPeriodStr);
+        	}
+        	startStateJournal(new File(stateDir), snapshotPeriod);
+        }
+
+        // Spawn threads for different services. The protocol server
+        // runs its own lanes, off the shared pool
+        protocolServer = new OdinAgentProtocolServer(this, port);
+        Thread protocolServerThread = new Thread(protocolServer, "OdinAgentProtocolServer");
+        protocolServerThread.setDaemon(true);
+        protocolServerThread.start();
+
+        if (measurementPeriod > 0)
+        	measurementCache.start(executor, measurementPeriod);
+
+        // Start applications, on their own pool
         for (OdinApplication app: applicationList) {
-        	executor.execute(app);
+        	applicationRuntime.startApplication(app);
         }
+
+        // Floodlight only stops through System.exit()
+        Runtime.getRuntime().addShutdownHook(new Thread("OdinMasterShutdown") {
+        	@Override
+        	public void run() {
+        		shutdown();
+        	}
+        });
+	}
+
+	/**
+	 * Stop the applications and the threads they share
+	 */
+	void shutdown () {
+		applicationRuntime.shutdown();
+		timer.stop();
+	}
+
+	/**
+	 * Restore the clients and pools saved in a directory, and keep
+	 * saving them there
+	 *
+	 * @param snapshotPeriod ms between two snapshots of the state
+	 */
+	private void startStateJournal(File dir, long snapshotPeriod) {
+		try {
+			final StateJournal journal = new StateJournal(dir);
+			agentManager.setRestoredLvaps(journal.restore(clientManager, poolManager, lvapManager));
+
+			executor.scheduleAtFixedRate(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						journal.snapshot();
+					} catch (IOException e) {
+						log.error("Failed to write a snapshot of the master state", e);
+					}
+				}
+			}, snapshotPeriod, snapshotPeriod, TimeUnit.MILLISECONDS);
+		} catch (IOException e) {
+			log.error("Failed to restore the master state from " + dir + ", starting afresh", e);
+		}
 	}
 
 	/** IOFSwitchListener methods **/
 
 	@Override
 	public void addedSwitch(IOFSwitch sw) {
-		// inform-agent manager
+		// inform-agent manager. An agent that pinged before its
+		// switch connected is registered right away.
+		synchronized (agentLock) {
+			InetAddress odinAgentAddr = agentManager.switchAdded(sw);
+			if (odinAgentAddr != null && !odinAgentAddr.getHostAddress().equals(OdinMaster.detector_ip_address)) {
+				agentJoined(odinAgentAddr);
+			}
+		}
 	}
 
 	@Override
@@ -1425,8 +1771,7 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 	public void removedSwitch(IOFSwitch sw) {
 		// Not all OF switches are Odin agents. We should immediately remove
 		// any associated Odin agent then.
-		final InetAddress switchIpAddr = ((InetSocketAddress) sw.getChannel().getRemoteAddress()).getAddress();
-		agentManager.removeAgent(switchIpAddr);
+		agentManager.switchRemoved(sw);
 	}
 
 /*
@@ -1442,6 +1787,13 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 	// We use this to pick up DHCP response frames
 	// and update a client's IP address details accordingly
 	// we use the update_client_lvap function to send the IP address once the DHCP server has assigned it to the STA
+
+	// Look at the headers first, and leave anything but DHCP undecoded
+	PacketInView view = IFloodlightProviderService.pktinViewStore.get(cntx,
+        IFloodlightProviderService.CONTEXT_PI_VIEW);
+	if (view != null && !view.isDhcp())
+		return Command.CONTINUE;
+
 	Ethernet frame = IFloodlightProviderService.bcStore.get(cntx,
         IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
 
@@ -1486,6 +1838,7 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 
         			log.info("Updating client: " + clientHwAddr + " with ipAddr: " + yourIp);
         			oc.setIpAddress(yourIp);
+        			clientManager.clientUpdated(oc);
         		/*	oc.getLvap().setOFMessageList(lvapManager.getDefaultOFModList(yourIp));
 
         			// Push flow messages associated with the client
@@ -1517,52 +1870,30 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 		return false;
 	}
 
-	/**
-	 * Push the subscription list to the agent
-	 *
-	 * @param oa agent to push subscription list to
-	 */
-	private void pushSubscriptionListToAgent (final IOdinAgent oa) {
-		oa.setSubscriptions(subscriptionList);
-	}
-
 	private void updateAgentLastHeard (InetAddress odinAgentAddr) {
-		IOdinAgent agent = agentManager.getAgent(odinAgentAddr);
-
-		if (agent != null) {
-			// Update last-heard for failure detection
-			agent.setLastHeard(System.currentTimeMillis());
-		}
+		// Update last-heard for failure detection
+		agentManager.agentHeard(odinAgentAddr);
 	}
 
-	private class OdinAgentLvapAddRunnable implements Runnable {
-		final IOdinAgent oa;
-		final OdinClient oc;
+	/**
+	 * Reclaim the LVAP of a client that doesn't complete its association
+	 * within idleLvapTimeout. Starts the countdown again if it is running.
+	 */
+	private void scheduleIdleLvapReclaim (OdinClient client) {
+		HashedWheelTimer.Timeout timeout = idleLvapTimeouts.get(client.getMacAddress());
 
-		OdinAgentLvapAddRunnable(IOdinAgent newAgent, OdinClient oc) {
-			this.oa = newAgent;
-			this.oc = oc;
-		}
-		@Override
-		public void run() {
-			oa.addClientLvap(oc);
-		}
+		if (timeout != null && timeout.reschedule(idleLvapTimeout * 1000L))
+			return;
 
+		idleLvapTimeouts.put(client.getMacAddress(),
+				timer.newTimeout(new IdleLvapReclaimTask(client), idleLvapTimeout * 1000L));
 	}
 
-	private class OdinAgentLvapRemoveRunnable implements Runnable {
-		final IOdinAgent oa;
-		final OdinClient oc;
-
-		OdinAgentLvapRemoveRunnable(IOdinAgent oa, OdinClient oc) {
-			this.oa = oa;
-			this.oc = oc;
-		}
-		@Override
-		public void run() {
-			oa.removeClientLvap(oc);
-		}
+	private void cancelIdleLvapReclaim (MACAddress clientHwAddress) {
+		HashedWheelTimer.Timeout timeout = idleLvapTimeouts.remove(clientHwAddress);
 
+		if (timeout != null)
+			timeout.cancel();
 	}
 
 	private class OdinAgentSendProbeResponseRunnable implements Runnable {
@@ -1593,6 +1924,18 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 
 		@Override
 		public void run() {
+			clientLocks.lock(oc.getMacAddress());
+			try {
+				HashedWheelTimer.Timeout timeout = idleLvapTimeouts.get(oc.getMacAddress());
+				if (timeout != null && timeout.isExpired())
+					idleLvapTimeouts.remove(oc.getMacAddress(), timeout);
+				reclaim();
+			} finally {
+				clientLocks.unlock(oc.getMacAddress());
+			}
+		}
+
+		private void reclaim() {
 			OdinClient client = clientManager.getClients().get(oc.getMacAddress());
 
 			if (client == null) {
@@ -1643,11 +1986,6 @@ public class OdinMaster implements IFloodlightModule, IOFSwitchListener, IOdinMa
 		NotificationCallback cb;
 	}
 
-	private class FlowDetectionCallbackTuple {
-		OdinEventFlowDetection oefd;
-		FlowDetectionCallback cb;
-	}
-	
 	public class MobilityParams {
 		public int time_to_start;
 		public long idle_client_threshold;
@@ -20,6 +20,9 @@ class OdinMasterWebRoutable implements RestletRoutable {
 		router.attach("/clients/connected/json", ConnectedClientsResource.class);
 		router.attach("/agents/json", AgentManagerResource.class);
 		router.attach("/handoff/json", LvapHandoffResource.class);
+		router.attach("/handoff/stats/json", HandoffStatsResource.class);
+		router.attach("/failover/stats/json", FailoverStatsResource.class);
+		router.attach("/agents/protocol/stats/json", AgentProtocolStatsResource.class);
 		return router;
 	}
 }
\ No newline at end of file
@@ -9,6 +9,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
 
 import net.floodlightcontroller.util.MACAddress;
 
@@ -31,11 +32,33 @@ class PoolManager {
 	private final Map<String, Set<OdinClient>> poolToClientSetMap = new ConcurrentHashMap<String, Set<OdinClient>> ();
 	private final Map<OdinClient, String> clientToPoolMap = new ConcurrentHashMap<OdinClient, String>();
 	private int numNetworks = 0;
+	private volatile StateJournal journal;
 	
 	PoolManager () {
 		poolToAgentSetMap.put(GLOBAL_POOL, new HashSet<InetAddress>());
 		poolToSsidListMap.put(GLOBAL_POOL, new TreeSet<String>());
-		poolToClientSetMap.put(GLOBAL_POOL, new TreeSet<OdinClient>());
+		poolToClientSetMap.put(GLOBAL_POOL, new ConcurrentSkipListSet<OdinClient>());
+	}
+	
+	
+	/**
+	 * Record the changes to the pools of the clients, and
+	 * to the networks of the pools
+	 * 
+	 * @param journal
+	 */
+	void setJournal(StateJournal journal) {
+		this.journal = journal;
+	}
+	
+	
+	/**
+	 * Get the names of all the pools, the global one included
+	 * 
+	 * @return immutable set of pool names
+	 */
+	Set<String> getPools() {
+		return Collections.unmodifiableSet(poolToSsidListMap.keySet());
 	}
 	
 	
@@ -73,7 +96,7 @@ class PoolManager {
 		
 		if (!poolToClientSetMap.containsKey(pool)) {
 			poolToAgentSetMap.put(pool, new HashSet<InetAddress>());
-			poolToClientSetMap.put(pool, new TreeSet<OdinClient>());
+			poolToClientSetMap.put(pool, new ConcurrentSkipListSet<OdinClient>());
 			poolToSsidListMap.put(pool, new TreeSet<String>());
 		}
 		
@@ -115,6 +138,8 @@ class PoolManager {
 		if (poolToSsidListMap.get(GLOBAL_POOL).add(ssid)) {
 			poolToSsidListMap.get(pool).add(ssid);
 			numNetworks++;
+			if (journal != null)
+				journal.networkChanged(pool, ssid, true);
 			return true;
 		}
 		
@@ -139,6 +164,8 @@ class PoolManager {
 		if (poolToSsidListMap.get(pool).remove(ssid)) {
 			poolToSsidListMap.get(GLOBAL_POOL).remove(ssid);
 			numNetworks--;
+			if (journal != null)
+				journal.networkChanged(pool, ssid, false);
 			return true;
 		}
 		
@@ -193,6 +220,9 @@ class PoolManager {
 		
 		poolToClientSetMap.get(GLOBAL_POOL).add(client);
 		poolToClientSetMap.get(pool).add(client);
+		
+		if (journal != null && !pool.equals(currentPool))
+			journal.poolChanged(client.getMacAddress(), pool);
 	}
 	
 	
@@ -207,6 +237,9 @@ class PoolManager {
 		if (currentPool != null) {
 			poolToClientSetMap.get(currentPool).remove(client);
 			clientToPoolMap.remove(client);
+			
+			if (journal != null)
+				journal.poolChanged(client.getMacAddress(), null);
 		}
 	}
 	
@@ -0,0 +1,131 @@
+package net.floodlightcontroller.odin.master;
+
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Map;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * What an agent measured at one point in time: the RxStats and
+ * the RSSI of the scanned wi5 stations, plus its transmission power.
+ *
+ * Stations are kept sorted by MAC address, and each measurement in
+ * an array indexed the same way. Measurements a station has none of
+ * are NaN (or -1 for packet counts).
+ *
+ * Instances are immutable and shared by every application.
+ */
+public final class RadioMeasurements {
+	private final InetAddress agentAddr;
+	private final long timestamp;
+
+	// Sorted MAC addresses, in the lower 48 bits
+	private final long[] stations;
+
+	private final double[] rxSignal;
+	private final double[] rxRate;
+	private final long[] rxPackets;
+	private final double[] rxAirTime;
+	private final double[] scannedRssi;
+	private final int txPower;
+
+	private final StationStats rxStats;
+
+	RadioMeasurements (InetAddress agentAddr, long timestamp, long[] stations, double[] rxSignal, double[] rxRate,
+			long[] rxPackets, double[] rxAirTime, double[] scannedRssi, int txPower,
+			StationStats rxStats) {
+		this.agentAddr = agentAddr;
+		this.timestamp = timestamp;
+		this.stations = stations;
+		this.rxSignal = rxSignal;
+		this.rxRate = rxRate;
+		this.rxPackets = rxPackets;
+		this.rxAirTime = rxAirTime;
+		this.scannedRssi = scannedRssi;
+		this.txPower = txPower;
+		this.rxStats = rxStats;
+	}
+
+	public InetAddress getAgentAddr () {
+		return agentAddr;
+	}
+
+	/**
+	 * @return when the agent was read, in ms since the epoch
+	 */
+	public long getTimestamp () {
+		return timestamp;
+	}
+
+	public long getAge () {
+		return System.currentTimeMillis() - timestamp;
+	}
+
+	public int getStationCount () {
+		return stations.length;
+	}
+
+	public MACAddress getStation (int i) {
+		return MACAddress.valueOf(stations[i]);
+	}
+
+	/**
+	 * @return the index of the station, or -1 if the agent
+	 *   didn't report it
+	 */
+	public int indexOf (MACAddress station) {
+		final int i = Arrays.binarySearch(stations, station.toLong());
+		return i < 0 ? -1 : i;
+	}
+
+	/**
+	 * @return average signal of the frames received from the station, in dBm
+	 */
+	public double getRxSignal (int i) {
+		return rxSignal[i];
+	}
+
+	/**
+	 * @return average rate of the frames received from the station, in kbps
+	 */
+	public double getRxRate (int i) {
+		return rxRate[i];
+	}
+
+	public long getRxPackets (int i) {
+		return rxPackets[i];
+	}
+
+	/**
+	 * @return air time of the frames received from the station, in ms
+	 */
+	public double getRxAirTime (int i) {
+		return rxAirTime[i];
+	}
+
+	/**
+	 * @return RSSI the station was last scanned with, in dBm
+	 */
+	public double getScannedRssi (int i) {
+		return scannedRssi[i];
+	}
+
+	public int getTxPower () {
+		return txPower;
+	}
+
+	/**
+	 * @return the RxStats, as returned by IOdinAgent.getRxStats()
+	 */
+	public Map<MACAddress, Map<String, String>> getRxStats () {
+		return rxStats.toMap();
+	}
+
+	/**
+	 * @return the RxStats, as returned by IOdinAgent.getRxStationStats()
+	 */
+	public StationStats getRxStationStats () {
+		return rxStats;
+	}
+}
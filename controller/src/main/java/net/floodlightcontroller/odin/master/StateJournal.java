@@ -0,0 +1,649 @@
+package net.floodlightcontroller.odin.master;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * Keeps the state of the master on disk, so that a restarted controller
+ * resumes its clients, their LVAPs and their pools right away instead
+ * of rebuilding them from what the agents report.
+ *
+ * Every change to a client, to the agent of its LVAP or to its pool,
+ * and to the networks of a pool, is appended to a journal. Now and
+ * then the whole state is written to a compact binary snapshot and the
+ * journal starts over. On start the snapshot is memory-mapped and read,
+ * and the journal replayed on top of it.
+ *
+ * Records set values instead of changing them, so replaying a record
+ * the snapshot already includes does no harm. A torn record at the end
+ * of the journal, from a crash in the middle of a write, ends the
+ * replay and is cut off.
+ *
+ * The agents are reconciled as they register: restored clients go back
+ * to the agent that reports their LVAP, and the LVAPs an agent lost are
+ * pushed to it again (see {@link AgentManager#setRestoredLvaps}).
+ */
+class StateJournal {
+	protected static Logger log = LoggerFactory.getLogger(StateJournal.class);
+
+	static final String SNAPSHOT_FILE = "odin.snapshot";
+	static final String JOURNAL_FILE = "odin.journal";
+	static final String OLD_JOURNAL_FILE = "odin.journal.old";
+
+	private static final int SNAPSHOT_MAGIC = 0x4f444e53; // "ODNS"
+	private static final int SNAPSHOT_VERSION = 1;
+
+	// Record types
+	private static final byte CLIENT = 1;
+	private static final byte CLIENT_REMOVED = 2;
+	private static final byte AGENT = 3;
+	private static final byte POOL = 4;
+	private static final byte NETWORK_ADDED = 5;
+	private static final byte NETWORK_REMOVED = 6;
+
+	private final File snapshotFile;
+	private final File journalFile;
+	private final File oldJournalFile;
+
+	private ClientManager clientManager;
+	private PoolManager poolManager;
+
+	// Guards the journal file and the sequence number
+	private final Object appendLock = new Object();
+	private FileOutputStream out;
+	private long seq = 0;
+
+
+	/**
+	 * @param dir where the snapshot and the journal are kept,
+	 *   created if needed
+	 */
+	StateJournal (File dir) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create " + dir);
+
+		snapshotFile = new File(dir, SNAPSHOT_FILE);
+		journalFile = new File(dir, JOURNAL_FILE);
+		oldJournalFile = new File(dir, OLD_JOURNAL_FILE);
+	}
+
+
+	/**
+	 * Put the state saved on disk back in the managers, and start
+	 * journaling their changes.
+	 *
+	 * @param lvapManager gives the restored LVAPs their flows
+	 * @return the clients whose LVAP was on an agent, by agent
+	 */
+	Map<InetAddress, List<MACAddress>> restore (ClientManager clientManager, PoolManager poolManager,
+			LvapManager lvapManager) throws IOException {
+		final long start = System.nanoTime();
+
+		State state = new State();
+		long snapshotSeq = readSnapshot(state);
+		seq = snapshotSeq;
+
+		replay(oldJournalFile, state, snapshotSeq);
+		long validLength = replay(journalFile, state, snapshotSeq);
+
+		// Cut off a torn record, so that new ones follow valid ones
+		if (journalFile.exists()) {
+			RandomAccessFile raf = new RandomAccessFile(journalFile, "rw");
+			try {
+				raf.setLength(validLength);
+			} finally {
+				raf.close();
+			}
+		}
+
+		Map<InetAddress, List<MACAddress>> byAgent = state.apply(clientManager, poolManager, lvapManager);
+
+		this.clientManager = clientManager;
+		this.poolManager = poolManager;
+		out = new FileOutputStream(journalFile, true);
+		clientManager.setJournal(this);
+		poolManager.setJournal(this);
+
+		// A snapshot was interrupted: take it again, so that the
+		// old journal can go
+		if (oldJournalFile.exists())
+			snapshot();
+
+		log.info("Restored " + state.clients.size() + " clients up to record " + seq + " in "
+				+ TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start) + " us");
+
+		return byAgent;
+	}
+
+
+	/**
+	 * Write the whole state to the snapshot, and start the journal over
+	 */
+	void snapshot () throws IOException {
+		final long snapshotSeq;
+		synchronized (appendLock) {
+			snapshotSeq = seq;
+			// Kept until the snapshot is in place. If the last snapshot
+			// failed, the old journal is still needed and both are kept.
+			if (!oldJournalFile.exists()) {
+				out.close();
+				if (journalFile.exists() && !journalFile.renameTo(oldJournalFile))
+					throw new IOException("Cannot rotate " + journalFile);
+				out = new FileOutputStream(journalFile, true);
+			}
+		}
+
+		// Changes made meanwhile are in both the snapshot and the
+		// new journal
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream body = new DataOutputStream(bytes);
+
+		List<OdinClient> clients = new ArrayList<OdinClient>(clientManager.getClients().values());
+		body.writeInt(clients.size());
+		for (OdinClient oc: clients) {
+			Lvap lvap = oc.getLvap();
+			IOdinAgent agent = lvap.getAgent();
+			writeClient(body, oc);
+			writeAddr(body, agent == null ? null : agent.getIpAddress());
+			writeString(body, poolManager.getPoolForClient(oc));
+		}
+
+		List<String> pools = new ArrayList<String>(poolManager.getPools());
+		pools.remove(PoolManager.GLOBAL_POOL);
+		body.writeInt(pools.size());
+		for (String pool: pools) {
+			List<String> ssids = new ArrayList<String>(poolManager.getSsidListForPool(pool));
+			writeString(body, pool);
+			body.writeInt(ssids.size());
+			for (String ssid: ssids) {
+				writeString(body, ssid);
+			}
+		}
+		body.flush();
+
+		byte[] b = bytes.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(b);
+
+		File tmp = new File(snapshotFile.getPath() + ".tmp");
+		FileOutputStream fos = new FileOutputStream(tmp);
+		try {
+			DataOutputStream dos = new DataOutputStream(fos);
+			dos.writeInt(SNAPSHOT_MAGIC);
+			dos.writeInt(SNAPSHOT_VERSION);
+			dos.writeLong(snapshotSeq);
+			dos.writeInt(b.length);
+			dos.writeInt((int) crc.getValue());
+			dos.write(b);
+			dos.flush();
+			fos.getChannel().force(true);
+		} finally {
+			fos.close();
+		}
+
+		if (!tmp.renameTo(snapshotFile))
+			throw new IOException("Cannot replace " + snapshotFile);
+		oldJournalFile.delete();
+
+		log.debug("Snapshot of " + clients.size() + " clients up to record " + snapshotSeq);
+	}
+
+
+	void close () throws IOException {
+		synchronized (appendLock) {
+			if (out != null)
+				out.close();
+			out = null;
+		}
+	}
+
+
+	// Changes, called by the managers after they made them
+
+	void clientAdded (OdinClient oc) {
+		try {
+			Record r = new Record(CLIENT);
+			writeClient(r.out, oc);
+			append(r);
+		} catch (IOException e) {
+			failed(e);
+		}
+	}
+
+
+	void clientRemoved (MACAddress clientHwAddr) {
+		try {
+			Record r = new Record(CLIENT_REMOVED);
+			writeMac(r.out, clientHwAddr);
+			append(r);
+		} catch (IOException e) {
+			failed(e);
+		}
+	}
+
+
+	void agentChanged (MACAddress clientHwAddr, IOdinAgent agent) {
+		try {
+			Record r = new Record(AGENT);
+			writeMac(r.out, clientHwAddr);
+			writeAddr(r.out, agent == null ? null : agent.getIpAddress());
+			append(r);
+		} catch (IOException e) {
+			failed(e);
+		}
+	}
+
+
+	/**
+	 * @param pool null if the client left its pool
+	 */
+	void poolChanged (MACAddress clientHwAddr, String pool) {
+		try {
+			Record r = new Record(POOL);
+			writeMac(r.out, clientHwAddr);
+			writeString(r.out, pool);
+			append(r);
+		} catch (IOException e) {
+			failed(e);
+		}
+	}
+
+
+	void networkChanged (String pool, String ssid, boolean added) {
+		try {
+			Record r = new Record(added ? NETWORK_ADDED : NETWORK_REMOVED);
+			writeString(r.out, pool);
+			writeString(r.out, ssid);
+			append(r);
+		} catch (IOException e) {
+			failed(e);
+		}
+	}
+
+
+	long getSequence () {
+		synchronized (appendLock) {
+			return seq;
+		}
+	}
+
+
+	/**
+	 * A record: length and CRC of the payload, then the payload,
+	 * which starts with the sequence number and the type
+	 */
+	private static final class Record {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		final DataOutputStream out = new DataOutputStream(bytes);
+		final byte type;
+
+		Record (byte type) {
+			this.type = type;
+		}
+	}
+
+
+	private void append (Record r) throws IOException {
+		r.out.flush();
+		byte[] fields = r.bytes.toByteArray();
+
+		synchronized (appendLock) {
+			if (out == null)
+				return;
+
+			ByteBuffer buf = ByteBuffer.allocate(8 + 9 + fields.length);
+			buf.position(8);
+			buf.putLong(++seq);
+			buf.put(r.type);
+			buf.put(fields);
+
+			CRC32 crc = new CRC32();
+			crc.update(buf.array(), 8, buf.position() - 8);
+			buf.putInt(0, buf.position() - 8);
+			buf.putInt(4, (int) crc.getValue());
+
+			// Reaches the OS before the change is acted on
+			out.write(buf.array(), 0, buf.position());
+		}
+	}
+
+
+	private void failed (IOException e) {
+		log.error("Failed to journal a change to the master state", e);
+	}
+
+
+	/**
+	 * @return sequence number of the snapshot, 0 without one
+	 */
+	private long readSnapshot (State state) throws IOException {
+		if (!snapshotFile.exists())
+			return 0;
+
+		ByteBuffer buf = map(snapshotFile);
+		try {
+			if (buf.getInt() != SNAPSHOT_MAGIC || buf.getInt() != SNAPSHOT_VERSION) {
+				log.error("Ignoring " + snapshotFile + ", not a snapshot of this version");
+				return 0;
+			}
+			long snapshotSeq = buf.getLong();
+			int length = buf.getInt();
+			int expected = buf.getInt();
+			if (length != buf.remaining() || crcOf(buf, buf.position(), length) != expected) {
+				log.error("Ignoring " + snapshotFile + ", it is corrupted");
+				return 0;
+			}
+
+			int clients = buf.getInt();
+			for (int i = 0; i < clients; i++) {
+				ClientState c = readClient(buf);
+				c.agentAddr = readAddr(buf);
+				c.pool = readString(buf);
+				state.clients.put(c.hwAddr, c);
+			}
+
+			int pools = buf.getInt();
+			for (int i = 0; i < pools; i++) {
+				PoolState p = state.pool(readString(buf));
+				p.complete = true;
+				int ssids = buf.getInt();
+				for (int j = 0; j < ssids; j++) {
+					p.ssids.put(readString(buf), Boolean.TRUE);
+				}
+			}
+			return snapshotSeq;
+		} catch (BufferUnderflowException e) {
+			log.error("Ignoring " + snapshotFile + ", it is truncated");
+			state.clients.clear();
+			state.pools.clear();
+			return 0;
+		}
+	}
+
+
+	/**
+	 * Apply the records of a journal that come after the snapshot
+	 *
+	 * @return length of the valid records
+	 */
+	private long replay (File file, State state, long after) throws IOException {
+		if (!file.exists())
+			return 0;
+
+		ByteBuffer buf = map(file);
+		int valid = 0;
+
+		while (buf.remaining() >= 8) {
+			int length = buf.getInt();
+			int expected = buf.getInt();
+			if (length < 9 || length > buf.remaining() || crcOf(buf, buf.position(), length) != expected) {
+				log.warn("Journal " + file + " ends with a torn record at " + valid);
+				break;
+			}
+
+			ByteBuffer payload = buf.slice();
+			payload.limit(length);
+			buf.position(buf.position() + length);
+			valid = buf.position();
+
+			long recordSeq = payload.getLong();
+			if (recordSeq <= after)
+				continue;
+			seq = Math.max(seq, recordSeq);
+			state.apply(payload.get(), payload);
+		}
+		return valid;
+	}
+
+
+	private static ByteBuffer map (File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			// The mapping stays valid
+			raf.close();
+		}
+	}
+
+
+	private static int crcOf (ByteBuffer buf, int offset, int length) {
+		CRC32 crc = new CRC32();
+		byte[] chunk = new byte[Math.min(length, 8192)];
+		ByteBuffer view = buf.duplicate();
+		view.position(offset);
+		while (length > 0) {
+			int n = Math.min(length, chunk.length);
+			view.get(chunk, 0, n);
+			crc.update(chunk, 0, n);
+			length -= n;
+		}
+		return (int) crc.getValue();
+	}
+
+
+	// Field encoding, shared by the journal and the snapshot
+
+	private static void writeClient (DataOutputStream out, OdinClient oc) throws IOException {
+		writeMac(out, oc.getMacAddress());
+		writeAddr(out, oc.getIpAddress());
+		writeMac(out, oc.getLvap().getBssid());
+		List<String> ssids = oc.getLvap().getSsids();
+		out.writeShort(ssids.size());
+		for (String ssid: ssids) {
+			writeString(out, ssid);
+		}
+	}
+
+
+	private static ClientState readClient (ByteBuffer buf) throws UnknownHostException {
+		ClientState c = new ClientState();
+		c.hwAddr = readMac(buf);
+		c.ipAddr = readAddr(buf);
+		c.bssid = readMac(buf);
+		int ssids = buf.getShort();
+		c.ssids = new ArrayList<String>(ssids);
+		for (int i = 0; i < ssids; i++) {
+			c.ssids.add(readString(buf));
+		}
+		return c;
+	}
+
+
+	private static void writeMac (DataOutputStream out, MACAddress mac) throws IOException {
+		out.writeLong(mac.toLong());
+	}
+
+
+	private static MACAddress readMac (ByteBuffer buf) {
+		return MACAddress.valueOf(buf.getLong());
+	}
+
+
+	private static void writeAddr (DataOutputStream out, InetAddress addr) throws IOException {
+		if (addr == null) {
+			out.writeByte(0);
+			return;
+		}
+		byte[] b = addr.getAddress();
+		out.writeByte(b.length);
+		out.write(b);
+	}
+
+
+	private static InetAddress readAddr (ByteBuffer buf) throws UnknownHostException {
+		int length = buf.get();
+		if (length == 0)
+			return null;
+		byte[] b = new byte[length];
+		buf.get(b);
+		return InetAddress.getByAddress(b);
+	}
+
+
+	private static void writeString (DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeShort(-1);
+			return;
+		}
+		byte[] b = s.getBytes("UTF-8");
+		out.writeShort(b.length);
+		out.write(b);
+	}
+
+
+	private static String readString (ByteBuffer buf) {
+		int length = buf.getShort();
+		if (length < 0)
+			return null;
+		byte[] b = new byte[length];
+		buf.get(b);
+		try {
+			return new String(b, "UTF-8");
+		} catch (java.io.UnsupportedEncodingException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+
+	private static final class ClientState {
+		MACAddress hwAddr;
+		InetAddress ipAddr;
+		MACAddress bssid;
+		List<String> ssids;
+		InetAddress agentAddr;
+		String pool;
+	}
+
+
+	private static final class PoolState {
+		// The snapshot listed every network of the pool
+		boolean complete;
+		// Whether each network is in the pool
+		final Map<String, Boolean> ssids = new LinkedHashMap<String, Boolean>();
+	}
+
+
+	/**
+	 * The state read back, before it goes to the managers
+	 */
+	private static final class State {
+		final Map<MACAddress, ClientState> clients = new LinkedHashMap<MACAddress, ClientState>();
+		final Map<String, PoolState> pools = new HashMap<String, PoolState>();
+
+		PoolState pool (String name) {
+			PoolState p = pools.get(name);
+			if (p == null) {
+				p = new PoolState();
+				pools.put(name, p);
+			}
+			return p;
+		}
+
+		void apply (byte type, ByteBuffer payload) throws UnknownHostException {
+			ClientState c;
+			switch (type) {
+			case CLIENT:
+				ClientState update = readClient(payload);
+				c = clients.get(update.hwAddr);
+				if (c != null) {
+					update.agentAddr = c.agentAddr;
+					update.pool = c.pool;
+				}
+				clients.put(update.hwAddr, update);
+				break;
+			case CLIENT_REMOVED:
+				clients.remove(readMac(payload));
+				break;
+			case AGENT:
+				c = clients.get(readMac(payload));
+				InetAddress agentAddr = readAddr(payload);
+				if (c != null)
+					c.agentAddr = agentAddr;
+				break;
+			case POOL:
+				c = clients.get(readMac(payload));
+				String pool = readString(payload);
+				if (c != null)
+					c.pool = pool;
+				break;
+			case NETWORK_ADDED:
+			case NETWORK_REMOVED:
+				PoolState p = pool(readString(payload));
+				p.ssids.put(readString(payload), type == NETWORK_ADDED);
+				break;
+			default:
+				log.error("Skipping a journal record of unknown type " + type);
+			}
+		}
+
+		Map<InetAddress, List<MACAddress>> apply (ClientManager clientManager, PoolManager poolManager,
+				LvapManager lvapManager) {
+			for (Entry<String, PoolState> e: pools.entrySet()) {
+				String pool = e.getKey();
+				// Pools are defined by the pool file
+				if (!poolManager.getPools().contains(pool))
+					continue;
+
+				if (e.getValue().complete) {
+					for (String ssid: new ArrayList<String>(poolManager.getSsidListForPool(pool))) {
+						if (!e.getValue().ssids.containsKey(ssid))
+							poolManager.removeNetworkFromPool(pool, ssid);
+					}
+				}
+				for (Entry<String, Boolean> n: e.getValue().ssids.entrySet()) {
+					if (n.getValue())
+						poolManager.addNetworkForPool(pool, n.getKey());
+					else
+						poolManager.removeNetworkFromPool(pool, n.getKey());
+				}
+			}
+
+			Map<InetAddress, List<MACAddress>> byAgent = new HashMap<InetAddress, List<MACAddress>>();
+			for (ClientState c: clients.values()) {
+				Lvap lvap = new Lvap(c.bssid, c.ssids);
+				OdinClient oc = new OdinClient(c.hwAddr, c.ipAddr, lvap);
+				if (c.ipAddr != null)
+					lvap.setOFMessageList(lvapManager.getDefaultOFModList(c.ipAddr));
+				clientManager.addClient(oc);
+
+				if (c.pool != null && poolManager.getPools().contains(c.pool))
+					poolManager.mapClientToPool(oc, c.pool);
+
+				// The LVAP gets its agent when the agent registers
+				if (c.agentAddr != null) {
+					List<MACAddress> list = byAgent.get(c.agentAddr);
+					if (list == null) {
+						list = new ArrayList<MACAddress>();
+						byAgent.put(c.agentAddr, list);
+					}
+					list.add(c.hwAddr);
+				}
+			}
+			return byAgent;
+		}
+	}
+}
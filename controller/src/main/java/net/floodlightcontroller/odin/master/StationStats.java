@@ -0,0 +1,415 @@
+package net.floodlightcontroller.odin.master;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * Per-station statistics reported by an agent, as a table with
+ * one row per station and one primitive array per statistic.
+ *
+ * Agents send rows like
+ *
+ *   MAC_ADDR1 prop1:<value> prop2:<value> ...
+ *   MAC_ADDR2 prop1:<value> prop2:<value> ...
+ *
+ * The text is parsed once, in a single pass, without splitting it
+ * into strings. The well known statistics are decoded into their
+ * columns; missing or non-numeric values are NaN. The position of
+ * every property in the text is remembered, so toMap() can still
+ * give the Map<MACAddress, Map<String, String>> form when asked.
+ *
+ * Instances are immutable.
+ */
+public final class StationStats {
+	// Well known properties, and their column
+	private static final String[] COLUMN_NAMES = {"packets", "avg_rate", "avg_signal", "avg_len_pkt",
+		"air_time", "first_received", "last_received"};
+	private static final int PACKETS = 0;
+	private static final int AVG_RATE = 1;
+	private static final int AVG_SIGNAL = 2;
+	private static final int AVG_LEN_PKT = 3;
+	private static final int AIR_TIME = 4;
+	private static final int FIRST_RECEIVED = 5;
+	private static final int LAST_RECEIVED = 6;
+	private static final String EQUIPMENT = "equipment";
+	private static final String EQUIPMENT_AP = "AP";
+
+	private static final int INITIAL_ROWS = 16;
+
+	private final String text;
+	private final int numProperties;
+	private int rows = 0;
+
+	private long[] macs = new long[INITIAL_ROWS];
+	private double[][] columns = new double[COLUMN_NAMES.length][INITIAL_ROWS];
+	private boolean[] accessPoint = new boolean[INITIAL_ROWS];
+
+	// For every property of every row: where its name starts, where
+	// the ':' is and where its value ends
+	private int[] nameStart;
+	private int[] colon;
+	private int[] valueEnd;
+
+	private Map<MACAddress, Map<String, String>> map;
+
+
+	private StationStats (String text, int numProperties) {
+		this.text = text;
+		this.numProperties = numProperties;
+		nameStart = new int[INITIAL_ROWS * numProperties];
+		colon = new int[INITIAL_ROWS * numProperties];
+		valueEnd = new int[INITIAL_ROWS * numProperties];
+	}
+
+
+	/**
+	 * Parse the statistics read from an agent. Rows that don't have
+	 * exactly numProperties properties, or whose MAC address is
+	 * malformed, are left out.
+	 *
+	 * @param text as read from the agent, may be null
+	 * @param numProperties properties every row must have
+	 * @param skipIdle leave out rows whose first property is 0
+	 *   (e.g. stations only heard from in beacons)
+	 */
+	public static StationStats parse (String text, int numProperties, boolean skipIdle) {
+		final StationStats stats = new StationStats(text == null ? "" : text, numProperties);
+		stats.parse(skipIdle);
+		return stats;
+	}
+
+
+	private void parse (boolean skipIdle) {
+		final int length = text.length();
+		int pos = 0;
+
+		while (pos < length) {
+			int lineEnd = text.indexOf('\n', pos);
+			if (lineEnd < 0)
+				lineEnd = length;
+
+			parseRow(pos, lineEnd, skipIdle);
+			pos = lineEnd + 1;
+		}
+	}
+
+
+	private void parseRow (int start, int end, boolean skipIdle) {
+		// Trailing spaces are tolerated, as they were by split(" ")
+		while (end > start && text.charAt(end - 1) == ' ')
+			end--;
+
+		int tokenEnd = indexOf(' ', start, end);
+		final long mac = parseMac(start, tokenEnd);
+		if (mac < 0)
+			return;
+
+		ensureCapacity(rows + 1);
+		final int base = rows * numProperties;
+
+		for (int p = 0; p < numProperties; p++) {
+			if (tokenEnd >= end)
+				return;
+
+			final int tokenStart = tokenEnd + 1;
+			tokenEnd = indexOf(' ', tokenStart, end);
+
+			final int c = indexOf(':', tokenStart, tokenEnd);
+			if (c >= tokenEnd)
+				return;
+
+			nameStart[base + p] = tokenStart;
+			colon[base + p] = c;
+			valueEnd[base + p] = indexOf(':', c + 1, tokenEnd);
+		}
+
+		// Too many properties
+		if (tokenEnd < end)
+			return;
+
+		if (skipIdle && numProperties > 0 && valueEquals(base, "0"))
+			return;
+
+		macs[rows] = mac;
+		for (int col = 0; col < columns.length; col++) {
+			columns[col][rows] = Double.NaN;
+		}
+		accessPoint[rows] = false;
+
+		for (int p = 0; p < numProperties; p++) {
+			final int i = base + p;
+			final int nameLength = colon[i] - nameStart[i];
+
+			if (nameLength == EQUIPMENT.length() && text.regionMatches(nameStart[i], EQUIPMENT, 0, nameLength)) {
+				accessPoint[rows] = valueEquals(i, EQUIPMENT_AP);
+				continue;
+			}
+
+			for (int col = 0; col < COLUMN_NAMES.length; col++) {
+				if (nameLength == COLUMN_NAMES[col].length()
+						&& text.regionMatches(nameStart[i], COLUMN_NAMES[col], 0, nameLength)) {
+					columns[col][rows] = parseNumber(colon[i] + 1, valueEnd[i]);
+					break;
+				}
+			}
+		}
+
+		rows++;
+	}
+
+
+	private void ensureCapacity (int n) {
+		if (n <= macs.length)
+			return;
+
+		final int capacity = macs.length * 2;
+		macs = Arrays.copyOf(macs, capacity);
+		for (int col = 0; col < columns.length; col++) {
+			columns[col] = Arrays.copyOf(columns[col], capacity);
+		}
+		accessPoint = Arrays.copyOf(accessPoint, capacity);
+		nameStart = Arrays.copyOf(nameStart, capacity * numProperties);
+		colon = Arrays.copyOf(colon, capacity * numProperties);
+		valueEnd = Arrays.copyOf(valueEnd, capacity * numProperties);
+	}
+
+
+	/**
+	 * @return number of stations
+	 */
+	public int size () {
+		return rows;
+	}
+
+
+	/**
+	 * @return the MAC address of the station, in the lower 48 bits
+	 */
+	public long getMac (int i) {
+		checkRow(i);
+		return macs[i];
+	}
+
+
+	public MACAddress getStation (int i) {
+		return MACAddress.valueOf(getMac(i));
+	}
+
+
+	/**
+	 * @return the row of the station, or -1 if it isn't there
+	 */
+	public int indexOf (MACAddress station) {
+		final long mac = station.toLong();
+		for (int i = 0; i < rows; i++) {
+			if (macs[i] == mac)
+				return i;
+		}
+		return -1;
+	}
+
+
+	public double getPackets (int i) {
+		return get(PACKETS, i);
+	}
+
+	/**
+	 * @return in kbps
+	 */
+	public double getAvgRate (int i) {
+		return get(AVG_RATE, i);
+	}
+
+	/**
+	 * @return in dBm
+	 */
+	public double getAvgSignal (int i) {
+		return get(AVG_SIGNAL, i);
+	}
+
+	/**
+	 * @return in bytes
+	 */
+	public double getAvgLenPkt (int i) {
+		return get(AVG_LEN_PKT, i);
+	}
+
+	/**
+	 * @return in ms
+	 */
+	public double getAirTime (int i) {
+		return get(AIR_TIME, i);
+	}
+
+	/**
+	 * @return in seconds
+	 */
+	public double getFirstReceived (int i) {
+		return get(FIRST_RECEIVED, i);
+	}
+
+	/**
+	 * @return in seconds
+	 */
+	public double getLastReceived (int i) {
+		return get(LAST_RECEIVED, i);
+	}
+
+	/**
+	 * @return true if the station reported itself as an AP
+	 */
+	public boolean isAccessPoint (int i) {
+		checkRow(i);
+		return accessPoint[i];
+	}
+
+
+	/**
+	 * @return the statistics as a map of stations' MAC addresses
+	 *   to a map of properties and values, built the first time
+	 *   it is asked for
+	 */
+	public synchronized Map<MACAddress, Map<String, String>> toMap () {
+		if (map != null)
+			return map;
+
+		final Map<MACAddress, Map<String, String>> ret = new HashMap<MACAddress, Map<String, String>>();
+		for (int row = 0; row < rows; row++) {
+			final Map<String, String> innerMap = new HashMap<String, String>();
+			for (int p = 0; p < numProperties; p++) {
+				final int i = row * numProperties + p;
+				innerMap.put(text.substring(nameStart[i], colon[i]), text.substring(colon[i] + 1, valueEnd[i]));
+			}
+			ret.put(MACAddress.valueOf(macs[row]), Collections.unmodifiableMap(innerMap));
+		}
+
+		map = Collections.unmodifiableMap(ret);
+		return map;
+	}
+
+
+	private double get (int column, int i) {
+		checkRow(i);
+		return columns[column][i];
+	}
+
+
+	private void checkRow (int i) {
+		if (i < 0 || i >= rows)
+			throw new IndexOutOfBoundsException("Station " + i + " of " + rows);
+	}
+
+
+	private boolean valueEquals (int i, String value) {
+		final int start = colon[i] + 1;
+		return valueEnd[i] - start == value.length() && text.regionMatches(start, value, 0, value.length());
+	}
+
+
+	private int indexOf (char c, int start, int end) {
+		for (int i = start; i < end; i++) {
+			if (text.charAt(i) == c)
+				return i;
+		}
+		return end;
+	}
+
+
+	/**
+	 * Parse a MAC address of the form 00:1B:B3:aa:bb:cc
+	 *
+	 * @return the address in the lower 48 bits, or -1 if malformed
+	 */
+	private long parseMac (int start, int end) {
+		if (end - start != 17)
+			return -1;
+
+		long mac = 0;
+		for (int i = 0; i < 6; i++) {
+			final int pos = start + i * 3;
+
+			if (i > 0 && text.charAt(pos - 1) != ':')
+				return -1;
+
+			final int hi = Character.digit(text.charAt(pos), 16);
+			final int lo = Character.digit(text.charAt(pos + 1), 16);
+			if (hi < 0 || lo < 0)
+				return -1;
+
+			mac = (mac << 8) | (hi << 4) | lo;
+		}
+		return mac;
+	}
+
+
+	/**
+	 * Parse a decimal number such as -61, 5400 or 1.25
+	 *
+	 * @return the number, or NaN if it isn't one
+	 */
+	private double parseNumber (int start, int end) {
+		if (start >= end)
+			return Double.NaN;
+
+		int i = start;
+		final boolean negative = text.charAt(i) == '-';
+		if (negative || text.charAt(i) == '+')
+			i++;
+
+		long mantissa = 0;
+		int digits = 0;
+		int decimals = 0;
+		boolean point = false;
+
+		for (; i < end; i++) {
+			final char c = text.charAt(i);
+			if (c >= '0' && c <= '9') {
+				// Past what a double holds exactly, let the JDK do it
+				if (++digits > 15)
+					return parseSlow(start, end);
+				mantissa = mantissa * 10 + (c - '0');
+				if (point)
+					decimals++;
+			} else if (c == '.' && !point) {
+				point = true;
+			} else if (c == 'e' || c == 'E') {
+				return parseSlow(start, end);
+			} else {
+				return Double.NaN;
+			}
+		}
+
+		if (digits == 0)
+			return Double.NaN;
+
+		double value = mantissa;
+		if (decimals > 0)
+			value /= POWERS_OF_TEN[decimals];
+		return negative ? -value : value;
+	}
+
+
+	private double parseSlow (int start, int end) {
+		try {
+			return Double.parseDouble(text.substring(start, end));
+		} catch (NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+
+	private static final double[] POWERS_OF_TEN = new double[16];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+		}
+	}
+
+
+	public static final StationStats EMPTY = parse("", 0, false);
+}
@@ -1,9 +1,11 @@
 package net.floodlightcontroller.odin.master;
 
 import java.net.InetAddress;
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Future;
 import java.util.concurrent.ConcurrentSkipListSet;
 
 import net.floodlightcontroller.core.IOFSwitch;
@@ -30,6 +32,7 @@ class StubOdinAgent implements IOdinAgent {
 	private int chan;
 	private int lastScan;
 	private int txpower;
+	private volatile boolean silent = false;
 	
 	@Override
 	public void addClientLvap(OdinClient oc) {
@@ -51,6 +54,16 @@ class StubOdinAgent implements IOdinAgent {
 		return null;
 	}
 
+	@Override
+	public StationStats getTxStationStats() {
+		return null;
+	}
+
+	@Override
+	public StationStats getRxStationStats() {
+		return null;
+	}
+
 	@Override
 	public IOFSwitch getSwitch() {
 		return sw;
@@ -120,6 +133,36 @@ class StubOdinAgent implements IOdinAgent {
 		// Do nothing.
 	}
 	
+	@Override
+	public List<Future<String>> sendChannelSwitches(List<OdinClient> clients, int channel) {
+		return acknowledged(clients.size());
+	}
+	
+	@Override
+	public List<Future<String>> addClientLvaps(List<OdinClient> clients) {
+		clientList.addAll(clients);
+		return acknowledged(clients.size());
+	}
+	
+	@Override
+	public List<Future<String>> removeClientLvaps(List<OdinClient> clients) {
+		clientList.removeAll(clients);
+		return acknowledged(clients.size());
+	}
+	
+	/**
+	 * Replies of writes the stub agent accepted
+	 */
+	static List<Future<String>> acknowledged(int writes) {
+		List<Future<String>> replies = new ArrayList<Future<String>>(writes);
+		for (int i = 0; i < writes; i++) {
+			OdinAgentControlChannel.Request req = new OdinAgentControlChannel.Request(false);
+			req.set("200 Write handler OK");
+			replies.add(req);
+		}
+		return replies;
+	}
+	
 	@Override
 	public int convertFrequencyToChannel(int freq) {
 		return chan;
@@ -147,6 +190,12 @@ class StubOdinAgent implements IOdinAgent {
 	}
 
 
+	@Override
+	public StationStats getScannedStationStats (String ssid){
+		return null;
+	}
+
+
 	@Override
 	public int requestSendMesurementBeacon (int channel, String ssid){
 		return 1;
@@ -169,6 +218,49 @@ class StubOdinAgent implements IOdinAgent {
 	public String getScannedStaRssi (){
 		return null;
 	}
-
-
+	
+	@Override
+	public Future<StationStats> getTxStationStatsAsync() {
+		return reply(getTxStationStats());
+	}
+	
+	@Override
+	public Future<StationStats> getRxStationStatsAsync() {
+		return reply(getRxStationStats());
+	}
+	
+	@Override
+	public Future<String> getScannedStaRssiAsync() {
+		return reply(getScannedStaRssi());
+	}
+	
+	@Override
+	public Future<Integer> getTxPowerAsync() {
+		return reply(getTxPower());
+	}
+	
+	@Override
+	public Future<Integer> getChannelAsync() {
+		return reply(getChannel());
+	}
+	
+	/**
+	 * A silent agent takes reads but never answers them,
+	 * like one whose control socket has hung
+	 */
+	void setSilent (boolean silent) {
+		this.silent = silent;
+	}
+	
+	private <V> Future<V> reply (V value) {
+		if (!silent)
+			return AgentReplyFuture.done(value);
+		
+		return new AgentReplyFuture<V>(new OdinAgentControlChannel.Request(true)) {
+			@Override
+			protected V parse(String reply) {
+				return null;
+			}
+		};
+	}
 }
@@ -0,0 +1,207 @@
+package net.floodlightcontroller.odin.master;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * Keeps track of the event subscriptions of each pool, and of
+ * which subscription list each agent currently has.
+ *
+ * Every subscription is encoded once, when it is added, and the
+ * list of a pool is only rebuilt when it changes. Agents get the
+ * subscriptions of the pools they belong to, plus those of the
+ * global pool. Agents still expect the complete list on every
+ * update, so a change is pushed only to the agents whose list is
+ * actually different, from a background publisher. Several changes
+ * in a row lead to a single push per agent.
+ *
+ * The list sent to an agent looks like
+ *
+ *   <count> <id> <sta-mac> <statistic> <relation> <value> <id> ...
+ */
+class SubscriptionManager {
+	private static final String ANY_CLIENT = MACAddress.valueOf("00:00:00:00:00:00").toString();
+
+	private final AgentManager agentManager;
+	private final PoolManager poolManager;
+	private final Executor publisher;
+
+	private final AtomicLong subscriptionId = new AtomicLong();
+
+	// Guarded by this
+	private final Map<String, PoolSubscriptions> poolSubscriptions = new HashMap<String, PoolSubscriptions>();
+	private final Map<Long, String> subscriptionPool = new HashMap<Long, String>();
+
+	// Agents with a push pending, and the list each agent was last sent
+	private final ConcurrentMap<InetAddress, Boolean> dirtyAgents = new ConcurrentHashMap<InetAddress, Boolean>();
+	private final ConcurrentMap<InetAddress, String> pushedLists = new ConcurrentHashMap<InetAddress, String>();
+
+
+	SubscriptionManager (AgentManager agentManager, PoolManager poolManager, Executor publisher) {
+		this.agentManager = agentManager;
+		this.poolManager = poolManager;
+		this.publisher = publisher;
+	}
+
+
+	/**
+	 * Reserve an id for a new subscription
+	 */
+	long newSubscriptionId () {
+		return subscriptionId.incrementAndGet();
+	}
+
+
+	/**
+	 * Add a subscription to a pool and schedule the
+	 * agents of the pool for an update.
+	 *
+	 * @param id obtained from newSubscriptionId()
+	 */
+	void addSubscription (long id, String pool, OdinEventSubscription oes) {
+		final String addr = oes.getClient();
+		final String encoded = id + " " +
+							(addr.equals("*") ? ANY_CLIENT : addr) + " " +
+							oes.getStatistic() + " " +
+							oes.getRelation().ordinal() + " " +
+							oes.getValue() + " ";
+
+		synchronized (this) {
+			PoolSubscriptions ps = poolSubscriptions.get(pool);
+			if (ps == null) {
+				ps = new PoolSubscriptions();
+				poolSubscriptions.put(pool, ps);
+			}
+			ps.entries.put(id, encoded);
+			ps.encoded = null;
+			subscriptionPool.put(id, pool);
+		}
+
+		publishToPool(pool);
+	}
+
+
+	/**
+	 * Remove a subscription, whatever pool it was added to.
+	 *
+	 * @return true if the subscription existed
+	 */
+	boolean removeSubscription (long id) {
+		final String pool;
+
+		synchronized (this) {
+			pool = subscriptionPool.remove(id);
+			if (pool == null)
+				return false;
+
+			PoolSubscriptions ps = poolSubscriptions.get(pool);
+			ps.entries.remove(id);
+			ps.encoded = null;
+		}
+
+		publishToPool(pool);
+		return true;
+	}
+
+
+	/**
+	 * An agent has (re)joined and has no subscriptions yet
+	 */
+	void agentJoined (InetAddress agentAddr) {
+		pushedLists.remove(agentAddr);
+		publish(agentAddr);
+	}
+
+
+	/**
+	 * @return the complete subscription list for an agent
+	 */
+	synchronized String getSubscriptionList (InetAddress agentAddr) {
+		int count = 0;
+		StringBuilder sb = new StringBuilder();
+
+		List<String> pools = new ArrayList<String>(poolManager.getPoolsForAgent(agentAddr));
+		pools.add(PoolManager.GLOBAL_POOL);
+
+		for (String pool: pools) {
+			PoolSubscriptions ps = poolSubscriptions.get(pool);
+			if (ps == null)
+				continue;
+
+			count += ps.entries.size();
+			sb.append(ps.getEncoded());
+		}
+
+		return count + " " + sb.toString();
+	}
+
+
+	private void publishToPool (String pool) {
+		final Iterable<InetAddress> agents = pool.equals(PoolManager.GLOBAL_POOL) ?
+				agentManager.getAgents().keySet() : poolManager.getAgentAddrsForPool(pool);
+
+		for (InetAddress agentAddr: agents) {
+			publish(agentAddr);
+		}
+	}
+
+
+	/**
+	 * Schedule a push to the agent, unless one is already pending
+	 */
+	private void publish (final InetAddress agentAddr) {
+		if (dirtyAgents.putIfAbsent(agentAddr, Boolean.TRUE) != null)
+			return;
+
+		publisher.execute(new Runnable() {
+			@Override
+			public void run() {
+				// Changes made from now on need another push
+				dirtyAgents.remove(agentAddr);
+
+				IOdinAgent agent = agentManager.getAgent(agentAddr);
+				if (agent == null) {
+					pushedLists.remove(agentAddr);
+					return;
+				}
+
+				String list = getSubscriptionList(agentAddr);
+				if (!list.equals(pushedLists.get(agentAddr))) {
+					agent.setSubscriptions(list);
+					pushedLists.put(agentAddr, list);
+				}
+			}
+		});
+	}
+
+
+	/**
+	 * Subscriptions of a pool, ordered by id,
+	 * with their encoded form cached
+	 */
+	private static class PoolSubscriptions {
+		final TreeMap<Long, String> entries = new TreeMap<Long, String>();
+		String encoded;
+
+		String getEncoded () {
+			if (encoded == null) {
+				StringBuilder sb = new StringBuilder();
+				for (String entry: entries.values()) {
+					sb.append(entry);
+				}
+				encoded = sb.toString();
+			}
+			return encoded;
+		}
+	}
+}
@@ -12,8 +12,8 @@ import net.floodlightcontroller.core.module.IFloodlightService;
 public interface IPktInProcessingTimeService extends IFloodlightService {
 
     /**
-     * Creates time buckets for a set of modules to measure their performance
-     * @param listeners The message listeners to create time buckets for
+     * Creates the histograms the processing times are recorded in
+     * @param listeners The message listeners to measure
      */
     public void bootstrap(List<IOFMessageListener> listeners);
     
@@ -33,5 +33,8 @@ public interface IPktInProcessingTimeService extends IFloodlightService {
     
     public void setEnabled(boolean enabled);
     
-    public CumulativeTimeBucket getCtb();
+    /**
+     * @return the packet-in processing times, or null before bootstrap()
+     */
+    public PacketInLatencies getLatencies();
 }
@@ -26,7 +26,7 @@ import net.floodlightcontroller.core.module.IFloodlightService;
 public class NullPktInProcessingTime 
     implements IFloodlightModule, IPktInProcessingTimeService {
     
-    private CumulativeTimeBucket ctb;
+    private PacketInLatencies latencies;
     private boolean inited = false;
     
     public Collection<Class<? extends IFloodlightService>> getModuleServices() {
@@ -73,7 +73,7 @@ public class NullPktInProcessingTime
     @Override
     public void bootstrap(List<IOFMessageListener> listeners) {
         if (!inited)
-            ctb = new CumulativeTimeBucket(listeners);
+            latencies = new PacketInLatencies(1, 1000);
     }
 
     @Override
@@ -103,7 +103,7 @@ public class NullPktInProcessingTime
     }
 
     @Override
-    public CumulativeTimeBucket getCtb() {
-        return ctb;
+    public PacketInLatencies getLatencies() {
+        return latencies;
     }
 }
@@ -0,0 +1,119 @@
+package net.floodlightcontroller.perfmon;
+
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.openflow.util.HexString;
+
+import net.floodlightcontroller.core.IOFMessageListener;
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.util.LatencyHistogram;
+import net.floodlightcontroller.util.SlidingLatencyHistogram;
+
+/**
+ * Packet-in processing times in nanoseconds, over a sliding window:
+ * for the whole chain of listeners, per listener and per switch.
+ * Safe to record into from any number of threads.
+ */
+public class PacketInLatencies {
+    protected final int slots;
+    protected final long slotMs;
+    protected volatile long startTimeMs;
+
+    protected final SlidingLatencyHistogram total;
+    protected final ConcurrentMap<IOFMessageListener, SlidingLatencyHistogram> listeners;
+    protected final ConcurrentMap<Long, SlidingLatencyHistogram> switches;
+
+    /**
+     * @param slots number of slots in the window
+     * @param slotMs duration of one slot
+     */
+    public PacketInLatencies(int slots, long slotMs) {
+        this.slots = slots;
+        this.slotMs = slotMs;
+        this.startTimeMs = System.currentTimeMillis();
+        this.total = new SlidingLatencyHistogram(slots, slotMs);
+        this.listeners =
+                new ConcurrentHashMap<IOFMessageListener, SlidingLatencyHistogram>();
+        this.switches = new ConcurrentHashMap<Long, SlidingLatencyHistogram>();
+    }
+
+    public int getWindowSeconds() {
+        return (int) (slots * slotMs / 1000);
+    }
+
+    /**
+     * Record the time the listeners took to process a packet-in
+     */
+    public void recordPacket(IOFSwitch sw, long procTimeNs) {
+        total.record(procTimeNs);
+        if (sw != null) {
+            histogramOf(switches, sw.getId()).record(procTimeNs);
+        }
+    }
+
+    /**
+     * Record the time one listener took to process a packet-in
+     */
+    public void recordComponent(IOFMessageListener listener, long procTimeNs) {
+        histogramOf(listeners, listener).record(procTimeNs);
+    }
+
+    private <K> SlidingLatencyHistogram histogramOf(
+            ConcurrentMap<K, SlidingLatencyHistogram> histograms, K key) {
+        SlidingLatencyHistogram h = histograms.get(key);
+        if (h == null) {
+            h = new SlidingLatencyHistogram(slots, slotMs);
+            SlidingLatencyHistogram old = histograms.putIfAbsent(key, h);
+            if (old != null) h = old;
+        }
+        return h;
+    }
+
+    /**
+     * Resets all the histograms
+     */
+    public void reset() {
+        startTimeMs = System.currentTimeMillis();
+        total.reset();
+        listeners.clear();
+        switches.clear();
+    }
+
+    /**
+     * @param windowSeconds how far back to look, up to the whole window
+     * @return count, mean, percentiles and max of the processing times
+     * over the window, in total, per listener and per switch
+     */
+    public Map<String, Object> getStatistics(int windowSeconds) {
+        int n = (int) Math.min(slots,
+                Math.max(1, (windowSeconds * 1000L + slotMs - 1) / slotMs));
+
+        Map<String, LatencyHistogram.Snapshot> modules =
+                new TreeMap<String, LatencyHistogram.Snapshot>();
+        for (Map.Entry<IOFMessageListener, SlidingLatencyHistogram> e :
+                listeners.entrySet()) {
+            modules.put(e.getKey().getClass().getCanonicalName(),
+                        e.getValue().getSnapshot(n));
+        }
+        Map<String, LatencyHistogram.Snapshot> sws =
+                new TreeMap<String, LatencyHistogram.Snapshot>();
+        for (Map.Entry<Long, SlidingLatencyHistogram> e : switches.entrySet()) {
+            sws.put(HexString.toHexString(e.getKey()),
+                    e.getValue().getSnapshot(n));
+        }
+
+        Map<String, Object> stats = new TreeMap<String, Object>();
+        stats.put("start-time", new Timestamp(startTimeMs).toString());
+        stats.put("current-time",
+                  new Timestamp(System.currentTimeMillis()).toString());
+        stats.put("window-seconds", n * slotMs / 1000);
+        stats.put("total", total.getSnapshot(n));
+        stats.put("modules", modules);
+        stats.put("switches", sws);
+        return stats;
+    }
+}
@@ -1,5 +1,7 @@
 package net.floodlightcontroller.perfmon;
 
+import java.util.Map;
+
 import org.restlet.data.Status;
 import org.restlet.resource.Get;
 import org.restlet.resource.ServerResource;
@@ -8,14 +10,16 @@ import org.slf4j.LoggerFactory;
 
 
 /**
- * Return the performance monitoring data for the get rest api call
+ * Return the performance monitoring data for the get rest api call.
+ * The optional "window" query parameter narrows the sliding window
+ * down to the last so many seconds.
  * @author subrata
  */
 public class PerfMonDataResource extends ServerResource {
     protected static Logger logger = LoggerFactory.getLogger(PerfMonDataResource.class);  
     
     @Get("json")
-    public CumulativeTimeBucket handleApiQuery() {        
+    public Map<String, Object> handleApiQuery() {        
         IPktInProcessingTimeService pktinProcTime = 
             (IPktInProcessingTimeService)getContext().getAttributes().
                 get(IPktInProcessingTimeService.class.getCanonicalName());
@@ -23,11 +27,21 @@ public class PerfMonDataResource extends ServerResource {
         setStatus(Status.SUCCESS_OK, "OK");
         // Allocate output object
         if (pktinProcTime.isEnabled()) {
-            CumulativeTimeBucket ctb = pktinProcTime.getCtb();
-            ctb.computeAverages();
-            return ctb;
+            PacketInLatencies latencies = pktinProcTime.getLatencies();
+            int windowSeconds = latencies.getWindowSeconds();
+            String window = getQuery().getFirstValue("window", true);
+            if (window != null) {
+                try {
+                    windowSeconds = Integer.parseInt(window);
+                } catch (NumberFormatException e) {
+                    setStatus(Status.CLIENT_ERROR_BAD_REQUEST,
+                              "Invalid window: " + window);
+                    return null;
+                }
+            }
+            return latencies.getStatistics(windowSeconds);
         }
         
         return null;
     }
-}
\ No newline at end of file
+}
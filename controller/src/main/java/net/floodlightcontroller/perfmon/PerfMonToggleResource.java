@@ -14,7 +14,7 @@ public class PerfMonToggleResource extends ServerResource {
         
         String param = ((String)getRequestAttributes().get("perfmonstate")).toLowerCase();
         if (param.equals("reset")) {
-            pktinProcTime.getCtb().reset();
+            pktinProcTime.getLatencies().reset();
         } else {
             if (param.equals("enable") || param.equals("true")) {
                 pktinProcTime.setEnabled(true);
@@ -4,6 +4,7 @@
 package net.floodlightcontroller.perfmon;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -30,13 +31,11 @@ public class PktInProcessingTime
     implements IFloodlightModule, IPktInProcessingTimeService {
 
     /***
-     * This class contains a set of buckets (called time buckets as the
-     * primarily contain 'times' that are used in a circular way to 
-     * store information on packet in processing time.
-     * Each bucket is meant to store the various processing time 
-     * related data for a fixed duration.
-     * Buckets are reused to reduce garbage generation! Once the
-     * last bucket is used up the LRU bucket is reused.
+     * Packet-in processing times are kept in histograms over a sliding
+     * window of BUCKET_SET_SIZE buckets, each holding the times of a
+     * fixed duration. Expired buckets are dropped as the window slides.
+     * Recording takes a few atomic increments, and the start times are
+     * kept per thread, so any number of threads can process packet-ins.
      * 
      * Naming convention for variable or constants
      * variable_s : value in seconds
@@ -45,12 +44,8 @@ public class PktInProcessingTime
      * variable_ns: value in nanoseconds
      * 
      * Key Constants:
-     * ONE_BUCKET_DURATION_SECONDS_INT:  time duration of each bucket
+     * ONE_BUCKET_DURATION_SECONDS:  time duration of each bucket
      * BUCKET_SET_SIZE: Number of buckets
-     * TOT_PROC_TIME_WARN_THRESHOLD_US: if processing time for a packet
-     *    exceeds this threshold then a warning LOG message is generated
-     * TOT_PROC_TIME_ALERT_THRESHOLD_US: same as above but an alert level
-     *    syslog is generated instead
      * 
      */
     
@@ -67,11 +62,9 @@ public class PktInProcessingTime
     protected static  Logger  logger = 
         LoggerFactory.getLogger(PktInProcessingTime.class);
     
-    protected boolean isEnabled = false;
-    protected boolean isInited = false;
-    // Maintains the time when the last packet was processed
-    protected long lastPktTime_ns;
-    private CumulativeTimeBucket ctb = null;
+    protected volatile boolean isEnabled = false;
+    protected volatile boolean isInited = false;
+    private volatile PacketInLatencies latencies = null;
 
     
     /***
@@ -79,14 +72,51 @@ public class PktInProcessingTime
      * of 30*10s = 5mins of processing time data is maintained
      */
     protected static final int ONE_BUCKET_DURATION_SECONDS = 10;// seconds
-    protected static final long ONE_BUCKET_DURATION_NANOSECONDS  =
-                                ONE_BUCKET_DURATION_SECONDS * 1000000000;
+    protected static final int BUCKET_SET_SIZE = 30;
+    
+    /**
+     * Start times of the packet-in being processed by a thread and of
+     * the listener processing it. A listener can have a packet-in
+     * handled on the same thread, so the start times are stacked.
+     */
+    protected static class Recorder {
+        static final long NONE = Long.MIN_VALUE;
+        
+        private long[] startNs = new long[8];
+        private int depth = 0;
+        
+        void push(long ns) {
+            if (depth == startNs.length) {
+                startNs = Arrays.copyOf(startNs, depth * 2);
+            }
+            startNs[depth++] = ns;
+        }
+        
+        /**
+         * @return the last start time pushed, or NONE
+         */
+        long pop() {
+            return (depth > 0) ? startNs[--depth] : NONE;
+        }
+    }
+    
+    private final ThreadLocal<Recorder> recorder = new ThreadLocal<Recorder>() {
+        @Override
+        protected Recorder initialValue() {
+            return new Recorder();
+        }
+    };
     
     @Override
     public void bootstrap(List<IOFMessageListener> listeners) {
         if (!isInited) {
-            ctb = new CumulativeTimeBucket(listeners);
-            isInited = true;
+            synchronized (this) {
+                if (!isInited) {
+                    latencies = new PacketInLatencies(BUCKET_SET_SIZE,
+                            ONE_BUCKET_DURATION_SECONDS * 1000L);
+                    isInited = true;
+                }
+            }
         }
     }
     
@@ -102,39 +132,46 @@ public class PktInProcessingTime
     }
     
     @Override
-    public CumulativeTimeBucket getCtb() {
-        return ctb;
+    public PacketInLatencies getLatencies() {
+        return latencies;
     }
     
-    private long startTimePktNs;
-    private long startTimeCompNs;
+    // The end times are popped even when disabled, so disabling
+    // monitoring in the middle of a packet-in leaves no start time behind
+    
     @Override
     public void recordStartTimeComp(IOFMessageListener listener) {
         if (isEnabled()) {
-            startTimeCompNs = System.nanoTime();
+            recorder.get().push(System.nanoTime());
         }
     }
     
     @Override
     public void recordEndTimeComp(IOFMessageListener listener) {
-        if (isEnabled()) {
-            long procTime = System.nanoTime() - startTimeCompNs;
-            ctb.updateOneComponent(listener, procTime);
+        if (isInited) {
+            long startNs = recorder.get().pop();
+            if (startNs != Recorder.NONE && isEnabled()) {
+                latencies.recordComponent(listener, System.nanoTime() - startNs);
+            }
         }
     }
     
     @Override
     public void recordStartTimePktIn() {
         if (isEnabled()) {
-            startTimePktNs = System.nanoTime();
+            recorder.get().push(System.nanoTime());
         }
     }
     
     @Override
     public void recordEndTimePktIn(IOFSwitch sw, OFMessage m, FloodlightContext cntx) {
-        if (isEnabled()) {
-            long procTimeNs = System.nanoTime() - startTimePktNs;
-            ctb.updatePerPacketCounters(procTimeNs);
+        if (isInited) {
+            long startNs = recorder.get().pop();
+            if (startNs == Recorder.NONE || !isEnabled()) {
+                return;
+            }
+            long procTimeNs = System.nanoTime() - startNs;
+            latencies.recordPacket(sw, procTimeNs);
             
             if (ptWarningThresholdInNano > 0 && procTimeNs > ptWarningThresholdInNano) {
                 logger.warn("Time to process packet-in: {} us", procTimeNs/1000);
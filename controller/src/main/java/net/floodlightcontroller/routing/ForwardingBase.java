@@ -42,6 +42,7 @@ import net.floodlightcontroller.topology.ITopologyService;
 import net.floodlightcontroller.topology.NodePortTuple;
 import net.floodlightcontroller.util.TimedCache;
 
+import org.jboss.netty.buffer.ChannelBuffer;
 import org.openflow.protocol.OFFlowMod;
 import org.openflow.protocol.OFMatch;
 import org.openflow.protocol.OFMessage;
@@ -326,9 +327,9 @@ public abstract class ForwardingBase implements
 
         // set data - only if buffer_id == -1
         if (pi.getBufferId() == OFPacketOut.BUFFER_ID_NONE) {
-            byte[] packetData = pi.getPacketData();
-            poLength += packetData.length;
-            po.setPacketData(packetData);
+            ChannelBuffer packetData = pi.getPacketDataBuffer();
+            poLength += packetData.readableBytes();
+            po.setPacketDataBuffer(packetData);
         }
 
         po.setLength(poLength);
@@ -381,9 +382,9 @@ public abstract class ForwardingBase implements
         // data (note buffer_id is always BUFFER_ID_NONE) and length
         short poLength = (short)(po.getActionsLength() + 
                 OFPacketOut.MINIMUM_LENGTH);
-        byte[] packetData = pi.getPacketData();
-        poLength += packetData.length;
-        po.setPacketData(packetData);
+        ChannelBuffer packetData = pi.getPacketDataBuffer();
+        poLength += packetData.readableBytes();
+        po.setPacketDataBuffer(packetData);
         po.setLength(poLength);
 
         try {
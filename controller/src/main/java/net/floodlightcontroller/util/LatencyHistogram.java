@@ -0,0 +1,202 @@
+package net.floodlightcontroller.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies, or any other non-negative values.
+ *
+ * Values below 8 have a bucket each. Above that, every power of two is
+ * split in 8 buckets, so a percentile is at most 12.5% above the value
+ * it stands for, whatever the range of the values. Recording is a few
+ * atomic increments, and can be done from any number of threads.
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+
+	/**
+	 * @param value negative values are recorded as 0
+	 */
+	public void record (long value) {
+		if (value < 0)
+			value = 0;
+
+		buckets.incrementAndGet(bucketOf(value));
+		count.incrementAndGet();
+		sum.addAndGet(value);
+
+		long m;
+		while (value > (m = max.get())) {
+			if (max.compareAndSet(m, value))
+				break;
+		}
+	}
+
+
+	public long getCount () {
+		return count.get();
+	}
+
+
+	public long getMax () {
+		return max.get();
+	}
+
+
+	public double getMean () {
+		final long n = count.get();
+		return n == 0 ? 0 : (double) sum.get() / n;
+	}
+
+
+	/**
+	 * @param percentile in [0, 100]
+	 * @return the upper bound of the bucket the percentile falls in,
+	 *   never above the largest value, or 0 if nothing was recorded
+	 */
+	public long getPercentile (double percentile) {
+		final long[] counts = new long[BUCKETS];
+		return percentile(counts, addTo(counts), max.get(), percentile);
+	}
+
+
+	/**
+	 * @return the usual statistics, read at once
+	 */
+	public Snapshot getSnapshot () {
+		final long[] counts = new long[BUCKETS];
+		return snapshot(counts, addTo(counts), sum.get(), max.get());
+	}
+
+
+	/**
+	 * @return the statistics of all the values recorded in any of
+	 *   the histograms, as if they had been recorded in one
+	 */
+	public static Snapshot merge (Iterable<LatencyHistogram> histograms) {
+		final long[] counts = new long[BUCKETS];
+		long n = 0, total = 0, largest = 0;
+		for (LatencyHistogram h : histograms) {
+			n += h.addTo(counts);
+			total += h.sum.get();
+			largest = Math.max(largest, h.max.get());
+		}
+		return snapshot(counts, n, total, largest);
+	}
+
+
+	/**
+	 * Add the bucket counts to counts
+	 * @return the number of values added
+	 */
+	private long addTo (long[] counts) {
+		long n = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			final long c = buckets.get(b);
+			counts[b] += c;
+			n += c;
+		}
+		return n;
+	}
+
+
+	private static Snapshot snapshot (long[] counts, long n, long sum, long max) {
+		return new Snapshot(n, n == 0 ? 0 : (double) sum / n,
+				percentile(counts, n, max, 50), percentile(counts, n, max, 90),
+				percentile(counts, n, max, 99), percentile(counts, n, max, 99.9), max);
+	}
+
+
+	private static long percentile (long[] counts, long n, long max, double percentile) {
+		if (n == 0)
+			return 0;
+
+		final long rank = Math.max(1, (long) Math.ceil(n * Math.min(100, Math.max(0, percentile)) / 100));
+		long seen = 0;
+		for (int b = 0; b < BUCKETS; b++) {
+			seen += counts[b];
+			if (seen >= rank)
+				return Math.min(upperBound(b), max);
+		}
+		return max;
+	}
+
+
+	static int bucketOf (long value) {
+		if (value < SUB_BUCKETS)
+			return (int) value;
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		final int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+	}
+
+
+	static long upperBound (int bucket) {
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		final int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		final long width = 1L << (exponent - SUB_BUCKET_BITS);
+		final long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+		return lower + width - 1;
+	}
+
+
+	/**
+	 * Statistics of a histogram at some point in time
+	 */
+	public static class Snapshot {
+		private final long count;
+		private final double mean;
+		private final long p50;
+		private final long p90;
+		private final long p99;
+		private final long p999;
+		private final long max;
+
+		Snapshot (long count, double mean, long p50, long p90, long p99, long p999, long max) {
+			this.count = count;
+			this.mean = mean;
+			this.p50 = p50;
+			this.p90 = p90;
+			this.p99 = p99;
+			this.p999 = p999;
+			this.max = max;
+		}
+
+		public long getCount () {
+			return count;
+		}
+
+		public double getMean () {
+			return mean;
+		}
+
+		public long getP50 () {
+			return p50;
+		}
+
+		public long getP90 () {
+			return p90;
+		}
+
+		public long getP99 () {
+			return p99;
+		}
+
+		public long getP999 () {
+			return p999;
+		}
+
+		public long getMax () {
+			return max;
+		}
+	}
+}
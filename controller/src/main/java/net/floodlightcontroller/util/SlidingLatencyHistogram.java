@@ -0,0 +1,126 @@
+package net.floodlightcontroller.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Latency histogram over a sliding window of time.
+ *
+ * The window is a ring of slots, each a LatencyHistogram of the values
+ * recorded during one slot duration. A slot is replaced by an empty one
+ * the first time it is recorded into after the ring came round, so
+ * recording stays lock-free and a snapshot of the last n slots merges
+ * at most n histograms.
+ */
+public class SlidingLatencyHistogram {
+	private static class Slot {
+		final long epoch;
+		final LatencyHistogram histogram = new LatencyHistogram();
+
+		Slot (long epoch) {
+			this.epoch = epoch;
+		}
+	}
+
+	private final AtomicReferenceArray<Slot> slots;
+	private final long slotNs;
+	private final long originNs;
+
+
+	/**
+	 * @param slots number of slots in the window
+	 * @param slotMs duration of one slot
+	 */
+	public SlidingLatencyHistogram (int slots, long slotMs) {
+		this(slots, slotMs, System.nanoTime());
+	}
+
+
+	SlidingLatencyHistogram (int slots, long slotMs, long originNs) {
+		this.slots = new AtomicReferenceArray<Slot>(Math.max(1, slots));
+		this.slotNs = Math.max(1, slotMs) * 1000000;
+		this.originNs = originNs;
+	}
+
+
+	public int getSlots () {
+		return slots.length();
+	}
+
+
+	public long getSlotMs () {
+		return slotNs / 1000000;
+	}
+
+
+	public void record (long value) {
+		record(value, System.nanoTime());
+	}
+
+
+	void record (long value, long nowNs) {
+		final long epoch = epochOf(nowNs);
+		final int i = (int) (epoch % slots.length());
+
+		Slot s = slots.get(i);
+		while (s == null || s.epoch < epoch) {
+			// Whoever loses the race records into the winner's slot
+			slots.compareAndSet(i, s, new Slot(epoch));
+			s = slots.get(i);
+		}
+		if (s.epoch == epoch)
+			s.histogram.record(value);
+	}
+
+
+	/**
+	 * @return the statistics over the whole window
+	 */
+	public LatencyHistogram.Snapshot getSnapshot () {
+		return getSnapshot(slots.length());
+	}
+
+
+	/**
+	 * @param n number of slots, the current one included, usually
+	 *   partly elapsed
+	 * @return the statistics over the last n slots
+	 */
+	public LatencyHistogram.Snapshot getSnapshot (int n) {
+		return getSnapshot(n, System.nanoTime());
+	}
+
+
+	LatencyHistogram.Snapshot getSnapshot (int n, long nowNs) {
+		final long epoch = epochOf(nowNs);
+		final long oldest = epoch - Math.min(Math.max(1, n), slots.length()) + 1;
+
+		final List<LatencyHistogram> histograms = new ArrayList<LatencyHistogram>();
+		for (int i = 0; i < slots.length(); i++) {
+			final Slot s = slots.get(i);
+			if (s != null && s.epoch >= oldest && s.epoch <= epoch)
+				histograms.add(s.histogram);
+		}
+		return LatencyHistogram.merge(histograms);
+	}
+
+
+	/**
+	 * @return the number of slot durations since the origin; nanoTime()
+	 *   can be negative
+	 */
+	private long epochOf (long nowNs) {
+		return Math.max(0, nowNs - originNs) / slotNs;
+	}
+
+
+	/**
+	 * Drop everything recorded so far
+	 */
+	public void reset () {
+		for (int i = 0; i < slots.length(); i++) {
+			slots.set(i, null);
+		}
+	}
+}
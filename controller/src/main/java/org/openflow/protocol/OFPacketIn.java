@@ -20,6 +20,7 @@ package org.openflow.protocol;
 import java.util.Arrays;
 
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.openflow.util.U16;
 import org.openflow.util.U32;
 import org.openflow.util.U8;
@@ -41,6 +42,11 @@ public class OFPacketIn extends OFMessage {
     protected short inPort;
     protected OFPacketInReason reason;
     protected byte[] packetData;
+    /**
+     * Slice of the buffer this message was read from, copied into
+     * packetData by the first getPacketData()
+     */
+    protected ChannelBuffer packetDataBuffer;
 
     public OFPacketIn() {
         super();
@@ -70,15 +76,47 @@ public class OFPacketIn extends OFMessage {
      * @return
      */
     public byte[] getPacketData() {
+        if (this.packetData == null && this.packetDataBuffer != null) {
+            byte[] bytes = new byte[this.packetDataBuffer.readableBytes()];
+            this.packetDataBuffer.getBytes(this.packetDataBuffer.readerIndex(), bytes);
+            this.packetData = bytes;
+        }
         return this.packetData;
     }
 
+    /**
+     * Returns the packet data without copying it, as a slice of the
+     * buffer the message was read from. Read it with the absolute
+     * get methods, as the same buffer is handed to every caller.
+     * @return
+     */
+    public ChannelBuffer getPacketDataBuffer() {
+        if (this.packetDataBuffer != null)
+            return this.packetDataBuffer;
+        if (this.packetData != null)
+            return ChannelBuffers.wrappedBuffer(this.packetData);
+        return null;
+    }
+
+    /**
+     * Returns the length of the packet data
+     * @return
+     */
+    public int getPacketDataLength() {
+        if (this.packetData != null)
+            return this.packetData.length;
+        if (this.packetDataBuffer != null)
+            return this.packetDataBuffer.readableBytes();
+        return 0;
+    }
+
     /**
      * Sets the packet data, and updates the length of this message
      * @param packetData
      */
     public OFPacketIn setPacketData(byte[] packetData) {
         this.packetData = packetData;
+        this.packetDataBuffer = null;
         this.length = U16.t(OFPacketIn.MINIMUM_LENGTH + packetData.length);
         return this;
     }
@@ -142,8 +180,8 @@ public class OFPacketIn extends OFMessage {
         this.inPort = data.readShort();
         this.reason = OFPacketInReason.values()[U8.f(data.readByte())];
         data.readByte(); // pad
-        this.packetData = new byte[getLengthU() - MINIMUM_LENGTH];
-        data.readBytes(this.packetData);
+        this.packetData = null;
+        this.packetDataBuffer = data.readSlice(getLengthU() - MINIMUM_LENGTH);
     }
 
     @Override
@@ -154,7 +192,11 @@ public class OFPacketIn extends OFMessage {
         data.writeShort(inPort);
         data.writeByte((byte) reason.ordinal());
         data.writeByte((byte) 0x0); // pad
-        data.writeBytes(this.packetData);
+        if (this.packetData != null)
+            data.writeBytes(this.packetData);
+        else if (this.packetDataBuffer != null)
+            data.writeBytes(this.packetDataBuffer, this.packetDataBuffer.readerIndex(),
+                    this.packetDataBuffer.readableBytes());
     }
 
     @Override
@@ -163,7 +205,7 @@ public class OFPacketIn extends OFMessage {
         int result = super.hashCode();
         result = prime * result + bufferId;
         result = prime * result + inPort;
-        result = prime * result + Arrays.hashCode(packetData);
+        result = prime * result + Arrays.hashCode(getPacketData());
         result = prime * result + ((reason == null) ? 0 : reason.hashCode());
         result = prime * result + totalLength;
         return result;
@@ -187,7 +229,7 @@ public class OFPacketIn extends OFMessage {
         if (inPort != other.inPort) {
             return false;
         }
-        if (!Arrays.equals(packetData, other.packetData)) {
+        if (!Arrays.equals(getPacketData(), other.getPacketData())) {
             return false;
         }
         if (reason == null) {
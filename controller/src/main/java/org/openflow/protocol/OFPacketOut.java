@@ -41,6 +41,7 @@ public class OFPacketOut extends OFMessage implements OFActionFactoryAware {
     protected short actionsLength;
     protected List<OFAction> actions;
     protected byte[] packetData;
+    protected ChannelBuffer packetDataBuffer;
 
     public OFPacketOut() {
         super();
@@ -70,6 +71,11 @@ public class OFPacketOut extends OFMessage implements OFActionFactoryAware {
      * @return
      */
     public byte[] getPacketData() {
+        if (this.packetData == null && this.packetDataBuffer != null) {
+            byte[] bytes = new byte[this.packetDataBuffer.readableBytes()];
+            this.packetDataBuffer.getBytes(this.packetDataBuffer.readerIndex(), bytes);
+            this.packetData = bytes;
+        }
         return this.packetData;
     }
 
@@ -79,6 +85,18 @@ public class OFPacketOut extends OFMessage implements OFActionFactoryAware {
      */
     public OFPacketOut setPacketData(byte[] packetData) {
         this.packetData = packetData;
+        this.packetDataBuffer = null;
+        return this;
+    }
+
+    /**
+     * Sets the packet data without copying it, e.g. to the
+     * OFPacketIn.getPacketDataBuffer() of the packet being sent out
+     * @param packetData
+     */
+    public OFPacketOut setPacketDataBuffer(ChannelBuffer packetData) {
+        this.packetData = null;
+        this.packetDataBuffer = packetData;
         return this;
     }
 
@@ -164,8 +182,8 @@ public class OFPacketOut extends OFMessage implements OFActionFactoryAware {
         if ( this.actionFactory == null)
             throw new RuntimeException("ActionFactory not set");
         this.actions = this.actionFactory.parseActions(data, getActionsLengthU());
-        this.packetData = new byte[getLengthU() - MINIMUM_LENGTH - getActionsLengthU()];
-        data.readBytes(this.packetData);
+        this.packetData = null;
+        this.packetDataBuffer = data.readSlice(getLengthU() - MINIMUM_LENGTH - getActionsLengthU());
     }
 
     @Override
@@ -179,6 +197,9 @@ public class OFPacketOut extends OFMessage implements OFActionFactoryAware {
         }
         if (this.packetData != null)
             data.writeBytes(this.packetData);
+        else if (this.packetDataBuffer != null)
+            data.writeBytes(this.packetDataBuffer, this.packetDataBuffer.readerIndex(),
+                    this.packetDataBuffer.readableBytes());
     }
 
     @Override
@@ -189,7 +210,7 @@ public class OFPacketOut extends OFMessage implements OFActionFactoryAware {
         result = prime * result + actionsLength;
         result = prime * result + bufferId;
         result = prime * result + inPort;
-        result = prime * result + Arrays.hashCode(packetData);
+        result = prime * result + Arrays.hashCode(getPacketData());
         return result;
     }
 
@@ -221,7 +242,7 @@ public class OFPacketOut extends OFMessage implements OFActionFactoryAware {
         if (inPort != other.inPort) {
             return false;
         }
-        if (!Arrays.equals(packetData, other.packetData)) {
+        if (!Arrays.equals(getPacketData(), other.getPacketData())) {
             return false;
         }
         return true;
@@ -235,6 +256,6 @@ public class OFPacketOut extends OFMessage implements OFActionFactoryAware {
         return "OFPacketOut [actionFactory=" + actionFactory + ", actions="
                 + actions + ", actionsLength=" + actionsLength + ", bufferId=0x"
                 + Integer.toHexString(bufferId) + ", inPort=" + inPort + ", packetData="
-                + Arrays.toString(packetData) + "]";
+                + Arrays.toString(getPacketData()) + "]";
     }
 }
@@ -51,7 +51,7 @@ public class BasicFactory implements OFMessageFactory, OFActionFactory,
 
     @Override
     public List<OFMessage> parseMessage(ChannelBuffer data) throws MessageParseException {
-        List<OFMessage> msglist = new ArrayList<OFMessage>();
+        List<OFMessage> msglist = null;
         OFMessage msg = null;
 
         while (data.readableBytes() >= OFMessage.MINIMUM_LENGTH) {
@@ -62,33 +62,29 @@ public class BasicFactory implements OFMessageFactory, OFActionFactory,
                 break;
             }
             else {
+                if (msglist == null)
+                    msglist = new ArrayList<OFMessage>();
                 msglist.add(msg);
             }
         }
 
-        if (msglist.size() == 0) {
-            return null;
-        }
         return msglist;
 
     }
 
     public OFMessage parseMessageOne(ChannelBuffer data) throws MessageParseException {
         try {
-            OFMessage demux = new OFMessage();
             OFMessage ofm = null;
 
             if (data.readableBytes() < OFMessage.MINIMUM_LENGTH)
                 return ofm;
 
-            data.markReaderIndex();
-            demux.readFrom(data);
-            data.resetReaderIndex();
-
-            if (demux.getLengthU() > data.readableBytes())
+            // Peek at the type and length of the header in place
+            int start = data.readerIndex();
+            if (data.getUnsignedShort(start + 2) > data.readableBytes())
                 return ofm;
 
-            ofm = getMessage(demux.getType());
+            ofm = getMessage(OFType.valueOf(data.getByte(start + 1)));
             if (ofm == null)
                 return null;
 
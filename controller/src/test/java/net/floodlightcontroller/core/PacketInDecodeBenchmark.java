@@ -0,0 +1,153 @@
+package net.floodlightcontroller.core;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import net.floodlightcontroller.packet.ARP;
+import net.floodlightcontroller.packet.Data;
+import net.floodlightcontroller.packet.DHCP;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPacket;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.TCP;
+import net.floodlightcontroller.packet.UDP;
+
+/**
+ * Compares decoding every packet-in up front against the lazy
+ * PacketInView. Run with:
+ *
+ *   java -cp <test classpath> net.floodlightcontroller.core.PacketInDecodeBenchmark [packets]
+ *
+ * Each packet-in goes through what the controller does with it: the
+ * packet-in counters read the L2/L3 header fields, and the Odin
+ * master only looks further into DHCP frames. The eager round
+ * deserializes every frame as handleMessage() used to; the lazy
+ * round reads the headers in place and only decodes the DHCP ones.
+ */
+public class PacketInDecodeBenchmark {
+    private static final int ROUNDS = 5;
+
+    private static long sum;
+
+    private static byte[] frame(String dst, short etherType, IPacket payload) {
+        return new Ethernet()
+            .setSourceMACAddress("00:1b:b3:0a:0b:0c")
+            .setDestinationMACAddress(dst)
+            .setEtherType(etherType)
+            .setPayload(payload)
+            .serialize();
+    }
+
+    private static IPv4 ip(byte protocol, IPacket payload) {
+        return (IPv4) new IPv4()
+            .setTtl((byte) 64)
+            .setProtocol(protocol)
+            .setSourceAddress("172.17.2.51")
+            .setDestinationAddress("172.17.1.1")
+            .setPayload(payload);
+    }
+
+    /**
+     * A mix of TCP, plain UDP, ARP and (one in eight) DHCP frames
+     */
+    private static byte[][] frames() {
+        byte[] tcp = frame("00:1b:b3:0a:0b:0d", Ethernet.TYPE_IPv4,
+                ip(IPv4.PROTOCOL_TCP, new TCP()
+                    .setSourcePort((short) 40000)
+                    .setDestinationPort((short) 80)
+                    .setPayload(new Data(new byte[512]))));
+        byte[] udp = frame("00:1b:b3:0a:0b:0d", Ethernet.TYPE_IPv4,
+                ip(IPv4.PROTOCOL_UDP, new UDP()
+                    .setSourcePort((short) 5004)
+                    .setDestinationPort((short) 5004)
+                    .setPayload(new Data(new byte[160]))));
+        byte[] arp = frame("ff:ff:ff:ff:ff:ff", Ethernet.TYPE_ARP,
+                new ARP()
+                    .setHardwareType(ARP.HW_TYPE_ETHERNET)
+                    .setProtocolType(ARP.PROTO_TYPE_IP)
+                    .setHardwareAddressLength((byte) 6)
+                    .setProtocolAddressLength((byte) 4)
+                    .setOpCode(ARP.OP_REQUEST)
+                    .setSenderHardwareAddress(new byte[6])
+                    .setSenderProtocolAddress(new byte[4])
+                    .setTargetHardwareAddress(new byte[6])
+                    .setTargetProtocolAddress(new byte[4]));
+        byte[] dhcp = frame("ff:ff:ff:ff:ff:ff", Ethernet.TYPE_IPv4,
+                ip(IPv4.PROTOCOL_UDP, new UDP()
+                    .setSourcePort(UDP.DHCP_SERVER_PORT)
+                    .setDestinationPort(UDP.DHCP_CLIENT_PORT)
+                    .setPayload(new DHCP()
+                        .setOpCode(DHCP.OPCODE_REPLY)
+                        .setHardwareType((byte) 1)
+                        .setHardwareAddressLength((byte) 6)
+                        .setClientHardwareAddress(new byte[] {0, 0x1b, (byte) 0xb3, 0x0a, 0x0b, 0x0c})
+                        .setYourIPAddress(IPv4.toIPv4Address("172.17.2.51")))));
+        return new byte[][] {tcp, udp, tcp, arp, tcp, udp, tcp, dhcp};
+    }
+
+    private static void eager(byte[] data) {
+        Ethernet eth = new Ethernet();
+        eth.deserialize(data, 0, data.length);
+
+        sum += eth.getEtherType() + (eth.isBroadcast() ? 1 : 0) + (eth.isMulticast() ? 2 : 0);
+        if (eth.getPayload() instanceof IPv4)
+            sum += ((IPv4) eth.getPayload()).getProtocol();
+
+        IPacket l4 = eth.getPayload().getPayload();
+        if (l4 != null && l4.getPayload() instanceof DHCP)
+            sum += ((DHCP) l4.getPayload()).getYourIPAddress();
+    }
+
+    private static void lazy(byte[] data) {
+        PacketInView view = new PacketInView(data);
+
+        sum += view.getEtherType() + (view.isBroadcast() ? 1 : 0) + (view.isMulticast() ? 2 : 0);
+        if (view.getIpProtocol() >= 0)
+            sum += (byte) view.getIpProtocol();
+
+        if (view.isDhcp()) {
+            IPacket l4 = view.getEthernet().getPayload().getPayload();
+            if (l4.getPayload() instanceof DHCP)
+                sum += ((DHCP) l4.getPayload()).getYourIPAddress();
+        }
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += gc.getCollectionCount();
+        }
+        return count;
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int numPackets = (args.length > 0) ? Integer.parseInt(args[0]) : 2000000;
+        final byte[][] frames = frames();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long gc = gcCount();
+            long start = System.nanoTime();
+            for (int i = 0; i < numPackets; i++) {
+                eager(frames[i % frames.length]);
+            }
+            long eagerNs = System.nanoTime() - start;
+            long eagerGc = gcCount() - gc;
+
+            gc = gcCount();
+            start = System.nanoTime();
+            for (int i = 0; i < numPackets; i++) {
+                lazy(frames[i % frames.length]);
+            }
+            long lazyNs = System.nanoTime() - start;
+            long lazyGc = gcCount() - gc;
+
+            System.out.println("round " + round
+                    + ": eager " + (eagerNs / numPackets) + " ns/pkt (" + eagerGc + " gcs"
+                    + ", " + (numPackets * 1000000000L / Math.max(eagerNs, 1)) + " pkt/s)"
+                    + ", lazy " + (lazyNs / numPackets) + " ns/pkt (" + lazyGc + " gcs"
+                    + ", " + (numPackets * 1000000000L / Math.max(lazyNs, 1)) + " pkt/s)");
+        }
+
+        System.out.println("checksum " + sum);
+    }
+}
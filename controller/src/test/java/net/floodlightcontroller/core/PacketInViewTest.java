@@ -0,0 +1,113 @@
+package net.floodlightcontroller.core;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import net.floodlightcontroller.packet.Data;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.TCP;
+import net.floodlightcontroller.packet.UDP;
+
+import org.junit.Test;
+
+public class PacketInViewTest {
+
+    private static byte[] frame(String dst, short vlan, IPv4 ip) {
+        return new Ethernet()
+            .setSourceMACAddress("00:44:33:22:11:00")
+            .setDestinationMACAddress(dst)
+            .setVlanID(vlan)
+            .setEtherType(Ethernet.TYPE_IPv4)
+            .setPayload(ip)
+            .serialize();
+    }
+
+    private static IPv4 ip(byte protocol, IPv4 ip) {
+        return ip.setTtl((byte) 64)
+            .setProtocol(protocol)
+            .setSourceAddress("192.168.1.1")
+            .setDestinationAddress("192.168.1.2");
+    }
+
+    @Test
+    public void testHeaderFields() {
+        IPv4 tcp = ip(IPv4.PROTOCOL_TCP, new IPv4());
+        tcp.setPayload(new TCP()
+                .setSourcePort((short) 5000)
+                .setDestinationPort((short) 80)
+                .setPayload(new Data(new byte[] {0x01})));
+        byte[] data = frame("00:11:22:33:44:55", (short) 42, tcp);
+
+        PacketInView view = new PacketInView(data);
+        Ethernet eth = new Ethernet();
+        eth.deserialize(data, 0, data.length);
+
+        assertEquals(eth.getEtherType(), view.getEtherType());
+        assertEquals(eth.getDestinationMAC().toLong(), view.getDestinationMAC());
+        assertEquals(eth.getSourceMAC().toLong(), view.getSourceMAC());
+        assertFalse(view.isBroadcast());
+        assertFalse(view.isMulticast());
+        assertEquals(IPv4.PROTOCOL_TCP, view.getIpProtocol());
+        assertEquals(5000, view.getTransportSourcePort());
+        assertEquals(80, view.getTransportDestinationPort());
+        assertFalse(view.isDhcp());
+        assertFalse(view.isResolved());
+
+        assertEquals(eth, view.getEthernet());
+        assertSame(view.getEthernet(), view.getEthernet());
+    }
+
+    @Test
+    public void testDhcpAndBroadcast() {
+        IPv4 udp = ip(IPv4.PROTOCOL_UDP, new IPv4());
+        udp.setPayload(new UDP()
+                .setSourcePort(UDP.DHCP_CLIENT_PORT)
+                .setDestinationPort(UDP.DHCP_SERVER_PORT)
+                .setPayload(new Data(new byte[] {0x01})));
+        PacketInView view = new PacketInView(frame("ff:ff:ff:ff:ff:ff", Ethernet.VLAN_UNTAGGED, udp));
+
+        assertTrue(view.isBroadcast());
+        assertFalse(view.isMulticast());
+        assertTrue(view.isDhcp());
+
+        PacketInView multicast = new PacketInView(frame("01:00:5e:00:00:01", Ethernet.VLAN_UNTAGGED, udp));
+        assertTrue(multicast.isMulticast());
+    }
+
+    @Test
+    public void testRuntFrame() {
+        PacketInView view = new PacketInView(new byte[] {1, 2, 3});
+        assertEquals(0, view.getEtherType());
+        assertEquals(0, view.getDestinationMAC());
+        assertEquals(-1, view.getIpProtocol());
+        assertEquals(-1, view.getTransportDestinationPort());
+        assertFalse(view.isDhcp());
+    }
+
+    @Test
+    public void testDecodedOnFirstGet() {
+        IPv4 tcp = ip(IPv4.PROTOCOL_TCP, new IPv4());
+        tcp.setPayload(new TCP().setPayload(new Data(new byte[] {0x01})));
+        PacketInView view = new PacketInView(frame("00:11:22:33:44:55", Ethernet.VLAN_UNTAGGED, tcp));
+
+        FloodlightContext cntx = new FloodlightContext();
+        IFloodlightProviderService.bcStore.putDeferred(cntx,
+                IFloodlightProviderService.CONTEXT_PI_PAYLOAD, view.asPayload());
+        IFloodlightProviderService.pktinViewStore.put(cntx,
+                IFloodlightProviderService.CONTEXT_PI_VIEW, view);
+
+        assertSame(view, IFloodlightProviderService.pktinViewStore.get(cntx,
+                IFloodlightProviderService.CONTEXT_PI_VIEW));
+        assertFalse(view.isResolved());
+
+        Ethernet eth = IFloodlightProviderService.bcStore.get(cntx,
+                IFloodlightProviderService.CONTEXT_PI_PAYLOAD);
+        assertTrue(view.isResolved());
+        assertSame(eth, IFloodlightProviderService.bcStore.get(cntx,
+                IFloodlightProviderService.CONTEXT_PI_PAYLOAD));
+        assertTrue(eth.getPayload().getPayload() instanceof TCP);
+    }
+}
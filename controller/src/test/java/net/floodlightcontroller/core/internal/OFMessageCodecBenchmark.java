@@ -0,0 +1,247 @@
+package net.floodlightcontroller.core.internal;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.floodlightcontroller.core.PacketInView;
+import net.floodlightcontroller.packet.Data;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPv4;
+import net.floodlightcontroller.packet.UDP;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.DefaultChannelFuture;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPacketIn;
+import org.openflow.protocol.OFPacketOut;
+import org.openflow.protocol.OFPort;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.OFPacketIn.OFPacketInReason;
+import org.openflow.protocol.action.OFAction;
+import org.openflow.protocol.action.OFActionOutput;
+import org.openflow.protocol.factory.BasicFactory;
+import org.openflow.protocol.factory.OFActionFactoryAware;
+import org.openflow.protocol.factory.OFMessageFactoryAware;
+import org.openflow.protocol.factory.OFStatisticsFactoryAware;
+import org.openflow.protocol.factory.OFVendorDataFactoryAware;
+
+/**
+ * Compares the OpenFlow 1.0 codec against the one it replaced: a
+ * demux OFMessage per message, packet-in payloads copied into byte[]
+ * and packet-outs, and one fresh buffer per encoded batch. Run with:
+ *
+ *   java -cp <test classpath> net.floodlightcontroller.core.internal.OFMessageCodecBenchmark [reads] [copying|slices|both]
+ *
+ * The inbound trace stands in for recorded switch traffic: reads of
+ * eight messages, mostly packet-ins of a DHCP/UDP frame, with barrier
+ * replies and echo requests in between. Each packet-in is viewed the
+ * way Controller.handleMessage() does, and answered by a packet-out
+ * of its payload. Reports the time and the bytes allocated per
+ * message, as measured by the JVM's per-thread allocation counter.
+ */
+public class OFMessageCodecBenchmark {
+    private static final int ROUNDS = 5;
+    private static final int MESSAGES_PER_READ = 8;
+
+    private static long sum;
+
+    /**
+     * The parsing done before, with the demux header read
+     */
+    private static class LegacyFactory extends BasicFactory {
+        @Override
+        public OFMessage parseMessageOne(ChannelBuffer data) {
+            OFMessage demux = new OFMessage();
+            data.markReaderIndex();
+            demux.readFrom(data);
+            data.resetReaderIndex();
+
+            OFMessage ofm = getMessage(demux.getType());
+            if (ofm instanceof OFActionFactoryAware) {
+                ((OFActionFactoryAware)ofm).setActionFactory(this);
+            }
+            if (ofm instanceof OFMessageFactoryAware) {
+                ((OFMessageFactoryAware)ofm).setMessageFactory(this);
+            }
+            if (ofm instanceof OFStatisticsFactoryAware) {
+                ((OFStatisticsFactoryAware)ofm).setStatisticsFactory(this);
+            }
+            if (ofm instanceof OFVendorDataFactoryAware) {
+                ((OFVendorDataFactoryAware)ofm).setVendorDataFactory(this);
+            }
+            ofm.readFrom(data);
+            if (ofm instanceof OFPacketIn) {
+                // readFrom() used to copy the payload
+                ((OFPacketIn) ofm).getPacketData();
+            }
+            return ofm;
+        }
+    }
+
+    private static byte[] trace() {
+        BasicFactory factory = new BasicFactory();
+        byte[] frame = new Ethernet()
+            .setSourceMACAddress("00:1b:b3:0a:0b:0c")
+            .setDestinationMACAddress("ff:ff:ff:ff:ff:ff")
+            .setEtherType(Ethernet.TYPE_IPv4)
+            .setPayload(new IPv4()
+                .setTtl((byte) 64)
+                .setProtocol(IPv4.PROTOCOL_UDP)
+                .setSourceAddress("0.0.0.0")
+                .setDestinationAddress("255.255.255.255")
+                .setPayload(new UDP()
+                    .setSourcePort(UDP.DHCP_CLIENT_PORT)
+                    .setDestinationPort(UDP.DHCP_SERVER_PORT)
+                    .setPayload(new Data(new byte[300]))))
+            .serialize();
+
+        List<OFMessage> read = new ArrayList<OFMessage>();
+        for (int i = 0; i < MESSAGES_PER_READ; i++) {
+            OFMessage m;
+            if (i == 3) {
+                m = factory.getMessage(OFType.BARRIER_REPLY);
+            } else if (i == 7) {
+                m = factory.getMessage(OFType.ECHO_REQUEST);
+            } else {
+                OFPacketIn pi = (OFPacketIn) factory.getMessage(OFType.PACKET_IN);
+                pi.setBufferId(-1)
+                  .setInPort((short) 1)
+                  .setReason(OFPacketInReason.NO_MATCH)
+                  .setTotalLength((short) frame.length)
+                  .setPacketData(frame);
+                m = pi;
+            }
+            m.setXid(i);
+            read.add(m);
+        }
+
+        int size = 0;
+        for (OFMessage m : read) {
+            size += m.getLengthU();
+        }
+        ChannelBuffer buf = ChannelBuffers.buffer(size);
+        for (OFMessage m : read) {
+            m.writeTo(buf);
+        }
+        return buf.array();
+    }
+
+    private static List<OFMessage> reply(OFMessage m, boolean slices) {
+        if (!(m instanceof OFPacketIn))
+            return Collections.emptyList();
+
+        OFPacketIn pi = (OFPacketIn) m;
+        OFPacketOut po = new OFPacketOut();
+        po.setBufferId(OFPacketOut.BUFFER_ID_NONE);
+        po.setInPort(pi.getInPort());
+        List<OFAction> actions = new ArrayList<OFAction>(1);
+        actions.add(new OFActionOutput(OFPort.OFPP_FLOOD.getValue(), (short) 0));
+        po.setActions(actions);
+        po.setActionsLength((short) OFActionOutput.MINIMUM_LENGTH);
+        if (slices) {
+            po.setPacketDataBuffer(pi.getPacketDataBuffer());
+        } else {
+            po.setPacketData(pi.getPacketData());
+        }
+        po.setLengthU(OFPacketOut.MINIMUM_LENGTH + po.getActionsLength()
+                + pi.getPacketDataLength());
+
+        List<OFMessage> out = new ArrayList<OFMessage>(1);
+        out.add(po);
+        return out;
+    }
+
+    private static void legacyEncode(List<OFMessage> msglist) {
+        int size = 0;
+        for (OFMessage ofm : msglist) {
+            size += ofm.getLengthU();
+        }
+        ChannelBuffer buf = ChannelBuffers.buffer(size);
+        for (OFMessage ofm : msglist) {
+            ofm.writeTo(buf);
+        }
+        sum += buf.readableBytes();
+    }
+
+    private static void run(byte[] trace, int reads, boolean legacy) throws Exception {
+        LegacyFactory legacyFactory = new LegacyFactory();
+        OFMessageDecoder decoder = new OFMessageDecoder();
+        OFMessageEncoder encoder = new OFMessageEncoder();
+
+        for (int r = 0; r < reads; r++) {
+            // A fresh buffer per read, as netty hands them to the decoder
+            ChannelBuffer read = ChannelBuffers.wrappedBuffer(trace.clone());
+
+            List<OFMessage> msglist;
+            if (legacy) {
+                msglist = legacyFactory.parseMessage(read);
+            } else {
+                decoder.input = read;
+                @SuppressWarnings("unchecked")
+                List<OFMessage> decoded = (List<OFMessage>) decoder.decode(null, null, read);
+                msglist = decoded;
+            }
+
+            for (OFMessage m : msglist) {
+                if (m instanceof OFPacketIn) {
+                    OFPacketIn pi = (OFPacketIn) m;
+                    // Read the EtherType, as Controller.handleMessage() does
+                    sum += legacy ? pi.getPacketData()[12] : PacketInView.of(pi).getEtherType();
+                }
+                List<OFMessage> out = reply(m, !legacy);
+                if (out.isEmpty())
+                    continue;
+                if (legacy) {
+                    legacyEncode(out);
+                } else {
+                    ChannelFuture written = new DefaultChannelFuture(null, false);
+                    sum += encoder.encode(out, written).readableBytes();
+                    // As netty does once the buffer is on the wire
+                    written.setSuccess();
+                }
+            }
+        }
+    }
+
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private static void measure(String name, byte[] trace, int reads, boolean legacy) throws Exception {
+        final int messages = reads * MESSAGES_PER_READ;
+        for (int round = 0; round < ROUNDS; round++) {
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            run(trace, reads, legacy);
+            long ns = System.nanoTime() - start;
+            bytes = allocatedBytes() - bytes;
+
+            System.out.println(name + " round " + round + ": "
+                    + (ns / messages) + " ns/msg, " + (bytes / messages) + " B/msg");
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int reads = (args.length > 0) ? Integer.parseInt(args[0]) : 250000;
+        final String codec = (args.length > 1) ? args[1] : "both";
+        final byte[] trace = trace();
+
+        // Run "copying" and "slices" in separate JVMs to keep the JIT
+        // profile of one from skewing the other
+        if (!codec.equals("slices"))
+            measure("copying", trace, reads, true);
+        if (!codec.equals("copying"))
+            measure("slices", trace, reads, false);
+
+        System.out.println("checksum " + sum);
+    }
+}
@@ -0,0 +1,126 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
+import org.jboss.netty.channel.ChannelFuture;
+import org.jboss.netty.channel.DefaultChannelFuture;
+import org.junit.Test;
+import org.openflow.protocol.OFEchoRequest;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPacketIn;
+import org.openflow.protocol.OFPacketIn.OFPacketInReason;
+import org.openflow.protocol.OFType;
+import org.openflow.protocol.factory.BasicFactory;
+
+public class OFMessageCodecTest {
+    private final BasicFactory factory = new BasicFactory();
+
+    private OFPacketIn packetIn(int xid, int payloadLength) {
+        byte[] payload = new byte[payloadLength];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) (xid + i);
+        }
+        OFPacketIn pi = (OFPacketIn) factory.getMessage(OFType.PACKET_IN);
+        pi.setBufferId(-1)
+          .setInPort((short) 1)
+          .setReason(OFPacketInReason.NO_MATCH)
+          .setTotalLength((short) payloadLength)
+          .setPacketData(payload);
+        pi.setXid(xid);
+        return pi;
+    }
+
+    private static ChannelBuffer plainEncode(List<OFMessage> msglist) {
+        ChannelBuffer buf = ChannelBuffers.dynamicBuffer();
+        for (OFMessage m : msglist) {
+            m.writeTo(buf);
+        }
+        return buf;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<OFMessage> decode(OFMessageDecoder decoder, ChannelBuffer buffer) throws Exception {
+        return (List<OFMessage>) decoder.decode(null, null, buffer);
+    }
+
+    @Test
+    public void testPayloadIsSliceOfRead() throws Exception {
+        List<OFMessage> sent = new ArrayList<OFMessage>();
+        sent.add(packetIn(1, 60));
+        sent.add((OFEchoRequest) factory.getMessage(OFType.ECHO_REQUEST));
+        ChannelBuffer read = plainEncode(sent);
+
+        OFMessageDecoder decoder = new OFMessageDecoder();
+        decoder.input = read;
+        List<OFMessage> received = decode(decoder, read);
+
+        assertEquals(sent, received);
+        OFPacketIn pi = (OFPacketIn) received.get(0);
+        assertSame(read.array(), pi.getPacketDataBuffer().array());
+        assertEquals(60, pi.getPacketDataLength());
+        assertArrayEquals(((OFPacketIn) sent.get(0)).getPacketData(), pi.getPacketData());
+    }
+
+    @Test
+    public void testCumulationIsCopied() throws Exception {
+        List<OFMessage> sent = new ArrayList<OFMessage>();
+        sent.add(packetIn(1, 60));
+        sent.add(packetIn(2, 40));
+        ChannelBuffer read = plainEncode(sent);
+        // Half of the second message still to come
+        ChannelBuffer cumulation = ChannelBuffers.dynamicBuffer();
+        cumulation.writeBytes(read, 0, read.readableBytes() - 20);
+
+        OFMessageDecoder decoder = new OFMessageDecoder();
+        List<OFMessage> received = decode(decoder, cumulation);
+        assertEquals(1, received.size());
+        assertEquals(18 + 60, cumulation.readerIndex());
+
+        // FrameDecoder compacts and refills the cumulation buffer
+        cumulation.discardReadBytes();
+        cumulation.writeBytes(read, read.readableBytes() - 20, 20);
+        OFPacketIn first = (OFPacketIn) received.get(0);
+        assertArrayEquals(((OFPacketIn) sent.get(0)).getPacketData(), first.getPacketData());
+
+        received = decode(decoder, cumulation);
+        assertEquals(sent.get(1), received.get(0));
+        assertNull(decode(decoder, cumulation));
+    }
+
+    @Test
+    public void testEncoderReusesChunks() throws Exception {
+        OFMessageEncoder encoder = new OFMessageEncoder();
+        List<OFMessage> msglist = new ArrayList<OFMessage>();
+        msglist.add(packetIn(1, 1000));
+        msglist.add(packetIn(2, 500));
+        ChannelBuffer expected = plainEncode(msglist);
+
+        // Several chunks' worth, each written out before the next
+        for (int i = 0; i < 200; i++) {
+            ChannelFuture written = new DefaultChannelFuture(null, false);
+            ChannelBuffer buf = encoder.encode(msglist, written);
+            assertEquals(expected, buf);
+            written.setSuccess();
+        }
+        assertTrue(encoder.getAllocatedChunks() <= 2);
+
+        // Slices still being written keep their chunk
+        List<ChannelBuffer> pending = new ArrayList<ChannelBuffer>();
+        for (int i = 0; i < 200; i++) {
+            pending.add(encoder.encode(msglist, new DefaultChannelFuture(null, false)));
+        }
+        assertTrue(encoder.getAllocatedChunks() > 2);
+        for (ChannelBuffer buf : pending) {
+            assertEquals(expected, buf);
+        }
+    }
+}
@@ -16,6 +16,7 @@ import org.jboss.netty.channel.Channel;
 import org.junit.Before;
 import org.junit.Test;
 import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPacketOut;
 import org.openflow.protocol.OFType;
 import org.openflow.protocol.OFVendor;
 import org.openflow.protocol.vendor.OFVendorData;
@@ -81,6 +82,38 @@ public class OFSwitchImplTest extends FloodlightTestCase {
     }
     
     
+    @Test
+    public void testWriteOutsideMessageTrain() throws Exception {
+        // Not an I/O thread: nothing waits for a flush_all()
+        expect(sw.channel.write(anyObject())).andReturn(null);
+        replay(sw.channel);
+        sw.write(new OFPacketOut(), null);
+        verify(sw.channel);
+        assertNull(OFSwitchImpl.local_msg_buffer.get());
+        reset(sw.channel);
+    }
+
+    @Test
+    public void testWriteInMessageTrain() throws Exception {
+        OFSwitchImpl.startMessageTrain();
+        try {
+            replay(sw.channel);
+            sw.write(new OFPacketOut(), null);
+            verify(sw.channel);
+            assertTrue(OFSwitchImpl.local_msg_buffer.get().contains(sw));
+
+            reset(sw.channel);
+            expect(sw.channel.write(anyObject())).andReturn(null);
+            replay(sw.channel);
+            OFSwitchImpl.flush_all();
+            verify(sw.channel);
+            assertTrue(OFSwitchImpl.local_msg_buffer.get().isEmpty());
+            reset(sw.channel);
+        } finally {
+            OFSwitchImpl.local_msg_buffer.remove();
+        }
+    }
+
     @Test
     public void testDeliverRoleReplyOk() {
         // test normal case
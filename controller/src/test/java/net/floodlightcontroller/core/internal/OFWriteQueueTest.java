@@ -0,0 +1,147 @@
+package net.floodlightcontroller.core.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.util.LatencyHistogram;
+
+import org.junit.Test;
+import org.openflow.protocol.OFMessage;
+import org.openflow.protocol.OFPacketOut;
+
+public class OFWriteQueueTest {
+
+    private static class RecordingQueue extends OFWriteQueue {
+        final List<List<OFMessage>> sent =
+                Collections.synchronizedList(new ArrayList<List<OFMessage>>());
+
+        RecordingQueue(int maxBatch, long maxDelayUs) {
+            super(maxBatch, maxDelayUs);
+        }
+
+        @Override
+        protected void send(List<OFMessage> batch) {
+            sent.add(batch);
+        }
+
+        List<OFMessage> all() {
+            List<OFMessage> all = new ArrayList<OFMessage>();
+            for (List<OFMessage> batch : sent) {
+                all.addAll(batch);
+            }
+            return all;
+        }
+    }
+
+    private static OFMessage message(int xid) {
+        OFMessage m = new OFPacketOut();
+        m.setXid(xid);
+        return m;
+    }
+
+    @Test
+    public void testBatchesInOrder() {
+        RecordingQueue q = new RecordingQueue(3, 1000);
+        for (int i = 0; i < 7; i++) {
+            assertEquals(i >= 2, q.add(message(i)));
+        }
+        assertEquals(7, q.getPending());
+        assertTrue(q.sent.isEmpty());
+
+        q.flush();
+        assertEquals(0, q.getPending());
+        assertEquals(3, q.sent.size());
+        assertEquals(3, q.sent.get(0).size());
+        assertEquals(1, q.sent.get(2).size());
+        for (int i = 0; i < 7; i++) {
+            assertEquals(i, q.all().get(i).getXid());
+        }
+
+        assertEquals(3L, q.getStatistics().get("batches"));
+        assertEquals(7L, q.getStatistics().get("messages"));
+        assertEquals(7, ((LatencyHistogram.Snapshot) q.getStatistics().get("queueDelayUs")).getCount());
+    }
+
+    @Test
+    public void testCoalescesAcrossThreads() throws Exception {
+        final RecordingQueue q = new RecordingQueue(1000, 1000);
+        final int threads = 4;
+        final int perThread = 250;
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        for (int t = 0; t < threads; t++) {
+            final int base = t * perThread;
+            new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        q.add(message(base + i));
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        done.await(10, TimeUnit.SECONDS);
+
+        q.flush();
+        assertEquals(1, q.sent.size());
+        assertEquals(threads * perThread, q.sent.get(0).size());
+
+        // Each thread's messages leave in the order it wrote them
+        int[] last = new int[threads];
+        for (int t = 0; t < threads; t++) {
+            last[t] = -1;
+        }
+        for (OFMessage m : q.all()) {
+            int t = m.getXid() / perThread;
+            assertTrue(m.getXid() > last[t]);
+            last[t] = m.getXid();
+        }
+    }
+
+    @Test
+    public void testTimedFlush() throws Exception {
+        ScheduledExecutorService ses = Executors.newSingleThreadScheduledExecutor();
+        try {
+            RecordingQueue q = new RecordingQueue(100, 200000);
+            q.add(message(1));
+            q.scheduleFlush(ses);
+            q.add(message(2));
+            q.scheduleFlush(ses);
+            assertTrue(q.sent.isEmpty());
+
+            for (int i = 0; i < 500 && q.sent.isEmpty(); i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(0, q.getPending());
+            assertEquals(1, q.sent.size());
+            assertEquals(2, q.sent.get(0).size());
+            assertEquals(1L, q.getStatistics().get("timedFlushes"));
+        } finally {
+            ses.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testListFollowsQueued() {
+        RecordingQueue q = new RecordingQueue(100, 1000);
+        q.add(message(1));
+        List<OFMessage> list = new ArrayList<OFMessage>();
+        list.add(message(2));
+        list.add(message(3));
+        q.addAll(list);
+        q.flush();
+
+        assertEquals(1, q.sent.size());
+        assertEquals(1, q.sent.get(0).get(0).getXid());
+        assertEquals(3, q.sent.get(0).get(2).getXid());
+    }
+}
@@ -0,0 +1,120 @@
+package net.floodlightcontroller.counter;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.counter.CounterStore.NetworkLayer;
+import net.floodlightcontroller.packet.Ethernet;
+import net.floodlightcontroller.packet.IPv4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.openflow.protocol.OFPacketIn;
+
+public class CounterStoreTest {
+    private static final String SW = "00:00:00:00:00:00:00:01";
+
+    private CounterStore counterStore;
+    private IOFSwitch sw;
+
+    @Before
+    public void setUp() {
+        counterStore = new CounterStore();
+        sw = createNiceMock(IOFSwitch.class);
+        expect(sw.getStringId()).andReturn(SW).anyTimes();
+        replay(sw);
+    }
+
+    private static OFPacketIn packetIn(short inPort) {
+        OFPacketIn pi = new OFPacketIn();
+        pi.setInPort(inPort);
+        pi.setPacketData(new byte[64]);
+        return pi;
+    }
+
+    private long value(String name) {
+        ICounter counter = counterStore.getCounter(name);
+        assertTrue(name, counter != null);
+        return counter.getCounterValue().getLong();
+    }
+
+    @Test
+    public void testPacketInCounterNames() {
+        OFPacketIn pi = packetIn((short) 3);
+        counterStore.updatePacketInCounters(sw, pi, Ethernet.TYPE_IPv4,
+                                            true, false, IPv4.PROTOCOL_UDP);
+        counterStore.updatePacketInCounters(sw, pi, Ethernet.TYPE_IPv4,
+                                            false, false, IPv4.PROTOCOL_TCP);
+        counterStore.updatePacketInCounters(sw, packetIn((short) 4),
+                                            Ethernet.TYPE_ARP, true, false, -1);
+
+        for (String prefix : Arrays.asList("controller__", SW + "__")) {
+            assertEquals(3, value(prefix + "OFPacketIn"));
+            assertEquals(2, value(prefix + "OFPacketIn__broadcast"));
+            assertEquals(1, value(prefix + "OFPacketIn__unicast"));
+            assertEquals(0, value(prefix + "OFPacketIn__multicast"));
+            assertEquals(2, value(prefix + "OFPacketIn__L3_IPv4"));
+            assertEquals(1, value(prefix + "OFPacketIn__L3_ARP"));
+            assertEquals(1, value(prefix + "OFPacketIn__L4_UDP"));
+            assertEquals(1, value(prefix + "OFPacketIn__L4_TCP"));
+        }
+        assertEquals(2, value(SW + "__3__OFPacketIn"));
+        assertEquals(2, value(SW + "__3__OFPacketIn__L3_IPv4"));
+        assertEquals(1, value(SW + "__4__OFPacketIn__L3_ARP"));
+        assertNull(counterStore.getCounter(SW + "__4__OFPacketIn__L3_IPv4"));
+
+        assertTrue(counterStore.getAllCategories(SW + "__3__OFPacketIn",
+                NetworkLayer.L4).containsAll(Arrays.asList("L4_UDP", "L4_TCP")));
+        assertEquals(value(SW + "__OFPacketIn"),
+                counterStore.getAll().get(SW + "__OFPacketIn").getCounterValue().getLong());
+    }
+
+    @Test
+    public void testConcurrentPacketIns() throws Exception {
+        final int threads = 4;
+        final int perThread = 10000;
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            final short port = (short) (1 + t % 2);
+            new Thread() {
+                @Override
+                public void run() {
+                    OFPacketIn pi = packetIn(port);
+                    for (int i = 0; i < perThread; i++) {
+                        counterStore.updatePacketInCounters(sw, pi,
+                                Ethernet.TYPE_IPv4, false, false, IPv4.PROTOCOL_TCP);
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        assertEquals(threads * perThread, value("controller__OFPacketIn__L4_TCP"));
+        assertEquals(threads * perThread / 2, value(SW + "__1__OFPacketIn"));
+        assertEquals(threads * perThread / 2, value(SW + "__2__OFPacketIn__unicast"));
+
+        counterStore.getCounter(SW + "__1__OFPacketIn").reset(null);
+        assertEquals(0, value(SW + "__1__OFPacketIn"));
+    }
+
+    @Test
+    public void testNameTakenByAnotherCounter() {
+        counterStore.createCounter("controller__OFPacketIn",
+                                   CounterValue.CounterType.LONG);
+        counterStore.updatePacketInCounters(sw, packetIn((short) 1),
+                Ethernet.TYPE_ARP, true, false, -1);
+        // Left alone, the other packet_in counters are still counted
+        assertEquals(0, value("controller__OFPacketIn"));
+        assertEquals(1, value("controller__OFPacketIn__L3_ARP"));
+    }
+}
@@ -0,0 +1,76 @@
+package net.floodlightcontroller.odin.applications;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the channel assignment methods on random pools of a
+ * growing number of APs. Run with:
+ *
+ *   java -cp <test classpath> net.floodlightcontroller.odin.applications.ChannelAssignmentSolverBenchmark [pools]
+ *
+ * For every size, each method solves the same pools. The time per
+ * pool is reported, and the interference of the pool in dB (lower
+ * is better), averaged over the pools.
+ */
+public class ChannelAssignmentSolverBenchmark {
+	private static final int[] SIZES = {10, 25, 50, 100, 200, 400};
+	private static final int[] METHODS = {ChannelAssignmentSolvers.WI5, ChannelAssignmentSolvers.LCC,
+		ChannelAssignmentSolvers.RANDOM};
+	private static final String[] NAMES = {"", "WI5", "RANDOM", "LCC"};
+
+	public static void main(String[] args) {
+		final int pools = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+
+		System.out.println(String.format("%6s %8s %12s %16s", "APs", "method", "ms/pool", "interference dB"));
+
+		for (int aps: SIZES) {
+			// The same pools for every method
+			final double[][][] pathLosses = new double[pools][][];
+			final double[][][] externalII = new double[pools][][];
+			final Random random = new Random(aps);
+			for (int p = 0; p < pools; p++) {
+				pathLosses[p] = ChannelAssignmentSolverTest.randomPathLosses(aps, random);
+				externalII[p] = randomExternalII(aps, random);
+			}
+
+			for (int method: METHODS) {
+				final ChannelAssignmentSolver solver = ChannelAssignmentSolvers.forMethod(method);
+
+				// Warm up
+				solver.assign(pathLosses[0], externalII[0]);
+
+				double interference = 0;
+				long elapsed = 0;
+				for (int p = 0; p < pools; p++) {
+					final long start = System.nanoTime();
+					final int[] channels = solver.assign(pathLosses[p], externalII[p]);
+					elapsed += System.nanoTime() - start;
+
+					interference += 10 * Math.log10(new ChannelInterference(pathLosses[p], externalII[p]).cost(channels));
+				}
+
+				System.out.println(String.format("%6d %8s %12.3f %16.2f", aps, NAMES[method],
+						elapsed / 1e6 / pools, interference / pools));
+			}
+		}
+	}
+
+	/**
+	 * Some networks outside the pool, each heard by a random AP
+	 * on a random channel
+	 */
+	private static double[][] randomExternalII(int aps, Random random) {
+		final double[][] externalII = new double[ChannelAssignmentSolvers.NUM_CHANNELS][aps];
+		for (double[] row: externalII) {
+			Arrays.fill(row, Double.NEGATIVE_INFINITY);
+		}
+
+		for (int n = 0; n < aps / 5 + 1; n++) {
+			final int channel = random.nextInt(ChannelAssignmentSolvers.NUM_CHANNELS);
+			final int ap = random.nextInt(aps);
+			externalII[channel][ap] = -70 - random.nextDouble() * 20;
+		}
+		return externalII;
+	}
+}
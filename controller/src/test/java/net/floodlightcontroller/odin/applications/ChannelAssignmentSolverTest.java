@@ -0,0 +1,131 @@
+package net.floodlightcontroller.odin.applications;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ChannelAssignmentSolverTest {
+	private static final int[] METHODS = {ChannelAssignmentSolvers.WI5, ChannelAssignmentSolvers.RANDOM,
+		ChannelAssignmentSolvers.LCC};
+
+	/**
+	 * APs spread at random over a square, with a log-distance path loss
+	 */
+	static double[][] randomPathLosses(int aps, Random random) {
+		final double side = 30 * Math.sqrt(aps);
+		final double[] x = new double[aps];
+		final double[] y = new double[aps];
+		for (int i = 0; i < aps; i++) {
+			x[i] = random.nextDouble() * side;
+			y[i] = random.nextDouble() * side;
+		}
+
+		final double[][] pathLosses = new double[aps][aps];
+		for (int i = 0; i < aps; i++) {
+			for (int j = 0; j < aps; j++) {
+				if (i != j) {
+					final double d = Math.max(1, Math.hypot(x[i] - x[j], y[i] - y[j]));
+					pathLosses[i][j] = 40 + 30 * Math.log10(d) + random.nextGaussian() * 2;
+				}
+			}
+		}
+		return pathLosses;
+	}
+
+	private static double[][] noExternalII(int aps) {
+		final double[][] externalII = new double[ChannelAssignmentSolvers.NUM_CHANNELS][aps];
+		for (double[] row: externalII) {
+			Arrays.fill(row, Double.NEGATIVE_INFINITY);
+		}
+		return externalII;
+	}
+
+	@Test
+	public void testChannelsInRange() throws Exception {
+		final double[][] pathLosses = randomPathLosses(20, new Random(1));
+
+		for (int method: METHODS) {
+			int[] channels = ChannelAssignmentSolvers.forMethod(method).assign(pathLosses, null);
+			assertEquals(channels.length, 20);
+			for (int channel: channels) {
+				assertTrue(channel >= 1 && channel <= ChannelAssignmentSolvers.NUM_CHANNELS);
+			}
+		}
+	}
+
+	@Test
+	public void testCloseApsGetNonOverlappingChannels() throws Exception {
+		final double[][] pathLosses = {
+			{0, 50, 55},
+			{50, 0, 52},
+			{55, 52, 0},
+		};
+
+		int[] channels = ChannelAssignmentSolvers.forMethod(ChannelAssignmentSolvers.WI5).assign(pathLosses,
+				noExternalII(3));
+		Arrays.sort(channels);
+		assertArrayEquals(channels, new int[] {1, 6, 11});
+	}
+
+	@Test
+	public void testExternalInterferenceIsAvoided() throws Exception {
+		final double[][] externalII = new double[ChannelAssignmentSolvers.NUM_CHANNELS][1];
+		for (double[] row: externalII) {
+			row[0] = -60;
+		}
+		externalII[8][0] = -90;
+
+		for (int method: new int[] {ChannelAssignmentSolvers.WI5, ChannelAssignmentSolvers.LCC}) {
+			int[] channels = ChannelAssignmentSolvers.forMethod(method).assign(new double[][] {{0}}, externalII);
+			assertArrayEquals(channels, new int[] {9});
+		}
+	}
+
+	@Test
+	public void testLccTakesTurns() throws Exception {
+		final double[][] pathLosses = {
+			{0, 50},
+			{50, 0},
+		};
+
+		// The first AP takes the lowest free channel, the second
+		// the lowest one that doesn't overlap with it
+		int[] channels = ChannelAssignmentSolvers.forMethod(ChannelAssignmentSolvers.LCC).assign(pathLosses, null);
+		assertArrayEquals(channels, new int[] {1, 6});
+	}
+
+	@Test
+	public void testWi5IsTheLeastInterfered() throws Exception {
+		final Random random = new Random(7);
+
+		for (int aps: new int[] {10, 50, 150}) {
+			final double[][] pathLosses = randomPathLosses(aps, random);
+			final ChannelInterference interference = new ChannelInterference(pathLosses, null);
+
+			final double wi5 = interference.cost(
+					ChannelAssignmentSolvers.forMethod(ChannelAssignmentSolvers.WI5).assign(pathLosses, null));
+			final double lcc = interference.cost(
+					ChannelAssignmentSolvers.forMethod(ChannelAssignmentSolvers.LCC).assign(pathLosses, null));
+			final double rnd = interference.cost(
+					ChannelAssignmentSolvers.forMethod(ChannelAssignmentSolvers.RANDOM).assign(pathLosses, null));
+
+			assertTrue(wi5 <= lcc);
+			assertTrue(wi5 < rnd);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownMethod() throws Exception {
+		ChannelAssignmentSolvers.forMethod(4);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMatricesMustAgree() throws Exception {
+		ChannelAssignmentSolvers.forMethod(ChannelAssignmentSolvers.WI5).assign(new double[2][2], noExternalII(3));
+	}
+}
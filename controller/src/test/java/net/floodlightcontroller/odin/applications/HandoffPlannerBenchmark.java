@@ -0,0 +1,65 @@
+package net.floodlightcontroller.odin.applications;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Plans the handoffs of synthetic deployments of a growing size, in
+ * the calling thread and on an executor. Run with:
+ *
+ *   java -cp <test classpath> net.floodlightcontroller.odin.applications.HandoffPlannerBenchmark [threads] [maxHandoffs]
+ *
+ * Stations start in their strongest AP, and the planner balances them
+ * as in the JAIN-BALANCER mode. For every size the time per plan is
+ * reported, with the handoffs and the Jain's index before and after.
+ */
+public class HandoffPlannerBenchmark {
+	private static final int[][] SIZES = {{50, 10}, {200, 20}, {1000, 50}, {5000, 100}};
+	private static final int PLANS = 5;
+	private static final long BUDGET = 1000; // ms
+
+	public static void main(String[] args) throws Exception {
+		final int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+		final int maxHandoffs = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		final ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		System.out.println(String.format("%8s %5s %8s %12s %9s %8s %8s", "stations", "APs", "threads", "ms/plan",
+				"handoffs", "Jain", "Jain'"));
+
+		for (int[] size: SIZES) {
+			final int stations = size[0];
+			final int aps = size[1];
+			final int[] current = new int[stations];
+			final double[][] utility = HandoffPlannerTest.randomUtility(stations, aps, new Random(stations), current);
+
+			for (int t: new int[] {1, threads}) {
+				final HandoffPlanner planner = new HandoffPlanner(t == 1 ? null : executor, t, stations, 1e-9);
+
+				// Warm up
+				planner.plan(utility, current, maxHandoffs, BUDGET);
+
+				HandoffPlanner.Plan plan = null;
+				final long start = System.nanoTime();
+				for (int p = 0; p < PLANS; p++) {
+					plan = planner.plan(utility, current, maxHandoffs, BUDGET);
+				}
+				final long elapsed = System.nanoTime() - start;
+
+				final double before = (plan.getObjectiveBefore() - sumUtility(utility, current)) / stations;
+				System.out.println(String.format("%8d %5d %8d %12.3f %9d %8.3f %8.3f%s", stations, aps, t,
+						elapsed / 1e6 / PLANS, plan.getHandoffs().length, before, plan.getFairness(),
+						plan.isTimedOut() ? " timed out" : ""));
+			}
+		}
+		executor.shutdown();
+	}
+
+	private static double sumUtility(double[][] utility, int[] assignment) {
+		double sum = 0;
+		for (int s = 0; s < assignment.length; s++) {
+			sum += utility[s][assignment[s]];
+		}
+		return sum;
+	}
+}
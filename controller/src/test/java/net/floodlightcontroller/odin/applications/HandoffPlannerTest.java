@@ -0,0 +1,144 @@
+package net.floodlightcontroller.odin.applications;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class HandoffPlannerTest {
+	private static final long BUDGET = 10000;
+
+	/**
+	 * Stations in a deployment, with their utility on the APs
+	 * that hear them and the strongest one as their AP
+	 */
+	static double[][] randomUtility(int stations, int aps, Random random, int[] current) {
+		final double side = 30 * Math.sqrt(aps);
+		final double[] apX = new double[aps];
+		final double[] apY = new double[aps];
+		for (int a = 0; a < aps; a++) {
+			apX[a] = random.nextDouble() * side;
+			apY[a] = random.nextDouble() * side;
+		}
+
+		final double[][] utility = new double[stations][aps];
+		for (int s = 0; s < stations; s++) {
+			final double x = random.nextDouble() * side;
+			final double y = random.nextDouble() * side;
+			double best = Double.NEGATIVE_INFINITY;
+			for (int a = 0; a < aps; a++) {
+				final double d = Math.max(1, Math.hypot(x - apX[a], y - apY[a]));
+				final double rssi = -40 - 30 * Math.log10(d) + random.nextGaussian() * 2;
+				utility[s][a] = rssi > -85 ? 0.001 * rssi : Double.NaN;
+				if (rssi > best) {
+					best = rssi;
+					current[s] = a;
+				}
+			}
+			utility[s][current[s]] = 0.001 * best;
+		}
+		return utility;
+	}
+
+	private static int[] loads(int[] assignment, int aps) {
+		final int[] loads = new int[aps];
+		for (int a: assignment) {
+			loads[a]++;
+		}
+		return loads;
+	}
+
+	@Test
+	public void testBalancesLoads() throws Exception {
+		final double[][] utility = new double[6][3];
+		final int[] current = new int[6];
+
+		HandoffPlanner.Plan plan = new HandoffPlanner(null, 1, 6, 1e-9).plan(utility, current, 10, BUDGET);
+		assertArrayEquals(loads(plan.getAssignment(), 3), new int[] {2, 2, 2});
+		assertArrayEquals(plan.getHandoffs(), new int[] {0, 1, 2, 3});
+		assertEquals(plan.getFairness(), 1, 1e-9);
+		assertEquals(plan.getObjectiveBefore(), 6.0 / 3, 1e-9);
+		assertEquals(plan.getObjective(), 6, 1e-9);
+		assertFalse(plan.isTimedOut());
+
+		// The current assignment isn't changed
+		assertArrayEquals(current, new int[6]);
+	}
+
+	@Test
+	public void testHandoffsAreBounded() throws Exception {
+		final double[][] utility = new double[6][3];
+
+		HandoffPlanner.Plan plan = new HandoffPlanner(null, 1, 6, 1e-9).plan(utility, new int[6], 1, BUDGET);
+		assertEquals(plan.getHandoffs().length, 1);
+		assertArrayEquals(loads(plan.getAssignment(), 3), new int[] {5, 1, 0});
+	}
+
+	@Test
+	public void testOnlyFeasibleAps() throws Exception {
+		final double[][] utility = new double[4][2];
+		for (int s = 0; s < 3; s++) {
+			utility[s][1] = Double.NaN;
+		}
+
+		HandoffPlanner.Plan plan = new HandoffPlanner(null, 1, 4, 1e-9).plan(utility, new int[4], 4, BUDGET);
+		assertArrayEquals(plan.getAssignment(), new int[] {0, 0, 0, 1});
+	}
+
+	@Test
+	public void testBestUtility() throws Exception {
+		final double[][] utility = {
+			{0.2, 0.9, 0.5},
+			{0.5, 0.52, 0.1},
+			{0.1, 0.3, 0.6},
+		};
+
+		// Without fairness, each to its best AP if it gains enough
+		HandoffPlanner.Plan plan = new HandoffPlanner(null, 1, 0, 0.05).plan(utility, new int[3], 10, BUDGET);
+		assertArrayEquals(plan.getAssignment(), new int[] {1, 0, 2});
+
+		// The ones that gain the most first
+		plan = new HandoffPlanner(null, 1, 0, 0.05).plan(utility, new int[3], 1, BUDGET);
+		assertArrayEquals(plan.getAssignment(), new int[] {1, 0, 0});
+	}
+
+	@Test
+	public void testSamePlanInParallel() throws Exception {
+		final int[] current = new int[400];
+		final double[][] utility = randomUtility(400, 60, new Random(5), current);
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			HandoffPlanner.Plan sequential = new HandoffPlanner(null, 1, 400, 1e-9).plan(utility, current, 40, BUDGET);
+			HandoffPlanner.Plan parallel = new HandoffPlanner(executor, 4, 400, 1e-9).plan(utility, current, 40, BUDGET);
+
+			assertEquals(sequential.getHandoffs().length, 40);
+			assertTrue(sequential.getObjective() > sequential.getObjectiveBefore());
+			assertArrayEquals(parallel.getAssignment(), sequential.getAssignment());
+			assertEquals(parallel.getMoves(), sequential.getMoves());
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testBudget() throws Exception {
+		final double[][] utility = new double[6][3];
+
+		HandoffPlanner.Plan plan = new HandoffPlanner(null, 1, 6, 1e-9).plan(utility, new int[6], 10, 0);
+		assertTrue(plan.isTimedOut());
+		assertEquals(plan.getHandoffs().length, 0);
+		assertArrayEquals(plan.getAssignment(), new int[6]);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCurrentApMustBeFeasible() throws Exception {
+		new HandoffPlanner(null, 1, 1, 0).plan(new double[][] {{Double.NaN, 0}}, new int[1], 1, BUDGET);
+	}
+}
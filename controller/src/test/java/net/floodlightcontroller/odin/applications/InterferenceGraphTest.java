@@ -0,0 +1,161 @@
+package net.floodlightcontroller.odin.applications;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class InterferenceGraphTest {
+	private static final double[] COEF_II = {0.65, 0.8, 0.6, 0.4, 0.2, 0.0, 0.0, 0.0, 0.0, 0.0, 0.0};
+
+	private static double linear(double dB) {
+		return Math.pow(10.0, dB / 10.0);
+	}
+
+	/**
+	 * The impact of the pool, computed from scratch
+	 */
+	private static double impactDb(InterferenceGraph graph, int[] channels, int[] txPower) {
+		double sum = 0;
+		for (int from = 0; from < graph.getAps(); from++) {
+			for (int to = 0; to < graph.getAps(); to++) {
+				if (from != to && graph.getSamples(from, to) > 0) {
+					sum += COEF_II[Math.abs(channels[from] - channels[to])]
+							* linear(txPower[from] - graph.getPathLoss(from, to));
+				}
+			}
+		}
+		return 10.0 * Math.log10(sum);
+	}
+
+	@Test
+	public void testMovingAverage() throws Exception {
+		InterferenceGraph graph = new InterferenceGraph(2, 2, COEF_II, 3.0);
+
+		graph.update(0, 1, 60);
+		assertEquals(graph.getPathLoss(0, 1), 60, 1e-9);
+
+		// Cumulative over the window
+		graph.update(0, 1, 70);
+		assertEquals(graph.getPathLoss(0, 1), 10.0 * Math.log10((linear(60) + linear(70)) / 2), 1e-9);
+
+		// Then exponential with the same weight
+		double average = (linear(60) + linear(70)) / 2;
+		graph.update(0, 1, 80);
+		average += (linear(80) - average) / 2;
+		assertEquals(graph.getPathLoss(0, 1), 10.0 * Math.log10(average), 1e-9);
+
+		assertEquals(graph.getSamples(0, 1), 3);
+		assertEquals(graph.getSamples(1, 0), 0);
+		assertEquals(graph.getPathLoss(1, 0), 0, 0);
+	}
+
+	@Test
+	public void testRunningImpactMatchesFullRecompute() throws Exception {
+		final int aps = 12;
+		final Random random = new Random(3);
+		final int[] channels = new int[aps];
+		final int[] txPower = new int[aps];
+		InterferenceGraph graph = new InterferenceGraph(aps, 3, COEF_II, 3.0);
+
+		for (int i = 0; i < aps; i++) {
+			channels[i] = 1 + random.nextInt(11);
+			txPower[i] = 10 + random.nextInt(10);
+			graph.setChannel(i, channels[i]);
+			graph.setTxPower(i, txPower[i]);
+		}
+
+		for (int round = 0; round < 200; round++) {
+			final int from = random.nextInt(aps);
+			final int to = (from + 1 + random.nextInt(aps - 1)) % aps;
+			graph.update(from, to, 50 + random.nextDouble() * 40);
+
+			if (round % 7 == 0) {
+				final int ap = random.nextInt(aps);
+				channels[ap] = 1 + random.nextInt(11);
+				graph.setChannel(ap, channels[ap]);
+			}
+			if (round % 11 == 0) {
+				final int ap = random.nextInt(aps);
+				txPower[ap] = 10 + random.nextInt(10);
+				graph.setTxPower(ap, txPower[ap]);
+			}
+
+			assertEquals(graph.getImpactDb(), impactDb(graph, channels, txPower), 1e-6);
+		}
+	}
+
+	@Test
+	public void testNoImpactOnFarChannels() throws Exception {
+		InterferenceGraph graph = new InterferenceGraph(2, 1, COEF_II, 3.0);
+		graph.update(0, 1, 60);
+		graph.update(1, 0, 60);
+
+		// Channels not known yet
+		assertEquals(graph.getImpactDb(), Double.NEGATIVE_INFINITY, 0);
+
+		graph.setChannel(0, 1);
+		graph.setChannel(1, 1);
+		assertEquals(graph.getImpactDb(), 10.0 * Math.log10(2 * 0.65 * linear(-60)), 1e-9);
+
+		graph.setChannel(1, 6);
+		assertEquals(graph.getImpactDb(), Double.NEGATIVE_INFINITY, 0);
+	}
+
+	@Test
+	public void testChangeSinceAssignment() throws Exception {
+		InterferenceGraph graph = new InterferenceGraph(3, 1, COEF_II, 3.0);
+		assertFalse(graph.isComplete());
+		assertTrue(graph.hasChangedSinceAssignment());
+
+		for (int from = 0; from < 3; from++) {
+			graph.setChannel(from, 1);
+			for (int to = 0; to < 3; to++) {
+				if (from != to)
+					graph.update(from, to, 60);
+			}
+		}
+		assertTrue(graph.isComplete());
+		graph.markAssigned();
+		assertFalse(graph.hasChangedSinceAssignment());
+
+		// Noise doesn't count
+		graph.update(0, 1, 61);
+		assertFalse(graph.hasChangedSinceAssignment());
+
+		graph.update(0, 1, 70);
+		assertTrue(graph.hasChangedSinceAssignment());
+
+		// Back to where it was
+		graph.update(0, 1, 60);
+		assertFalse(graph.hasChangedSinceAssignment());
+
+		graph.setChannel(2, 11);
+		assertTrue(graph.hasChangedSinceAssignment());
+		graph.markAssigned();
+		assertFalse(graph.hasChangedSinceAssignment());
+	}
+
+	@Test
+	public void testSettledAps() throws Exception {
+		InterferenceGraph graph = new InterferenceGraph(2, 2, COEF_II, 3.0);
+		assertFalse(graph.isSettled(0));
+
+		graph.update(0, 1, 60);
+		assertFalse(graph.isSettled(0));
+
+		// A full window, and not moving
+		graph.update(0, 1, 61);
+		assertTrue(graph.isSettled(0));
+		assertFalse(graph.isSettled(1));
+
+		graph.update(0, 1, 80);
+		assertFalse(graph.isSettled(0));
+
+		graph.update(0, 1, 79);
+		assertTrue(graph.isSettled(0));
+	}
+}
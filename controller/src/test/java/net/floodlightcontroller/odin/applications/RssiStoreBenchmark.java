@@ -0,0 +1,57 @@
+package net.floodlightcontroller.odin.applications;
+
+import java.util.Random;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * Time to add a round of scans to the RSSI store of SmartApSelection.
+ * Run with:
+ *
+ *   java -cp <test classpath> net.floodlightcontroller.odin.applications.RssiStoreBenchmark [stations] [agents] [rounds]
+ *
+ * Every agent hears every station, on a single channel, so each round
+ * parses and averages stations x agents lines.
+ */
+public class RssiStoreBenchmark {
+
+	public static void main(String[] args) {
+		final int stations = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		final int agents = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		final int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+		final RssiStore store = new RssiStore(agents, 0.8);
+		final Random random = new Random(1);
+		final String[] scans = new String[agents];
+		final StringBuilder sb = new StringBuilder();
+		for (int agent = 0; agent < agents; agent++) {
+			sb.setLength(0);
+			for (int i = 0; i < stations; i++) {
+				MACAddress mac = MACAddress.valueOf(0x001122000000L + i);
+				if (agent == 0)
+					store.setChannel(store.addStation(mac), 0);
+				sb.append(mac.toString()).append(' ').append(-30 - random.nextInt(60)).append('\n');
+			}
+			scans[agent] = sb.toString();
+		}
+
+		// Warm up
+		for (int round = 0; round < rounds; round++) {
+			for (int agent = 0; agent < agents; agent++) {
+				store.update(agent, 0, scans[agent]);
+			}
+		}
+
+		long updated = 0;
+		final long start = System.nanoTime();
+		for (int round = 0; round < rounds; round++) {
+			for (int agent = 0; agent < agents; agent++) {
+				updated += store.update(agent, 0, scans[agent]);
+			}
+		}
+		final long elapsed = System.nanoTime() - start;
+
+		System.out.println(String.format("%d stations x %d agents: %.3f ms/round, %.1f ns/line",
+				stations, agents, elapsed / 1e6 / rounds, (double) elapsed / updated));
+	}
+}
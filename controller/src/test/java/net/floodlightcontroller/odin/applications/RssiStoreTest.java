@@ -0,0 +1,113 @@
+package net.floodlightcontroller.odin.applications;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import net.floodlightcontroller.util.MACAddress;
+
+import org.junit.Test;
+
+public class RssiStoreTest {
+	private static final MACAddress STA1 = MACAddress.valueOf("00:00:00:00:00:01");
+	private static final MACAddress STA2 = MACAddress.valueOf("00:0A:BC:00:00:02");
+
+	private static double linear(double dBm) {
+		return Math.pow(10.0, dBm / 10.0);
+	}
+
+	@Test
+	public void testRows() throws Exception {
+		RssiStore store = new RssiStore(2, 0.5);
+		assertEquals(store.getRow(STA1), -1);
+
+		int row = store.addStation(STA1);
+		assertEquals(store.addStation(STA1), row);
+		assertEquals(store.getRow(STA1), row);
+		assertEquals(store.getMac(row), STA1);
+		assertEquals(store.getStations(), 1);
+
+		assertFalse(store.hasData(row));
+		assertFalse(store.hasData(-1));
+		assertEquals(store.getDbm(row, 0), RssiStore.NOT_HEARD, 0);
+		assertEquals(store.getDbm(-1, 0), RssiStore.NOT_HEARD, 0);
+	}
+
+	@Test
+	public void testAverageInLinearPower() throws Exception {
+		RssiStore store = new RssiStore(2, 0.25);
+		int row = store.addStation(STA1);
+		store.setChannel(row, 0);
+
+		assertEquals(store.update(1, 0, "00:00:00:00:00:01 -50\n"), 1);
+		assertTrue(store.hasData(row));
+		assertEquals(store.getDbm(row, 1), -50, 1e-9);
+		assertEquals(store.getDbm(row, 0), RssiStore.NOT_HEARD, 0);
+
+		store.update(1, 0, "00:00:00:00:00:01 -60.5");
+		double average = linear(-50) * 0.75 + linear(-60.5) * 0.25;
+		assertEquals(store.getDbm(row, 1), 10 * Math.log10(average), 1e-9);
+
+		// Not heard keeps the average
+		store.update(1, 0, "");
+		assertEquals(store.getDbm(row, 1), 10 * Math.log10(average), 1e-9);
+
+		double[] dBm = store.getDbm(row, new double[2]);
+		assertEquals(dBm[0], RssiStore.NOT_HEARD, 0);
+		assertEquals(dBm[1], 10 * Math.log10(average), 1e-9);
+	}
+
+	@Test
+	public void testOnlyStationsInTheChannel() throws Exception {
+		RssiStore store = new RssiStore(1, 0.5);
+		int row1 = store.addStation(STA1);
+		int row2 = store.addStation(STA2);
+		store.setChannel(row1, 0);
+		store.setChannel(row2, 1);
+
+		final String scan = "00:00:00:00:00:01 -40\n00:0a:bc:00:00:02 -45\n00:00:00:00:00:03 -30\n";
+		assertEquals(store.update(0, 0, scan), 1);
+		assertEquals(store.getDbm(row1, 0), -40, 1e-9);
+		assertEquals(store.getDbm(row2, 0), RssiStore.NOT_HEARD, 0);
+		assertFalse(store.hasData(row2));
+
+		assertEquals(store.update(0, 1, scan), 1);
+		assertEquals(store.getDbm(row2, 0), -45, 1e-9);
+	}
+
+	@Test
+	public void testMalformedLinesAreSkipped() throws Exception {
+		RssiStore store = new RssiStore(1, 0.5);
+		store.setChannel(store.addStation(STA1), 0);
+
+		assertEquals(store.update(0, 0, "00:00:00:00:00:01\n"), 0);
+		assertEquals(store.update(0, 0, "00:00:00:00:00:01 -40 1\n"), 0);
+		assertEquals(store.update(0, 0, "00:00:00:00:01 -40\n"), 0);
+		assertEquals(store.update(0, 0, "00:00:00:00:00:0g -40\n"), 0);
+		assertEquals(store.update(0, 0, "00:00:00:00:00:01 x\n"), 0);
+		assertEquals(store.getDbm(0, 0), RssiStore.NOT_HEARD, 0);
+
+		assertEquals(store.update(0, 0, "\n00:00:00:00:00:01 -40 \r\n"), 1);
+		assertEquals(store.getDbm(0, 0), -40, 1e-9);
+	}
+
+	@Test
+	public void testManyStations() throws Exception {
+		RssiStore store = new RssiStore(3, 0.5);
+		final StringBuilder scan = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			MACAddress mac = MACAddress.valueOf(0x001122000000L + i);
+			store.setChannel(store.addStation(mac), 2);
+			scan.append(mac.toString()).append(' ').append(-30 - i % 60).append('\n');
+		}
+		assertEquals(store.getStations(), 1000);
+		assertEquals(store.update(2, 2, scan.toString()), 1000);
+
+		for (int i = 0; i < 1000; i++) {
+			int row = store.getRow(MACAddress.valueOf(0x001122000000L + i));
+			assertEquals(row, i);
+			assertEquals(store.getDbm(row, 2), -30 - i % 60, 1e-9);
+			assertEquals(store.getDbm(row, 1), RssiStore.NOT_HEARD, 0);
+		}
+	}
+}
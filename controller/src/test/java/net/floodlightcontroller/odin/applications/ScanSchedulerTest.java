@@ -0,0 +1,91 @@
+package net.floodlightcontroller.odin.applications;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ScanSchedulerTest {
+
+	@Test
+	public void testAgentsSpreadOverChannels() throws Exception {
+		ScanScheduler scheduler = new ScanScheduler(11, 3, 3);
+		assertTrue(scheduler.startRound(new int[] {0, 5, 10}, 0));
+
+		// Every channel is heard in every slot
+		assertArrayEquals(scheduler.nextSlot(), new int[] {0, 5, 10});
+		assertArrayEquals(scheduler.nextSlot(), new int[] {5, 10, 0});
+	}
+
+	@Test
+	public void testRoundTakesOneSlotPerChannel() throws Exception {
+		final int[] channels = {0, 5, 10};
+		ScanScheduler scheduler = new ScanScheduler(11, 4, 3);
+		scheduler.startRound(channels, 100);
+
+		for (int slot = 0; slot < channels.length; slot++) {
+			assertFalse(scheduler.isRoundDone());
+			// A round can't start until the last one is done
+			assertFalse(scheduler.startRound(channels, 100));
+
+			int[] plan = scheduler.nextSlot();
+			for (int agent = 0; agent < plan.length; agent++) {
+				scheduler.scanned(plan[agent], agent, "00:00:00:00:00:0" + agent + " -50", 100 + 10 * (slot + 1));
+				assertTrue(scheduler.isFresh(plan[agent], agent));
+			}
+		}
+		assertTrue(scheduler.isRoundDone());
+		assertEquals(scheduler.getRounds(), 1);
+		assertEquals(scheduler.getLastRoundLatency(), 30);
+		assertEquals(scheduler.getResult(5, 2), "00:00:00:00:00:02 -50");
+
+		// Nothing left, and results of the last slot aren't fresh any more
+		assertArrayEquals(scheduler.nextSlot(), new int[] {ScanScheduler.IDLE, ScanScheduler.IDLE,
+			ScanScheduler.IDLE, ScanScheduler.IDLE});
+		assertFalse(scheduler.isFresh(5, 2));
+		assertEquals(scheduler.getResult(5, 2), "00:00:00:00:00:02 -50");
+	}
+
+	@Test
+	public void testBusyAgentIsAskedAgain() throws Exception {
+		ScanScheduler scheduler = new ScanScheduler(11, 1, 3);
+		scheduler.startRound(new int[] {0}, 0);
+
+		assertArrayEquals(scheduler.nextSlot(), new int[] {0});
+		scheduler.busy(0, 0, 10);
+		assertFalse(scheduler.isRoundDone());
+		assertNull(scheduler.getResult(0, 0));
+
+		assertArrayEquals(scheduler.nextSlot(), new int[] {0});
+		scheduler.scanned(0, 0, "", 20);
+		assertTrue(scheduler.isRoundDone());
+		assertEquals(scheduler.getRetries(), 1);
+		assertEquals(scheduler.getMissed(), 0);
+	}
+
+	@Test
+	public void testBusyAgentIsGivenUp() throws Exception {
+		ScanScheduler scheduler = new ScanScheduler(11, 2, 3);
+		scheduler.startRound(new int[] {0}, 0);
+
+		for (int attempt = 0; attempt < 3; attempt++) {
+			assertFalse(scheduler.isRoundDone());
+			int[] plan = scheduler.nextSlot();
+			assertEquals(plan[0], 0);
+			scheduler.busy(0, 0, 10 * (attempt + 1));
+			if (plan[1] != ScanScheduler.IDLE)
+				scheduler.scanned(0, 1, "", 10);
+		}
+		assertTrue(scheduler.isRoundDone());
+		assertEquals(scheduler.getRetries(), 2);
+		assertEquals(scheduler.getMissed(), 1);
+		assertEquals(scheduler.getLastRoundLatency(), 30);
+
+		// The next round asks it again
+		assertTrue(scheduler.startRound(new int[] {0}, 50));
+		assertArrayEquals(scheduler.nextSlot(), new int[] {0, 0});
+	}
+}
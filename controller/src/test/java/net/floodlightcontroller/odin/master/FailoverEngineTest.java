@@ -0,0 +1,233 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.floodlightcontroller.util.MACAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FailoverEngineTest {
+	private final Map<InetAddress, IOdinAgent> agents = new HashMap<InetAddress, IOdinAgent>();
+	private ExecutorService executor;
+	private ClientManager clientManager;
+	private PoolManager poolManager;
+	private MeasurementCache cache;
+	private HandoffPipeline pipeline;
+	private FailoverEngine engine;
+
+	/**
+	 * Scans the given RSSIs, counts its batched adds, and refuses
+	 * them if told to
+	 */
+	private static class ScanningAgent extends StubOdinAgent {
+		volatile String rssi = "";
+		volatile boolean refuse = false;
+		final AtomicInteger addExchanges = new AtomicInteger();
+
+		@Override
+		public String getScannedStaRssi() {
+			return rssi;
+		}
+
+		@Override
+		public List<Future<String>> addClientLvaps(List<OdinClient> clients) {
+			addExchanges.incrementAndGet();
+			if (!refuse)
+				return super.addClientLvaps(clients);
+
+			List<Future<String>> replies = new ArrayList<Future<String>>();
+			for (int i = 0; i < clients.size(); i++) {
+				OdinAgentControlChannel.Request req = new OdinAgentControlChannel.Request(false);
+				req.set("500 Error");
+				replies.add(req);
+			}
+			return replies;
+		}
+	}
+
+	private ScanningAgent agent(int n) throws Exception {
+		ScanningAgent agent = new ScanningAgent();
+		agent.init(InetAddress.getByName("172.17.2.16" + n));
+		agents.put(agent.getIpAddress(), agent);
+		return agent;
+	}
+
+	private OdinClient client(int n, IOdinAgent agent) throws Exception {
+		Lvap lvap = new Lvap(MACAddress.valueOf("00:00:00:00:11:0" + n), Arrays.asList("odin"));
+		lvap.setAgent(agent);
+		OdinClient oc = new OdinClient(MACAddress.valueOf("00:00:00:00:00:0" + n), InetAddress.getByName("172.17.2.5" + n), lvap);
+		clientManager.addClient(oc);
+		agent.addClientLvap(oc);
+		return oc;
+	}
+
+	private List<IOdinAgent> others(IOdinAgent failed) {
+		List<IOdinAgent> left = new ArrayList<IOdinAgent>(agents.values());
+		left.remove(failed);
+		return left;
+	}
+
+	@Before
+	public void setup() {
+		executor = Executors.newCachedThreadPool();
+		clientManager = new ClientManager();
+		poolManager = new PoolManager();
+
+		AgentManager agentManager = new AgentManager(clientManager, poolManager) {
+			@Override
+			protected IOdinAgent getAgent(InetAddress agentInetAddr) {
+				return agents.get(agentInetAddr);
+			}
+		};
+		cache = new MeasurementCache(agentManager, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+		}, null);
+
+		ClientLockStripes locks = new ClientLockStripes(4);
+		pipeline = new HandoffPipeline(executor, locks, clientManager, 2000, 256);
+		engine = new FailoverEngine(locks, clientManager, poolManager, cache, pipeline, 2000, 60000, 60000);
+	}
+
+	@After
+	public void teardown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testBestSignalLessLoad() throws Exception {
+		ScanningAgent failed = agent(1);
+		ScanningAgent a = agent(2);
+		ScanningAgent b = agent(3);
+		OdinClient c1 = client(1, failed);
+		OdinClient c2 = client(2, failed);
+		OdinClient c3 = client(3, failed);
+
+		// a hears c1 a bit better, but hosts 4 LVAPs already
+		a.rssi = "00:00:00:00:00:01 -60\n00:00:00:00:00:02 -50\n";
+		b.rssi = "00:00:00:00:00:01 -62\n00:00:00:00:00:02 -80\n";
+		for (int i = 0; i < 4; i++) {
+			a.addClientLvap(new OdinClient(MACAddress.valueOf("00:00:00:00:22:0" + i), InetAddress.getByName("172.17.2.9" + i),
+					new Lvap(MACAddress.valueOf("00:00:00:00:33:0" + i), Arrays.asList("odin"))));
+		}
+		cache.get(a.getIpAddress(), 0);
+		cache.get(b.getIpAddress(), 0);
+
+		engine.recover(failed, others(failed));
+
+		assertEquals(c1.getLvap().getAgent(), b);
+		assertEquals(c2.getLvap().getAgent(), a);
+		// Heard by nobody, goes to the least loaded
+		assertEquals(c3.getLvap().getAgent(), b);
+
+		// One exchange per target
+		assertEquals(a.addExchanges.get(), 1);
+		assertEquals(b.addExchanges.get(), 1);
+		assertTrue(b.getLvapsLocal().contains(c1));
+		assertTrue(b.getLvapsLocal().contains(c3));
+		assertTrue(a.getLvapsLocal().contains(c2));
+
+		assertEquals(engine.getHome(c1.getMacAddress()), failed.getIpAddress());
+		assertEquals(engine.getRecoveryLatency().getCount(), 1);
+		assertEquals(engine.getStatistics().get("moved"), 3L);
+	}
+
+	@Test
+	public void testRefusedAddTriesNextAgent() throws Exception {
+		ScanningAgent failed = agent(1);
+		ScanningAgent a = agent(2);
+		ScanningAgent b = agent(3);
+		OdinClient c1 = client(1, failed);
+
+		a.rssi = "00:00:00:00:00:01 -50\n";
+		a.refuse = true;
+		cache.get(a.getIpAddress(), 0);
+
+		engine.recover(failed, others(failed));
+
+		assertEquals(c1.getLvap().getAgent(), b);
+		assertTrue(!a.getLvapsLocal().contains(c1));
+		assertEquals(engine.getStatistics().get("retried"), 1L);
+	}
+
+	@Test
+	public void testNoAgentLeft() throws Exception {
+		ScanningAgent failed = agent(1);
+		ScanningAgent a = agent(2);
+		OdinClient c1 = client(1, failed);
+		a.refuse = true;
+
+		engine.recover(failed, others(failed));
+
+		assertNull(c1.getLvap().getAgent());
+		assertNull(engine.getHome(c1.getMacAddress()));
+		assertEquals(engine.getStatistics().get("unassigned"), 1L);
+	}
+
+	@Test
+	public void testStaysInPool() throws Exception {
+		ScanningAgent failed = agent(1);
+		ScanningAgent a = agent(2);
+		ScanningAgent b = agent(3);
+		OdinClient c1 = client(1, failed);
+
+		poolManager.addPoolForAgent(failed.getIpAddress(), "pool-1");
+		poolManager.addPoolForAgent(b.getIpAddress(), "pool-1");
+		poolManager.addPoolForAgent(a.getIpAddress(), "pool-2");
+		poolManager.mapClientToPool(c1, "pool-1");
+
+		a.rssi = "00:00:00:00:00:01 -40\n";
+		cache.get(a.getIpAddress(), 0);
+
+		engine.recover(failed, others(failed));
+
+		assertEquals(c1.getLvap().getAgent(), b);
+	}
+
+	@Test
+	public void testHandedBackWhenAgentReturns() throws Exception {
+		ScanningAgent failed = agent(1);
+		ScanningAgent a = agent(2);
+		OdinClient c1 = client(1, failed);
+		OdinClient c2 = client(2, failed);
+
+		engine.recover(failed, others(failed));
+		assertEquals(c1.getLvap().getAgent(), a);
+
+		// c2 leaves before the agent comes back
+		clientManager.removeClient(c2.getMacAddress());
+
+		ScanningAgent back = new ScanningAgent();
+		back.init(failed.getIpAddress());
+		engine.agentBack(back);
+
+		for (int i = 0; i < 500 && pipeline.getCompleted() < 1; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(c1.getLvap().getAgent(), back);
+		assertTrue(back.getLvapsLocal().contains(c1));
+		assertTrue(!a.getLvapsLocal().contains(c1));
+		assertEquals(engine.getStatistics().get("handedBack"), 1L);
+		assertEquals(engine.getStatistics().get("homes"), 0);
+		assertEquals(back.getLvapsLocal(), Collections.singleton(c1));
+	}
+}
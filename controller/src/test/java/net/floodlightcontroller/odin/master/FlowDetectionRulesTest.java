@@ -0,0 +1,127 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FlowDetectionRulesTest {
+	private FlowDetectionRules rules;
+
+	private static final FlowDetectionCallback NO_CALLBACK = new FlowDetectionCallback() {
+		@Override
+		public void exec(OdinEventFlowDetection oefd, FlowDetectionCallbackContext cntx) {
+		}
+	};
+
+	private long add(String src, String dst, int protocol, int srcPort, int dstPort) {
+		OdinEventFlowDetection oefd = new OdinEventFlowDetection();
+		oefd.setFlowDetection(src, dst, protocol, srcPort, dstPort);
+		return rules.add(oefd, NO_CALLBACK);
+	}
+
+	private static int ip(String s) {
+		String[] octets = s.split("\\.");
+		int ip = 0;
+		for (String octet: octets) {
+			ip = (ip << 8) | Integer.parseInt(octet);
+		}
+		return ip;
+	}
+
+	private List<Long> match(String src, String dst, int protocol, int srcPort, int dstPort) {
+		List<Long> ids = new ArrayList<Long>();
+		for (FlowDetectionRules.Rule rule: rules.match(new FlowTuple(ip(src), ip(dst), protocol, srcPort, dstPort))) {
+			ids.add(rule.id);
+		}
+		return ids;
+	}
+
+	@Before
+	public void setup() {
+		rules = new FlowDetectionRules();
+	}
+
+	@Test
+	public void testWildcards() {
+		long all = add("*", "*", 0, 0, 0);
+		long web = add("*", "*", 6, 0, 80);
+		long dns = add("*", "*", 17, 0, 53);
+
+		List<Long> ids = match("192.168.1.2", "10.0.0.1", 6, 4000, 80);
+		assertEquals(ids.size(), 2);
+		assertEquals(ids.get(0).longValue(), all);
+		assertEquals(ids.get(1).longValue(), web);
+
+		ids = match("192.168.1.2", "10.0.0.1", 17, 4000, 53);
+		assertEquals(ids.size(), 2);
+		assertEquals(ids.get(1).longValue(), dns);
+
+		// Right port, wrong protocol
+		ids = match("192.168.1.2", "10.0.0.1", 17, 4000, 80);
+		assertEquals(ids.size(), 1);
+		assertEquals(ids.get(0).longValue(), all);
+	}
+
+	@Test
+	public void testPrefixes() {
+		long net = add("*", "10.0.0.0/8", 0, 0, 0);
+		long host = add("*", "10.1.2.3", 0, 0, 0);
+		long src = add("192.168.0.0/16", "*", 6, 0, 0);
+
+		assertEquals(match("1.1.1.1", "10.200.0.1", 6, 1, 1).size(), 1);
+		assertEquals(match("1.1.1.1", "10.200.0.1", 6, 1, 1).get(0).longValue(), net);
+		assertEquals(match("1.1.1.1", "10.1.2.3", 6, 1, 1).size(), 2);
+		assertEquals(match("1.1.1.1", "10.1.2.3", 6, 1, 1).get(1).longValue(), host);
+		assertEquals(match("1.1.1.1", "11.0.0.1", 6, 1, 1).size(), 0);
+
+		assertEquals(match("192.168.7.7", "11.0.0.1", 6, 1, 1).get(0).longValue(), src);
+		assertEquals(match("192.168.7.7", "11.0.0.1", 17, 1, 1).size(), 0);
+		assertEquals(match("192.169.7.7", "11.0.0.1", 6, 1, 1).size(), 0);
+
+		// High addresses work too
+		long high = add("*", "224.0.0.0/4", 0, 0, 0);
+		assertEquals(match("1.1.1.1", "239.255.255.250", 17, 1900, 1900).get(0).longValue(), high);
+	}
+
+	@Test
+	public void testRemove() {
+		long id1 = add("*", "*", 0, 0, 80);
+		long id2 = add("*", "*", 0, 0, 80);
+		assertEquals(match("1.1.1.1", "2.2.2.2", 6, 1, 80).size(), 2);
+
+		assertTrue(rules.remove(id1));
+		assertFalse(rules.remove(id1));
+		assertEquals(match("1.1.1.1", "2.2.2.2", 6, 1, 80).size(), 1);
+		assertEquals(match("1.1.1.1", "2.2.2.2", 6, 1, 80).get(0).longValue(), id2);
+
+		assertTrue(rules.remove(id2));
+		assertEquals(rules.size(), 0);
+		assertEquals(match("1.1.1.1", "2.2.2.2", 6, 1, 80).size(), 0);
+	}
+
+	@Test
+	public void testManyRulesOnlyRelevantOnesMatch() {
+		for (int port = 1; port <= 5000; port++) {
+			add("*", "*", 6, 0, port);
+		}
+		List<Long> ids = match("1.1.1.1", "2.2.2.2", 6, 1, 4242);
+		assertEquals(ids.size(), 1);
+		assertEquals(ids.get(0).longValue(), 4242);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testInvalidPrefix() {
+		add("*", "10.0.0.0/33", 0, 0, 0);
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testInvalidAddress() {
+		add("10.0.0", "*", 0, 0, 0);
+	}
+}
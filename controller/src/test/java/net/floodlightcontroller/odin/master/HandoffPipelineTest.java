@@ -0,0 +1,225 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import net.floodlightcontroller.util.MACAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HandoffPipelineTest {
+	private final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+	private ExecutorService executor;
+	private ClientManager clientManager;
+	private HandoffPipeline pipeline;
+
+	/**
+	 * Logs the batched writes it gets, in the order they are issued.
+	 * Adds are answered with the given status, or left pending for
+	 * the test to answer.
+	 */
+	private class RecordingAgent extends StubOdinAgent {
+		final String name;
+		volatile String addStatus = "200 Write handler OK";
+		volatile OdinAgentControlChannel.Request pendingAdd;
+
+		RecordingAgent(String name, int channel) throws Exception {
+			this.name = name;
+			init(InetAddress.getByName("172.17.2." + (name.charAt(0) - 'A' + 1)));
+			setChannel(channel);
+		}
+
+		@Override
+		public List<Future<String>> addClientLvaps(List<OdinClient> clients) {
+			super.addClientLvaps(clients);
+			events.add(name + " add " + macs(clients));
+			List<Future<String>> replies = new ArrayList<Future<String>>();
+			for (int i = 0; i < clients.size(); i++) {
+				OdinAgentControlChannel.Request req = new OdinAgentControlChannel.Request(false);
+				if (pendingAdd == null && addStatus == null)
+					pendingAdd = req;
+				else
+					req.set(addStatus);
+				replies.add(req);
+			}
+			return replies;
+		}
+
+		@Override
+		public List<Future<String>> removeClientLvaps(List<OdinClient> clients) {
+			events.add(name + " remove " + macs(clients));
+			return super.removeClientLvaps(clients);
+		}
+
+		@Override
+		public List<Future<String>> sendChannelSwitches(List<OdinClient> clients, int channel) {
+			events.add(name + " csa " + channel + " " + macs(clients));
+			return super.sendChannelSwitches(clients, channel);
+		}
+	}
+
+	private static String macs(List<OdinClient> clients) {
+		StringBuilder sb = new StringBuilder();
+		for (OdinClient oc: clients) {
+			if (sb.length() > 0)
+				sb.append(',');
+			sb.append(oc.getMacAddress().toBytes()[5]);
+		}
+		return sb.toString();
+	}
+
+	private OdinClient client(int n, IOdinAgent agent) throws Exception {
+		Lvap lvap = new Lvap(MACAddress.valueOf("00:00:00:00:11:0" + n), Arrays.asList("odin"));
+		lvap.setAgent(agent);
+		OdinClient oc = new OdinClient(MACAddress.valueOf("00:00:00:00:00:0" + n), InetAddress.getByName("172.17.2.5" + n), lvap);
+		clientManager.addClient(oc);
+		return oc;
+	}
+
+	/**
+	 * Hand a client off the way the master does
+	 */
+	private void handoff(OdinClient client, IOdinAgent to) {
+		IOdinAgent from = client.getLvap().getAgent();
+		client.getLvap().setAgent(to);
+		pipeline.submit(client, from, to);
+	}
+
+	private void waitFor(long handoffs) throws Exception {
+		for (int i = 0; i < 500 && pipeline.getCompleted() + pipeline.getFailed() + pipeline.getCancelled() < handoffs; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(pipeline.getCompleted() + pipeline.getFailed() + pipeline.getCancelled(), handoffs);
+	}
+
+	@Before
+	public void setup() {
+		// A single thread, as in the master: the channel reads mustn't need another one
+		executor = Executors.newSingleThreadExecutor();
+		clientManager = new ClientManager();
+		pipeline = new HandoffPipeline(executor, new ClientLockStripes(4), clientManager, 2000, 256);
+	}
+
+	@After
+	public void teardown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void testMakeBeforeBreak() throws Exception {
+		RecordingAgent a = new RecordingAgent("A", 1);
+		RecordingAgent b = new RecordingAgent("B", 1);
+		OdinClient c1 = client(1, a);
+		a.addClientLvap(c1);
+
+		handoff(c1, b);
+		waitFor(1);
+
+		assertEquals(events, Arrays.asList("B add 1", "A remove 1"));
+		assertEquals(c1.getLvap().getAgent(), b);
+		assertTrue(b.getLvapsLocal().contains(c1));
+		assertTrue(!a.getLvapsLocal().contains(c1));
+
+		assertEquals(pipeline.getCompleted(), 1);
+		assertEquals(pipeline.getLatency(HandoffPipeline.PHASE_ADD).getCount(), 1);
+		assertEquals(pipeline.getLatency(HandoffPipeline.PHASE_CSA).getCount(), 0);
+		assertEquals(pipeline.getLatency(HandoffPipeline.PHASE_REMOVE).getCount(), 1);
+		assertEquals(pipeline.getLatency(HandoffPipeline.TOTAL).getCount(), 1);
+	}
+
+	@Test
+	public void testChannelSwitchAfterAdd() throws Exception {
+		RecordingAgent a = new RecordingAgent("A", 1);
+		RecordingAgent b = new RecordingAgent("B", 6);
+		OdinClient c1 = client(1, a);
+
+		handoff(c1, b);
+		waitFor(1);
+
+		assertEquals(events, Arrays.asList("B add 1", "A csa 6 1", "A remove 1"));
+		assertEquals(pipeline.getLatency(HandoffPipeline.PHASE_CSA).getCount(), 1);
+	}
+
+	@Test
+	public void testRefusedAddRollsBack() throws Exception {
+		RecordingAgent a = new RecordingAgent("A", 1);
+		RecordingAgent b = new RecordingAgent("B", 1);
+		b.addStatus = "500 Error";
+		OdinClient c1 = client(1, a);
+
+		handoff(c1, b);
+		waitFor(1);
+
+		// The LVAP is never removed from A
+		assertEquals(events, Arrays.asList("B add 1", "B remove 1"));
+		assertEquals(c1.getLvap().getAgent(), a);
+		assertEquals(pipeline.getFailed(), 1);
+		assertEquals(pipeline.getCompleted(), 0);
+	}
+
+	@Test
+	public void testClientLeftWhileQueued() throws Exception {
+		RecordingAgent a = new RecordingAgent("A", 1);
+		RecordingAgent b = new RecordingAgent("B", 1);
+		b.addStatus = null;
+		OdinClient c1 = client(1, a);
+		OdinClient c2 = client(2, a);
+
+		handoff(c1, b);
+		for (int i = 0; i < 500 && b.pendingAdd == null; i++) {
+			Thread.sleep(10);
+		}
+		b.addStatus = "200 Write handler OK";
+		handoff(c2, b);
+		clientManager.removeClient(c2.getMacAddress());
+		b.pendingAdd.set("200 Write handler OK");
+		waitFor(2);
+
+		assertEquals(events, Arrays.asList("B add 1", "A remove 1", "B add 2", "B remove 2", "A remove 2"));
+		assertEquals(pipeline.getCancelled(), 1);
+		assertTrue(!b.getLvapsLocal().contains(c2));
+	}
+
+	@Test
+	public void testBatchesWhileInFlight() throws Exception {
+		RecordingAgent a = new RecordingAgent("A", 1);
+		RecordingAgent b = new RecordingAgent("B", 1);
+		RecordingAgent c = new RecordingAgent("C", 1);
+		b.addStatus = null;
+		OdinClient c1 = client(1, a);
+		OdinClient c2 = client(2, a);
+		OdinClient c3 = client(3, a);
+
+		handoff(c1, b);
+		for (int i = 0; i < 500 && b.pendingAdd == null; i++) {
+			Thread.sleep(10);
+		}
+		b.addStatus = "200 Write handler OK";
+
+		// Queued behind the first batch, c1 twice
+		handoff(c2, b);
+		handoff(c3, c);
+		handoff(c1, c);
+		handoff(c1, a);
+		b.pendingAdd.set("200 Write handler OK");
+		waitFor(5);
+
+		assertEquals(events, Arrays.asList(
+				"B add 1", "A remove 1",
+				"B add 2", "C add 3,1", "A remove 2,3", "B remove 1",
+				"A add 1", "C remove 1"));
+		assertEquals(c1.getLvap().getAgent(), a);
+		assertEquals(pipeline.getStatistics().get("batches"), 3L);
+	}
+}
@@ -0,0 +1,133 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HashedWheelTimerTest {
+	private ExecutorService executor;
+	private HashedWheelTimer timer;
+
+	@Before
+	public void setup() {
+		executor = Executors.newCachedThreadPool();
+		// A turn of the wheel is 160 ms
+		timer = new HashedWheelTimer("TestTimer", 10, 16, executor);
+	}
+
+	@After
+	public void teardown() {
+		timer.stop();
+		executor.shutdownNow();
+	}
+
+	private Runnable countDown(final CountDownLatch latch) {
+		return new Runnable() {
+			@Override
+			public void run() {
+				latch.countDown();
+			}
+		};
+	}
+
+	@Test
+	public void testExpiresOnTheExecutor() throws Exception {
+		final AtomicReference<String> thread = new AtomicReference<String>();
+		final CountDownLatch done = new CountDownLatch(1);
+		final long start = System.nanoTime();
+		final AtomicLong elapsed = new AtomicLong();
+
+		HashedWheelTimer.Timeout t = timer.newTimeout(new Runnable() {
+			@Override
+			public void run() {
+				elapsed.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+				thread.set(Thread.currentThread().getName());
+				done.countDown();
+			}
+		}, 300);
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		assertTrue(elapsed.get() >= 300);
+		assertFalse(thread.get().equals("TestTimer"));
+		assertTrue(t.isExpired());
+		assertFalse(t.cancel());
+		assertFalse(t.reschedule(100));
+	}
+
+	@Test
+	public void testCancel() throws Exception {
+		CountDownLatch done = new CountDownLatch(1);
+		HashedWheelTimer.Timeout t = timer.newTimeout(countDown(done), 50);
+
+		assertTrue(t.cancel());
+		assertTrue(t.isCancelled());
+		assertFalse(done.await(300, TimeUnit.MILLISECONDS));
+		assertFalse(t.reschedule(10));
+	}
+
+	@Test
+	public void testRescheduleLater() throws Exception {
+		CountDownLatch done = new CountDownLatch(1);
+		HashedWheelTimer.Timeout t = timer.newTimeout(countDown(done), 100);
+
+		// Kept alive well past its first deadline, and past a turn
+		for (int i = 0; i < 10; i++) {
+			Thread.sleep(50);
+			assertTrue(t.reschedule(100));
+		}
+		assertEquals(done.getCount(), 1);
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testRescheduleSooner() throws Exception {
+		CountDownLatch done = new CountDownLatch(1);
+		HashedWheelTimer.Timeout t = timer.newTimeout(countDown(done), 60000);
+
+		assertTrue(t.reschedule(50));
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testManyTimeouts() throws Exception {
+		final int n = 20000;
+		final AtomicInteger expired = new AtomicInteger();
+		final CountDownLatch done = new CountDownLatch(n / 2);
+		int cancelled = 0;
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				expired.incrementAndGet();
+				done.countDown();
+			}
+		};
+
+		HashedWheelTimer.Timeout[] timeouts = new HashedWheelTimer.Timeout[n];
+		for (int i = 0; i < n; i++) {
+			timeouts[i] = timer.newTimeout(task, i % 500);
+		}
+		// Some of the shortest ones may be gone already
+		for (int i = 0; i < n; i += 2) {
+			if (timeouts[i].cancel())
+				cancelled++;
+		}
+
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		Thread.sleep(100);
+		assertEquals(expired.get(), n - cancelled);
+		assertTrue(cancelled > n / 4);
+	}
+}
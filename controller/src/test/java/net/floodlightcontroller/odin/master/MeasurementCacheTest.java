@@ -0,0 +1,173 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.floodlightcontroller.util.MACAddress;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class MeasurementCacheTest {
+	private final Map<InetAddress, IOdinAgent> agents = new HashMap<InetAddress, IOdinAgent>();
+	private MeasurementCache cache;
+	private InetAddress agent1;
+	private InetAddress agent2;
+
+	/**
+	 * Counts how many times it is read
+	 */
+	private static class CountingAgent extends StubOdinAgent {
+		final AtomicInteger reads = new AtomicInteger();
+		volatile long delay = 0;
+
+		@Override
+		public StationStats getRxStationStats() {
+			reads.incrementAndGet();
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+			}
+			return StationStats.parse("00:00:00:00:00:02 packets:10 avg_rate:5400 avg_signal:-60.5 avg_len_pkt:100 "
+					+ "air_time:1.5 first_received:1 last_received:2 equipment:STA\n", 8, true);
+		}
+
+		@Override
+		public String getScannedStaRssi() {
+			return "00:00:00:00:00:03 -70\n00:00:00:00:00:02 -61\n";
+		}
+
+		@Override
+		public int getTxPower() {
+			return 20;
+		}
+	}
+
+	private CountingAgent addAgent(InetAddress addr) {
+		CountingAgent agent = new CountingAgent();
+		agent.init(addr);
+		agents.put(addr, agent);
+		return agent;
+	}
+
+	@Before
+	public void setup() throws Exception {
+		AgentManager agentManager = new AgentManager(new ClientManager(), new PoolManager()) {
+			@Override
+			protected IOdinAgent getAgent(InetAddress agentInetAddr) {
+				return agents.get(agentInetAddr);
+			}
+
+			@Override
+			protected Map<InetAddress, IOdinAgent> getAgents() {
+				return Collections.unmodifiableMap(agents);
+			}
+		};
+
+		cache = new MeasurementCache(agentManager, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				command.run();
+			}
+		}, null);
+
+		agent1 = InetAddress.getByName("172.17.2.161");
+		agent2 = InetAddress.getByName("172.17.2.162");
+	}
+
+	@Test
+	public void testStationsAreMerged() throws Exception {
+		addAgent(agent1);
+		RadioMeasurements m = cache.get(agent1, 1000);
+
+		assertEquals(m.getStationCount(), 2);
+		assertEquals(m.getStation(0), MACAddress.valueOf("00:00:00:00:00:02"));
+		assertEquals(m.getStation(1), MACAddress.valueOf("00:00:00:00:00:03"));
+		assertEquals(m.getTxPower(), 20);
+
+		int i = m.indexOf(MACAddress.valueOf("00:00:00:00:00:02"));
+		assertEquals(m.getRxSignal(i), -60.5, 0);
+		assertEquals(m.getRxRate(i), 5400, 0);
+		assertEquals(m.getRxPackets(i), 10);
+		assertEquals(m.getScannedRssi(i), -61, 0);
+
+		// Only scanned, no RxStats
+		i = m.indexOf(MACAddress.valueOf("00:00:00:00:00:03"));
+		assertEquals(m.getScannedRssi(i), -70, 0);
+		assertTrue(Double.isNaN(m.getRxSignal(i)));
+		assertEquals(m.getRxPackets(i), -1);
+
+		assertEquals(m.indexOf(MACAddress.valueOf("00:00:00:00:00:04")), -1);
+		assertEquals(m.getRxStats().size(), 1);
+
+		assertNull(cache.get(agent2, 1000));
+	}
+
+	@Test
+	public void testStalenessBound() throws Exception {
+		CountingAgent agent = addAgent(agent1);
+
+		RadioMeasurements m = cache.get(agent1, 1000);
+		assertSame(cache.get(agent1, 1000), m);
+		assertEquals(agent.reads.get(), 1);
+		assertEquals(cache.getHits(), 1);
+
+		Thread.sleep(5);
+		assertTrue(cache.get(agent1, 0) != m);
+		assertEquals(agent.reads.get(), 2);
+	}
+
+	@Test
+	public void testPollOncePerPeriod() throws Exception {
+		CountingAgent a1 = addAgent(agent1);
+		CountingAgent a2 = addAgent(agent2);
+
+		cache.pollAll();
+		assertEquals(a1.reads.get(), 1);
+		assertEquals(a2.reads.get(), 1);
+
+		// However many applications ask
+		for (int app = 0; app < 10; app++) {
+			cache.get(agent1, 1000);
+			cache.get(agent2, 1000);
+		}
+		assertEquals(cache.getAgentReads(), 2);
+	}
+
+	@Test
+	public void testConcurrentRequestsShareOneRead() throws Exception {
+		final CountingAgent agent = addAgent(agent1);
+		agent.delay = 100;
+
+		final int threads = 8;
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++) {
+			new Thread() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						cache.get(agent1, 10000);
+					} catch (InterruptedException e) {
+					}
+					done.countDown();
+				}
+			}.start();
+		}
+
+		start.countDown();
+		done.await();
+		assertEquals(agent.reads.get(), 1);
+	}
+}
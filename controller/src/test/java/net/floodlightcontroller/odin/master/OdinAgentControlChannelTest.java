@@ -0,0 +1,229 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Exercise the pipelined control channel against a fake
+ * Click ControlSocket.
+ */
+public class OdinAgentControlChannelTest {
+	private ServerSocket server;
+	private Thread serverThread;
+	private OdinAgentControlChannel channel;
+
+	/**
+	 * Answers every READ with the handler name, except for the
+	 * "missing" handler, which gets an error. Replies are
+	 * written a few bytes at a time to exercise the parser.
+	 */
+	private class FakeControlSocket implements Runnable {
+		@Override
+		public void run() {
+			try {
+				Socket s = server.accept();
+				BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+				OutputStream out = s.getOutputStream();
+				write(out, "Click::ControlSocket/1.3\r\n");
+
+				String line;
+				while ((line = in.readLine()) != null) {
+					String[] fields = line.split(" ");
+					if (fields[0].equals("READ")) {
+						if (fields[1].endsWith(".missing")) {
+							write(out, "511-No element named 'missing'\r\n511 Error\r\n");
+						}
+						else {
+							String data = fields[1] + "\nsecond line";
+							write(out, "200 Read handler '" + fields[1] + "' OK\r\nDATA " + data.length() + "\r\n" + data);
+						}
+					}
+					else {
+						write(out, "200 Write handler '" + fields[1] + "' OK\r\n");
+					}
+				}
+				s.close();
+			} catch (Exception e) {
+				// test finished
+			}
+		}
+
+		private void write(OutputStream out, String msg) throws Exception {
+			byte[] bytes = msg.getBytes("ISO-8859-1");
+			for (int i = 0; i < bytes.length; i += 7) {
+				out.write(bytes, i, Math.min(7, bytes.length - i));
+				out.flush();
+			}
+		}
+	}
+
+	@Before
+	public void setup() throws Exception {
+		server = new ServerSocket(0);
+		serverThread = new Thread(new FakeControlSocket());
+		serverThread.start();
+
+		channel = new OdinAgentControlChannel(
+				new InetSocketAddress("127.0.0.1", server.getLocalPort()),
+				OdinAgentControlReactor.getInstance());
+		channel.connect();
+	}
+
+	@After
+	public void teardown() throws Exception {
+		channel.close();
+		server.close();
+	}
+
+	@Test
+	public void testPipelinedReads() throws Exception {
+		List<Future<String>> replies = new ArrayList<Future<String>>();
+
+		for (int i = 0; i < 50; i++) {
+			replies.add(channel.read("odinagent.handler" + i));
+		}
+
+		for (int i = 0; i < 50; i++) {
+			assertEquals("odinagent.handler" + i + "\nsecond line", replies.get(i).get(5, TimeUnit.SECONDS));
+		}
+		assertEquals(0, channel.getPendingCount());
+	}
+
+	@Test
+	public void testBatchedWrites() throws Exception {
+		Future<String> r1 = channel.read("odinagent.txstats");
+		List<Future<String>> writes = channel.writeAll("odinagent.add_vap",
+				Arrays.asList("00:00:00:00:00:01", "00:00:00:00:00:02", "00:00:00:00:00:03"));
+		Future<String> r2 = channel.read("odinagent.rxstats");
+
+		assertEquals(3, writes.size());
+		assertEquals("odinagent.txstats\nsecond line", r1.get(5, TimeUnit.SECONDS));
+		for (Future<String> w: writes) {
+			assertEquals("200 Write handler 'odinagent.add_vap' OK", w.get(5, TimeUnit.SECONDS));
+			assertTrue(OdinAgentControlChannel.isOk(w.get()));
+		}
+		assertEquals("odinagent.rxstats\nsecond line", r2.get(5, TimeUnit.SECONDS));
+		assertTrue(channel.writeAll("odinagent.add_vap", new ArrayList<String>()).isEmpty());
+	}
+
+	@Test
+	public void testInterleavedReadsWritesAndErrors() throws Exception {
+		Future<String> w1 = channel.write("odinagent.add_vap", "00:00:00:00:00:01");
+		Future<String> r1 = channel.read("odinagent.txstats");
+		Future<String> r2 = channel.read("odinagent.missing");
+		Future<String> w2 = channel.write("odinagent.remove_vap", "00:00:00:00:00:01");
+		Future<String> r3 = channel.read("odinagent.rxstats");
+
+		assertEquals("200 Write handler 'odinagent.add_vap' OK", w1.get(5, TimeUnit.SECONDS));
+		assertEquals("odinagent.txstats\nsecond line", r1.get(5, TimeUnit.SECONDS));
+		assertNull(r2.get(5, TimeUnit.SECONDS));
+		assertEquals("200 Write handler 'odinagent.remove_vap' OK", w2.get(5, TimeUnit.SECONDS));
+		assertEquals("odinagent.rxstats\nsecond line", r3.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void testCloseWhileSending() throws Exception {
+		final List<Future<String>> replies = Collections.synchronizedList(new ArrayList<Future<String>>());
+		final CountDownLatch started = new CountDownLatch(4);
+		List<Thread> senders = new ArrayList<Thread>();
+		for (int t = 0; t < 4; t++) {
+			Thread sender = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					started.countDown();
+					for (int i = 0; i < 2000; i++) {
+						replies.add(channel.read("odinagent.handler" + i));
+					}
+				}
+			});
+			senders.add(sender);
+			sender.start();
+		}
+
+		started.await();
+		channel.close();
+		for (Thread sender: senders) {
+			sender.join(5000);
+		}
+
+		// Every request is answered or failed, none is left waiting
+		for (Future<String> reply: replies) {
+			try {
+				reply.get(1, TimeUnit.SECONDS);
+			} catch (ExecutionException e) {
+				// closed
+			}
+		}
+		assertEquals(0, channel.getPendingCount());
+	}
+
+	@Test
+	public void testParsedReplies() throws Exception {
+		Future<Integer> parsed = new AgentReplyFuture<Integer>(channel.read("odinagent.txpower")) {
+			@Override
+			protected Integer parse(String reply) {
+				return reply.length();
+			}
+		};
+		Future<Integer> unparsable = new AgentReplyFuture<Integer>(channel.read("odinagent.txpower")) {
+			@Override
+			protected Integer parse(String reply) {
+				return Integer.parseInt(reply.trim());
+			}
+		};
+		Future<String> error = new AgentReplyFuture<String>(channel.read("odinagent.missing")) {
+			@Override
+			protected String parse(String reply) {
+				return reply;
+			}
+		};
+		Future<String> pending = new AgentReplyFuture<String>(new OdinAgentControlChannel.Request(true)) {
+			@Override
+			protected String parse(String reply) {
+				return reply;
+			}
+		};
+
+		assertEquals(Integer.valueOf("odinagent.txpower\nsecond line".length()), parsed.get(5, TimeUnit.SECONDS));
+		assertFails(unparsable);
+		assertFails(error);
+		try {
+			pending.get(10, TimeUnit.MILLISECONDS);
+			fail();
+		} catch (TimeoutException e) {
+			// reported as timed out by bulk queries
+		}
+		assertEquals("known", AgentReplyFuture.done("known").get());
+	}
+
+	private static void assertFails(Future<?> reply) throws Exception {
+		try {
+			reply.get(5, TimeUnit.SECONDS);
+			fail();
+		} catch (ExecutionException e) {
+			// reported as failed by bulk queries
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package net.floodlightcontroller.odin.master;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.floodlightcontroller.util.MACAddress;
+
+/**
+ * Compares the in-place agent message parser against the
+ * String.split() based decoding it replaced. Run with:
+ *
+ *   java -cp <test classpath> net.floodlightcontroller.odin.master.OdinAgentMessageParserBenchmark [messages]
+ *
+ * Each round decodes the same mix of ping, probe and publish
+ * messages with both decoders and reports the time per message
+ * and the number of collections the round triggered.
+ */
+public class OdinAgentMessageParserBenchmark {
+	private static final int ROUNDS = 5;
+
+	private static final String[] MESSAGES = {
+		"ping",
+		"probe 00:1b:b3:0a:0b:0c odin",
+		"probe 00:1b:b3:0a:0b:0d",
+		"publish 00:1b:b3:0a:0b:0c 3 1:200 2:15 3:187",
+		"publish 00:1b:b3:0a:0b:0e 1 1:190",
+		"association 00:1b:b3:0a:0b:0c",
+	};
+
+	/**
+	 * Swallows everything, but keeps the JIT from
+	 * optimizing the decoding away
+	 */
+	private static class CountingListener implements OdinAgentMessageParser.Listener {
+		long sum;
+
+		@Override
+		public void receivePing(InetAddress odinAgentAddr) {
+			sum++;
+		}
+
+		@Override
+		public void receiveProbe(InetAddress odinAgentAddr, MACAddress clientHwAddress, String ssid) {
+			sum += clientHwAddress.hashCode() + ssid.length();
+		}
+
+		@Override
+		public void receivePublish(MACAddress clientHwAddress, InetAddress odinAgentAddr, Map<Long, Long> subscriptionIds) {
+			sum += clientHwAddress.hashCode() + subscriptionIds.size();
+		}
+
+		@Override
+		public void receiveDetectedFlow(InetAddress odinAgentAddr, FlowTuple flow) {
+			sum += flow.dstPort;
+		}
+
+		@Override
+		public void receiveDeauth(InetAddress odinAgentAddr, MACAddress clientHwAddress) {
+			sum += clientHwAddress.hashCode();
+		}
+
+		@Override
+		public void receiveAssoc(InetAddress odinAgentAddr, MACAddress clientHwAddress) {
+			sum += clientHwAddress.hashCode();
+		}
+	}
+
+	/**
+	 * The decoding done by the previous OdinAgentConnectionHandler,
+	 * including the per-datagram receive buffer
+	 */
+	private static void legacyParse(byte[] msgBytes, InetAddress odinAgentAddr, OdinAgentMessageParser.Listener listener) {
+		final byte[] receiveData = new byte[1024];
+		System.arraycopy(msgBytes, 0, receiveData, 0, msgBytes.length);
+		final DatagramPacket receivedPacket = new DatagramPacket(receiveData, receiveData.length);
+
+		final String msg = new String(receivedPacket.getData()).trim().toLowerCase();
+		final String[] fields = msg.split(" ");
+		final String msg_type = fields[0];
+
+		if (msg_type.equals("ping")) {
+			listener.receivePing(odinAgentAddr);
+		}
+		else if (msg_type.equals("probe")) {
+			final String staAddress = fields[1];
+			String ssid = "";
+			if (fields.length > 2) {
+				ssid = msg.substring("probe".length() + staAddress.length() + 2);
+			}
+			listener.receiveProbe(odinAgentAddr, MACAddress.valueOf(staAddress), ssid);
+		}
+		else if (msg_type.equals("publish")) {
+			final String staAddress = fields[1];
+			final int count = Integer.parseInt(fields[2]);
+			final Map<Long, Long> matchingIds = new HashMap<Long,Long> ();
+			for (int i = 0; i < count; i++) {
+				matchingIds.put(Long.parseLong(fields[3 + i].split(":")[0]),
+						Long.parseLong(fields[3 + i].split(":")[1]));
+			}
+			listener.receivePublish(MACAddress.valueOf(staAddress), odinAgentAddr, matchingIds);
+		}
+		else if (msg_type.equals("association")) {
+			listener.receiveAssoc(odinAgentAddr, MACAddress.valueOf(fields[1]));
+		}
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += gc.getCollectionCount();
+		}
+		return count;
+	}
+
+	public static void main(String[] args) throws Exception {
+		final int numMessages = (args.length > 0) ? Integer.parseInt(args[0]) : 2000000;
+		final InetAddress agentAddr = InetAddress.getByName("172.17.2.161");
+		final CountingListener listener = new CountingListener();
+
+		final byte[][] raw = new byte[MESSAGES.length][];
+		final ByteBuffer[] buffers = new ByteBuffer[MESSAGES.length];
+		for (int i = 0; i < MESSAGES.length; i++) {
+			raw[i] = MESSAGES[i].getBytes("ISO-8859-1");
+			buffers[i] = ByteBuffer.allocateDirect(1024);
+			buffers[i].put(raw[i]);
+			buffers[i].flip();
+		}
+
+		for (int round = 0; round < ROUNDS; round++) {
+			long gc = gcCount();
+			long start = System.nanoTime();
+			for (int i = 0; i < numMessages; i++) {
+				legacyParse(raw[i % raw.length], agentAddr, listener);
+			}
+			long legacyNs = System.nanoTime() - start;
+			long legacyGc = gcCount() - gc;
+
+			gc = gcCount();
+			start = System.nanoTime();
+			for (int i = 0; i < numMessages; i++) {
+				OdinAgentMessageParser.parse(buffers[i % buffers.length], agentAddr, listener);
+			}
+			long parserNs = System.nanoTime() - start;
+			long parserGc = gcCount() - gc;
+
+			System.out.println("round " + round
+					+ ": split " + (legacyNs / numMessages) + " ns/msg (" + legacyGc + " gcs)"
+					+ ", in-place " + (parserNs / numMessages) + " ns/msg (" + parserGc + " gcs)");
+		}
+
+		System.out.println("checksum " + listener.sum);
+	}
+}
@@ -0,0 +1,163 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import net.floodlightcontroller.util.MACAddress;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class OdinAgentMessageParserTest {
+	private InetAddress agentAddr;
+	private RecordingListener listener;
+
+	/**
+	 * Remembers the last message it was handed
+	 */
+	private static class RecordingListener implements OdinAgentMessageParser.Listener {
+		String type;
+		InetAddress agent;
+		MACAddress sta;
+		String ssid;
+		Map<Long, Long> subscriptionIds;
+		FlowTuple flow;
+
+		@Override
+		public void receivePing(InetAddress odinAgentAddr) {
+			type = "ping";
+			agent = odinAgentAddr;
+		}
+
+		@Override
+		public void receiveProbe(InetAddress odinAgentAddr, MACAddress clientHwAddress, String ssid) {
+			type = "probe";
+			agent = odinAgentAddr;
+			sta = clientHwAddress;
+			this.ssid = ssid;
+		}
+
+		@Override
+		public void receivePublish(MACAddress clientHwAddress, InetAddress odinAgentAddr, Map<Long, Long> subscriptionIds) {
+			type = "publish";
+			agent = odinAgentAddr;
+			sta = clientHwAddress;
+			this.subscriptionIds = subscriptionIds;
+		}
+
+		@Override
+		public void receiveDetectedFlow(InetAddress odinAgentAddr, FlowTuple flow) {
+			type = "detectedflow";
+			agent = odinAgentAddr;
+			this.flow = flow;
+		}
+
+		@Override
+		public void receiveDeauth(InetAddress odinAgentAddr, MACAddress clientHwAddress) {
+			type = "deauth";
+			agent = odinAgentAddr;
+			sta = clientHwAddress;
+		}
+
+		@Override
+		public void receiveAssoc(InetAddress odinAgentAddr, MACAddress clientHwAddress) {
+			type = "assoc";
+			agent = odinAgentAddr;
+			sta = clientHwAddress;
+		}
+	}
+
+	/**
+	 * Agents' messages land in a larger, pooled buffer
+	 */
+	private boolean parse(String msg) throws Exception {
+		ByteBuffer buf = ByteBuffer.allocateDirect(1024);
+		buf.put(msg.getBytes("ISO-8859-1"));
+		buf.flip();
+		return OdinAgentMessageParser.parse(buf, agentAddr, listener);
+	}
+
+	@Before
+	public void setup() throws Exception {
+		agentAddr = InetAddress.getByName("172.17.2.161");
+		listener = new RecordingListener();
+	}
+
+	@Test
+	public void testPing() throws Exception {
+		assertTrue(parse("ping\n"));
+		assertEquals(listener.type, "ping");
+		assertEquals(listener.agent, agentAddr);
+	}
+
+	@Test
+	public void testProbe() throws Exception {
+		assertTrue(parse("probe 00:1B:B3:0a:0b:0c"));
+		assertEquals(listener.type, "probe");
+		assertEquals(listener.sta, MACAddress.valueOf("00:1b:b3:0a:0b:0c"));
+		assertEquals(listener.ssid, "");
+
+		// SSIDs are lower cased and may contain spaces
+		assertTrue(parse("PROBE 00:00:00:00:00:01 Odin Net\n\0\0"));
+		assertEquals(listener.sta, MACAddress.valueOf("00:00:00:00:00:01"));
+		assertEquals(listener.ssid, "odin net");
+	}
+
+	@Test
+	public void testPublish() throws Exception {
+		assertTrue(parse("publish 00:00:00:00:00:02 3 1:200 2:15 17:0\n"));
+		assertEquals(listener.type, "publish");
+		assertEquals(listener.sta, MACAddress.valueOf("00:00:00:00:00:02"));
+		assertEquals(listener.subscriptionIds.size(), 3);
+		assertEquals(listener.subscriptionIds.get(1L), Long.valueOf(200));
+		assertEquals(listener.subscriptionIds.get(2L), Long.valueOf(15));
+		assertEquals(listener.subscriptionIds.get(17L), Long.valueOf(0));
+	}
+
+	@Test
+	public void testDetectedFlow() throws Exception {
+		assertTrue(parse("detectedflow 192.168.1.2 10.0.0.1 6 4000 80\n"));
+		assertEquals(listener.type, "detectedflow");
+		assertEquals(listener.flow.srcIp, 0xc0a80102);
+		assertEquals(listener.flow.dstIp, 0x0a000001);
+		assertEquals(listener.flow.protocol, 6);
+		assertEquals(listener.flow.srcPort, 4000);
+		assertEquals(listener.flow.dstPort, 80);
+		assertEquals(listener.flow.toString(), "192.168.1.2 10.0.0.1 6 4000 80");
+
+		// Addresses above 128.0.0.0 don't turn negative on the way out
+		assertTrue(parse("detectedflow 255.255.255.255 10.0.0.1 17 53 53"));
+		assertEquals(FlowTuple.ipToString(listener.flow.srcIp), "255.255.255.255");
+	}
+
+	@Test
+	public void testAssocAndDeauth() throws Exception {
+		assertTrue(parse("association 00:00:00:00:00:03"));
+		assertEquals(listener.type, "assoc");
+		assertEquals(listener.sta, MACAddress.valueOf("00:00:00:00:00:03"));
+
+		assertTrue(parse("deauthentication 00:00:00:00:00:04"));
+		assertEquals(listener.type, "deauth");
+		assertEquals(listener.sta, MACAddress.valueOf("00:00:00:00:00:04"));
+	}
+
+	@Test
+	public void testMalformed() throws Exception {
+		assertFalse(parse("hello"));
+		assertFalse(parse("probe 00:00:00:00:00"));
+		assertFalse(parse("publish 00:00:00:00:00:02 2 1:200"));
+		assertFalse(parse("publish 00:00:00:00:00:02 1 1-200"));
+		assertFalse(parse("detectedflow 192.168.1.2 10.0.0.1 6"));
+		assertFalse(parse("detectedflow 192.168.1.256 10.0.0.1 6 4000 80"));
+		assertFalse(parse("detectedflow 192.168.1 10.0.0.1 6 4000 80"));
+		assertFalse(parse("detectedflow 192.168.1.2 10.0.0.1 6 4000 70000"));
+		assertFalse(parse("association zz:00:00:00:00:03"));
+		assertNull(listener.type);
+	}
+}
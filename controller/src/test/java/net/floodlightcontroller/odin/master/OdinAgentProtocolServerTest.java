@@ -0,0 +1,175 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.floodlightcontroller.util.MACAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Make sure pings keep flowing while the probe lane is swamped, and
+ * that associations get more room than probes, but not unlimited
+ */
+public class OdinAgentProtocolServerTest {
+	private static final int LANE_CAPACITY = 16;
+
+	private OdinAgentProtocolServer server;
+	private DatagramSocket agentSocket;
+	private final CountDownLatch releaseProbes = new CountDownLatch(1);
+	private final CountDownLatch pings = new CountDownLatch(10);
+	private final CountDownLatch releaseAssocs = new CountDownLatch(1);
+	private final AtomicInteger assocs = new AtomicInteger();
+
+	/**
+	 * Probes block until the test lets them go
+	 */
+	private class BlockingListener implements OdinAgentMessageParser.Listener {
+		@Override
+		public void receivePing(InetAddress odinAgentAddr) {
+			pings.countDown();
+		}
+
+		@Override
+		public void receiveProbe(InetAddress odinAgentAddr, MACAddress clientHwAddress, String ssid) {
+			try {
+				releaseProbes.await();
+			} catch (InterruptedException e) {
+				// test finished
+			}
+		}
+
+		@Override
+		public void receivePublish(MACAddress clientHwAddress, InetAddress odinAgentAddr, Map<Long, Long> subscriptionIds) {
+		}
+
+		@Override
+		public void receiveDetectedFlow(InetAddress odinAgentAddr, FlowTuple flow) {
+		}
+
+		@Override
+		public void receiveDeauth(InetAddress odinAgentAddr, MACAddress clientHwAddress) {
+			receiveAssoc(odinAgentAddr, clientHwAddress);
+		}
+
+		@Override
+		public void receiveAssoc(InetAddress odinAgentAddr, MACAddress clientHwAddress) {
+			try {
+				releaseAssocs.await();
+			} catch (InterruptedException e) {
+				// test finished
+			}
+			assocs.incrementAndGet();
+		}
+	}
+
+	private void send(String msg) throws Exception {
+		byte[] data = msg.getBytes("ISO-8859-1");
+		agentSocket.send(new DatagramPacket(data, data.length,
+				InetAddress.getByName("127.0.0.1"), server.getLocalPort()));
+	}
+
+	@Before
+	public void setup() throws Exception {
+		server = new OdinAgentProtocolServer(new BlockingListener(), 0, LANE_CAPACITY);
+		server.open();
+		Thread t = new Thread(server);
+		t.setDaemon(true);
+		t.start();
+		agentSocket = new DatagramSocket();
+	}
+
+	@After
+	public void teardown() throws Exception {
+		releaseProbes.countDown();
+		releaseAssocs.countDown();
+		agentSocket.close();
+	}
+
+	@Test
+	public void testProbeFloodDoesNotDelayPings() throws Exception {
+		for (int i = 0; i < 200; i++) {
+			send("probe " + MACAddress.valueOf(0x020000000000L + i) + " odin");
+
+			// Don't overrun the socket buffer, on a loaded machine
+			// the kernel would drop datagrams before we see them
+			if (i % 20 == 19)
+				Thread.sleep(1);
+		}
+
+		for (int i = 0; i < 10; i++) {
+			send("ping");
+		}
+
+		assertTrue(pings.await(5, TimeUnit.SECONDS));
+		assertEquals(server.getReceived(OdinAgentProtocolServer.LANE_PING), 10);
+		assertEquals(server.getDropped(OdinAgentProtocolServer.LANE_PING), 0);
+		assertTrue(server.getDropped(OdinAgentProtocolServer.LANE_PROBE) > 0);
+
+		// Nothing is lost silently
+		long probes = server.getReceived(OdinAgentProtocolServer.LANE_PROBE)
+				+ server.getDropped(OdinAgentProtocolServer.LANE_PROBE);
+		for (int i = 0; i < 500 && probes < 200; i++) {
+			Thread.sleep(10);
+			probes = server.getReceived(OdinAgentProtocolServer.LANE_PROBE)
+					+ server.getDropped(OdinAgentProtocolServer.LANE_PROBE);
+		}
+		assertEquals(probes, 200);
+	}
+
+	@Test
+	public void testAssociationsHaveRoomOfTheirOwn() throws Exception {
+		// Assoc lane: one worker, blocked in the listener, and its queue
+		final int room = 1 + LANE_CAPACITY * 8;
+
+		for (int i = 0; i < 100; i++) {
+			MACAddress client = MACAddress.valueOf(0x020000000000L + i);
+			send("probe " + client + " odin");
+			send((i % 2 == 0 ? "association " : "deauthentication ") + client);
+
+			if (i % 20 == 19)
+				Thread.sleep(1);
+		}
+
+		long accepted = 0;
+		for (int i = 0; i < 500 && accepted < 100; i++) {
+			Thread.sleep(10);
+			accepted = server.getReceived(OdinAgentProtocolServer.LANE_ASSOC);
+		}
+		assertEquals(accepted, 100);
+		assertEquals(server.getDropped(OdinAgentProtocolServer.LANE_ASSOC), 0);
+		assertTrue(server.getDropped(OdinAgentProtocolServer.LANE_PROBE) > 0);
+
+		// A flood is bounded, and the excess counted
+		for (int i = 100; i < 300; i++) {
+			send("association " + MACAddress.valueOf(0x020000000000L + i));
+		}
+		long dropped = 0;
+		for (int i = 0; i < 500 && dropped == 0; i++) {
+			Thread.sleep(10);
+			dropped = server.getDropped(OdinAgentProtocolServer.LANE_ASSOC);
+		}
+		Thread.sleep(100);
+		accepted = server.getReceived(OdinAgentProtocolServer.LANE_ASSOC);
+		assertTrue(dropped > 0);
+		assertTrue(accepted <= room);
+		assertTrue(accepted + server.getDropped(OdinAgentProtocolServer.LANE_ASSOC) <= 300);
+
+		// The ones that were queued are all handled once the listener catches up
+		releaseAssocs.countDown();
+		for (int i = 0; i < 500 && assocs.get() < server.getReceived(OdinAgentProtocolServer.LANE_ASSOC); i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(assocs.get(), server.getReceived(OdinAgentProtocolServer.LANE_ASSOC));
+	}
+}
@@ -0,0 +1,211 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.floodlightcontroller.util.MACAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OdinApplicationRuntimeTest {
+	private ScheduledExecutorService scheduler;
+	private PoolManager poolManager;
+	private OdinApplicationRuntime runtime;
+	private InetAddress agent1;
+	private InetAddress agent2;
+
+	/**
+	 * Event driven application that remembers what it was told,
+	 * and checks it is never run by two threads at once
+	 */
+	private static class RecordingApplication extends OdinApplication {
+		final List<String> events = new CopyOnWriteArrayList<String>();
+		final AtomicInteger running = new AtomicInteger();
+		volatile boolean overlapped = false;
+		volatile boolean started = false;
+
+		@Override
+		protected void start() {
+			started = true;
+		}
+
+		private void record(String event) {
+			if (running.incrementAndGet() > 1)
+				overlapped = true;
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+			}
+			events.add(event);
+			running.decrementAndGet();
+		}
+
+		@Override
+		protected void onClientAssociated(MACAddress clientHwAddress, InetAddress agentAddr) {
+			record("assoc " + clientHwAddress);
+		}
+
+		@Override
+		protected void onAgentLost(InetAddress agentAddr) {
+			record("lost " + agentAddr.getHostAddress());
+		}
+	}
+
+	private RecordingApplication startApplication(String pool) {
+		RecordingApplication app = new RecordingApplication();
+		app.setPool(pool);
+		runtime.startApplication(app);
+		return app;
+	}
+
+	private void waitFor(List<String> events, int count) throws Exception {
+		for (int i = 0; i < 500 && events.size() < count; i++) {
+			Thread.sleep(10);
+		}
+	}
+
+	@Before
+	public void setup() throws Exception {
+		scheduler = Executors.newScheduledThreadPool(4);
+		poolManager = new PoolManager();
+		runtime = new OdinApplicationRuntime(scheduler, poolManager);
+
+		agent1 = InetAddress.getByName("172.17.2.161");
+		agent2 = InetAddress.getByName("172.17.2.162");
+		poolManager.addPoolForAgent(agent1, "pool-1");
+		poolManager.addPoolForAgent(agent2, "pool-2");
+	}
+
+	@After
+	public void teardown() {
+		scheduler.shutdownNow();
+	}
+
+	@Test
+	public void testEventsGoToApplicationsOfThePool() throws Exception {
+		RecordingApplication app1 = startApplication("pool-1");
+		RecordingApplication app2 = startApplication("pool-2");
+		RecordingApplication global = startApplication(PoolManager.GLOBAL_POOL);
+
+		runtime.clientAssociated(MACAddress.valueOf("00:00:00:00:00:01"), agent1);
+		runtime.agentLost(agent2);
+
+		waitFor(global.events, 2);
+		waitFor(app1.events, 1);
+		waitFor(app2.events, 1);
+
+		assertTrue(app1.started);
+		assertEquals(app1.events, Collections.singletonList("assoc 00:00:00:00:00:01"));
+		assertEquals(app2.events, Collections.singletonList("lost 172.17.2.162"));
+		assertEquals(global.events.size(), 2);
+	}
+
+	@Test
+	public void testEventsOfAnApplicationDontOverlap() throws Exception {
+		RecordingApplication app = startApplication("pool-1");
+
+		for (int i = 0; i < 100; i++) {
+			runtime.clientAssociated(MACAddress.valueOf(i), agent1);
+		}
+		waitFor(app.events, 100);
+
+		assertEquals(app.events.size(), 100);
+		assertFalse(app.overlapped);
+
+		// And in the order they happened
+		assertEquals(app.events.get(0), "assoc 00:00:00:00:00:00");
+		assertEquals(app.events.get(99), "assoc " + MACAddress.valueOf(99));
+	}
+
+	@Test
+	public void testPeriodicTaskAndCancel() throws Exception {
+		RecordingApplication app = startApplication("pool-1");
+		final CountDownLatch runs = new CountDownLatch(3);
+		final AtomicInteger count = new AtomicInteger();
+
+		OdinApplicationTask task = runtime.schedule(app, new Runnable() {
+			@Override
+			public void run() {
+				count.incrementAndGet();
+				runs.countDown();
+			}
+		}, 0, 10);
+
+		assertTrue(runs.await(5, TimeUnit.SECONDS));
+		task.cancel();
+		assertTrue(task.isCancelled());
+
+		Thread.sleep(50);
+		int after = count.get();
+		Thread.sleep(100);
+		assertEquals(count.get(), after);
+	}
+
+	@Test
+	public void testBlockingApplicationGetsItsOwnThread() throws Exception {
+		final CountDownLatch running = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+
+		OdinApplication blocking = new OdinApplication() {
+			@Override
+			protected void start() {
+				runDedicated();
+			}
+
+			@Override
+			public void run() {
+				running.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		runtime.startApplication(blocking);
+		assertTrue(running.await(5, TimeUnit.SECONDS));
+
+		// The shared pool is still available to everybody else
+		RecordingApplication app = startApplication("pool-1");
+		runtime.clientAssociated(MACAddress.valueOf(1), agent1);
+		waitFor(app.events, 1);
+		assertEquals(app.events.size(), 1);
+
+		release.countDown();
+	}
+
+	@Test
+	public void testComputePoolIsSharedAndShutDown() throws Exception {
+		RecordingApplication app1 = startApplication("pool-1");
+		RecordingApplication app2 = startApplication("pool-2");
+
+		ExecutorService compute = app1.getComputeExecutor();
+		assertSame(compute, app2.getComputeExecutor());
+		assertTrue(app1.getComputeThreads() >= 1);
+		assertEquals(compute.submit(new Callable<String>() {
+			@Override
+			public String call() {
+				return Thread.currentThread().getName();
+			}
+		}).get(5, TimeUnit.SECONDS), "OdinApplicationCompute");
+
+		runtime.shutdown();
+		assertTrue(compute.awaitTermination(5, TimeUnit.SECONDS));
+		assertTrue(scheduler.isShutdown());
+	}
+}
@@ -4,14 +4,21 @@ import static org.easymock.EasyMock.expect;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.floodlightcontroller.core.IFloodlightProviderService;
 import net.floodlightcontroller.core.IOFSwitch;
@@ -83,8 +90,10 @@ public class OdinTest {
         EasyMock.replay(sw1);
         EasyMock.replay(ch);
 
-        // Update the switch map
+        // Update the switch map, and tell the agent manager like
+        // the provider does
         mockFloodlightProvider.getSwitches().put(id, sw1);
+        agentManager.switchAdded(sw1);
 
         // Let's try again
         agentManager.receivePing(InetAddress.getByName(ipAddress));
@@ -203,6 +212,7 @@ public class OdinTest {
         Map<Long, IOFSwitch> switches = new HashMap<Long, IOFSwitch>();
         switches.put(1L, sw1);
         mockFloodlightProvider.setSwitches(switches);
+        agentManager.switchAdded(sw1);
 
         // Let's try again
         agentManager.receivePing(InetAddress.getByName("127.0.0.1"));
@@ -214,6 +224,41 @@ public class OdinTest {
         agentManager.receivePing(InetAddress.getByName("172.17.5.63"));
         assertEquals(agentManager.getAgents().size(),1);
     }
+
+
+    /**
+     * An agent that pinged before its switch connected is
+     * registered by the switch, without another ping
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testAgentRegisteredBySwitch() throws Exception {
+    	poolManager.addPoolForAgent(InetAddress.getByName("172.17.2.161"), "pool-1");
+
+    	odinMaster.receivePing(InetAddress.getByName("172.17.2.161"));
+        assertEquals(agentManager.getAgents().size(),0);
+
+    	IOFSwitch sw1;
+    	sw1 = EasyMock.createNiceMock(IOFSwitch.class);
+    	InetSocketAddress sa= new InetSocketAddress("172.17.2.161", 12345);
+    	Channel ch = EasyMock.createMock(Channel.class);
+        expect(sw1.getChannel()).andReturn(ch).anyTimes();
+        expect(ch.getRemoteAddress()).andReturn((SocketAddress)sa).anyTimes();
+        EasyMock.replay(sw1);
+        EasyMock.replay(ch);
+
+        odinMaster.addedSwitch(sw1);
+        assertEquals(agentManager.getAgents().size(),1);
+        assertEquals(agentManager.getAgent(InetAddress.getByName("172.17.2.161")).getSwitch(), sw1);
+
+        odinMaster.removedSwitch(sw1);
+        assertEquals(agentManager.getAgents().size(),0);
+
+        // The switch is gone, pings wait for it again
+    	odinMaster.receivePing(InetAddress.getByName("172.17.2.161"));
+        assertEquals(agentManager.getAgents().size(),0);
+    }
     
     
     /**
@@ -1553,6 +1598,203 @@ public class OdinTest {
     	odinMaster.receivePublish(clientMacAddr, agentAddr, subscriptionIds);    	
     }
     
+    /**
+     * Drive thousands of stations through probe, association,
+     * event publication, handoff and deauthentication from
+     * several threads at once. Events of a single client must
+     * still be delivered in order, and the client, pool and
+     * agent views must agree once everything has settled.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testConcurrentClientStress() throws Exception {
+    	final int numAgents = 4;
+    	final int numThreads = 8;
+    	final int numStations = 4000;
+    	final int eventsPerStation = 6;
+    	
+    	final InetAddress[] agentAddrs = new InetAddress[numAgents];
+    	for (int i = 0; i < numAgents; i++) {
+    		agentAddrs[i] = InetAddress.getByName("172.17.3." + (i + 1));
+    		poolManager.addPoolForAgent(agentAddrs[i], "pool-1");
+    	}
+    	poolManager.addNetworkForPool("pool-1", "odin");
+    	
+    	// Agents must not time out while the test runs
+    	agentManager.setAgentTimeout(600000);
+    	for (int i = 0; i < numAgents; i++) {
+    		addAgentWithMockSwitch(agentAddrs[i].getHostAddress(), 12345);
+    	}
+    	
+    	// Every event hands the client off to the agent that reported it,
+    	// and checks that the values of a client never go backwards
+    	final ConcurrentHashMap<MACAddress, Long> lastValue = new ConcurrentHashMap<MACAddress, Long>();
+    	final AtomicInteger outOfOrder = new AtomicInteger();
+    	final AtomicInteger delivered = new AtomicInteger();
+    	
+    	OdinEventSubscription oes = new OdinEventSubscription();
+    	oes.setSubscription("*", "signal", Relation.GREATER_THAN, 180);
+    	odinMaster.registerSubscription("pool-1", oes, new NotificationCallback() {
+    		@Override
+    		public void exec(OdinEventSubscription oes, NotificationCallbackContext cntx) {
+    			Long prev = lastValue.put(cntx.clientHwAddress, cntx.value);
+    			if (prev != null && prev >= cntx.value)
+    				outOfOrder.incrementAndGet();
+    			delivered.incrementAndGet();
+    			odinMaster.handoffClientToAp("pool-1", cntx.clientHwAddress, cntx.agent.getIpAddress());
+    		}
+    	});
+    	
+    	final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+    	final CountDownLatch start = new CountDownLatch(1);
+    	List<Thread> threads = new ArrayList<Thread>();
+    	
+    	for (int t = 0; t < numThreads; t++) {
+    		final int offset = t;
+    		Thread thread = new Thread(new Runnable() {
+    			@Override
+    			public void run() {
+    				try {
+    					start.await();
+    					for (int i = offset; i < numStations; i += numThreads) {
+    						MACAddress sta = MACAddress.valueOf(0x020000000000L + i);
+    						
+    						odinMaster.receiveProbe(agentAddrs[i % numAgents], sta, "odin");
+    						odinMaster.receiveAssoc(agentAddrs[i % numAgents], sta);
+    						
+    						for (int e = 0; e < eventsPerStation; e++) {
+    							Map<Long, Long> subscriptionIds = new HashMap<Long, Long>();
+    							subscriptionIds.put(1L, 200L + e);
+    							odinMaster.receivePublish(sta, agentAddrs[(i + e) % numAgents], subscriptionIds);
+    						}
+    						
+    						// Every other station leaves again
+    						if (i % 2 == 1) {
+    							InetAddress last = agentAddrs[(i + eventsPerStation - 1) % numAgents];
+    							odinMaster.receiveDeauth(last, sta);
+    						}
+    					}
+    				} catch (Throwable e) {
+    					errors.add(e);
+    				}
+    			}
+    		});
+    		threads.add(thread);
+    		thread.start();
+    	}
+    	
+    	start.countDown();
+    	for (Thread thread: threads) {
+    		thread.join(60000);
+    	}
+    	
+    	assertEquals(errors.size(), 0);
+    	assertEquals(outOfOrder.get(), 0);
+    	assertEquals(delivered.get(), numStations * eventsPerStation);
+    	
+    	assertEquals(clientManager.getClients().size(), numStations / 2);
+    	assertEquals(poolManager.getClientsFromPool("pool-1").size(), numStations / 2);
+    	
+    	// The handoff pipeline runs on its own thread
+    	int lvaps = 0;
+    	for (int i = 0; i < 1000; i++) {
+    		lvaps = 0;
+    		for (InetAddress agentAddr: agentAddrs) {
+    			lvaps += agentManager.getAgent(agentAddr).getLvapsLocal().size();
+    		}
+    		if (lvaps == numStations / 2)
+    			break;
+    		Thread.sleep(10);
+    	}
+    	assertEquals(lvaps, numStations / 2);
+    	
+    	// Each remaining client sits at the agent that reported its last event
+    	for (int i = 0; i < numStations; i += 2) {
+    		OdinClient oc = clientManager.getClient(MACAddress.valueOf(0x020000000000L + i));
+    		assertNotNull(oc);
+    		assertEquals(oc.getLvap().getAgent().getIpAddress(), agentAddrs[(i + eventsPerStation - 1) % numAgents]);
+    	}
+    }
+    
+    /**
+     * Bulk queries should return one answer per live agent
+     * of the pool, and report agents that aren't tracked
+     * as failed instead of throwing.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testBulkAgentQuery() throws Exception {
+    	String ipAddress1 = "172.17.2.171";
+    	String ipAddress2 = "172.17.2.172";
+    	String ipAddress3 = "172.17.2.173";
+    	
+    	poolManager.addPoolForAgent(InetAddress.getByName(ipAddress1), "pool-1");
+		poolManager.addPoolForAgent(InetAddress.getByName(ipAddress2), "pool-1");
+		poolManager.addPoolForAgent(InetAddress.getByName(ipAddress3), "pool-1");
+		
+		addAgentWithMockSwitch(ipAddress1, 12345);
+		addAgentWithMockSwitch(ipAddress2, 12345);
+		// No agent comes up at ipAddress3
+		
+		AgentQueryResult<Integer> channels = odinMaster.getChannelFromAgents("pool-1", 1000);
+		assertEquals(channels.getResults().size(), 2);
+		assertNotNull(channels.get(InetAddress.getByName(ipAddress1)));
+		assertNotNull(channels.get(InetAddress.getByName(ipAddress2)));
+		assertEquals(channels.getTimedOut().size(), 0);
+		assertEquals(channels.getFailed().size(), 1);
+		assertEquals(channels.isComplete(), false);
+		
+		AgentQueryResult<Integer> txpowers = odinMaster.getTxPowerFromAgents("pool-2", 1000);
+		assertEquals(txpowers.getResults().size(), 0);
+		assertEquals(txpowers.isComplete(), true);
+    }
+
+    /**
+     * Agents that never reply are reported as timed out once the
+     * deadline of the whole round passes, without holding up the
+     * agents that did reply.
+     */
+    @Test
+    public void testBulkAgentQueryTimeout() throws Exception {
+    	String ipAddress1 = "172.17.2.171";
+    	String ipAddress2 = "172.17.2.172";
+    	String ipAddress3 = "172.17.2.173";
+    	InetAddress agentAddr2 = InetAddress.getByName(ipAddress2);
+    	InetAddress agentAddr3 = InetAddress.getByName(ipAddress3);
+
+    	poolManager.addPoolForAgent(InetAddress.getByName(ipAddress1), "pool-1");
+		poolManager.addPoolForAgent(agentAddr2, "pool-1");
+		poolManager.addPoolForAgent(agentAddr3, "pool-1");
+
+		addAgentWithMockSwitch(ipAddress1, 12345);
+		addAgentWithMockSwitch(ipAddress2, 12345);
+		addAgentWithMockSwitch(ipAddress3, 12345);
+
+		// Every agent answers a first round
+		AgentQueryResult<Integer> channels = odinMaster.getChannelFromAgents("pool-1", 1000);
+		assertEquals(channels.getResults().size(), 3);
+		assertEquals(channels.isComplete(), true);
+
+		// Then two of them hang
+		((StubOdinAgent) agentManager.getAgent(agentAddr2)).setSilent(true);
+		((StubOdinAgent) agentManager.getAgent(agentAddr3)).setSilent(true);
+
+		channels = odinMaster.getChannelFromAgents("pool-1", 300);
+		assertEquals(channels.getResults().size(), 1);
+		assertNotNull(channels.get(InetAddress.getByName(ipAddress1)));
+		assertNull(channels.get(agentAddr2));
+		assertNull(channels.get(agentAddr3));
+		assertEquals(channels.getTimedOut(), new HashSet<InetAddress>(Arrays.asList(agentAddr2, agentAddr3)));
+		assertEquals(channels.getFailed().size(), 0);
+		assertEquals(channels.isComplete(), false);
+
+		// One deadline for the round, not one per agent
+		assertTrue(channels.getElapsed() >= 300);
+		assertTrue(channels.getElapsed() < 600);
+    }
+    
     /**
      * - The client should always be assigned to the agent where it has
      *   the highest receiver signal strength
@@ -0,0 +1,150 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import net.floodlightcontroller.util.MACAddress;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StateJournalTest {
+	private File dir;
+	private ClientManager clientManager;
+	private PoolManager poolManager;
+	private StateJournal journal;
+	private StubOdinAgent agent;
+
+	private final MACAddress mac1 = MACAddress.valueOf("00:00:00:00:00:01");
+	private final MACAddress mac2 = MACAddress.valueOf("00:00:00:00:00:02");
+
+	/**
+	 * Start the master again: managers set up from the pool
+	 * file, then the state restored
+	 */
+	private Map<InetAddress, List<MACAddress>> restart() throws Exception {
+		if (journal != null)
+			journal.close();
+
+		clientManager = new ClientManager();
+		poolManager = new PoolManager();
+		poolManager.addPoolForAgent(agent.getIpAddress(), "pool-1");
+		poolManager.addNetworkForPool("pool-1", "odin");
+		poolManager.addNetworkForPool("pool-1", "odin-1");
+
+		journal = new StateJournal(dir);
+		return journal.restore(clientManager, poolManager, new LvapManager());
+	}
+
+	private OdinClient addClient(MACAddress mac, String ip) throws Exception {
+		Lvap lvap = new Lvap(poolManager.generateBssidForClient(mac), Arrays.asList("odin", "odin-1"));
+		OdinClient oc = new OdinClient(mac, InetAddress.getByName(ip), lvap);
+		clientManager.addClient(oc);
+		poolManager.mapClientToPool(oc, "pool-1");
+		return oc;
+	}
+
+	@Before
+	public void setup() throws Exception {
+		dir = File.createTempFile("odin-state", "");
+		dir.delete();
+		agent = new StubOdinAgent();
+		agent.init(InetAddress.getByName("172.17.2.161"));
+	}
+
+	@After
+	public void teardown() throws Exception {
+		journal.close();
+		for (File f: dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	@Test
+	public void testRestoreFromJournal() throws Exception {
+		assertTrue(restart().isEmpty());
+
+		OdinClient oc = addClient(mac1, "172.17.2.51");
+		oc.getLvap().setAgent(agent);
+		addClient(mac2, "172.17.2.52");
+		poolManager.removeClientPoolMapping(clientManager.getClient(mac2));
+		clientManager.removeClient(mac2);
+		poolManager.addNetworkForPool("pool-1", "odin-2");
+		poolManager.removeNetworkFromPool("pool-1", "odin-1");
+
+		Map<InetAddress, List<MACAddress>> byAgent = restart();
+
+		assertEquals(clientManager.getClients().size(), 1);
+		OdinClient restored = clientManager.getClient(mac1);
+		assertEquals(restored.getIpAddress(), InetAddress.getByName("172.17.2.51"));
+		assertEquals(restored.getLvap().getBssid(), oc.getLvap().getBssid());
+		assertEquals(restored.getLvap().getSsids(), Arrays.asList("odin", "odin-1"));
+		assertNull(restored.getLvap().getAgent());
+		assertEquals(poolManager.getPoolForClient(restored), "pool-1");
+		assertTrue(poolManager.getSsidListForPool("pool-1").contains("odin-2"));
+		assertFalse(poolManager.getSsidListForPool("pool-1").contains("odin-1"));
+		assertEquals(byAgent.get(agent.getIpAddress()), Arrays.asList(mac1));
+	}
+
+	@Test
+	public void testSnapshotThenJournal() throws Exception {
+		restart();
+		OdinClient oc = addClient(mac1, "172.17.2.51");
+		oc.getLvap().setAgent(agent);
+		poolManager.addNetworkForPool("pool-1", "odin-2");
+		long before = new File(dir, StateJournal.JOURNAL_FILE).length();
+
+		journal.snapshot();
+		assertEquals(new File(dir, StateJournal.JOURNAL_FILE).length(), 0);
+		assertFalse(new File(dir, StateJournal.OLD_JOURNAL_FILE).exists());
+		assertTrue(before > 0);
+
+		// After the snapshot
+		oc.setIpAddress(InetAddress.getByName("172.17.2.99"));
+		clientManager.clientUpdated(oc);
+		oc.getLvap().setAgent(null);
+		addClient(mac2, "172.17.2.52");
+
+		Map<InetAddress, List<MACAddress>> byAgent = restart();
+
+		assertEquals(clientManager.getClients().size(), 2);
+		assertEquals(clientManager.getClient(mac1).getIpAddress(), InetAddress.getByName("172.17.2.99"));
+		assertEquals(poolManager.getPoolForClient(clientManager.getClient(mac1)), "pool-1");
+		assertEquals(poolManager.getPoolForClient(clientManager.getClient(mac2)), "pool-1");
+		assertTrue(poolManager.getSsidListForPool("pool-1").contains("odin-2"));
+		assertTrue(byAgent.isEmpty());
+	}
+
+	@Test
+	public void testTornRecordIsCutOff() throws Exception {
+		restart();
+		addClient(mac1, "172.17.2.51");
+		long seq = journal.getSequence();
+		journal.close();
+
+		// A crash in the middle of a record
+		FileOutputStream out = new FileOutputStream(new File(dir, StateJournal.JOURNAL_FILE), true);
+		out.write(new byte[] {0, 0, 0, 40, 1, 2, 3, 4, 5});
+		out.close();
+
+		restart();
+		assertEquals(clientManager.getClients().size(), 1);
+		assertEquals(journal.getSequence(), seq);
+
+		// Records written after the torn one are read back
+		addClient(mac2, "172.17.2.52");
+		restart();
+		assertEquals(clientManager.getClients().size(), 2);
+	}
+}
@@ -0,0 +1,133 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import net.floodlightcontroller.util.MACAddress;
+
+import org.junit.Test;
+
+public class StationStatsTest {
+	private static final String STA = "00:1B:B3:aa:bb:cc packets:12 avg_rate:5400 avg_signal:-61.25 avg_len_pkt:1500 "
+			+ "air_time:0.75 first_received:1489661011.123 last_received:1489661012.5 equipment:STA";
+	private static final String AP = "00:1b:b3:aa:bb:dd packets:3 avg_rate:1000 avg_signal:-80 avg_len_pkt:60 "
+			+ "air_time:0.1 first_received:1 last_received:2 equipment:AP";
+	private static final String BEACONS = "00:1b:b3:aa:bb:ee packets:0 avg_rate:1000 avg_signal:-85 avg_len_pkt:60 "
+			+ "air_time:0 first_received:1 last_received:2 equipment:AP";
+
+	/**
+	 * The way the agents' statistics used to be parsed
+	 */
+	private static Map<MACAddress, Map<String, String>> split(String stats, int numProperties) {
+		Map<MACAddress, Map<String, String>> ret = new HashMap<MACAddress, Map<String, String>>();
+
+		for (String elem : stats.split("\n")) {
+			String row[] = elem.split(" ");
+
+			if (row.length != numProperties + 1) {
+				continue;
+			}
+
+			Map<String, String> innerMap = new HashMap<String, String>();
+			for (int i = 1; i < numProperties + 1; i += 1) {
+				innerMap.put(row[i].split(":")[0], row[i].split(":")[1]);
+			}
+			ret.put(MACAddress.valueOf(row[0].toLowerCase()), innerMap);
+		}
+
+		return ret;
+	}
+
+	@Test
+	public void testColumns() throws Exception {
+		StationStats stats = StationStats.parse(STA + "\n" + AP + "\n", 8, false);
+
+		assertEquals(stats.size(), 2);
+		assertEquals(stats.getStation(0), MACAddress.valueOf("00:1b:b3:aa:bb:cc"));
+		assertEquals(stats.getMac(1), MACAddress.valueOf("00:1b:b3:aa:bb:dd").toLong());
+
+		assertEquals(stats.getPackets(0), 12, 0);
+		assertEquals(stats.getAvgRate(0), 5400, 0);
+		assertEquals(stats.getAvgSignal(0), -61.25, 0);
+		assertEquals(stats.getAvgLenPkt(0), 1500, 0);
+		assertEquals(stats.getAirTime(0), 0.75, 0);
+		assertEquals(stats.getFirstReceived(0), 1489661011.123, 1e-6);
+		assertEquals(stats.getLastReceived(0), 1489661012.5, 0);
+		assertFalse(stats.isAccessPoint(0));
+		assertTrue(stats.isAccessPoint(1));
+
+		assertEquals(stats.indexOf(MACAddress.valueOf("00:1b:b3:aa:bb:dd")), 1);
+		assertEquals(stats.indexOf(MACAddress.valueOf("00:1b:b3:aa:bb:ff")), -1);
+	}
+
+	@Test
+	public void testSameMapAsSplit() throws Exception {
+		String text = STA + "\n" + AP + "\n" + BEACONS;
+
+		assertEquals(StationStats.parse(text, 8, false).toMap(), split(text, 8));
+
+		// Scans of a given SSID have 7 properties
+		String scan = "00:1b:b3:aa:bb:cc packets:1 avg_rate:1000 avg_signal:-70 avg_len_pkt:60 air_time:0.1 "
+				+ "first_received:1 last_received:2\n";
+		assertEquals(StationStats.parse(scan, 7, false).toMap(), split(scan, 7));
+	}
+
+	@Test
+	public void testSkipIdle() throws Exception {
+		String text = STA + "\n" + BEACONS + "\n";
+
+		assertEquals(StationStats.parse(text, 8, false).size(), 2);
+
+		StationStats stats = StationStats.parse(text, 8, true);
+		assertEquals(stats.size(), 1);
+		assertEquals(stats.getStation(0), MACAddress.valueOf("00:1b:b3:aa:bb:cc"));
+	}
+
+	@Test
+	public void testMalformedRows() throws Exception {
+		String text = "00:1b:b3:aa:bb packets:1\n"
+				+ "zz:1b:b3:aa:bb:cc packets:1\n"
+				+ "00:1b:b3:aa:bb:cc packets:1 avg_rate:2\n"
+				+ "00:1b:b3:aa:bb:cc packets:1\n"
+				+ "\n"
+				+ "00:1b:b3:aa:bb:dd packets:many\n";
+		StationStats stats = StationStats.parse(text, 1, false);
+
+		assertEquals(stats.size(), 2);
+		assertEquals(stats.getPackets(0), 1, 0);
+		assertTrue(Double.isNaN(stats.getAvgSignal(0)));
+		assertTrue(Double.isNaN(stats.getPackets(1)));
+		assertEquals(stats.toMap().get(MACAddress.valueOf("00:1b:b3:aa:bb:dd")),
+				Collections.singletonMap("packets", "many"));
+	}
+
+	@Test
+	public void testNothingRead() throws Exception {
+		assertEquals(StationStats.parse(null, 8, false).size(), 0);
+		assertEquals(StationStats.parse(null, 8, false).toMap(), Collections.emptyMap());
+		assertEquals(StationStats.EMPTY.size(), 0);
+	}
+
+	@Test
+	public void testManyStations() throws Exception {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			text.append(MACAddress.valueOf(i)).append(" packets:").append(i).append(" avg_signal:-").append(i)
+					.append(".5\n");
+		}
+		StationStats stats = StationStats.parse(text.toString(), 2, false);
+
+		assertEquals(stats.size(), 100);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(stats.getMac(i), i);
+			assertEquals(stats.getPackets(i), i, 0);
+			assertEquals(stats.getAvgSignal(i), -i - 0.5, 0);
+		}
+		assertEquals(stats.toMap(), split(text.toString(), 2));
+	}
+}
@@ -0,0 +1,171 @@
+package net.floodlightcontroller.odin.master;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import net.floodlightcontroller.odin.master.OdinEventSubscription.Relation;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SubscriptionManagerTest {
+	private PoolManager poolManager;
+	private SubscriptionManager subscriptionManager;
+	private final Map<InetAddress, IOdinAgent> agents = new HashMap<InetAddress, IOdinAgent>();
+	private final Map<InetAddress, List<String>> pushed = new HashMap<InetAddress, List<String>>();
+	private final List<Runnable> pendingPushes = new ArrayList<Runnable>();
+	private InetAddress agent1;
+	private InetAddress agent2;
+	private InetAddress agent3;
+
+	/**
+	 * Remembers every subscription list it is sent
+	 */
+	private class RecordingAgent extends StubOdinAgent {
+		private final InetAddress addr;
+
+		RecordingAgent(InetAddress addr) {
+			this.addr = addr;
+		}
+
+		@Override
+		public void setSubscriptions(String subscriptionList) {
+			pushed.get(addr).add(subscriptionList);
+		}
+	}
+
+	private void addAgent(InetAddress addr, String pool) {
+		poolManager.addPoolForAgent(addr, pool);
+		agents.put(addr, new RecordingAgent(addr));
+		pushed.put(addr, new ArrayList<String>());
+	}
+
+	private OdinEventSubscription subscription(String client, double value) {
+		OdinEventSubscription oes = new OdinEventSubscription();
+		oes.setSubscription(client, "signal", Relation.GREATER_THAN, value);
+		return oes;
+	}
+
+	private long add(String pool, OdinEventSubscription oes) {
+		long id = subscriptionManager.newSubscriptionId();
+		subscriptionManager.addSubscription(id, pool, oes);
+		return id;
+	}
+
+	private void runPublisher() {
+		List<Runnable> tasks = new ArrayList<Runnable>(pendingPushes);
+		pendingPushes.clear();
+		for (Runnable r: tasks) {
+			r.run();
+		}
+	}
+
+	@Before
+	public void setup() throws Exception {
+		poolManager = new PoolManager();
+		AgentManager agentManager = new AgentManager(new ClientManager(), poolManager) {
+			@Override
+			protected IOdinAgent getAgent(InetAddress agentInetAddr) {
+				return agents.get(agentInetAddr);
+			}
+
+			@Override
+			protected Map<InetAddress, IOdinAgent> getAgents() {
+				return Collections.unmodifiableMap(agents);
+			}
+		};
+
+		// Pushes only happen when the test says so
+		subscriptionManager = new SubscriptionManager(agentManager, poolManager, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				pendingPushes.add(command);
+			}
+		});
+
+		agent1 = InetAddress.getByName("172.17.2.161");
+		agent2 = InetAddress.getByName("172.17.2.162");
+		agent3 = InetAddress.getByName("172.17.2.163");
+		addAgent(agent1, "pool-1");
+		addAgent(agent2, "pool-1");
+		addAgent(agent3, "pool-2");
+
+		// Agents get an (empty) list as soon as they join
+		for (InetAddress addr: agents.keySet()) {
+			subscriptionManager.agentJoined(addr);
+		}
+		runPublisher();
+		for (InetAddress addr: agents.keySet()) {
+			assertEquals(pushed.get(addr), Collections.singletonList("0 "));
+			pushed.get(addr).clear();
+		}
+	}
+
+	@Test
+	public void testPushOnlyToAgentsOfThePool() throws Exception {
+		long id = add("pool-1", subscription("*", 180));
+		runPublisher();
+
+		String expected = "1 " + id + " 00:00:00:00:00:00 signal 1 180.0 ";
+		assertEquals(pushed.get(agent1), Collections.singletonList(expected));
+		assertEquals(pushed.get(agent2), Collections.singletonList(expected));
+		assertEquals(pushed.get(agent3).size(), 0);
+
+		// Global subscriptions go to everybody, after the pool's own
+		long globalId = add(PoolManager.GLOBAL_POOL, subscription("00:00:00:00:00:01", 10));
+		runPublisher();
+		assertEquals(pushed.get(agent1).get(1),
+				"2 " + id + " 00:00:00:00:00:00 signal 1 180.0 " + globalId + " 00:00:00:00:00:01 signal 1 10.0 ");
+		assertEquals(pushed.get(agent3).get(0), "1 " + globalId + " 00:00:00:00:00:01 signal 1 10.0 ");
+	}
+
+	@Test
+	public void testChangesAreCoalesced() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			add("pool-1", subscription("*", i));
+		}
+		long id = add("pool-2", subscription("*", 1));
+		subscriptionManager.removeSubscription(id);
+
+		// One push per agent, with everything in it
+		assertEquals(pendingPushes.size(), 3);
+		runPublisher();
+
+		assertEquals(pushed.get(agent1).size(), 1);
+		assertEquals(pushed.get(agent2).size(), 1);
+		assertEquals(pushed.get(agent1).get(0).split(" ")[0], "100");
+
+		// agent3 ended up where it started, so it is not bothered
+		assertEquals(pushed.get(agent3).size(), 0);
+	}
+
+	@Test
+	public void testRemoveAndRejoin() throws Exception {
+		long id1 = add("pool-1", subscription("*", 1));
+		long id2 = add("pool-1", subscription("*", 2));
+		runPublisher();
+
+		subscriptionManager.removeSubscription(id1);
+		runPublisher();
+		assertEquals(pushed.get(agent1).get(1), "1 " + id2 + " 00:00:00:00:00:00 signal 1 2.0 ");
+
+		// Unknown ids change nothing
+		assertFalse(subscriptionManager.removeSubscription(12345));
+		runPublisher();
+		assertEquals(pushed.get(agent1).size(), 2);
+
+		// A restarted agent needs its list again, even if it didn't change
+		subscriptionManager.agentJoined(agent1);
+		runPublisher();
+		assertEquals(pushed.get(agent1).size(), 3);
+		assertEquals(pushed.get(agent2).size(), 2);
+	}
+}
@@ -0,0 +1,128 @@
+package net.floodlightcontroller.perfmon;
+
+import static org.easymock.EasyMock.createNiceMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.core.IOFMessageListener;
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.util.LatencyHistogram;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class PktInProcessingTimeTest {
+    private PktInProcessingTime pits;
+    private IOFSwitch sw;
+
+    @Before
+    public void setUp() {
+        pits = new PktInProcessingTime();
+        pits.bootstrap(new ArrayList<IOFMessageListener>());
+        pits.setEnabled(true);
+        sw = createNiceMock(IOFSwitch.class);
+        expect(sw.getId()).andReturn(1L).anyTimes();
+        replay(sw);
+    }
+
+    @SuppressWarnings("unchecked")
+    private LatencyHistogram.Snapshot snapshot(String group, String key) {
+        Map<String, Object> stats = pits.getLatencies().getStatistics(300);
+        return ((Map<String, LatencyHistogram.Snapshot>) stats.get(group)).get(key);
+    }
+
+    private void process(IOFMessageListener listener, long sleepMs) throws Exception {
+        pits.recordStartTimePktIn();
+        pits.recordStartTimeComp(listener);
+        Thread.sleep(sleepMs);
+        pits.recordEndTimeComp(listener);
+        pits.recordEndTimePktIn(sw, null, null);
+    }
+
+    @Test
+    public void testThreadsDoNotShareStartTimes() throws Exception {
+        final IOFMessageListener listener = createNiceMock(IOFMessageListener.class);
+        replay(listener);
+        final int threads = 4;
+        final CountDownLatch done = new CountDownLatch(threads);
+
+        // Fast and slow packet-ins interleaved on different threads;
+        // with a shared start time, the fast ones would look slow
+        for (int t = 0; t < threads; t++) {
+            final long sleepMs = (t % 2 == 0) ? 0 : 50;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 5; i++) {
+                            process(listener, sleepMs);
+                        }
+                    } catch (Exception e) {
+                        // counted below
+                    }
+                    done.countDown();
+                }
+            }.start();
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        LatencyHistogram.Snapshot total =
+                (LatencyHistogram.Snapshot) pits.getLatencies().getStatistics(300).get("total");
+        assertEquals(20, total.getCount());
+        // Half of them took no time at all
+        assertTrue(total.getP50() < 40 * 1000000L);
+        assertTrue(total.getMax() >= 50 * 1000000L);
+
+        assertNotNull(snapshot("switches", "00:00:00:00:00:00:00:01"));
+        assertEquals(20, snapshot("modules", listener.getClass().getCanonicalName()).getCount());
+    }
+
+    @Test
+    public void testNestedPacketIn() throws Exception {
+        IOFMessageListener outer = createNiceMock(IOFMessageListener.class);
+        replay(outer);
+
+        pits.recordStartTimePktIn();
+        pits.recordStartTimeComp(outer);
+        Thread.sleep(20);
+        // The listener injects a packet-in handled on the same thread
+        pits.recordStartTimePktIn();
+        pits.recordEndTimePktIn(sw, null, null);
+        pits.recordEndTimeComp(outer);
+        pits.recordEndTimePktIn(sw, null, null);
+
+        LatencyHistogram.Snapshot total =
+                (LatencyHistogram.Snapshot) pits.getLatencies().getStatistics(300).get("total");
+        assertEquals(2, total.getCount());
+        assertTrue(total.getMax() >= 20 * 1000000L);
+        assertTrue(total.getP50() < 20 * 1000000L);
+    }
+
+    @Test
+    public void testDisabledMidPacketIn() throws Exception {
+        IOFMessageListener listener = createNiceMock(IOFMessageListener.class);
+        replay(listener);
+
+        pits.recordStartTimePktIn();
+        pits.setEnabled(false);
+        pits.recordEndTimePktIn(sw, null, null);
+        pits.setEnabled(true);
+        // No start time left over from the packet-in above
+        pits.recordEndTimePktIn(sw, null, null);
+
+        pits.getLatencies().reset();
+        process(listener, 0);
+        assertEquals(1, snapshot("modules", listener.getClass().getCanonicalName()).getCount());
+        assertEquals(Collections.singleton("00:00:00:00:00:00:00:01"),
+                     ((Map<?, ?>) pits.getLatencies().getStatistics(300).get("switches")).keySet());
+    }
+}
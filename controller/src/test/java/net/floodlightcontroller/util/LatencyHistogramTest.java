@@ -0,0 +1,56 @@
+package net.floodlightcontroller.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void testEmpty() throws Exception {
+		LatencyHistogram h = new LatencyHistogram();
+		assertEquals(h.getCount(), 0);
+		assertEquals(h.getPercentile(99), 0);
+		assertEquals(h.getMean(), 0, 0);
+	}
+
+	@Test
+	public void testBuckets() throws Exception {
+		long previous = -1;
+		for (long v = 0; v < 100000; v++) {
+			int b = LatencyHistogram.bucketOf(v);
+			assertTrue(LatencyHistogram.upperBound(b) >= v);
+			assertTrue(LatencyHistogram.upperBound(b) <= v + v / 8);
+			assertTrue(b == previous || b == previous + 1);
+			previous = b;
+		}
+		assertTrue(LatencyHistogram.upperBound(LatencyHistogram.bucketOf(Long.MAX_VALUE)) == Long.MAX_VALUE);
+	}
+
+	@Test
+	public void testPercentiles() throws Exception {
+		LatencyHistogram h = new LatencyHistogram();
+		for (long v = 1; v <= 1000; v++) {
+			h.record(v);
+		}
+		h.record(-5);
+
+		assertEquals(h.getCount(), 1001);
+		assertEquals(h.getMax(), 1000);
+		assertEquals(h.getMean(), 500500.0 / 1001, 1e-9);
+		assertEquals(h.getPercentile(0), 0);
+		assertEquals(h.getPercentile(100), 1000);
+
+		long p50 = h.getPercentile(50);
+		assertTrue(p50 >= 500 && p50 <= 500 + 500 / 8);
+		long p99 = h.getPercentile(99);
+		assertTrue(p99 >= 990 && p99 <= 1000);
+
+		LatencyHistogram.Snapshot s = h.getSnapshot();
+		assertEquals(s.getCount(), 1001);
+		assertEquals(s.getP50(), p50);
+		assertEquals(s.getP99(), p99);
+		assertEquals(s.getMax(), 1000);
+	}
+}
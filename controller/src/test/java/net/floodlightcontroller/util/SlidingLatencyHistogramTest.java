@@ -0,0 +1,60 @@
+package net.floodlightcontroller.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class SlidingLatencyHistogramTest {
+	private static final long SLOT_NS = 10000 * 1000000L;
+
+	@Test
+	public void testWindowSlides() throws Exception {
+		SlidingLatencyHistogram h = new SlidingLatencyHistogram(3, 10000, 0);
+		h.record(100, 0);
+		h.record(200, SLOT_NS);
+		h.record(300, 2 * SLOT_NS + 1);
+
+		assertEquals(h.getSnapshot(3, 2 * SLOT_NS).getCount(), 3);
+		assertEquals(h.getSnapshot(1, 2 * SLOT_NS).getCount(), 1);
+		assertEquals(h.getSnapshot(1, 2 * SLOT_NS).getMax(), 300);
+
+		// The first slot falls out of the window, and gets reused
+		assertEquals(h.getSnapshot(3, 3 * SLOT_NS).getCount(), 2);
+		h.record(400, 3 * SLOT_NS);
+		LatencyHistogram.Snapshot s = h.getSnapshot(3, 3 * SLOT_NS);
+		assertEquals(s.getCount(), 3);
+		assertEquals(s.getMax(), 400);
+		assertEquals(s.getMean(), 300, 0);
+
+		assertEquals(h.getSnapshot(3, 10 * SLOT_NS).getCount(), 0);
+	}
+
+	@Test
+	public void testMergeMatchesOneHistogram() throws Exception {
+		SlidingLatencyHistogram h = new SlidingLatencyHistogram(4, 10000, 0);
+		LatencyHistogram all = new LatencyHistogram();
+		for (long v = 1; v <= 4000; v++) {
+			h.record(v, (v % 4) * SLOT_NS);
+			all.record(v);
+		}
+
+		LatencyHistogram.Snapshot merged = h.getSnapshot(4, 3 * SLOT_NS);
+		LatencyHistogram.Snapshot expected = all.getSnapshot();
+		assertEquals(merged.getCount(), expected.getCount());
+		assertEquals(merged.getP50(), expected.getP50());
+		assertEquals(merged.getP99(), expected.getP99());
+		assertEquals(merged.getP999(), expected.getP999());
+		assertEquals(merged.getMax(), expected.getMax());
+		assertEquals(merged.getMean(), expected.getMean(), 1e-9);
+	}
+
+	@Test
+	public void testReset() throws Exception {
+		SlidingLatencyHistogram h = new SlidingLatencyHistogram(3, 10000, 0);
+		h.record(100, 0);
+		h.reset();
+		assertEquals(h.getSnapshot(3, 0).getCount(), 0);
+		h.record(100, 0);
+		assertEquals(h.getSnapshot(3, 0).getCount(), 1);
+	}
+}